@@ -0,0 +1,111 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import io.nayuki.git.BitmapIndex;
+import io.nayuki.git.CommitObject;
+import io.nayuki.git.FileRepository;
+import io.nayuki.git.GitObject;
+import io.nayuki.git.ObjectId;
+import io.nayuki.git.Reference;
+import io.nayuki.git.TagObject;
+import io.nayuki.git.TreeObject;
+
+
+/**
+ * Compares the time to count all objects reachable from the references of a repository by walking the objects
+ * versus by using a reachability bitmap. Writes a bitmap file for the largest pack file of the repository, so
+ * the repository should be fully packed first (e.g. with "git repack -a -d"). A bitmap written by Git is replaced.
+ */
+public final class BitmapBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		// Check command line arguments
+		if (args.length != 1) {
+			System.err.println("Usage: java BitmapBenchmark GitDirectory");
+			System.exit(1);
+			return;
+		}
+		
+		try (FileRepository repo = new FileRepository(new File(args[0]))) {
+			Set<ObjectId> tips = new HashSet<>();
+			for (Reference ref : repo.listReferences())
+				tips.add(ref.target);
+			System.out.printf("References: %d%n", tips.size());
+			
+			// Count by walking objects
+			long start = System.nanoTime();
+			int walkCount = countByWalking(repo, tips);
+			double walkTime = (System.nanoTime() - start) / 1e6;
+			System.out.printf("Walk: %d objects in %.2f ms%n", walkCount, walkTime);
+			
+			// Write a bitmap for the largest pack
+			File largest = null;
+			for (File f : repo.getPackFiles()) {
+				if (largest == null || f.length() > largest.length())
+					largest = f;
+			}
+			if (largest == null) {
+				System.err.println("Repository has no pack files");
+				System.exit(1);
+				return;
+			}
+			start = System.nanoTime();
+			repo.writeBitmapIndex(largest, tips);
+			double writeTime = (System.nanoTime() - start) / 1e6;
+			BitmapIndex bitmaps = repo.getBitmapIndex();
+			System.out.printf("Bitmap write: %d commits selected in %.2f ms%n", bitmaps.getBitmapCount(), writeTime);
+			
+			// Count with the bitmap, first with cold caches and then warm
+			for (int i = 0; i < 5; i++) {
+				start = System.nanoTime();
+				Map<String,Integer> counts = bitmaps.countReachableObjects(tips);
+				double time = (System.nanoTime() - start) / 1e6;
+				int total = 0;
+				for (int n : counts.values())
+					total += n;
+				System.out.printf("Bitmap count %d: %d objects %s in %.2f ms (%.1fx faster)%n",
+					i + 1, total, counts, time, walkTime / time);
+				if (total != walkCount)
+					throw new AssertionError("Count mismatch");
+			}
+		}
+	}
+	
+	
+	// Returns the number of objects reachable from the given tips, visiting every object.
+	private static int countByWalking(FileRepository repo, Set<ObjectId> tips) throws IOException {
+		Set<ObjectId> visited = new HashSet<>();
+		Queue<ObjectId> queue = new ArrayDeque<>(tips);
+		while (!queue.isEmpty()) {  // Breadth-first search
+			ObjectId id = queue.remove();
+			if (!visited.add(id))
+				continue;
+			GitObject obj = repo.readObject(id);
+			if (obj instanceof CommitObject commit) {
+				queue.add(commit.tree);
+				queue.addAll(commit.parents);
+			} else if (obj instanceof TreeObject tree) {
+				for (TreeObject.Entry entry : tree.entries) {
+					if (entry.type == TreeObject.Entry.Type.DIRECTORY)
+						queue.add(entry.id);
+					else
+						visited.add(entry.id);  // Blobs and symlinks need not be read
+				}
+			} else if (obj instanceof TagObject tag)
+				queue.add(tag.target);
+		}
+		return visited.size();
+	}
+	
+}
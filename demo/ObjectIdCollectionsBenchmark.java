@@ -0,0 +1,141 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import io.nayuki.git.ObjectId;
+import io.nayuki.git.ObjectIdIntMap;
+import io.nayuki.git.ObjectIdSet;
+import io.nayuki.git.RawId;
+
+
+/**
+ * Compares the time and memory of ObjectIdSet and ObjectIdIntMap against HashSet and HashMap, by adding random
+ * object IDs and then looking up each one plus as many absent ones. The IDs are stored in one byte array, so only
+ * the collections' own memory is measured; lookups in the JDK collections construct an ID object for each query,
+ * as code that reads IDs from pack indexes or trees must do, whereas the specialized ones look up the bytes in place.
+ * The default count is 10 million, which needs a maximum heap of about 4 GiB (e.g. "java -Xmx4g").
+ */
+public final class ObjectIdCollectionsBenchmark {
+	
+	public static void main(String[] args) {
+		// Check command line arguments
+		if (args.length > 1) {
+			System.err.println("Usage: java ObjectIdCollectionsBenchmark [Count]");
+			System.exit(1);
+			return;
+		}
+		int count = args.length == 1 ? Integer.parseInt(args[0]) : 10_000_000;
+		
+		// The first half are added; all are looked up
+		byte[] ids = new byte[count * 2 * ObjectId.NUM_BYTES];
+		new Random().nextBytes(ids);
+		System.out.printf("Entries: %d%n", count);
+		
+		for (int round = 0; round < 2; round++) {  // The first round warms up the JIT compiler
+			System.out.printf("Round %d%n", round + 1);
+			benchmarkHashSet(ids, count);
+			benchmarkObjectIdSet(ids, count);
+			benchmarkHashMap(ids, count);
+			benchmarkObjectIdIntMap(ids, count);
+		}
+	}
+	
+	
+	private static void benchmarkHashSet(byte[] ids, int count) {
+		long mem = usedMemory();
+		long start = System.nanoTime();
+		Set<ObjectId> set = new HashSet<>();
+		for (int i = 0; i < count; i++)
+			set.add(new RawId(ids, i * ObjectId.NUM_BYTES));
+		double addTime = (System.nanoTime() - start) / 1e6;
+		long used = usedMemory() - mem;
+		start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < count * 2; i++) {
+			if (set.contains(new RawId(ids, i * ObjectId.NUM_BYTES)))
+				found++;
+		}
+		print("HashSet<ObjectId>", addTime, (System.nanoTime() - start) / 1e6, used, count, found);
+	}
+	
+	
+	private static void benchmarkObjectIdSet(byte[] ids, int count) {
+		long mem = usedMemory();
+		long start = System.nanoTime();
+		ObjectIdSet set = new ObjectIdSet();
+		for (int i = 0; i < count; i++)
+			set.add(new RawId(ids, i * ObjectId.NUM_BYTES));
+		double addTime = (System.nanoTime() - start) / 1e6;
+		long used = usedMemory() - mem;
+		start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < count * 2; i++) {
+			if (set.contains(ids, i * ObjectId.NUM_BYTES))
+				found++;
+		}
+		print("ObjectIdSet", addTime, (System.nanoTime() - start) / 1e6, used, count, found);
+	}
+	
+	
+	private static void benchmarkHashMap(byte[] ids, int count) {
+		long mem = usedMemory();
+		long start = System.nanoTime();
+		Map<ObjectId,Integer> map = new HashMap<>();
+		for (int i = 0; i < count; i++)
+			map.put(new RawId(ids, i * ObjectId.NUM_BYTES), i);
+		double addTime = (System.nanoTime() - start) / 1e6;
+		long used = usedMemory() - mem;
+		start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < count * 2; i++) {
+			Integer val = map.get(new RawId(ids, i * ObjectId.NUM_BYTES));
+			if (val != null && val == i)
+				found++;
+		}
+		print("HashMap<ObjectId,Integer>", addTime, (System.nanoTime() - start) / 1e6, used, count, found);
+	}
+	
+	
+	private static void benchmarkObjectIdIntMap(byte[] ids, int count) {
+		long mem = usedMemory();
+		long start = System.nanoTime();
+		ObjectIdIntMap map = new ObjectIdIntMap();
+		for (int i = 0; i < count; i++)
+			map.put(new RawId(ids, i * ObjectId.NUM_BYTES), i);
+		double addTime = (System.nanoTime() - start) / 1e6;
+		long used = usedMemory() - mem;
+		start = System.nanoTime();
+		int found = 0;
+		for (int i = 0; i < count * 2; i++) {
+			if (map.get(ids, i * ObjectId.NUM_BYTES, -1) == i)
+				found++;
+		}
+		print("ObjectIdIntMap", addTime, (System.nanoTime() - start) / 1e6, used, count, found);
+	}
+	
+	
+	private static void print(String name, double addTime, double lookupTime, long bytes, int count, int found) {
+		if (found != count)
+			throw new AssertionError("Lookup mismatch");
+		System.out.printf("    %-26s add %8.1f ms, lookup %8.1f ms, %6.1f MiB (%.0f bytes per entry)%n",
+			name, addTime, lookupTime, bytes / 1048576.0, (double)bytes / count);
+	}
+	
+	
+	// Returns the number of bytes in use on the heap after garbage collection.
+	private static long usedMemory() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+	
+}
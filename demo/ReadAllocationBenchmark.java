@@ -0,0 +1,54 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import io.nayuki.git.FileRepository;
+import io.nayuki.git.ObjectId;
+
+
+/**
+ * Measures the time and the heap allocation of reading every object in a repository, one object at a time,
+ * as a history walk does. The delta base cache is disabled so that every delta chain is inflated in full,
+ * which stresses decompression. The allocation is measured on the reading thread, which requires a
+ * HotSpot-based JVM (for com.sun.management.ThreadMXBean). The first rounds warm up the JIT compiler.
+ */
+public final class ReadAllocationBenchmark {
+	
+	public static void main(String[] args) throws IOException {
+		// Check command line arguments
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: java ReadAllocationBenchmark GitDirectory [Rounds]");
+			System.exit(1);
+			return;
+		}
+		int rounds = args.length == 2 ? Integer.parseInt(args[1]) : 5;
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		
+		try (FileRepository repo = new FileRepository(new File(args[0]))) {
+			repo.getDeltaBaseCache().setMaxBytes(0);
+			List<ObjectId> ids = new ArrayList<>(repo.getIdsByPrefix(""));
+			System.out.printf("Objects: %d%n", ids.size());
+			
+			for (int i = 0; i < rounds; i++) {
+				long startAlloc = bean.getThreadAllocatedBytes(threadId);
+				long start = System.nanoTime();
+				for (ObjectId id : ids)
+					repo.readObject(id);
+				double time = (System.nanoTime() - start) / 1e6;
+				long alloc = bean.getThreadAllocatedBytes(threadId) - startAlloc;
+				System.out.printf("Round %d: %.1f ms (%.2f us per object), %.1f MB allocated (%.0f bytes per object)%n",
+					i + 1, time, time * 1000 / ids.size(), alloc / 1e6, (double)alloc / ids.size());
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,340 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Answers reachability queries for a {@link FileRepository} using the reachability bitmap file
+ * ("pack-*.bitmap") of one of its packs, as written by {@code git repack -b}. The file stores, for a
+ * selection of commits, the set of all objects reachable from each commit as a bit set over the pack's
+ * objects in pack file order. A query ORs together the stored bit sets of the commits it encounters, and walks
+ * objects only on the frontier that no stored bit set covers, such as commits made after the last repack.
+ * Objects outside the pack are walked normally, so results always cover the whole repository.
+ * <p>The file is memory-mapped when this object is constructed, and each stored bit set is decompressed
+ * when first needed and then kept in memory. Only version 1 files are supported. This class is thread-safe.</p>
+ * @see FileRepository#getBitmapIndex()
+ */
+public final class BitmapIndex {
+	
+	/*---- Fields ----*/
+	
+	private final File file;
+	
+	// The pack that the bit positions refer to.
+	private final PackfileReader pack;
+	
+	// For walking objects that have no stored bit set.
+	private final FileRepository repository;
+	
+	// The entire file, mapped read-only. Only absolute get methods are used on it.
+	private final ByteBuffer data;
+	
+	// The sets of commits, trees, blobs, and tags in the pack, in that order.
+	private final BitSet[] typeBitmaps;
+	
+	// Maps each commit that has a stored bit set to its entry number.
+	private final ObjectIdIntMap commitEntries;
+	
+	// For each entry, the file offset of its compressed bit set, and the
+	// distance back to the entry it is XORed with (0 if none).
+	private final int[] entryOffsets;
+	private final int[] xorOffsets;
+	
+	// The decompressed bit set of each entry, or null if not decompressed yet.
+	private final BitSet[] entryBitmaps;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Reads the given bitmap file of the given pack. Called by PackfileReader.getBitmapIndex().
+	BitmapIndex(File file, PackfileReader pack, FileRepository repo) throws IOException {
+		this.file = Objects.requireNonNull(file);
+		this.pack = Objects.requireNonNull(pack);
+		repository = Objects.requireNonNull(repo);
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				throw new GitFormatException("Bitmap file too large");
+			data = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		
+		// Check file header
+		if (data.capacity() < HEADER_LEN + ObjectId.NUM_BYTES)
+			throw new GitFormatException("Bitmap file too short");
+		if (data.getInt(0) != MAGIC)
+			throw new GitFormatException("Bitmap header expected");
+		if (data.getShort(4) != 1)
+			throw new GitFormatException("Bitmap version 1 expected");
+		if ((data.getShort(6) & OPT_FULL_DAG) == 0)
+			throw new GitFormatException("Bitmap file does not cover full history");
+		int numEntries = data.getInt(8);
+		byte[] checksum = new byte[ObjectId.NUM_BYTES];
+		data.get(12, checksum);
+		if (!Arrays.equals(checksum, pack.getPackChecksum()))
+			throw new GitFormatException("Bitmap file does not match pack");
+		if (numEntries < 0 || numEntries > pack.getObjectCount())
+			throw new GitFormatException("Invalid bitmap entry count");
+		
+		// Read type bitmaps
+		int pos = HEADER_LEN;
+		typeBitmaps = new BitSet[4];
+		for (int i = 0; i < typeBitmaps.length; i++) {
+			Object[] temp = Ewah.decode(data, pos);
+			typeBitmaps[i] = (BitSet)temp[0];
+			pos += (Integer)temp[1];
+		}
+		
+		// Read commit entries, but not their bit sets yet
+		int end = data.capacity() - ObjectId.NUM_BYTES;
+		commitEntries = new ObjectIdIntMap();
+		entryOffsets = new int[numEntries];
+		xorOffsets = new int[numEntries];
+		entryBitmaps = new BitSet[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			if (end - pos < 6 + 12)
+				throw new GitFormatException("Bitmap file too short");
+			int position = data.getInt(pos);
+			if (position < 0 || position >= pack.getObjectCount())
+				throw new GitFormatException("Invalid bitmap commit position");
+			int xor = data.get(pos + 4) & 0xFF;
+			if (xor > i)
+				throw new GitFormatException("Invalid bitmap XOR offset");
+			xorOffsets[i] = xor;
+			entryOffsets[i] = pos + 6;
+			commitEntries.put(pack.getObjectId(position), i);
+			long next = pos + 6 + 12 + (data.getInt(pos + 6 + 4) & 0xFFFFFFFFL) * 8;
+			if (next > end)
+				throw new GitFormatException("Bitmap file too short");
+			pos = (int)next;
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the bitmap file that this index was read from.
+	 * @return the bitmap file (not {@code null})
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	
+	/**
+	 * Returns the number of commits that have a stored set of reachable objects in the bitmap file.
+	 * @return the number of commits with a stored bit set, at least 0
+	 */
+	public int getBitmapCount() {
+		return entryOffsets.length;
+	}
+	
+	
+	/**
+	 * Returns a new set of the IDs of all objects reachable from the specified objects, including those objects.
+	 * Tags are followed to their targets, commits to their trees and parents, and trees to their entries.
+	 * @param tips the objects to start from, which can have any type (not {@code null})
+	 * @return a new set of the IDs of the reachable objects (not {@code null})
+	 * @throws NullPointerException if the collection or any element is {@code null}
+	 * @throws IllegalArgumentException if a reachable object was not found in the repository
+	 * @throws IllegalStateException if the repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public ObjectIdSet getReachableObjects(Collection<? extends ObjectId> tips) throws IOException {
+		Object[] temp = walk(tips, pack, repository, this::getCommitBitmap);
+		BitSet inPack = (BitSet)temp[0];
+		ObjectIdMap<?> others = (ObjectIdMap<?>)temp[1];
+		ObjectIdSet result = new ObjectIdSet(inPack.cardinality() + others.size());
+		others.forEach((id, type) -> result.add(id));
+		for (int i = inPack.nextSetBit(0); i != -1; i = inPack.nextSetBit(i + 1))
+			result.add(pack.getObjectIdAtPackPosition(i));
+		return result;
+	}
+	
+	
+	/**
+	 * Counts the objects reachable from the specified objects by type, without listing them.
+	 * The returned map has the keys "commit", "tree", "blob", and "tag", in that order.
+	 * The total of the counts is the size of the set returned by {@link #getReachableObjects(Collection)}.
+	 * @param tips the objects to start from, which can have any type (not {@code null})
+	 * @return a new map of object type names to the number of reachable objects of that type (not {@code null})
+	 * @throws NullPointerException if the collection or any element is {@code null}
+	 * @throws IllegalArgumentException if a reachable object was not found in the repository
+	 * @throws IllegalStateException if the repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public Map<String,Integer> countReachableObjects(Collection<? extends ObjectId> tips) throws IOException {
+		Object[] temp = walk(tips, pack, repository, this::getCommitBitmap);
+		BitSet inPack = (BitSet)temp[0];
+		@SuppressWarnings("unchecked")
+		ObjectIdMap<String> others = (ObjectIdMap<String>)temp[1];
+		Map<String,Integer> result = new LinkedHashMap<>();
+		for (int i = 0; i < TYPE_NAMES.length; i++) {
+			BitSet bits = (BitSet)inPack.clone();
+			bits.and(typeBitmaps[i]);
+			result.put(TYPE_NAMES[i], bits.cardinality());
+		}
+		others.forEach((id, type) -> result.merge(type, 1, Integer::sum));
+		return result;
+	}
+	
+	
+	/**
+	 * Tests whether the specified object is reachable from any of the specified objects. For example, this tests
+	 * whether a commit is part of the history of a branch, or whether a blob is in any revision of it.
+	 * @param target the object to look for (not {@code null})
+	 * @param tips the objects to start from, which can have any type (not {@code null})
+	 * @return whether the target is one of the tips or reachable from them
+	 * @throws NullPointerException if the target, collection, or any element is {@code null}
+	 * @throws IllegalArgumentException if a reachable object was not found in the repository
+	 * @throws IllegalStateException if the repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public boolean isReachable(ObjectId target, Collection<? extends ObjectId> tips) throws IOException {
+		Objects.requireNonNull(target);
+		Object[] temp = walk(tips, pack, repository, this::getCommitBitmap);
+		int position = pack.findPackPosition(target);
+		if (position != -1)
+			return ((BitSet)temp[0]).get(position);
+		else
+			return ((ObjectIdMap<?>)temp[1]).containsKey(target);
+	}
+	
+	
+	
+	/*---- Helper methods ----*/
+	
+	// Marks all objects reachable from the given tips, and returns the pair (BitSet inPack, ObjectIdMap<String> others),
+	// where the bit set is indexed by position in the given pack and the map has the reachable objects outside the pack
+	// with their types. Commits that the given source has a bit set for are not walked. Also used by BitmapIndexWriter.
+	static Object[] walk(Collection<? extends ObjectId> tips, PackfileReader pack,
+			FileRepository repo, CommitBitmaps bitmaps) throws IOException {
+		BitSet inPack = new BitSet(pack.getObjectCount());
+		ObjectIdMap<String> others = new ObjectIdMap<>();
+		
+		// Each stack item is the pair (ObjectId id, String type), where the type is null if not known yet
+		Deque<Object[]> stack = new ArrayDeque<>();
+		for (ObjectId id : tips)
+			stack.push(new Object[]{Objects.requireNonNull(id), null});
+		
+		while (!stack.isEmpty()) {
+			Object[] item = stack.pop();
+			ObjectId id = (ObjectId)item[0];
+			String type = (String)item[1];
+			
+			// Mark the object, or skip it if already marked
+			int position = pack.findPackPosition(id);
+			if (position != -1) {
+				if (inPack.get(position))
+					continue;
+				BitSet bits = bitmaps.get(id);
+				if (bits != null) {  // Covers the whole history of this commit
+					inPack.or(bits);
+					continue;
+				}
+				inPack.set(position);
+			} else if (others.containsKey(id))
+				continue;
+			if (type == null)
+				type = repo.readObjectInfo(id).type;
+			if (position == -1)
+				others.put(id, type);
+			
+			// Push the objects that this object refers to
+			switch (type) {
+				case "commit" -> {
+					CommitObject obj = (CommitObject)repo.readObject(id);
+					stack.push(new Object[]{obj.tree, "tree"});
+					for (CommitId parent : obj.parents)
+						stack.push(new Object[]{parent, "commit"});
+				}
+				case "tree" -> {
+					for (TreeObject.Entry entry : ((TreeObject)repo.readObject(id)).entries)
+						stack.push(new Object[]{entry.id, entry.type == TreeObject.Entry.Type.DIRECTORY ? "tree" : "blob"});
+				}
+				case "tag" -> {
+					TagObject obj = (TagObject)repo.readObject(id);
+					stack.push(new Object[]{obj.target, obj.targetType});
+				}
+				case "blob" -> {}
+				default -> throw new GitFormatException("Unknown object type: " + type);
+			}
+		}
+		return new Object[]{inPack, others};
+	}
+	
+	
+	// Returns the stored set of objects reachable from the given commit, or null if it has none.
+	// The caller must not modify the returned bit set.
+	private BitSet getCommitBitmap(ObjectId id) throws GitFormatException {
+		int entry = commitEntries.get(id, -1);
+		return entry != -1 ? getEntryBitmap(entry) : null;
+	}
+	
+	
+	// Returns the bit set of the given entry, decompressing it and its chain of XOR bases as needed.
+	// Synchronized because it fills in the cache; the returned bit sets are never modified afterward.
+	private synchronized BitSet getEntryBitmap(int entry) throws GitFormatException {
+		// Find the chain of entries back to one that is decompressed or not XORed
+		Deque<Integer> chain = new ArrayDeque<>();
+		for (int i = entry; entryBitmaps[i] == null; i -= xorOffsets[i]) {
+			chain.push(i);
+			if (xorOffsets[i] == 0)
+				break;
+		}
+		// Decompress forward along the chain
+		while (!chain.isEmpty()) {
+			int i = chain.pop();
+			BitSet bits = (BitSet)Ewah.decode(data, entryOffsets[i])[0];
+			if (xorOffsets[i] != 0)
+				bits.xor(entryBitmaps[i - xorOffsets[i]]);
+			entryBitmaps[i] = bits;
+		}
+		return entryBitmaps[entry];
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	static final int MAGIC = 0x4249544D;  // "BITM"
+	static final int HEADER_LEN = 12 + ObjectId.NUM_BYTES;
+	static final int OPT_FULL_DAG = 0x1;
+	
+	// In the order of the type bitmaps in the file.
+	static final String[] TYPE_NAMES = {"commit", "tree", "blob", "tag"};
+	
+	
+	
+	/*---- Helper interface ----*/
+	
+	// Supplies the stored bit sets of commits to walk().
+	interface CommitBitmaps {
+		
+		// Returns the set of objects reachable from the given commit, or null if there is none.
+		public BitSet get(ObjectId commit) throws IOException;
+		
+	}
+	
+}
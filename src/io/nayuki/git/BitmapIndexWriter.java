@@ -0,0 +1,191 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+
+
+/**
+ * Writes version 1 reachability bitmap files. A helper class for
+ * {@link PackfileReader}; not instantiable.
+ * @see BitmapIndex
+ */
+final class BitmapIndexWriter {
+	
+	// Writes a bitmap file for the given pack. The selected commits are the tips (after following tags) and a sample of
+	// their history, which is dense for recent commits and sparser for older ones, using the same spacing as Git. For each
+	// selected commit, the set of reachable objects is computed by walking from it until reaching selected ancestors,
+	// whose sets are reused. Each set is stored XORed with whichever of the preceding few sets makes it compress best.
+	// Throws IllegalArgumentException if the pack doesn't contain every object reachable from the tips.
+	public static void write(File file, PackfileReader pack, FileRepository repo, Collection<? extends ObjectId> tips) throws IOException {
+		// Classify every object in the pack by type
+		int numObjects = pack.getObjectCount();
+		BitSet[] typeBitmaps = new BitSet[BitmapIndex.TYPE_NAMES.length];
+		for (int i = 0; i < typeBitmaps.length; i++)
+			typeBitmaps[i] = new BitSet(numObjects);
+		for (int i = 0; i < numObjects; i++) {
+			String type = pack.readObjectInfo(pack.getDataOffsetAtPackPosition(i), 0).type;
+			int j = Arrays.asList(BitmapIndex.TYPE_NAMES).indexOf(type);
+			if (j == -1)
+				throw new GitFormatException("Unknown object type: " + type);
+			typeBitmaps[j].set(i);
+		}
+		
+		// Find the commits that the tips refer to
+		ObjectIdSet tipCommits = new ObjectIdSet();
+		for (ObjectId id : tips) {
+			GitObject obj = repo.readObject(id);
+			while (obj instanceof TagObject tag)
+				obj = repo.readObject(tag.target);
+			if (obj instanceof CommitObject commit)
+				tipCommits.add(commit.getId());
+		}
+		
+		// Read the parents and times of all reachable commits, and sort the commits topologically (ancestors first)
+		ObjectIdMap<List<CommitId>> parents = new ObjectIdMap<>();
+		ObjectIdMap<Long> times = new ObjectIdMap<>();
+		List<ObjectId> topoOrder = new ArrayList<>();
+		{
+			ObjectIdSet done = new ObjectIdSet();
+			Deque<ObjectId> stack = new ArrayDeque<>(tipCommits);
+			while (!stack.isEmpty()) {
+				ObjectId id = stack.pop();
+				if (done.contains(id))
+					continue;
+				List<CommitId> ps = parents.get(id);
+				if (ps == null) {  // First visit: read the commit, then revisit it after its parents
+					if (!pack.containsObject(id))
+						throw new IllegalArgumentException("Pack does not contain all objects reachable from the tips");
+					CommitObject obj = (CommitObject)repo.readObject(id);
+					parents.put(id, obj.parents);
+					times.put(id, obj.committerTime);
+					stack.push(id);
+					for (CommitId parent : obj.parents) {
+						if (!done.contains(parent))
+							stack.push(parent);
+					}
+				} else {
+					for (CommitId parent : ps) {
+						if (!done.contains(parent))
+							throw new GitFormatException("Cycle in commit graph");
+					}
+					done.add(id);
+					topoOrder.add(id);
+				}
+			}
+		}
+		
+		// Select commits, newest first
+		ObjectIdSet selected = new ObjectIdSet();
+		selected.addAll(tipCommits);
+		{
+			List<ObjectId> byTime = new ArrayList<>(topoOrder);
+			byTime.sort(Comparator.comparing((ObjectId id) -> times.get(id)).reversed().thenComparing(Comparator.naturalOrder()));
+			for (int i = 0; i < byTime.size(); i += 1 + getSelectionGap(i))
+				selected.add(byTime.get(i));
+		}
+		
+		// Compute reachable sets, ancestors first, and choose how to store each one. Finished sets are kept only in
+		// compressed form for the walks of descendants, except that the last few are kept whole as XOR candidates.
+		List<Object[]> entries = new ArrayList<>();  // Triples (ObjectId commit, byte[] storedBits, Integer xorOffset)
+		ObjectIdMap<byte[]> reachable = new ObjectIdMap<>();
+		Deque<BitSet> recent = new ArrayDeque<>();  // Newest first
+		for (ObjectId id : topoOrder) {
+			if (!selected.contains(id))
+				continue;
+			Object[] temp = BitmapIndex.walk(List.of(id), pack, repo, commit -> {
+				byte[] encoded = reachable.get(commit);
+				return encoded != null ? (BitSet)Ewah.decode(ByteBuffer.wrap(encoded), 0)[0] : null;
+			});
+			if (((ObjectIdMap<?>)temp[1]).size() > 0)
+				throw new IllegalArgumentException("Pack does not contain all objects reachable from the tips");
+			BitSet bits = (BitSet)temp[0];
+			byte[] encoded = Ewah.encode(bits);
+			byte[] best = encoded;
+			int bestXor = 0;
+			int j = 1;
+			for (BitSet other : recent) {
+				BitSet diff = (BitSet)bits.clone();
+				diff.xor(other);
+				byte[] enc = Ewah.encode(diff);
+				if (enc.length < best.length) {
+					best = enc;
+					bestXor = j;
+				}
+				j++;
+			}
+			entries.add(new Object[]{id, best, bestXor});
+			reachable.put(id, encoded);
+			recent.addFirst(bits);
+			if (recent.size() > MAX_XOR_SEARCH)
+				recent.removeLast();
+		}
+		
+		// Write the file
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)), hasher))) {
+			out.writeInt(BitmapIndex.MAGIC);
+			out.writeShort(1);  // Version
+			out.writeShort(BitmapIndex.OPT_FULL_DAG);
+			out.writeInt(entries.size());
+			out.write(pack.getPackChecksum());
+			for (BitSet bits : typeBitmaps)
+				out.write(Ewah.encode(bits));
+			for (Object[] entry : entries) {
+				out.writeInt(pack.findObjectIndex((ObjectId)entry[0]));
+				out.writeByte((Integer)entry[2]);
+				out.writeByte(0);  // Flags
+				out.write((byte[])entry[1]);
+			}
+			out.write(hasher.digest());
+		}
+	}
+	
+	
+	// Returns the number of commits to skip after selecting the one at the given index in the list of
+	// commits sorted newest first. This is the same as Git's rule: every commit among the 100 newest,
+	// then gaps increasing to 100 commits until the 20000th commit, then gaps increasing to 5000 commits.
+	private static int getSelectionGap(int index) {
+		if (index <= 100)
+			return 0;
+		else if (index <= 20000)
+			return Math.min(index - 100, 100);
+		else
+			return Math.max(Math.min(index - 20000, 5000), 100);
+	}
+	
+	
+	// The number of preceding entries to try as the XOR base for each entry.
+	private static final int MAX_XOR_SEARCH = 10;
+	
+	
+	private BitmapIndexWriter() {}
+	
+}
@@ -63,13 +63,15 @@ public final class BlobObject extends GitObject {
 	
 	
 	/**
-	 * Returns the hash ID of the current state of this blob object.
+	 * Returns the hash ID of the current state of this blob object. Unlike the other
+	 * object types, the ID is not memoized, because the data array can be modified in place.
 	 * @return the hash ID of this blob object (not {@code null})
 	 * @throws IllegalStateException if this object has invalid field values
 	 * that prevent it from being serialized (see {@link #toBytes()})
 	 */
 	public BlobId getId() {
-		return new BlobId(getSha1Hash(toBytes()));
+		checkState();
+		return new BlobId(getSha1Hash("blob", data));  // Avoids copying the data with a header
 	}
 	
 	
@@ -8,20 +8,34 @@
 package io.nayuki.git;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 
 /**
  * A graph commits, which tracks parent and child relationships. Mutable and not thread-safe.
+ * <p>The graph also computes the generation number (topological level) of each commit, and its corrected commit
+ * date if the commit times of it and all its ancestors are known. Both strictly increase from parent to child, so
+ * ancestry queries such as {@link #isAncestor(CommitId, CommitId)} stop walking at commits that are too old to
+ * matter instead of visiting the whole history. These values are cached, and the cache is discarded when
+ * adding a commit that was previously unexplored, because that can change the values of its descendants.</p>
  * @see CommitId
  * @see CommitObject
  * @see Repository
@@ -33,6 +47,14 @@ public final class CommitGraph {
 	private Map<CommitId,Set<CommitId>> idToParents;
 	private Map<CommitId,Set<CommitId>> idToChildren;
 	
+	// The committer time of each added commit, in Unix epoch seconds.
+	private Map<CommitId,Long> idToTime;
+	
+	// Caches of computed values, which are cleared when an unexplored commit is added.
+	// A corrected date is NO_DATE if the time of the commit or of an ancestor is unknown.
+	private Map<CommitId,Integer> generations;
+	private Map<CommitId,Long> correctedDates;
+	
 	
 	
 	/*---- Constructors ----*/
@@ -43,6 +65,9 @@ public final class CommitGraph {
 	public CommitGraph() {
 		idToParents  = new HashMap<>();
 		idToChildren = new HashMap<>();
+		idToTime = new HashMap<>();
+		generations = new HashMap<>();
+		correctedDates = new HashMap<>();
 	}
 	
 	
@@ -88,12 +113,23 @@ public final class CommitGraph {
 	
 	// Adds the given commit ID and object (which must match each other) to this graph's database.
 	private void addCommit(CommitId id, CommitObject obj) {
+		addCommit(id, obj.parents, obj.committerTime);
+	}
+	
+	
+	// Adds the given commit ID, its parents, and its committer time to this graph's database.
+	private void addCommit(CommitId id, Collection<CommitId> parents, long time) {
 		if (idToParents.containsKey(id))
 			return;
-		idToParents.put(id, new HashSet<>(obj.parents));
+		idToParents.put(id, new HashSet<>(parents));
+		idToTime.put(id, time);
 		if (!idToChildren.containsKey(id))
 			idToChildren.put(id, new HashSet<CommitId>());
-		for (CommitId parent : obj.parents) {
+		else if (!idToChildren.get(id).isEmpty()) {  // Was unexplored, so cached values of descendants are stale
+			generations.clear();
+			correctedDates.clear();
+		}
+		for (CommitId parent : parents) {
 			if (!idToChildren.containsKey(parent))
 				idToChildren.put(parent, new HashSet<CommitId>());
 			idToChildren.get(parent).add(id);
@@ -122,6 +158,10 @@ public final class CommitGraph {
 	/**
 	 * Reads the commit objects with the specified IDs and their entire past history
 	 * from the repository, and adds all of this data to this graph's database.
+	 * <p>If the repository is a {@link FileRepository} that has a commit-graph file written by Git
+	 * ("objects/info/commit-graph" or a split chain in "objects/info/commit-graphs"), then the parents of
+	 * the commits that the file covers are read from it without reading or verifying the commit objects,
+	 * which is much faster. Only commits not covered by the file are read as objects.</p>
 	 * @param repo the repository to read from (not {@code null})
 	 * @param startIds zero or more commit IDs whose histories
 	 * to query (collection not {@code null} and no element {@code null})
@@ -133,6 +173,10 @@ public final class CommitGraph {
 	public void addHistory(Repository repo, Collection<CommitId> startIds) throws IOException {
 		Objects.requireNonNull(repo);
 		Objects.requireNonNull(startIds);
+		CommitGraphFile file = null;
+		if (repo instanceof FileRepository frepo)
+			file = frepo.readCommitGraphFile();
+		
 		Queue<CommitId> queue = new ArrayDeque<>();
 		Set<CommitId> visited = new HashSet<>();
 		queue.addAll(startIds);
@@ -140,12 +184,145 @@ public final class CommitGraph {
 			CommitId id = queue.remove();
 			if (!visited.add(id))
 				continue;
-			CommitObject obj = id.read(repo);
-			if (obj == null)
-				throw new IllegalArgumentException("Commit object with the given ID not found in repository");
+			int position = file != null ? file.findPosition(id) : -1;
+			if (position != -1) {
+				List<CommitId> parents = getParents(file, position);
+				addCommit(id, parents, file.getCommitTime(position));
+				queue.addAll(parents);
+				continue;
+			}
+			CommitObject obj = readCommit(repo, id);
 			addCommit(id, obj);
 			queue.addAll(obj.parents);
 		}
+		checkAcyclic(startIds);
+	}
+	
+	
+	/**
+	 * Reads the commit objects with the specified IDs and their entire past history from the repository,
+	 * reading and parsing commit objects concurrently on the specified executor, and adds all of this
+	 * data to this graph's database. The resulting graph is identical to that of
+	 * {@link #addHistory(Repository, Collection)}, including the use of a commit-graph file.
+	 * <p>Each commit is submitted to the executor as soon as it is first seen as a parent, so the number of
+	 * concurrent reads is bounded by the width of the history (a long linear history gains nothing). The
+	 * results are merged into this graph only by the calling thread, after all reads have completed. Any
+	 * executor can be used, such as a fixed thread pool or a virtual-thread-per-task executor; this method
+	 * doesn't shut it down. The repository must support concurrent calls to {@link Repository#readObject(ObjectId)},
+	 * as {@link FileRepository} does. If an exception is thrown, then this graph is unchanged (unless the exception
+	 * is for a cycle in a corrupt commit-graph file), and reads that haven't started are cancelled.</p>
+	 * @param repo the repository to read from (not {@code null})
+	 * @param startIds zero or more commit IDs whose histories
+	 * to query (collection not {@code null} and no element {@code null})
+	 * @param executor the executor to run the reads on (not {@code null})
+	 * @throws NullPointerException if the repository, any commit ID, or the executor is {@code null}
+	 * @throws IllegalArgumentException if a commit ID in the
+	 * specified list or in the history was not found in the repository
+	 * @throws java.util.concurrent.RejectedExecutionException if the executor rejects a read
+	 * @throws InterruptedIOException if the calling thread was interrupted while waiting for reads
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	@SuppressWarnings("unchecked")
+	public void addHistory(Repository repo, Collection<CommitId> startIds, Executor executor) throws IOException {
+		Objects.requireNonNull(repo);
+		Objects.requireNonNull(startIds);
+		Objects.requireNonNull(executor);
+		CommitGraphFile file = null;
+		if (repo instanceof FileRepository frepo)
+			file = frepo.readCommitGraphFile();
+		
+		// Find the parents and time of every commit in the history. Each value is {List<CommitId> parents,
+		// Long time}, or null while the read is in progress. Only this thread accesses these variables.
+		Map<CommitId,Object[]> commits = new HashMap<>();
+		Queue<CommitId> discovered = new ArrayDeque<>(startIds);
+		CompletionService<Object[]> service = new ExecutorCompletionService<>(executor);
+		// Only the reads in progress, because a completed future holds its parsed commit until it is dropped
+		Set<Future<Object[]>> pending = new HashSet<>();
+		try {
+			while (true) {
+				while (!discovered.isEmpty()) {
+					CommitId id = discovered.remove();
+					if (commits.containsKey(id))
+						continue;
+					int position = file != null ? file.findPosition(id) : -1;
+					if (position != -1) {
+						List<CommitId> parents = getParents(file, position);
+						commits.put(id, new Object[]{parents, file.getCommitTime(position)});
+						discovered.addAll(parents);
+					} else {
+						commits.put(id, null);
+						pending.add(service.submit(() -> new Object[]{id, readCommit(repo, id)}));
+					}
+				}
+				if (pending.isEmpty())
+					break;
+				
+				Future<Object[]> future = service.take();
+				pending.remove(future);
+				Object[] result = future.get();
+				CommitObject obj = (CommitObject)result[1];
+				commits.put((CommitId)result[0], new Object[]{obj.parents, obj.committerTime});
+				discovered.addAll(obj.parents);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading commits");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException ex)
+				throw ex;
+			if (cause instanceof RuntimeException ex)
+				throw ex;
+			if (cause instanceof Error ex)
+				throw ex;
+			throw new AssertionError(cause);
+		} finally {
+			// No-op on success. Doesn't interrupt running reads, because that would close pack file channels.
+			for (Future<Object[]> f : pending)
+				f.cancel(false);
+		}
+		
+		// Add the commits in the same order as the sequential method
+		Queue<CommitId> queue = new ArrayDeque<>(startIds);
+		Set<CommitId> visited = new HashSet<>();
+		while (!queue.isEmpty()) {
+			CommitId id = queue.remove();
+			if (!visited.add(id))
+				continue;
+			Object[] entry = commits.get(id);
+			List<CommitId> parents = (List<CommitId>)entry[0];
+			addCommit(id, parents, (Long)entry[1]);
+			queue.addAll(parents);
+		}
+		checkAcyclic(startIds);
+	}
+	
+	
+	// Returns a new list of the parent IDs of the commit at the given position in the given commit-graph file.
+	private static List<CommitId> getParents(CommitGraphFile file, int position) throws GitFormatException {
+		List<CommitId> result = new ArrayList<>();
+		for (int pos : file.getParentPositions(position))
+			result.add(file.getCommitId(pos));
+		return result;
+	}
+	
+	
+	// Throws an exception if the parents of a commit in the history of the given commits form a cycle, which only
+	// a corrupt commit-graph file can cause. This also computes the cached values, so the check can't be missed.
+	private void checkAcyclic(Collection<CommitId> startIds) throws GitFormatException {
+		for (CommitId id : startIds) {
+			if (!computeCachedValues(id))
+				throw new GitFormatException("Cycle in commit graph");
+		}
+	}
+	
+	
+	// Reads the commit with the given ID from the given repository, throwing an exception if it is absent.
+	private static CommitObject readCommit(Repository repo, CommitId id) throws IOException {
+		CommitObject obj = id.read(repo);
+		if (obj == null)
+			throw new IllegalArgumentException("Commit object with the given ID not found in repository");
+		return obj;
 	}
 	
 	
@@ -254,4 +431,287 @@ public final class CommitGraph {
 		return result;
 	}
 	
+	
+	/* Methods to query ancestry */
+	
+	/**
+	 * Returns the generation number of the specified commit, which is 1 for a commit with no known parents,
+	 * and otherwise 1 more than the maximum generation number of its parents. Unexplored commits have no known
+	 * parents, so the value can increase when more of the history is added. If commit A is a proper ancestor of
+	 * commit B, then the generation number of A is less than that of B.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return the generation number of the commit (at least 1)
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 * @throws IllegalArgumentException if the commit ID is not in this graph
+	 */
+	public int getGeneration(CommitId id) {
+		checkInGraph(id);
+		if (!computeCachedValues(id))  // Only after addHistory() threw an exception for the cycle
+			throw new IllegalStateException("Cycle in commit graph");
+		return generations.get(id);
+	}
+	
+	
+	/**
+	 * Returns the corrected commit date of the specified commit, or {@link #NO_DATE} if the commit is unexplored
+	 * or has an unexplored ancestor. The corrected date is the maximum of the commit's committer time and
+	 * 1 more than the corrected dates of its parents, so unlike the committer time it is always greater than
+	 * the corrected date of any proper ancestor, even if the clocks that made the commits were skewed.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return the corrected commit date in Unix epoch seconds, or {@link #NO_DATE}
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 * @throws IllegalArgumentException if the commit ID is not in this graph
+	 */
+	public long getCorrectedCommitDate(CommitId id) {
+		checkInGraph(id);
+		if (!computeCachedValues(id))  // Only after addHistory() threw an exception for the cycle
+			throw new IllegalStateException("Cycle in commit graph");
+		return correctedDates.get(id);
+	}
+	
+	
+	/**
+	 * Tests whether the first commit is an ancestor of the second commit, based on the commits
+	 * added to this graph. A commit is considered to be an ancestor of itself. The search walks
+	 * back from the descendant and skips commits whose generation number or corrected
+	 * date is less than or equal to that of the ancestor, except for the ancestor itself.
+	 * @param ancestor the possible ancestor to test (not {@code null})
+	 * @param descendant the possible descendant to test (not {@code null})
+	 * @return whether the first commit is reachable from the second by following parents
+	 * @throws NullPointerException if either commit ID is {@code null}
+	 * @throws IllegalArgumentException if either commit ID is not in this graph
+	 */
+	public boolean isAncestor(CommitId ancestor, CommitId descendant) {
+		checkInGraph(ancestor);
+		checkInGraph(descendant);
+		int minGen = getGeneration(ancestor);
+		long minDate = getCorrectedCommitDate(ancestor);
+		
+		Queue<CommitId> queue = new ArrayDeque<>();
+		Set<CommitId> visited = new HashSet<>();
+		queue.add(descendant);
+		visited.add(descendant);
+		while (!queue.isEmpty()) {
+			CommitId id = queue.remove();
+			if (id.equals(ancestor))
+				return true;
+			if (isTooOld(id, minGen + 1, minDate == NO_DATE ? NO_DATE : minDate + 1))
+				continue;
+			Set<CommitId> parents = idToParents.get(id);
+			if (parents != null) {
+				for (CommitId parent : parents) {
+					if (visited.add(parent))
+						queue.add(parent);
+				}
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Returns the best common ancestors of the two specified commits, based on the commits added to this graph.
+	 * These are the common ancestors that are not an ancestor of any other common ancestor; there is usually
+	 * one, none if the histories are unrelated, and sometimes more after criss-cross merges. This gives the same
+	 * result as {@code git merge-base --all}. The search visits commits in decreasing generation order and stops
+	 * as soon as every remaining commit is known to be an ancestor of a common ancestor already found.
+	 * @param a a commit to query (not {@code null})
+	 * @param b the other commit to query (not {@code null})
+	 * @return a new set of the best common ancestors (not {@code null})
+	 * @throws NullPointerException if either commit ID is {@code null}
+	 * @throws IllegalArgumentException if either commit ID is not in this graph
+	 */
+	public Set<CommitId> mergeBases(CommitId a, CommitId b) {
+		checkInGraph(a);
+		checkInGraph(b);
+		Map<CommitId,Integer> flags = new HashMap<>();
+		PriorityQueue<CommitId> queue = new PriorityQueue<>(this::compareNewestFirst);
+		int numActive = 0;  // Number of queued commits that are not stale
+		numActive += addFlags(a, FROM_A, flags, queue);
+		numActive += addFlags(b, FROM_B, flags, queue);
+		
+		// Every commit is queued at most once, and its flags are final when it is polled because
+		// all its children have greater generation numbers and are therefore polled before it
+		Set<CommitId> result = new HashSet<>();
+		while (numActive > 0) {
+			CommitId id = queue.remove();
+			int f = flags.get(id);
+			if ((f & STALE) == 0) {
+				numActive--;
+				if ((f & (FROM_A | FROM_B)) == (FROM_A | FROM_B)) {
+					result.add(id);
+					f |= STALE;  // Ancestors of a common ancestor are not best
+				}
+			}
+			Set<CommitId> parents = idToParents.get(id);
+			if (parents != null) {
+				for (CommitId parent : parents)
+					numActive += addFlags(parent, f, flags, queue);
+			}
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the commits among the specified ones that are not an ancestor of another one of them, based on
+	 * the commits added to this graph. This gives the same result as {@code git merge-base --independent}.
+	 * The search walks back from all the commits together and skips commits whose generation number
+	 * or corrected date is less than the least among the specified commits.
+	 * @param ids the commits to query (not {@code null}, and no element {@code null})
+	 * @return a new set of the specified commits that are not reachable from the others (not {@code null})
+	 * @throws NullPointerException if the collection or any commit ID is {@code null}
+	 * @throws IllegalArgumentException if any commit ID is not in this graph
+	 */
+	public Set<CommitId> independent(Collection<CommitId> ids) {
+		Objects.requireNonNull(ids);
+		Set<CommitId> result = new HashSet<>();
+		int minGen = Integer.MAX_VALUE;
+		long minDate = Long.MAX_VALUE;
+		for (CommitId id : ids) {
+			checkInGraph(id);
+			result.add(id);
+			minGen = Math.min(getGeneration(id), minGen);
+			long date = getCorrectedCommitDate(id);
+			minDate = minDate == NO_DATE || date == NO_DATE ? NO_DATE : Math.min(date, minDate);
+		}
+		
+		// Walk from the parents of all the commits, removing every commit that is reached
+		Queue<CommitId> queue = new ArrayDeque<>();
+		Set<CommitId> visited = new HashSet<>();
+		for (CommitId id : result) {
+			Set<CommitId> parents = idToParents.get(id);
+			if (parents != null) {
+				for (CommitId parent : parents) {
+					if (visited.add(parent))
+						queue.add(parent);
+				}
+			}
+		}
+		while (!queue.isEmpty()) {
+			CommitId id = queue.remove();
+			if (isTooOld(id, minGen, minDate))
+				continue;
+			result.remove(id);
+			Set<CommitId> parents = idToParents.get(id);
+			if (parents != null) {
+				for (CommitId parent : parents) {
+					if (visited.add(parent))
+						queue.add(parent);
+				}
+			}
+		}
+		return result;
+	}
+	
+	
+	/* Private helper methods */
+	
+	// Throws an exception if the given commit ID is neither added nor a parent of an added commit.
+	private void checkInGraph(CommitId id) {
+		Objects.requireNonNull(id);
+		if (!idToChildren.containsKey(id))
+			throw new IllegalArgumentException("Commit ID not in graph");
+	}
+	
+	
+	// Adds the given flags to the given commit for mergeBases(), queueing the commit if it had no flags before.
+	// Returns the resulting change in the number of queued commits that are not stale.
+	private static int addFlags(CommitId id, int f, Map<CommitId,Integer> flags, Queue<CommitId> queue) {
+		int oldFlags = flags.getOrDefault(id, 0);
+		int newFlags = oldFlags | f;
+		if (newFlags == oldFlags)
+			return 0;
+		flags.put(id, newFlags);
+		if (oldFlags == 0) {
+			queue.add(id);
+			return (newFlags & STALE) == 0 ? 1 : 0;
+		} else
+			return (oldFlags & STALE) == 0 && (newFlags & STALE) != 0 ? -1 : 0;
+	}
+	
+	
+	// Tests whether the given commit is known to be unable to reach any commit whose generation number is
+	// at least minGen or whose corrected date is at least minDate (which can be NO_DATE to ignore dates).
+	private boolean isTooOld(CommitId id, int minGen, long minDate) {
+		if (getGeneration(id) < minGen)
+			return true;
+		long date = getCorrectedCommitDate(id);
+		return minDate != NO_DATE && date != NO_DATE && date < minDate;
+	}
+	
+	
+	// Orders commits by decreasing generation number, then decreasing corrected date, then ID.
+	private int compareNewestFirst(CommitId x, CommitId y) {
+		int result = Integer.compare(getGeneration(y), getGeneration(x));
+		if (result == 0)
+			result = Long.compare(getCorrectedCommitDate(y), getCorrectedCommitDate(x));
+		if (result == 0)
+			result = x.compareTo(y);
+		return result;
+	}
+	
+	
+	// Computes the generation numbers and corrected dates of the given commit and its ancestors that aren't cached.
+	// This uses an explicit stack instead of recursion because histories can be much deeper than the call stack.
+	// Returns false if the parents form a cycle, which only a corrupt commit-graph file can cause.
+	private boolean computeCachedValues(CommitId start) {
+		if (generations.containsKey(start))
+			return true;
+		List<CommitId> stack = new ArrayList<>();
+		Set<CommitId> waiting = new HashSet<>();  // Visited commits whose parents are on the stack above them
+		stack.add(start);
+		while (!stack.isEmpty()) {
+			CommitId id = stack.get(stack.size() - 1);
+			if (generations.containsKey(id)) {
+				stack.remove(stack.size() - 1);
+				continue;
+			}
+			Set<CommitId> parents = idToParents.get(id);
+			if (parents == null) {  // Unexplored
+				generations.put(id, 1);
+				correctedDates.put(id, NO_DATE);
+				stack.remove(stack.size() - 1);
+				continue;
+			}
+			
+			waiting.add(id);
+			boolean ready = true;
+			for (CommitId parent : parents) {
+				if (waiting.contains(parent) && !generations.containsKey(parent))  // Waiting commits are all descendants of this one
+					return false;
+				if (!generations.containsKey(parent)) {
+					stack.add(parent);
+					ready = false;
+				}
+			}
+			if (!ready)
+				continue;
+			
+			int gen = 0;
+			long date = idToTime.get(id);
+			for (CommitId parent : parents) {
+				gen = Math.max(generations.get(parent), gen);
+				long d = correctedDates.get(parent);
+				date = date == NO_DATE || d == NO_DATE ? NO_DATE : Math.max(d + 1, date);
+			}
+			generations.put(id, gen + 1);
+			correctedDates.put(id, date);
+			stack.remove(stack.size() - 1);
+		}
+		return true;
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	/**
+	 * The value returned by {@link #getCorrectedCommitDate(CommitId)} when the corrected date is unknown.
+	 */
+	public static final long NO_DATE = Long.MIN_VALUE;
+	
+	// Flags for mergeBases().
+	private static final int FROM_A = 1, FROM_B = 2, STALE = 4;
+	
 }
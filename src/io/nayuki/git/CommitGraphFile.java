@@ -0,0 +1,401 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Reads Git's commit-graph file ("objects/info/commit-graph") or chain of split commit-graph files
+ * ("objects/info/commit-graphs/commit-graph-chain"), which store the parents, root tree, commit time,
+ * and generation number of many commits in sorted tables. A helper class for {@link CommitGraph}.
+ * Each file is memory-mapped once when this object is constructed, and lookups are answered
+ * by binary search over the mapped data. Only version 1 files with SHA-1 hashes are supported.
+ * <p>Commits are identified by their position: the layers of a chain are concatenated with the
+ * base layer first, and each layer is sorted by ID. Parent positions can refer to lower layers.</p>
+ */
+final class CommitGraphFile {
+	
+	/*---- Fields ----*/
+	
+	// The layers, base first. A single commit-graph file is one layer.
+	private final Layer[] layers;
+	
+	// layerStarts[i] is the position of the first commit of layers[i]; the last element is the total number of commits.
+	private final int[] layerStarts;
+	
+	// Whether the layers were read from a chain file rather than a single commit-graph file.
+	private final boolean isChain;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Reads the commit-graph files in the given objects directory, or returns null if there are none.
+	// If there is both a chain and a single file, then the chain is used, like Git does.
+	public static CommitGraphFile open(File objectsDir) throws IOException {
+		File infoDir = new File(objectsDir, "info");
+		File chainFile = new File(new File(infoDir, CHAIN_DIR_NAME), CHAIN_FILE_NAME);
+		List<File> files = new ArrayList<>();
+		if (chainFile.isFile()) {
+			for (String line : Files.readAllLines(chainFile.toPath(), StandardCharsets.US_ASCII)) {
+				if (!line.matches("[0-9a-f]{40}"))
+					throw new GitFormatException("Invalid commit-graph chain file");
+				files.add(new File(chainFile.getParentFile(), "graph-" + line + ".graph"));
+			}
+		} else {
+			File single = new File(infoDir, FILE_NAME);
+			if (single.isFile())
+				files.add(single);
+		}
+		return !files.isEmpty() ? new CommitGraphFile(files, chainFile.isFile()) : null;
+	}
+	
+	
+	// Reads the given files, which form a chain with the base layer first.
+	private CommitGraphFile(List<File> files, boolean isChain) throws IOException {
+		this.isChain = isChain;
+		layers = new Layer[files.size()];
+		layerStarts = new int[layers.length + 1];
+		for (int i = 0; i < layers.length; i++) {
+			layers[i] = new Layer(files.get(i), i, layerStarts[i]);
+			long end = (long)layerStarts[i] + layers[i].count;
+			if (end > Integer.MAX_VALUE)
+				throw new GitFormatException("Too many commits");
+			layerStarts[i + 1] = (int)end;
+			
+			// Check that the layer names its base layers correctly
+			byte[][] bases = layers[i].baseHashes;
+			for (int j = 0; j < i; j++) {
+				if (!Arrays.equals(bases[j], layers[j].checksum))
+					throw new GitFormatException("Commit-graph chain does not match base layers");
+			}
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	// Returns the total number of commits in all layers.
+	public int getCommitCount() {
+		return layerStarts[layers.length];
+	}
+	
+	
+	// Returns the position of the given commit, or -1 if no layer contains it.
+	public int findPosition(ObjectId id) {
+		for (int i = layers.length - 1; i >= 0; i--) {
+			int index = layers[i].findIndex(id);
+			if (index != -1)
+				return layerStarts[i] + index;
+		}
+		return -1;
+	}
+	
+	
+	// Returns the ID of the commit at the given position.
+	public CommitId getCommitId(int position) {
+		Layer layer = getLayer(position);
+		return new CommitId(layer.data, layer.idsStart + (position - layer.start) * ObjectId.NUM_BYTES);
+	}
+	
+	
+	// Returns the root tree ID of the commit at the given position.
+	public TreeId getTreeId(int position) {
+		Layer layer = getLayer(position);
+		return new TreeId(layer.data, layer.getDataOffset(position));
+	}
+	
+	
+	// Returns a new array of the positions of the parents of the commit at the given position, in order.
+	public int[] getParentPositions(int position) throws GitFormatException {
+		Layer layer = getLayer(position);
+		int off = layer.getDataOffset(position) + ObjectId.NUM_BYTES;
+		int first = layer.data.getInt(off);
+		int second = layer.data.getInt(off + 4);
+		if (first == NO_PARENT)
+			return new int[0];
+		int level = getTopologicalLevel(position);
+		checkParent(first, layer, level);
+		if (second == NO_PARENT)
+			return new int[]{first};
+		if (second >= 0) {
+			checkParent(second, layer, level);
+			return new int[]{first, second};
+		}
+		
+		// Octopus merge: the remaining parents are in the extra edge list
+		int[] result = new int[8];
+		result[0] = first;
+		int n = 1;
+		for (int i = second & 0x7FFFFFFF; ; i++) {
+			if (layer.edgesStart == -1 || i >= layer.numEdges)
+				throw new GitFormatException("Invalid extra edge index");
+			int edge = layer.data.getInt(layer.edgesStart + i * 4);
+			if (n == result.length)
+				result = Arrays.copyOf(result, n * 2);
+			result[n] = edge & 0x7FFFFFFF;
+			checkParent(result[n], layer, level);
+			n++;
+			if (edge < 0)  // Last edge
+				break;
+		}
+		return Arrays.copyOf(result, n);
+	}
+	
+	
+	// Returns the commit time (seconds since the Unix epoch) of the commit at the given position.
+	public long getCommitTime(int position) {
+		Layer layer = getLayer(position);
+		int off = layer.getDataOffset(position) + ObjectId.NUM_BYTES + 8;
+		return (layer.data.getInt(off) & 3L) << 32 | (layer.data.getInt(off + 4) & 0xFFFFFFFFL);
+	}
+	
+	
+	// Returns the topological level (generation number version 1) of the commit at the given position,
+	// which is 1 for a root commit and otherwise 1 plus the maximum of its parents' levels.
+	// Returns 0 if the file doesn't record it.
+	public int getTopologicalLevel(int position) {
+		Layer layer = getLayer(position);
+		return layer.data.getInt(layer.getDataOffset(position) + ObjectId.NUM_BYTES + 8) >>> 2;
+	}
+	
+	
+	// Tests whether the layers were read from a split commit-graph chain.
+	public boolean isChain() {
+		return isChain;
+	}
+	
+	
+	public int getLayerCount() {
+		return layers.length;
+	}
+	
+	
+	// Returns the position of the first commit of the given layer, or the total number of commits if the index equals the layer count.
+	public int getLayerStart(int index) {
+		return layerStarts[index];
+	}
+	
+	
+	public File getLayerFile(int index) {
+		return layers[index].file;
+	}
+	
+	
+	// Returns the 20-byte checksum in the trailer of the given layer's file, which names the file in a chain.
+	public byte[] getLayerChecksum(int index) {
+		return layers[index].checksum.clone();
+	}
+	
+	
+	private Layer getLayer(int position) {
+		Objects.checkIndex(position, getCommitCount());
+		int i = layers.length - 1;
+		while (position < layerStarts[i] || position >= layerStarts[i + 1])
+			i--;
+		return layers[i];
+	}
+	
+	
+	// Checks that the given parent position is valid for a commit in the given layer with the given
+	// topological level, which means it is in the same layer or a lower one, and that the parent has a lower
+	// level. The level check rules out cycles, which would make graph computations loop forever. It is
+	// skipped when the file doesn't record the child's level or the level is capped.
+	private void checkParent(int parent, Layer layer, int level) throws GitFormatException {
+		if (parent < 0 || parent >= layer.start + layer.count)
+			throw new GitFormatException("Invalid parent position");
+		if (level != 0 && level != MAX_LEVEL && getTopologicalLevel(parent) >= level)
+			throw new GitFormatException("Cycle in commit graph");
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	static final String FILE_NAME = "commit-graph";
+	static final String CHAIN_DIR_NAME = "commit-graphs";
+	static final String CHAIN_FILE_NAME = "commit-graph-chain";
+	
+	static final int MAGIC = 0x43475048;  // "CGPH"
+	static final int HEADER_LEN = 8;
+	static final int CHUNK_ENTRY_LEN = 12;
+	static final int DATA_ENTRY_LEN = ObjectId.NUM_BYTES + 16;
+	static final int NO_PARENT = 0x70000000;
+	
+	// The maximum topological level that fits in 30 bits; larger levels are capped.
+	static final int MAX_LEVEL = 0x3FFFFFFF;
+	
+	// Chunk IDs, where the first three are required.
+	static final int[] CHUNK_IDS = {
+		0x4F494446,  // "OIDF"
+		0x4F49444C,  // "OIDL"
+		0x43444154,  // "CDAT"
+		0x45444745,  // "EDGE"
+		0x42415345,  // "BASE"
+	};
+	static final int OIDF = 0, OIDL = 1, CDAT = 2, EDGE = 3, BASE = 4;
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	// One commit-graph file, mapped into memory.
+	private static final class Layer {
+		
+		public final File file;
+		
+		// The entire file, mapped read-only. Only absolute get methods are used on it.
+		public final ByteBuffer data;
+		
+		// The position of the first commit of this layer, and the number of commits in this layer.
+		public final int start;
+		public final int count;
+		
+		// fanout[i] is the number of commits in this layer whose first hash byte is at most i.
+		private final int[] fanout;
+		
+		// Byte offsets of the chunks within the file.
+		public final int idsStart;
+		public final int dataStart;
+		public final int edgesStart;  // -1 if absent
+		public final int numEdges;
+		
+		// The checksums of the base layers named by this file, and the checksum of this file.
+		public final byte[][] baseHashes;
+		public final byte[] checksum;
+		
+		
+		public Layer(File file, int layerIndex, int start) throws IOException {
+			this.file = file;
+			try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				long size = ch.size();
+				if (size > Integer.MAX_VALUE)
+					throw new GitFormatException("Commit-graph file too large");
+				data = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			this.start = start;
+			
+			// Check file header
+			if (data.capacity() < HEADER_LEN + CHUNK_ENTRY_LEN + ObjectId.NUM_BYTES)
+				throw new GitFormatException("Commit-graph file too short");
+			if (data.getInt(0) != MAGIC)
+				throw new GitFormatException("Commit-graph header expected");
+			if (data.get(4) != 1)
+				throw new GitFormatException("Commit-graph version 1 expected");
+			if (data.get(5) != 1)
+				throw new GitFormatException("SHA-1 commit-graph expected");
+			int numChunks = data.get(6) & 0xFF;
+			int numBases = data.get(7) & 0xFF;
+			if (numBases != layerIndex)
+				throw new GitFormatException("Commit-graph chain does not match base layers");
+			
+			// Read chunk table
+			long chunksEnd = HEADER_LEN + (numChunks + 1L) * CHUNK_ENTRY_LEN;
+			int dataEnd = data.capacity() - ObjectId.NUM_BYTES;
+			if (chunksEnd > dataEnd)
+				throw new GitFormatException("Commit-graph file too short");
+			int[] chunkStart = new int[CHUNK_IDS.length];
+			int[] chunkLen = new int[CHUNK_IDS.length];
+			Arrays.fill(chunkStart, -1);
+			for (int i = 0; i < numChunks; i++) {
+				int pos = HEADER_LEN + i * CHUNK_ENTRY_LEN;
+				long begin = data.getLong(pos + 4);
+				long end = data.getLong(pos + CHUNK_ENTRY_LEN + 4);
+				if (begin < chunksEnd || begin > end || end > dataEnd)
+					throw new GitFormatException("Invalid chunk offset");
+				int id = data.getInt(pos);
+				for (int j = 0; j < CHUNK_IDS.length; j++) {
+					if (CHUNK_IDS[j] == id) {
+						chunkStart[j] = (int)begin;
+						chunkLen[j] = (int)(end - begin);
+					}
+				}
+			}
+			for (int j = 0; j < 3; j++) {  // Required chunks
+				if (chunkStart[j] == -1)
+					throw new GitFormatException("Required chunk missing");
+			}
+			
+			// Read fanout table
+			if (chunkLen[OIDF] != 256 * 4)
+				throw new GitFormatException("Invalid fanout chunk");
+			fanout = new int[256];
+			for (int i = 0, prev = 0; i < fanout.length; i++) {
+				int n = data.getInt(chunkStart[OIDF] + i * 4);
+				if (n < prev)  // Also catches counts of 2^31 or more
+					throw new GitFormatException("Invalid fanout table");
+				fanout[i] = n;
+				prev = n;
+			}
+			count = fanout[255];
+			
+			// Check table sizes
+			if (chunkLen[OIDL] != (long)count * ObjectId.NUM_BYTES || chunkLen[CDAT] != (long)count * DATA_ENTRY_LEN)
+				throw new GitFormatException("Invalid chunk size");
+			idsStart = chunkStart[OIDL];
+			dataStart = chunkStart[CDAT];
+			edgesStart = chunkStart[EDGE];
+			if (edgesStart != -1 && chunkLen[EDGE] % 4 != 0)
+				throw new GitFormatException("Invalid chunk size");
+			numEdges = edgesStart != -1 ? chunkLen[EDGE] / 4 : 0;
+			
+			// Read base layer checksums and own checksum
+			if (numBases > 0 && (chunkStart[BASE] == -1 || chunkLen[BASE] != numBases * ObjectId.NUM_BYTES))
+				throw new GitFormatException("Invalid base graphs chunk");
+			baseHashes = new byte[numBases][ObjectId.NUM_BYTES];
+			for (int i = 0; i < numBases; i++)
+				data.get(chunkStart[BASE] + i * ObjectId.NUM_BYTES, baseHashes[i]);
+			checksum = new byte[ObjectId.NUM_BYTES];
+			data.get(dataEnd, checksum);
+		}
+		
+		
+		// Returns the index of the given ID in this layer's sorted table of IDs, or -1 if not found.
+		public int findIndex(ObjectId id) {
+			int headByte = id.getByte(0) & 0xFF;
+			int lo = headByte > 0 ? fanout[headByte - 1] : 0;  // Inclusive
+			int hi = fanout[headByte];  // Exclusive
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				int cmp = compareIdAt(mid, id);
+				if (cmp == 0)
+					return mid;
+				else if (cmp < 0)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return -1;
+		}
+		
+		
+		// Returns the file offset of the commit data entry for the given global position, which must be in this layer.
+		public int getDataOffset(int position) {
+			return dataStart + (position - start) * DATA_ENTRY_LEN;
+		}
+		
+		
+		private int compareIdAt(int index, ObjectId id) {
+			return -id.compareTo(data, idsStart + index * ObjectId.NUM_BYTES);
+		}
+		
+	}
+	
+}
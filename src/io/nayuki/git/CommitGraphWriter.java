@@ -0,0 +1,312 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+
+/**
+ * Writes version 1 commit-graph files and split commit-graph chains. A helper class
+ * for {@link FileRepository}; not instantiable.
+ * @see CommitGraphFile
+ */
+final class CommitGraphWriter {
+	
+	// Writes the commits of the given graph into the commit-graph of the given repository, whose objects directory
+	// is given. If not split, this writes one file with exactly the commits of the graph, and deletes any chain. If split,
+	// this adds a layer to the chain with the commits not already in it, merging the top layers into the new one while
+	// they are at most twice its size, like Git; an existing single file is converted to a chain. The tree ID, commit
+	// time, and ordered parents of each commit are taken from the existing commit-graph if it has the commit,
+	// otherwise from the commit object. Throws IllegalArgumentException if the parents of a commit are not available.
+	public static void write(FileRepository repo, File objectsDir, CommitGraph graph, boolean split) throws IOException {
+		CommitGraphFile old = repo.readCommitGraphFile();
+		
+		// Choose the commits of the new layer, and the number of existing layers to keep below it
+		Set<CommitId> commits = new HashSet<>();
+		int keepLayers = 0;
+		if (!split || old == null || !old.isChain()) {
+			commits.addAll(graph.getParentsKeys());
+			if (split && old != null) {  // Keep the commits of the single file
+				for (int i = 0; i < old.getCommitCount(); i++)
+					commits.add(old.getCommitId(i));
+			}
+		} else {
+			for (CommitId id : graph.getParentsKeys()) {
+				if (old.findPosition(id) == -1)
+					commits.add(id);
+			}
+			if (commits.isEmpty())
+				return;
+			keepLayers = old.getLayerCount();
+			while (keepLayers > 0 && old.getLayerStart(keepLayers) - old.getLayerStart(keepLayers - 1) <= (long)SIZE_MULTIPLE * commits.size()) {
+				keepLayers--;
+				for (int i = old.getLayerStart(keepLayers); i < old.getLayerStart(keepLayers + 1); i++)
+					commits.add(old.getCommitId(i));
+			}
+		}
+		int baseCount = keepLayers > 0 ? old.getLayerStart(keepLayers) : 0;
+		
+		// Sort the commits and gather their data
+		List<CommitId> ids = new ArrayList<>(commits);
+		Collections.sort(ids);
+		int count = ids.size();
+		ObjectIdIntMap indexes = new ObjectIdIntMap(count);
+		for (int i = 0; i < count; i++)
+			indexes.put(ids.get(i), i);
+		TreeId[] trees = new TreeId[count];
+		long[] times = new long[count];
+		int[][] parents = new int[count][];  // Global positions
+		for (int i = 0; i < count; i++) {
+			CommitId id = ids.get(i);
+			List<? extends ObjectId> ps;
+			int pos = old != null ? old.findPosition(id) : -1;
+			if (pos != -1) {
+				trees[i] = old.getTreeId(pos);
+				times[i] = old.getCommitTime(pos);
+				List<CommitId> temp = new ArrayList<>();
+				for (int p : old.getParentPositions(pos))
+					temp.add(old.getCommitId(p));
+				ps = temp;
+			} else {
+				CommitObject obj = id.read(repo);
+				trees[i] = obj.tree;
+				times[i] = obj.committerTime;
+				ps = obj.parents;
+			}
+			parents[i] = new int[ps.size()];
+			for (int j = 0; j < parents[i].length; j++) {
+				ObjectId parent = ps.get(j);
+				int index = indexes.get(parent, -1);
+				int p = -1;
+				if (index != -1)
+					p = baseCount + index;
+				else if (old != null) {
+					p = old.findPosition(parent);
+					if (p >= baseCount)
+						p = -1;
+				}
+				if (p == -1)
+					throw new IllegalArgumentException("Parent commit not in graph: " + parent.getHexString());
+				parents[i][j] = p;
+			}
+		}
+		
+		// Compute topological levels in topological order
+		int[] levels = new int[count];
+		{
+			int[] pending = new int[count];  // Number of parents in this layer without a level yet
+			List<List<Integer>> children = new ArrayList<>();
+			for (int i = 0; i < count; i++)
+				children.add(new ArrayList<>());
+			Queue<Integer> queue = new ArrayDeque<>();
+			for (int i = 0; i < count; i++) {
+				for (int p : parents[i]) {
+					if (p >= baseCount) {
+						pending[i]++;
+						children.get(p - baseCount).add(i);
+					}
+				}
+				if (pending[i] == 0)
+					queue.add(i);
+			}
+			int done = 0;
+			while (!queue.isEmpty()) {
+				int i = queue.remove();
+				int max = 0;
+				for (int p : parents[i])
+					max = Math.max(p >= baseCount ? levels[p - baseCount] : old.getTopologicalLevel(p), max);
+				levels[i] = Math.min(max + 1, CommitGraphFile.MAX_LEVEL);
+				done++;
+				for (int child : children.get(i)) {
+					pending[child]--;
+					if (pending[child] == 0)
+						queue.add(child);
+				}
+			}
+			if (done != count)
+				throw new GitFormatException("Cycle in commit graph");
+		}
+		
+		// Write the file and install it
+		File infoDir = new File(objectsDir, "info");
+		File chainDir = new File(infoDir, CommitGraphFile.CHAIN_DIR_NAME);
+		File dir = split ? chainDir : infoDir;
+		dir.mkdirs();
+		File temp = File.createTempFile("tmp_graph_", "", dir);
+		try {
+			byte[][] baseHashes = new byte[keepLayers][];
+			for (int i = 0; i < keepLayers; i++)
+				baseHashes[i] = old.getLayerChecksum(i);
+			byte[] checksum = writeLayer(temp, ids, trees, times, parents, levels, baseHashes);
+			temp.setReadOnly();
+			
+			if (!split) {
+				Files.move(temp.toPath(), new File(infoDir, CommitGraphFile.FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+				if (old != null && old.isChain()) {
+					new File(chainDir, CommitGraphFile.CHAIN_FILE_NAME).delete();
+					for (int i = 0; i < old.getLayerCount(); i++)
+						old.getLayerFile(i).delete();
+				}
+			} else {
+				String name = new RawId(checksum).getHexString();
+				Files.move(temp.toPath(), new File(chainDir, "graph-" + name + ".graph").toPath(), StandardCopyOption.ATOMIC_MOVE);
+				
+				// Write the new chain file
+				File chainTemp = File.createTempFile("tmp_graph_chain_", "", chainDir);
+				try {
+					try (Writer out = new OutputStreamWriter(new FileOutputStream(chainTemp), StandardCharsets.US_ASCII)) {
+						for (byte[] b : baseHashes)
+							out.write(new RawId(b).getHexString() + "\n");
+						out.write(name + "\n");
+					}
+					Files.move(chainTemp.toPath(), new File(chainDir, CommitGraphFile.CHAIN_FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					chainTemp.delete();  // No effect if already moved
+				}
+				
+				// Delete the files whose commits were merged into the new layer
+				if (old != null) {
+					for (int i = keepLayers; i < old.getLayerCount(); i++)
+						old.getLayerFile(i).delete();
+				}
+			}
+		} finally {
+			temp.delete();  // No effect if already moved
+		}
+	}
+	
+	
+	// Writes one commit-graph file with the given data, where the IDs are sorted, and returns its checksum.
+	private static byte[] writeLayer(File file, List<CommitId> ids, TreeId[] trees, long[] times,
+			int[][] parents, int[] levels, byte[][] baseHashes) throws IOException {
+		
+		int count = ids.size();
+		int numEdges = 0;
+		for (int[] ps : parents) {
+			if (ps.length > 2)
+				numEdges += ps.length - 1;
+		}
+		
+		// Compute the chunk layout
+		List<Integer> chunkIds = new ArrayList<>(List.of(
+			CommitGraphFile.CHUNK_IDS[CommitGraphFile.OIDF],
+			CommitGraphFile.CHUNK_IDS[CommitGraphFile.OIDL],
+			CommitGraphFile.CHUNK_IDS[CommitGraphFile.CDAT]));
+		List<Long> chunkLens = new ArrayList<>(List.of(
+			256 * 4L,
+			(long)count * ObjectId.NUM_BYTES,
+			(long)count * CommitGraphFile.DATA_ENTRY_LEN));
+		if (numEdges > 0) {
+			chunkIds.add(CommitGraphFile.CHUNK_IDS[CommitGraphFile.EDGE]);
+			chunkLens.add(numEdges * 4L);
+		}
+		if (baseHashes.length > 0) {
+			chunkIds.add(CommitGraphFile.CHUNK_IDS[CommitGraphFile.BASE]);
+			chunkLens.add((long)baseHashes.length * ObjectId.NUM_BYTES);
+		}
+		int numChunks = chunkIds.size();
+		
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)), hasher))) {
+			// Header
+			out.writeInt(CommitGraphFile.MAGIC);
+			out.writeByte(1);  // Version
+			out.writeByte(1);  // SHA-1
+			out.writeByte(numChunks);
+			out.writeByte(baseHashes.length);
+			
+			// Chunk table
+			long pos = CommitGraphFile.HEADER_LEN + (numChunks + 1) * CommitGraphFile.CHUNK_ENTRY_LEN;
+			for (int i = 0; i < numChunks; i++) {
+				out.writeInt(chunkIds.get(i));
+				out.writeLong(pos);
+				pos += chunkLens.get(i);
+			}
+			out.writeInt(0);
+			out.writeLong(pos);
+			
+			// Fanout table
+			for (int i = 0, j = 0; i < 256; i++) {
+				for (; j < count && (ids.get(j).getByte(0) & 0xFF) <= i; j++);
+				out.writeInt(j);
+			}
+			
+			// Commit IDs
+			for (CommitId id : ids)
+				out.write(id.getBytes());
+			
+			// Commit data
+			for (int i = 0, edge = 0; i < count; i++) {
+				out.write(trees[i].getBytes());
+				int[] ps = parents[i];
+				out.writeInt(ps.length >= 1 ? ps[0] : CommitGraphFile.NO_PARENT);
+				if (ps.length <= 1)
+					out.writeInt(CommitGraphFile.NO_PARENT);
+				else if (ps.length == 2)
+					out.writeInt(ps[1]);
+				else {
+					out.writeInt(0x80000000 | edge);
+					edge += ps.length - 1;
+				}
+				out.writeInt(levels[i] << 2 | (int)(times[i] >>> 32) & 3);
+				out.writeInt((int)times[i]);
+			}
+			
+			// Extra edges of octopus merges
+			for (int[] ps : parents) {
+				if (ps.length > 2) {
+					for (int j = 1; j < ps.length; j++)
+						out.writeInt(ps[j] | (j == ps.length - 1 ? 0x80000000 : 0));
+				}
+			}
+			
+			// Base graph checksums
+			for (byte[] b : baseHashes)
+				out.write(b);
+			
+			// Trailer
+			byte[] result = hasher.digest();
+			out.write(result);
+			return result;
+		}
+	}
+	
+	
+	// Git's default: merge the top layer of a chain into a new layer if it has at most this many times as many commits.
+	private static final int SIZE_MULTIPLE = 2;
+	
+	
+	
+	private CommitGraphWriter() {}
+	
+}
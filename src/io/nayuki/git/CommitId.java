@@ -8,6 +8,7 @@
 package io.nayuki.git;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -54,6 +55,12 @@ public final class CommitId extends ObjectId {
 	}
 	
 	
+	// Constructs a commit ID from 20 bytes in the given big-endian buffer starting at the given absolute index.
+	CommitId(ByteBuffer buf, int index) {
+		super(buf, index);
+	}
+	
+	
 	
 	/*---- Methods ----*/
 	
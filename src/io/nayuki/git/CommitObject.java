@@ -11,6 +11,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
@@ -186,9 +187,9 @@ public final class CommitObject extends GitObject {
 	public byte[] toBytes() {
 		checkState();
 		StringBuilder sb = new StringBuilder();
-		sb.append("tree ").append(tree.hexString).append("\n");
+		sb.append("tree ").append(tree.getHexString()).append("\n");
 		for (ObjectId parent : parents)
-			sb.append("parent ").append(parent.hexString).append("\n");
+			sb.append("parent ").append(parent.getHexString()).append("\n");
 		sb.append(String.format("author %s <%s> %d %s\n", authorName, authorEmail, authorTime, formatTimezone(authorTimezone)));
 		sb.append(String.format("committer %s <%s> %d %s\n", committerName, committerEmail, committerTime, formatTimezone(committerTimezone)));
 		sb.append("\n").append(message);
@@ -197,13 +198,28 @@ public final class CommitObject extends GitObject {
 	
 	
 	/**
-	 * Returns the hash ID of the current state of this commit object.
+	 * Returns the hash ID of the current state of this commit object. The ID is computed once and reused until
+	 * a field or an element of the parent list changes. If this object was read from a repository and has not
+	 * been modified, then the ID that it was read by is returned.
 	 * @return the hash ID of this commit object (not {@code null})
 	 * @throws IllegalStateException if this object has invalid field values
 	 * that prevent it from being serialized (see {@link #toBytes()})
 	 */
 	public CommitId getId() {
-		return new CommitId(getSha1Hash(toBytes()));
+		return getMemoizedId(CommitId.class, CommitId::new);
+	}
+	
+	
+	Object[] getIdState() {
+		if (parents == null)
+			return null;
+		Object[] result = {tree, message,
+			authorName, authorEmail, authorTime, authorTimezone,
+			committerName, committerEmail, committerTime, committerTimezone};
+		result = Arrays.copyOf(result, result.length + parents.size());
+		for (int i = 0; i < parents.size(); i++)
+			result[result.length - parents.size() + i] = parents.get(i);
+		return result;
 	}
 	
 	
@@ -212,7 +228,7 @@ public final class CommitObject extends GitObject {
 	 * @return a string representation of this commit object
 	 */
 	public String toString() {
-		return String.format("CommitObject(tree=%s)", tree.hexString);
+		return String.format("CommitObject(tree=%s)", tree.getHexString());
 	}
 	
 	
@@ -0,0 +1,646 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+
+/**
+ * An immutable graph of the complete history of some commits, which uses much less memory than {@link CommitGraph}
+ * for large repositories. Each commit is interned to a dense index in the range [0, {@link #getCommitCount()}),
+ * all commit IDs are stored in one flat byte array, and the parents and children of every commit are stored as
+ * ranges of shared {@code int} arrays (compressed sparse rows). This takes under 100 bytes per commit, whereas
+ * {@code CommitGraph} takes several hundred. Immutable and thread-safe.
+ * <p>The query methods behave like the ones of {@code CommitGraph}, and the generation numbers and corrected
+ * commit dates are computed when the graph is built. Because the whole history is read, no commit is unexplored.
+ * Commits can be queried by ID or by index; the methods that take indexes avoid creating ID objects.</p>
+ * @see CommitGraph
+ */
+public final class CompactCommitGraph {
+	
+	/*---- Fields ----*/
+	
+	// The number of commits.
+	private final int count;
+	
+	// Maps each commit ID to its index, storing the IDs in one flat byte array.
+	private final ObjectIdTable table;
+	
+	// The parents of commit i are parentIndexes[parentStarts[i] : parentStarts[i + 1]], in the commit's order.
+	private final int[] parentStarts;
+	private final int[] parentIndexes;
+	
+	// The children of commit i are childIndexes[childStarts[i] : childStarts[i + 1]], in increasing index order.
+	private final int[] childStarts;
+	private final int[] childIndexes;
+	
+	// Committer times in Unix epoch seconds, generation numbers, and corrected commit dates, as in CommitGraph.
+	private final long[] times;
+	private final int[] generations;
+	private final long[] correctedDates;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Reads the commits with the specified IDs and their entire past history from the repository, and returns
+	 * a new compact graph of them. Like {@link CommitGraph#addHistory(Repository, Collection)}, the parents of
+	 * commits covered by the commit-graph file of a {@link FileRepository} are read from that file.
+	 * @param repo the repository to read from (not {@code null})
+	 * @param startIds zero or more commit IDs whose histories
+	 * to query (collection not {@code null} and no element {@code null})
+	 * @return a new compact graph of the history (not {@code null})
+	 * @throws NullPointerException if the repository or any commit ID is {@code null}
+	 * @throws IllegalArgumentException if a commit ID in the
+	 * specified list or in the history was not found in the repository
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public static CompactCommitGraph readHistory(Repository repo, Collection<CommitId> startIds) throws IOException {
+		Objects.requireNonNull(repo);
+		Objects.requireNonNull(startIds);
+		CommitGraphFile file = null;
+		if (repo instanceof FileRepository frepo)
+			file = frepo.readCommitGraphFile();
+		
+		// Intern commits as they are discovered. Each one is pushed once and
+		// read once, recording its parents in discovery order in the edge list.
+		ObjectIdTable table = new ObjectIdTable(0);
+		int[] stack = new int[16];
+		int stackSize = 0;
+		for (CommitId id : startIds) {
+			int n = table.size;
+			int index = table.add(Objects.requireNonNull(id));
+			if (index == n) {  // Newly discovered
+				stack = grow(stack, stackSize + 1);
+				stack[stackSize++] = index;
+			}
+		}
+		int[] edgeStarts = new int[16];  // By commit index, offset into edges
+		int[] edgeCounts = new int[16];
+		long[] times = new long[16];
+		int[] edges = new int[16];
+		int numEdges = 0;
+		while (stackSize > 0) {
+			int index = stack[--stackSize];
+			CommitId id = new CommitId(table.keys, index * ObjectId.NUM_BYTES);
+			List<CommitId> parents;
+			long time;
+			int position = file != null ? file.findPosition(id) : -1;
+			if (position != -1) {
+				parents = new ArrayList<>();
+				for (int pos : file.getParentPositions(position))
+					parents.add(file.getCommitId(pos));
+				time = file.getCommitTime(position);
+			} else {
+				CommitObject obj = id.read(repo);
+				if (obj == null)
+					throw new IllegalArgumentException("Commit object with the given ID not found in repository");
+				parents = obj.parents;
+				time = obj.committerTime;
+			}
+			
+			edgeStarts = grow(edgeStarts, index + 1);
+			edgeCounts = grow(edgeCounts, index + 1);
+			times = grow(times, index + 1);
+			edgeStarts[index] = numEdges;
+			edgeCounts[index] = parents.size();
+			times[index] = time;
+			edges = grow(edges, numEdges + parents.size());
+			for (CommitId parent : parents) {
+				int n = table.size;
+				int p = table.add(parent);
+				edges[numEdges++] = p;
+				if (p == n) {  // Newly discovered
+					stack = grow(stack, stackSize + 1);
+					stack[stackSize++] = p;
+				}
+			}
+		}
+		
+		// Rearrange the edges in index order
+		int count = table.size;
+		int[] parentStarts = new int[count + 1];
+		int[] parentIndexes = new int[numEdges];
+		for (int i = 0, j = 0; i < count; i++) {
+			parentStarts[i] = j;
+			System.arraycopy(edges, edgeStarts[i], parentIndexes, j, edgeCounts[i]);
+			j += edgeCounts[i];
+		}
+		parentStarts[count] = numEdges;
+		table.trimToSize();
+		return new CompactCommitGraph(table, parentStarts, parentIndexes, Arrays.copyOf(times, count));
+	}
+	
+	
+	// Constructs a graph from the given data, computing the children, generation numbers, and corrected dates.
+	// Throws an exception if the parents form a cycle, which only a corrupt commit-graph file can cause.
+	private CompactCommitGraph(ObjectIdTable table, int[] parentStarts, int[] parentIndexes, long[] times) throws GitFormatException {
+		this.table = table;
+		count = table.size;
+		this.parentStarts = parentStarts;
+		this.parentIndexes = parentIndexes;
+		this.times = times;
+		
+		// Build the children by counting sort, so each list is in increasing index order
+		childStarts = new int[count + 1];
+		for (int p : parentIndexes)
+			childStarts[p + 1]++;
+		for (int i = 0; i < count; i++)
+			childStarts[i + 1] += childStarts[i];
+		childIndexes = new int[parentIndexes.length];
+		int[] next = Arrays.copyOf(childStarts, count);
+		for (int i = 0; i < count; i++) {
+			for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++)
+				childIndexes[next[parentIndexes[j]]++] = i;
+		}
+		
+		// Compute values in topological order (parents first), with an explicit stack
+		// because histories can be much deeper than the call stack
+		generations = new int[count];  // 0 means not visited yet, -1 means waiting for its parents
+		correctedDates = new long[count];
+		int[] stack = new int[16];
+		for (int start = 0; start < count; start++) {
+			if (generations[start] != 0)
+				continue;
+			int stackSize = 0;
+			stack[stackSize++] = start;
+			while (stackSize > 0) {
+				int i = stack[stackSize - 1];
+				if (generations[i] > 0) {
+					stackSize--;
+					continue;
+				}
+				generations[i] = -1;
+				boolean ready = true;
+				for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+					int p = parentIndexes[j];
+					if (generations[p] == -1)  // Waiting commits are all descendants of this one
+						throw new GitFormatException("Cycle in commit graph");
+					if (generations[p] == 0) {
+						stack = grow(stack, stackSize + 1);
+						stack[stackSize++] = p;
+						ready = false;
+					}
+				}
+				if (!ready)
+					continue;
+				int gen = 0;
+				long date = times[i];
+				for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+					int p = parentIndexes[j];
+					gen = Math.max(generations[p], gen);
+					date = Math.max(correctedDates[p] + 1, date);
+				}
+				generations[i] = gen + 1;
+				correctedDates[i] = date;
+				stackSize--;
+			}
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/* Methods to query the graph by index */
+	
+	/**
+	 * Returns the number of commits in this graph. The commits have indexes from 0 to this number minus 1.
+	 * @return the number of commits (at least 0)
+	 */
+	public int getCommitCount() {
+		return count;
+	}
+	
+	
+	/**
+	 * Returns the index of the specified commit in this graph, or &minus;1 if it is not in this graph.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return the index of the commit, or &minus;1
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 */
+	public int getIndex(CommitId id) {
+		return table.find(Objects.requireNonNull(id));
+	}
+	
+	
+	/**
+	 * Returns a new ID object for the commit at the specified index.
+	 * @param index the index of the commit to query
+	 * @return the ID of the commit (not {@code null})
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public CommitId getCommitId(int index) {
+		Objects.checkIndex(index, count);
+		return new CommitId(table.keys, index * ObjectId.NUM_BYTES);
+	}
+	
+	
+	/**
+	 * Returns a new array of the indexes of the parents of the commit at the specified index, in the commit's order.
+	 * @param index the index of the commit to query
+	 * @return a new array of parent indexes (not {@code null})
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int[] getParentIndexes(int index) {
+		Objects.checkIndex(index, count);
+		return Arrays.copyOfRange(parentIndexes, parentStarts[index], parentStarts[index + 1]);
+	}
+	
+	
+	/**
+	 * Returns a new array of the indexes of the children of the commit at the specified index, in increasing order.
+	 * @param index the index of the commit to query
+	 * @return a new array of child indexes (not {@code null})
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int[] getChildIndexes(int index) {
+		Objects.checkIndex(index, count);
+		return Arrays.copyOfRange(childIndexes, childStarts[index], childStarts[index + 1]);
+	}
+	
+	
+	/**
+	 * Returns the committer time of the commit at the specified index, in Unix epoch seconds.
+	 * @param index the index of the commit to query
+	 * @return the committer time of the commit
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public long getCommitTime(int index) {
+		Objects.checkIndex(index, count);
+		return times[index];
+	}
+	
+	
+	/**
+	 * Returns the generation number of the commit at the specified index. See {@link CommitGraph#getGeneration(CommitId)}.
+	 * @param index the index of the commit to query
+	 * @return the generation number of the commit (at least 1)
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public int getGeneration(int index) {
+		Objects.checkIndex(index, count);
+		return generations[index];
+	}
+	
+	
+	/**
+	 * Returns the corrected commit date of the commit at the specified index, which is
+	 * always known because the whole history is read. See {@link CommitGraph#getCorrectedCommitDate(CommitId)}.
+	 * @param index the index of the commit to query
+	 * @return the corrected commit date in Unix epoch seconds
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public long getCorrectedCommitDate(int index) {
+		Objects.checkIndex(index, count);
+		return correctedDates[index];
+	}
+	
+	
+	/**
+	 * Tests whether the commit at the first index is an ancestor of the commit
+	 * at the second index. See {@link CommitGraph#isAncestor(CommitId, CommitId)}.
+	 * @param ancestor the index of the possible ancestor to test
+	 * @param descendant the index of the possible descendant to test
+	 * @return whether the first commit is reachable from the second by following parents
+	 * @throws IndexOutOfBoundsException if either index is out of range
+	 */
+	public boolean isAncestor(int ancestor, int descendant) {
+		Objects.checkIndex(ancestor, count);
+		Objects.checkIndex(descendant, count);
+		BitSet visited = new BitSet();
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		queue[tail++] = descendant;
+		visited.set(descendant);
+		while (head < tail) {
+			int i = queue[head++];
+			if (i == ancestor)
+				return true;
+			if (generations[i] <= generations[ancestor] || correctedDates[i] <= correctedDates[ancestor])
+				continue;
+			for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+				int p = parentIndexes[j];
+				if (!visited.get(p)) {
+					visited.set(p);
+					queue = grow(queue, tail + 1);
+					queue[tail++] = p;
+				}
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Returns the indexes of the best common ancestors of the commits
+	 * at the two specified indexes. See {@link CommitGraph#mergeBases(CommitId, CommitId)}.
+	 * @param a the index of a commit to query
+	 * @param b the index of the other commit to query
+	 * @return a new array of the indexes of the best common ancestors, in increasing order (not {@code null})
+	 * @throws IndexOutOfBoundsException if either index is out of range
+	 */
+	public int[] mergeBases(int a, int b) {
+		Objects.checkIndex(a, count);
+		Objects.checkIndex(b, count);
+		byte[] flags = new byte[count];
+		PriorityQueue<Integer> queue = new PriorityQueue<>(this::compareNewestFirst);
+		int numActive = 0;  // Number of queued commits that are not stale
+		numActive += addFlags(a, FROM_A, flags, queue);
+		numActive += addFlags(b, FROM_B, flags, queue);
+		
+		// Every commit is queued at most once, and its flags are final when it is polled because
+		// all its children have greater generation numbers and are therefore polled before it
+		int[] result = new int[0];
+		while (numActive > 0) {
+			int i = queue.remove();
+			int f = flags[i];
+			if ((f & STALE) == 0) {
+				numActive--;
+				if ((f & (FROM_A | FROM_B)) == (FROM_A | FROM_B)) {
+					result = Arrays.copyOf(result, result.length + 1);
+					result[result.length - 1] = i;
+					f |= STALE;  // Ancestors of a common ancestor are not best
+				}
+			}
+			for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++)
+				numActive += addFlags(parentIndexes[j], f, flags, queue);
+		}
+		Arrays.sort(result);
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the indexes among the specified ones of the commits that are not an
+	 * ancestor of another one of them. See {@link CommitGraph#independent(Collection)}.
+	 * @param indexes the indexes of the commits to query (not {@code null})
+	 * @return a new array of the distinct indexes of the commits that are
+	 * not reachable from the others, in increasing order (not {@code null})
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if any index is out of range
+	 */
+	public int[] independent(int[] indexes) {
+		Objects.requireNonNull(indexes);
+		BitSet result = new BitSet();
+		int minGen = Integer.MAX_VALUE;
+		long minDate = Long.MAX_VALUE;
+		for (int i : indexes) {
+			Objects.checkIndex(i, count);
+			result.set(i);
+			minGen = Math.min(generations[i], minGen);
+			minDate = Math.min(correctedDates[i], minDate);
+		}
+		
+		// Walk from the parents of all the commits, removing every commit that is reached
+		BitSet visited = new BitSet();
+		int[] queue = new int[16];
+		int head = 0, tail = 0;
+		for (int i = result.nextSetBit(0); i != -1; i = result.nextSetBit(i + 1)) {
+			for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+				int p = parentIndexes[j];
+				if (!visited.get(p)) {
+					visited.set(p);
+					queue = grow(queue, tail + 1);
+					queue[tail++] = p;
+				}
+			}
+		}
+		while (head < tail) {
+			int i = queue[head++];
+			if (generations[i] < minGen || correctedDates[i] < minDate)
+				continue;
+			result.clear(i);
+			for (int j = parentStarts[i]; j < parentStarts[i + 1]; j++) {
+				int p = parentIndexes[j];
+				if (!visited.get(p)) {
+					visited.set(p);
+					queue = grow(queue, tail + 1);
+					queue[tail++] = p;
+				}
+			}
+		}
+		return result.stream().toArray();
+	}
+	
+	
+	/* Methods to query the graph by ID */
+	
+	/**
+	 * Returns a new set of the IDs of all commits in this graph.
+	 * @return a new set of all commit IDs (not {@code null})
+	 */
+	public Set<CommitId> getCommitIds() {
+		Set<CommitId> result = new HashSet<>();
+		for (int i = 0; i < count; i++)
+			result.add(getCommitId(i));
+		return result;
+	}
+	
+	
+	/**
+	 * Returns a new set of the parents of the specified commit, or {@code null} if it is not in this graph.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return a new set of parents or {@code null}
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 */
+	public Set<CommitId> getParents(CommitId id) {
+		int index = getIndex(id);
+		return index != -1 ? toIdSet(getParentIndexes(index)) : null;
+	}
+	
+	
+	/**
+	 * Returns a new set of the children of the specified commit, which is empty if it is not in this graph.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return a new set of children (not {@code null})
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 */
+	public Set<CommitId> getChildren(CommitId id) {
+		int index = getIndex(id);
+		return index != -1 ? toIdSet(getChildIndexes(index)) : new HashSet<>();
+	}
+	
+	
+	/**
+	 * Returns a new set of the commits in this graph that have zero parents.
+	 * @return a new set of commit IDs with zero parents (not {@code null})
+	 */
+	public Set<CommitId> getRoots() {
+		Set<CommitId> result = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			if (parentStarts[i] == parentStarts[i + 1])
+				result.add(getCommitId(i));
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns a new set of the commits in this graph that are not the parent of any commit in this graph.
+	 * @return a new set of commit IDs with zero children (not {@code null})
+	 */
+	public Set<CommitId> getLeaves() {
+		Set<CommitId> result = new HashSet<>();
+		for (int i = 0; i < count; i++) {
+			if (childStarts[i] == childStarts[i + 1])
+				result.add(getCommitId(i));
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the generation number of the specified commit. See {@link CommitGraph#getGeneration(CommitId)}.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return the generation number of the commit (at least 1)
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 * @throws IllegalArgumentException if the commit ID is not in this graph
+	 */
+	public int getGeneration(CommitId id) {
+		return generations[getIndexInGraph(id)];
+	}
+	
+	
+	/**
+	 * Returns the corrected commit date of the specified commit. See {@link CommitGraph#getCorrectedCommitDate(CommitId)}.
+	 * @param id the commit ID to query (not {@code null})
+	 * @return the corrected commit date in Unix epoch seconds
+	 * @throws NullPointerException if the commit ID is {@code null}
+	 * @throws IllegalArgumentException if the commit ID is not in this graph
+	 */
+	public long getCorrectedCommitDate(CommitId id) {
+		return correctedDates[getIndexInGraph(id)];
+	}
+	
+	
+	/**
+	 * Tests whether the first commit is an ancestor of the second commit. See {@link CommitGraph#isAncestor(CommitId, CommitId)}.
+	 * @param ancestor the possible ancestor to test (not {@code null})
+	 * @param descendant the possible descendant to test (not {@code null})
+	 * @return whether the first commit is reachable from the second by following parents
+	 * @throws NullPointerException if either commit ID is {@code null}
+	 * @throws IllegalArgumentException if either commit ID is not in this graph
+	 */
+	public boolean isAncestor(CommitId ancestor, CommitId descendant) {
+		return isAncestor(getIndexInGraph(ancestor), getIndexInGraph(descendant));
+	}
+	
+	
+	/**
+	 * Returns the best common ancestors of the two specified commits. See {@link CommitGraph#mergeBases(CommitId, CommitId)}.
+	 * @param a a commit to query (not {@code null})
+	 * @param b the other commit to query (not {@code null})
+	 * @return a new set of the best common ancestors (not {@code null})
+	 * @throws NullPointerException if either commit ID is {@code null}
+	 * @throws IllegalArgumentException if either commit ID is not in this graph
+	 */
+	public Set<CommitId> mergeBases(CommitId a, CommitId b) {
+		return toIdSet(mergeBases(getIndexInGraph(a), getIndexInGraph(b)));
+	}
+	
+	
+	/**
+	 * Returns the commits among the specified ones that are not an ancestor
+	 * of another one of them. See {@link CommitGraph#independent(Collection)}.
+	 * @param ids the commits to query (not {@code null}, and no element {@code null})
+	 * @return a new set of the specified commits that are not reachable from the others (not {@code null})
+	 * @throws NullPointerException if the collection or any commit ID is {@code null}
+	 * @throws IllegalArgumentException if any commit ID is not in this graph
+	 */
+	public Set<CommitId> independent(Collection<CommitId> ids) {
+		Objects.requireNonNull(ids);
+		int[] indexes = new int[ids.size()];
+		int i = 0;
+		for (CommitId id : ids) {
+			indexes[i] = getIndexInGraph(id);
+			i++;
+		}
+		return toIdSet(independent(indexes));
+	}
+	
+	
+	/* Private helper methods */
+	
+	// Returns the index of the given commit, or throws an exception if it is not in this graph.
+	private int getIndexInGraph(CommitId id) {
+		int result = getIndex(id);
+		if (result == -1)
+			throw new IllegalArgumentException("Commit ID not in graph");
+		return result;
+	}
+	
+	
+	// Returns a new set of the IDs of the commits at the given indexes.
+	private Set<CommitId> toIdSet(int[] indexes) {
+		Set<CommitId> result = new HashSet<>();
+		for (int i : indexes)
+			result.add(getCommitId(i));
+		return result;
+	}
+	
+	
+	// Orders commits by decreasing generation number, then decreasing corrected date, then index.
+	private int compareNewestFirst(int x, int y) {
+		int result = Integer.compare(generations[y], generations[x]);
+		if (result == 0)
+			result = Long.compare(correctedDates[y], correctedDates[x]);
+		if (result == 0)
+			result = Integer.compare(x, y);
+		return result;
+	}
+	
+	
+	// Adds the given flags to the given commit for mergeBases(), queueing the commit if it had no flags before.
+	// Returns the resulting change in the number of queued commits that are not stale.
+	private static int addFlags(int i, int f, byte[] flags, PriorityQueue<Integer> queue) {
+		int oldFlags = flags[i];
+		int newFlags = oldFlags | f;
+		if (newFlags == oldFlags)
+			return 0;
+		flags[i] = (byte)newFlags;
+		if (oldFlags == 0) {
+			queue.add(i);
+			return (newFlags & STALE) == 0 ? 1 : 0;
+		} else
+			return (oldFlags & STALE) == 0 && (newFlags & STALE) != 0 ? -1 : 0;
+	}
+	
+	
+	// Returns the given array if its length is at least the given length, otherwise a copy at least twice as long.
+	private static int[] grow(int[] array, int minLength) {
+		if (array.length >= minLength)
+			return array;
+		return Arrays.copyOf(array, Math.max(array.length * 2, minLength));
+	}
+	
+	
+	private static long[] grow(long[] array, int minLength) {
+		if (array.length >= minLength)
+			return array;
+		return Arrays.copyOf(array, Math.max(array.length * 2, minLength));
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	// Flags for mergeBases().
+	private static final int FROM_A = 1, FROM_B = 2, STALE = 4;
+	
+}
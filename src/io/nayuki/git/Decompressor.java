@@ -0,0 +1,304 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+
+/**
+ * A reusable context for inflating DEFLATE streams from a file channel, shared by the loose object and pack file
+ * read paths. It holds an inflater and an input buffer, and instances are pooled so that reading an object allocates
+ * only its result array. Data whose length is known in advance is inflated directly into an array of that length.
+ * Pack data is inflated directly from memory-mapped windows when the repository's {@link PackWindowCache} provides
+ * them, so that the compressed bytes are not copied; otherwise it is read into the input buffer.
+ * An instance is used by one thread at a time, between a call to acquire() and a call to release().
+ */
+final class Decompressor {
+	
+	/*---- Fields ----*/
+	
+	private final Inflater inflater = new Inflater();
+	
+	// Holds bytes read from the channel when no mapped window is available.
+	private final ByteBuffer buffer = ByteBuffer.allocate(MAX_READ_LEN);
+	
+	// Either the buffer or a view of a mapped window. The bytes in [position, limit) are not yet consumed.
+	private ByteBuffer source = buffer;
+	
+	// Reads the raw (not inflated) bytes from the current position, e.g. for entry headers.
+	public final DataInputStream input = new DataInputStream(new BufferInputStream());
+	
+	private FileChannel channel;  // Null when not open
+	private PackfileReader pack;  // Null if not reading a pack file, or if mapping is not used
+	private PackWindowCache windows;  // Null if and only if pack is null
+	private long position;  // Of the next byte to be loaded into the source
+	private int readLen;  // The number of bytes to request in the next channel read
+	
+	// Of the raw bytes consumed from the source before crcMark, if enabled by startCrc().
+	private final CRC32 crc = new CRC32();
+	private boolean crcEnabled;
+	private int crcMark;  // Position in the source
+	
+	private final byte[] probe = new byte[1];
+	private final byte[] header = new byte[40];  // Longer than any valid loose object header
+	
+	
+	
+	/*---- Pool ----*/
+	
+	// Returns a decompressor from the pool, or a new one if the pool is empty. The caller must call release() when done.
+	public static Decompressor acquire() {
+		Decompressor result = pool.poll();
+		return result != null ? result : new Decompressor();
+	}
+	
+	
+	// Resets this decompressor and returns it to the pool, or frees its native memory if the pool is full.
+	// This decompressor must not be used afterward. The channel is not closed.
+	public void release() {
+		channel = null;
+		pack = null;
+		windows = null;
+		source = buffer;
+		buffer.clear().limit(0);
+		inflater.reset();
+		if (!pool.offer(this))
+			inflater.end();
+	}
+	
+	
+	private static final BlockingQueue<Decompressor> pool =
+		new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 4);
+	
+	
+	
+	/*---- Methods ----*/
+	
+	// Starts reading the given channel at the given position. The first read requests the given number
+	// of bytes, which suits a short entry header; each further read requests twice as many, up to a limit.
+	public void open(FileChannel ch, long pos, int firstReadLen) {
+		open(ch, pos, firstReadLen, null, null);
+	}
+	
+	
+	// Starts reading the given pack file's channel at the given position, taking input
+	// from the given cache's mapped windows whenever it provides them.
+	public void open(FileChannel ch, long pos, int firstReadLen, PackfileReader pack, PackWindowCache windows) {
+		Objects.requireNonNull(ch);
+		if (pos < 0 || firstReadLen <= 0 || (pack == null) != (windows == null))
+			throw new IllegalArgumentException();
+		channel = ch;
+		this.pack = pack;
+		this.windows = windows;
+		position = pos;
+		readLen = Math.min(firstReadLen, MAX_READ_LEN);
+		source = buffer;
+		buffer.clear().limit(0);
+		inflater.reset();
+		crcEnabled = false;
+	}
+	
+	
+	// Starts computing the CRC-32 of the raw bytes consumed from the current position, both by
+	// reading the input stream and by inflating. Must be called after open() and before any read.
+	public void startCrc() {
+		crc.reset();
+		crcEnabled = true;
+		crcMark = source.position();
+	}
+	
+	
+	// Returns the CRC-32 of the raw bytes consumed since startCrc() was called.
+	public int getCrc() {
+		if (!crcEnabled)
+			throw new IllegalStateException();
+		updateCrc();
+		return (int)crc.getValue();
+	}
+	
+	
+	// Inflates the DEFLATE stream at the current position, checks that its length equals the given size,
+	// and returns a new array of the data.
+	public byte[] inflate(long size) throws IOException {
+		if (size > MAX_ARRAY_LEN)
+			throw new GitFormatException("Data too large");
+		byte[] result = new byte[(int)size];
+		if (inflate(result, 0, result.length) != result.length || inflate(probe, 0, 1) != 0)
+			throw new GitFormatException("Data length mismatch");
+		return result;
+	}
+	
+	
+	// Inflates only the header of the loose object file at the current position,
+	// and returns the pair (String type, Long size). The data is not inflated.
+	public Object[] inflateLooseHeader() throws IOException {
+		int n = inflate(header, 0, header.length);
+		return GitObject.readHeader(new ByteArrayInputStream(header, 0, findHeaderLength(n)));
+	}
+	
+	
+	// Inflates the loose object file at the current position, and returns a new array of the raw
+	// object bytes (including header). The array is sized by the length in the object's header.
+	public byte[] inflateLooseObject() throws IOException {
+		int n = inflate(header, 0, header.length);
+		int headerLen = findHeaderLength(n);
+		long size = (Long)GitObject.readHeader(new ByteArrayInputStream(header, 0, headerLen))[1];
+		if (size > MAX_ARRAY_LEN - headerLen)
+			throw new GitFormatException("Data too large");
+		
+		byte[] result = new byte[headerLen + (int)size];
+		if (n > result.length)
+			throw new GitFormatException("Data length mismatch");
+		System.arraycopy(header, 0, result, 0, n);
+		if (inflate(result, n, result.length - n) != result.length - n || inflate(probe, 0, 1) != 0)
+			throw new GitFormatException("Data length mismatch");
+		return result;
+	}
+	
+	
+	// Inflates bytes from the DEFLATE stream at the current position (continuing from any previous call since
+	// open()) into the given array range, and returns the number of bytes written, which is less than len
+	// only if the stream ended. The input is consumed only up to the end of the stream.
+	public int inflate(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		int total = 0;
+		try {
+			while (total < len && !inflater.finished()) {
+				int n = inflater.inflate(b, off + total, len - total);
+				total += n;
+				if (n > 0)
+					continue;
+				else if (inflater.needsInput()) {
+					if (!fillSource())
+						throw new EOFException();
+					inflater.setInput(source);  // Advances the source's position as the input is consumed
+				} else if (!inflater.finished())
+					throw new GitFormatException("Invalid DEFLATE data");
+			}
+		} catch (DataFormatException e) {
+			throw new GitFormatException("Invalid DEFLATE data", e);
+		}
+		return total;
+	}
+	
+	
+	// Returns the inflater, for a caller that feeds its own input. It is reset on release().
+	public Inflater getInflater() {
+		return inflater;
+	}
+	
+	
+	// Returns the internal buffer for use as scratch space by a caller that
+	// has not opened a channel. Its contents are not preserved across calls.
+	public byte[] getScratchBuffer() {
+		if (channel != null)
+			throw new IllegalStateException();
+		return buffer.array();
+	}
+	
+	
+	// Returns the length of the loose object header, including its NUL terminator,
+	// within the first n bytes of the header array.
+	private int findHeaderLength(int n) throws GitFormatException {
+		for (int i = 0; i < n; i++) {
+			if (header[i] == 0)
+				return i + 1;
+		}
+		throw new GitFormatException("Invalid object header");
+	}
+	
+	
+	// Returns false if the source is empty and the end of file has been reached. Prefers a mapped window,
+	// and falls back to reading into the buffer if the cache provides none (e.g. mapping is disabled).
+	private boolean fillSource() throws IOException {
+		if (source.hasRemaining())
+			return true;
+		if (channel == null)
+			throw new IllegalStateException("Not open");
+		if (crcEnabled)
+			updateCrc();
+		if (windows != null) {
+			ByteBuffer win = windows.get(pack, channel, position);
+			if (win != null) {
+				source = win;
+				crcMark = win.position();
+				position += win.remaining();
+				return true;
+			}
+		}
+		source = buffer;
+		buffer.clear().limit(readLen);
+		int n;
+		do n = channel.read(buffer, position);
+		while (n == 0);
+		buffer.flip();
+		crcMark = 0;
+		if (n == -1)
+			return false;
+		position += n;
+		readLen = Math.min(readLen * 2, MAX_READ_LEN);
+		return true;
+	}
+	
+	
+	
+	// Adds the bytes consumed from the source since the mark to the CRC, and moves the mark.
+	private void updateCrc() {
+		int pos = source.position();
+		crc.update(source.duplicate().position(crcMark).limit(pos));
+		crcMark = pos;
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	private static final int MAX_READ_LEN = 64 * 1024;
+	
+	private static final int MAX_ARRAY_LEN = Integer.MAX_VALUE - 8;
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	// A view of the raw bytes in the source, refilling it from the channel as needed.
+	private final class BufferInputStream extends InputStream {
+		
+		public int read() throws IOException {
+			if (!fillSource())
+				return -1;
+			return source.get() & 0xFF;
+		}
+		
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			if (len == 0)
+				return 0;
+			if (!fillSource())
+				return -1;
+			int n = Math.min(len, source.remaining());
+			source.get(b, off, n);
+			return n;
+		}
+		
+	}
+	
+}
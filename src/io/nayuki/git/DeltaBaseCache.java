@@ -0,0 +1,226 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A cache of inflated pack file entries, used to avoid re-inflating the same
+ * delta bases when reading objects whose deltas share a base. Entries are keyed
+ * by (pack file, byte offset), and the cache is bounded by the total number
+ * of data bytes held, evicting the least recently used entries first.
+ * <p>Each {@link FileRepository} owns one cache for all of its pack files. The hit,
+ * miss, and eviction counters are provided so that the size limit can be tuned.
+ * This class is thread-safe.</p>
+ * @see FileRepository#getDeltaBaseCache()
+ */
+public final class DeltaBaseCache {
+	
+	/*---- Fields ----*/
+	
+	// In least-recently-used to most-recently-used order.
+	private final Map<Key,Entry> entries;
+	
+	private long maxBytes;
+	private long currentBytes;
+	
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs an empty cache with the specified size limit, which must be non-negative.
+	DeltaBaseCache(long maxBytes) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("Negative size limit");
+		entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.maxBytes = maxBytes;
+	}
+	
+	
+	
+	/*---- Public methods ----*/
+	
+	/**
+	 * Returns the maximum total number of data bytes that this cache holds.
+	 * @return the size limit, which is non-negative
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	
+	/**
+	 * Sets the maximum total number of data bytes that this cache holds, evicting entries
+	 * if needed. A limit of zero disables caching. Entries larger than the limit are never cached.
+	 * @param limit the new size limit, which must be non-negative
+	 * @throws IllegalArgumentException if the limit is negative
+	 */
+	public synchronized void setMaxBytes(long limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative size limit");
+		maxBytes = limit;
+		evict();
+	}
+	
+	
+	/**
+	 * Returns the total number of data bytes currently held by this cache.
+	 * @return the current size, between 0 and {@link #getMaxBytes()}
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+	
+	
+	/**
+	 * Returns the number of entries currently held by this cache.
+	 * @return the number of entries, at least 0
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found an entry since this cache was created.
+	 * @return the hit count, at least 0
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found no entry since this cache was created.
+	 * @return the miss count, at least 0
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+	
+	
+	/**
+	 * Returns the number of entries removed to respect the size limit since this cache was created.
+	 * @return the eviction count, at least 0
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+	
+	
+	/**
+	 * Removes all entries from this cache. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		currentBytes = 0;
+	}
+	
+	
+	
+	/*---- Package-private methods ----*/
+	
+	// Returns the cached pair (Integer typeIndex, byte[] data) for the given location, or null
+	// if not cached. The caller must not modify the returned data array.
+	synchronized Object[] get(PackfileReader pack, long offset) {
+		Entry ent = entries.get(new Key(pack, offset));
+		if (ent == null) {
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return new Object[]{ent.typeIndex, ent.data};
+	}
+	
+	
+	// Stores the given inflated data for the given location. The caller must not modify the data array afterward.
+	synchronized void put(PackfileReader pack, long offset, int typeIndex, byte[] data) {
+		if (data.length > maxBytes)
+			return;
+		Entry old = entries.put(new Key(pack, offset), new Entry(typeIndex, data));
+		if (old != null)
+			currentBytes -= old.data.length;
+		currentBytes += data.length;
+		evict();
+	}
+	
+	
+	// Removes all entries belonging to the given pack, typically because it is being closed.
+	synchronized void removeAll(PackfileReader pack) {
+		for (Iterator<Map.Entry<Key,Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Key,Entry> ent = it.next();
+			if (ent.getKey().pack == pack) {
+				currentBytes -= ent.getValue().data.length;
+				it.remove();
+			}
+		}
+	}
+	
+	
+	// Removes least recently used entries until the size limit is satisfied.
+	private void evict() {
+		for (Iterator<Entry> it = entries.values().iterator(); currentBytes > maxBytes; ) {
+			currentBytes -= it.next().data.length;
+			it.remove();
+			evictionCount++;
+		}
+	}
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	private static final class Key {
+		
+		public final PackfileReader pack;
+		public final long offset;
+		
+		
+		public Key(PackfileReader pack, long offset) {
+			this.pack = pack;
+			this.offset = offset;
+		}
+		
+		
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return pack == other.pack && offset == other.offset;
+		}
+		
+		
+		public int hashCode() {
+			return System.identityHashCode(pack) * 31 + Long.hashCode(offset);
+		}
+		
+	}
+	
+	
+	
+	private static final class Entry {
+		
+		public final int typeIndex;
+		public final byte[] data;
+		
+		
+		public Entry(int typeIndex, byte[] data) {
+			this.typeIndex = typeIndex;
+			this.data = data;
+		}
+		
+	}
+	
+}
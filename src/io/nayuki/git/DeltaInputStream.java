@@ -0,0 +1,135 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+
+/**
+ * Applies a stream of Git delta instructions to a base, producing the result
+ * as a stream. Only the base needs to be held in memory. A helper class for
+ * {@link PackfileReader}.
+ */
+final class DeltaInputStream extends InputStream {
+	
+	/*---- Fields ----*/
+	
+	// The number of bytes that the delta says the result has.
+	public final long resultSize;
+	
+	private final byte[] base;
+	private final DataInputStream delta;
+	
+	private long remaining;  // Result bytes not yet produced
+	
+	// The unfinished part of the current instruction; at most one of the lengths is non-zero.
+	private int copyOffset;
+	private int copyLength;
+	private int insertLength;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Reads the delta header from the given stream, and checks it against the given base.
+	public DeltaInputStream(byte[] base, InputStream deltaIn) throws IOException {
+		this.base = Objects.requireNonNull(base);
+		delta = new DataInputStream(deltaIn);
+		long baseLen = PackfileReader.decodeDeltaHeaderInt(delta);
+		if (baseLen != base.length)
+			throw new GitFormatException("Base data length mismatch");
+		resultSize = PackfileReader.decodeDeltaHeaderInt(delta);
+		if (resultSize < 0)
+			throw new GitFormatException("Delta result too large");
+		remaining = resultSize;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xFF);
+	}
+	
+	
+	public int read(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0)
+			return 0;
+		while (copyLength == 0 && insertLength == 0) {
+			if (!nextInstruction())
+				return -1;
+		}
+		
+		int n;
+		if (copyLength > 0) {
+			n = Math.min(len, copyLength);
+			System.arraycopy(base, copyOffset, b, off, n);
+			copyOffset += n;
+			copyLength -= n;
+		} else {
+			n = delta.read(b, off, Math.min(len, insertLength));
+			if (n == -1)
+				throw new EOFException("Unexpected end of delta data");
+			insertLength -= n;
+		}
+		remaining -= n;
+		return n;
+	}
+	
+	
+	public void close() throws IOException {
+		delta.close();
+	}
+	
+	
+	// Decodes the next delta instruction, returning false if the delta has ended.
+	private boolean nextInstruction() throws IOException {
+		int op = delta.read();
+		if (op == -1) {
+			if (remaining != 0)
+				throw new GitFormatException("Data length mismatch");
+			return false;
+		}
+		if (op == 0)
+			throw new GitFormatException("Reserved delta instruction");
+		
+		if ((op & 0x80) == 0) {  // Insert
+			if (op > remaining)
+				throw new GitFormatException("Data length mismatch");
+			insertLength = op;
+		} else {  // Copy
+			long off = 0;
+			for (int i = 0; i < 4; i++) {
+				if (((op >>> i) & 1) != 0)
+					off |= (long)delta.readUnsignedByte() << (i * 8);
+			}
+			int len = 0;
+			for (int i = 0; i < 3; i++) {
+				if (((op >>> (i + 4)) & 1) != 0)
+					len |= delta.readUnsignedByte() << (i * 8);
+			}
+			if (len == 0)
+				len = 0x10000;
+			if (off + len > base.length)
+				throw new GitFormatException("Delta copy out of bounds");
+			if (len > remaining)
+				throw new GitFormatException("Data length mismatch");
+			copyOffset = (int)off;
+			copyLength = len;
+		}
+		return true;
+	}
+	
+}
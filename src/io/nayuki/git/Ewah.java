@@ -0,0 +1,98 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+
+/**
+ * Encodes and decodes bit sets in the serialized EWAH (enhanced word-aligned hybrid) compressed format,
+ * as used by Git's reachability bitmap files. A helper class for {@link BitmapIndex} and others; not instantiable.
+ * <p>A serialized bitmap is a uint32 number of bits, a uint32 number of 64-bit words, the words, and a uint32
+ * position of the last marker word, all big-endian. The words are a sequence of runs, each being a marker word
+ * followed by literal words. A marker word has the repeated bit value in bit 0, the number of repeated
+ * all-0 or all-1 words in bits 1 to 32, and the number of following literal words in bits 33 to 63.</p>
+ */
+final class Ewah {
+	
+	// Decodes the serialized bitmap starting at the given position of the given buffer,
+	// and returns the pair (BitSet bits, Integer serializedLength).
+	public static Object[] decode(ByteBuffer buf, int position) throws GitFormatException {
+		if (position < 0 || buf.capacity() - position < 8)
+			throw new GitFormatException("Truncated bitmap");
+		long numBits = buf.getInt(position) & 0xFFFFFFFFL;
+		int numWords = buf.getInt(position + 4);
+		if (numWords < 0 || (buf.capacity() - position - 12) / 8 < numWords)
+			throw new GitFormatException("Truncated bitmap");
+		
+		long[] result = new long[(int)((numBits + 63) / 64)];
+		int outIndex = 0;
+		int base = position + 8;
+		for (int i = 0; i < numWords; ) {
+			long marker = buf.getLong(base + i * 8);
+			i++;
+			long runLen = (marker >>> 1) & 0xFFFFFFFFL;
+			int numLiterals = (int)(marker >>> 33);
+			if (runLen > result.length - outIndex || numLiterals > result.length - outIndex - runLen || numLiterals > numWords - i)
+				throw new GitFormatException("Invalid bitmap data");
+			if ((marker & 1) != 0) {
+				for (long j = 0; j < runLen; j++, outIndex++)
+					result[outIndex] = -1;
+			} else
+				outIndex += (int)runLen;
+			for (int j = 0; j < numLiterals; j++, i++, outIndex++)
+				result[outIndex] = buf.getLong(base + i * 8);
+		}
+		if (numBits % 64 != 0 && result.length > 0)  // Clear bits beyond the end
+			result[result.length - 1] &= (1L << (numBits % 64)) - 1;
+		return new Object[]{BitSet.valueOf(result), 12 + numWords * 8};
+	}
+	
+	
+	// Returns the serialized form of the given bit set. The number of bits is the set's length (its highest set bit plus 1).
+	public static byte[] encode(BitSet bits) {
+		long[] words = bits.toLongArray();
+		long[] out = new long[words.length + 1];  // Each marker word is followed by at least one input word, except if empty
+		int outLen = 0;
+		int lastMarker = 0;
+		int i = 0;
+		do {
+			// Count a run of all-0 or all-1 words, then the literal words until the next such word
+			long runBit = 0;
+			long runLen = 0;
+			if (i < words.length && (words[i] == 0 || words[i] == -1)) {
+				long word = words[i];
+				runBit = word & 1;
+				for (; i < words.length && words[i] == word; i++)
+					runLen++;
+			}
+			int start = i;
+			for (; i < words.length && words[i] != 0 && words[i] != -1; i++);
+			int numLiterals = i - start;
+			
+			lastMarker = outLen;
+			out[outLen] = (long)numLiterals << 33 | runLen << 1 | runBit;
+			outLen++;
+			System.arraycopy(words, start, out, outLen, numLiterals);
+			outLen += numLiterals;
+		} while (i < words.length);
+		
+		ByteBuffer result = ByteBuffer.allocate(12 + outLen * 8);
+		result.putInt(bits.length());
+		result.putInt(outLen);
+		for (int j = 0; j < outLen; j++)
+			result.putLong(out[j]);
+		result.putInt(lastMarker);
+		return result.array();
+	}
+	
+	
+	private Ewah() {}
+	
+}
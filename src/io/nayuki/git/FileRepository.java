@@ -7,40 +7,80 @@
 
 package io.nayuki.git;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /**
  * A Git repository based on files and directories in the file system.
+ * <p>The repository keeps every pack file in "objects/pack" open between calls. The set of open packs is
+ * refreshed when a lookup misses and the pack directory's modification time has changed since the last scan,
+ * or when {@link #rescan()} is called. If the pack directory has a multi-pack index, then the packs it covers
+ * are searched with that single index. Other packs are searched in most-recently-hit-first order.</p>
+ * <p>This class is thread-safe, and one instance can serve reads from many threads at once. Pack files are read
+ * with positional reads, so reads don't contend for a file position. A rescan publishes a new set of packs while
+ * reads continue with the old one, and each pack is reference-counted so that a pack that disappeared is closed
+ * only after the last read using it has finished. Likewise {@link #close()} lets reads in progress finish
+ * (including streams from {@link #openObjectStream(ObjectId)}, until they are closed), while new calls fail.
+ * Objects and references written by one thread are visible to reads by other threads after the write returns.</p>
  */
 public final class FileRepository implements Repository {
 	
 	/*---- Fields ----*/
 	
-	// These fields are not null after construction but before
-	// close() is called. They are null after close() is called.
-	private File directory;
-	private File objectsDir;
+	private final File directory;
+	private final File objectsDir;
+	private final File packDir;
+	
+	// Set by close(), after which public methods throw IllegalStateException.
+	private volatile boolean closed = false;
+	
+	// The current set of open packs, which is replaced as a whole by rescan() and close(). Each
+	// pack in the set holds one reference for the set, which is released after the set is replaced.
+	private final AtomicReference<PackSet> packSet = new AtomicReference<>(PackSet.EMPTY);
+	
+	// Serializes rescan() and close(), which replace the pack set.
+	private final Object rescanLock = new Object();
+	
+	// Shared by all pack readers of this repository. Not null, even after closing.
+	private final DeltaBaseCache deltaBaseCache = new DeltaBaseCache(DEFAULT_DELTA_BASE_CACHE_BYTES);
+	
+	// Shared by all pack readers of this repository. Not null, even after closing.
+	private final PackWindowCache packWindowCache = new PackWindowCache(DEFAULT_PACK_WINDOW_SIZE, 0);
+	
+	// Shared by all pack readers of this repository. Not null, even after closing.
+	private final ObjectVerifier objectVerifier = new ObjectVerifier();
 	
 	
 	
@@ -64,6 +104,8 @@ public final class FileRepository implements Repository {
 		if (!new File(dir, "config").isFile() || !objectsDir.isDirectory())
 			throw new IllegalArgumentException("Invalid repository format");
 		directory = dir;
+		packDir = new File(objectsDir, "pack");
+		rescan();
 	}
 	
 	
@@ -76,7 +118,39 @@ public final class FileRepository implements Repository {
 	 * @return the repository's directory or {@code null}
 	 */
 	public File getDirectory() {
-		return directory;
+		return closed ? null : directory;
+	}
+	
+	
+	/**
+	 * Returns the cache of inflated delta bases shared by all pack files of this repository. The returned
+	 * object can be used to read the cache's statistics and to change its size limit, which defaults to 96 MiB.
+	 * @return the delta base cache of this repository (not {@code null})
+	 */
+	public DeltaBaseCache getDeltaBaseCache() {
+		return deltaBaseCache;
+	}
+	
+	
+	/**
+	 * Returns the cache of memory-mapped pack file windows shared by all pack files of this repository. The returned
+	 * object can be used to read the cache's statistics, to change the window size, which defaults to 32 MiB, and to
+	 * enable mapping by setting a nonzero limit on the total mapped bytes, which defaults to 0 (disabled).
+	 * @return the pack window cache of this repository (not {@code null})
+	 */
+	public PackWindowCache getPackWindowCache() {
+		return packWindowCache;
+	}
+	
+	
+	/**
+	 * Returns the verifier that controls how the data of objects read from this repository is checked
+	 * against their IDs. The returned object can be used to change the verification policy, which defaults
+	 * to hashing every object on every read, and to read the counts of checks performed.
+	 * @return the object verifier of this repository (not {@code null})
+	 */
+	public ObjectVerifier getObjectVerifier() {
+		return objectVerifier;
 	}
 	
 	
@@ -84,12 +158,331 @@ public final class FileRepository implements Repository {
 	 * Disposes any resources associated with this repository object and invalidates this object.
 	 * This method must be called when finished using a repository. This has no effect if called more than once.
 	 * <p>The method may close file streams and removed cached data. It is illegal to call methods on
-	 * this repository object after closing.</p>
+	 * this repository object after closing. Reads already in progress on other threads are allowed to finish,
+	 * and each pack file is closed when the last read or object stream using it finishes.</p>
 	 * @throws IOException if an I/O exception occurred
 	 */
 	public void close() throws IOException {
-		directory = null;
-		objectsDir = null;
+		PackSet old;
+		synchronized (rescanLock) {
+			if (closed)
+				return;
+			closed = true;
+			old = packSet.getAndSet(PackSet.EMPTY);
+		}
+		releaseAll(old.getAllPackfiles());
+	}
+	
+	
+	/**
+	 * Rescans the "objects/pack" directory, opening pack files that have appeared and closing
+	 * ones that have disappeared since the last scan. Normally this doesn't need to be called
+	 * because lookups rescan automatically when the directory's modification time changes, but
+	 * this method is useful when packs may have changed within the file system's timestamp
+	 * granularity.
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or a malformed pack file was encountered
+	 */
+	public void rescan() throws IOException {
+		synchronized (rescanLock) {
+			checkNotClosed();
+			rescanLocked();
+		}
+	}
+	
+	
+	// Performs rescan() while holding the rescan lock. Packs in the new set are opened or
+	// kept from the old set, and packs that are only in the old set are released.
+	private void rescanLocked() throws IOException {
+		FileTime modified = getPackDirModified();  // Read before listing so that a concurrent change triggers a later rescan
+		PackSet old = packSet.get();
+		
+		Map<File,PackfileReader> oldPacks = new HashMap<>();
+		for (PackfileReader pfr : old.getAllPackfiles())
+			oldPacks.put(pfr.getIndexFile(), pfr);
+		
+		List<PackfileReader> newPacks = new ArrayList<>();
+		List<PackfileReader> keptPacks = new ArrayList<>();
+		List<PackfileReader> packs;
+		MultiPackIndex midx = null;
+		PackfileReader[] midxPacks = null;
+		boolean success = false;
+		try {
+			File[] items = packDir.listFiles();
+			if (items != null) {
+				final String IDX_EXT = ".idx";
+				for (File item : items) {  // Look for index files
+					String name = item.getName();
+					if (item.isFile() && name.startsWith("pack-") && name.endsWith(IDX_EXT)) {
+						PackfileReader pfr = oldPacks.remove(item);
+						if (pfr != null)
+							keptPacks.add(pfr);
+						else {
+							File packfile = new File(packDir, name.substring(0, name.length() - IDX_EXT.length()) + ".pack");
+							if (packfile.isFile())
+								newPacks.add(new PackfileReader(item, packfile, this));
+						}
+					}
+				}
+			}
+			
+			// Newly appeared packs are likely to hold recently written objects, so search them first.
+			// Kept packs keep their old order, including those that were covered by the multi-pack index.
+			List<PackfileReader> oldOrder = old.getAllPackfiles();
+			keptPacks.sort(Comparator.comparingInt(oldOrder::indexOf));
+			packs = new ArrayList<>(newPacks);
+			packs.addAll(keptPacks);
+			
+			// Use the multi-pack index only if it is valid and every pack it covers is present
+			File midxFile = new File(packDir, MultiPackIndex.FILE_NAME);
+			if (midxFile.isFile()) {
+				try {
+					midx = new MultiPackIndex(midxFile);
+				} catch (GitFormatException e) {}  // Like Git, fall back to the index file of each pack
+			}
+			if (midx != null) {
+				Map<String,PackfileReader> packsByName = new HashMap<>();
+				for (PackfileReader pfr : packs)
+					packsByName.put(pfr.getIndexFile().getName(), pfr);
+				String[] names = midx.getPackNames();
+				midxPacks = new PackfileReader[names.length];
+				for (int i = 0; i < names.length; i++) {
+					midxPacks[i] = packsByName.get(names[i]);
+					if (midxPacks[i] == null) {
+						midx = null;
+						midxPacks = null;
+						break;
+					}
+				}
+				if (midx != null)
+					packs.removeAll(Arrays.asList(midxPacks));
+			}
+			success = true;
+		} finally {
+			if (!success)
+				releaseAll(newPacks);  // The old set stays in use, so a later lookup retries the scan
+		}
+		
+		packSet.set(new PackSet(packs, midx, midxPacks, modified));
+		releaseAll(oldPacks.values());
+	}
+	
+	
+	// Releases the pack set's reference to each of the given packs, closing those that no read is using.
+	private static void releaseAll(Collection<PackfileReader> packs) throws IOException {
+		IOException exception = null;
+		for (PackfileReader pfr : packs) {
+			try {
+				pfr.release();
+			} catch (IOException e) {
+				if (exception == null)
+					exception = e;
+			}
+		}
+		if (exception != null)
+			throw exception;
+	}
+	
+	
+	/**
+	 * Writes a multi-pack index file ("objects/pack/multi-pack-index") covering all pack files currently
+	 * in this repository, replacing any existing one, and starts using it. With the multi-pack index, looking up
+	 * an object takes a single binary search instead of one search per pack. Packs that are added later are
+	 * searched individually until this method is called again. The file format is compatible with Git.
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or a malformed pack file was encountered
+	 */
+	public void writeMultiPackIndex() throws IOException {
+		rescan();
+		packDir.mkdirs();
+		File temp = File.createTempFile("tmp_midx_", "", packDir);
+		try {
+			MultiPackIndexWriter.write(temp, packSet.get().getAllPackfiles());
+			Files.move(temp.toPath(), new File(packDir, MultiPackIndex.FILE_NAME).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();  // No effect if already moved
+		}
+		rescan();
+	}
+	
+	
+	/**
+	 * Writes a reverse index file (".rev") for each pack file in this repository that doesn't have one. A reverse index
+	 * maps pack file offsets to objects; without the file, it is computed in memory from the pack's index when first
+	 * needed by {@link #getDiskSize(ObjectId)}, {@link #getObjectIdAtOffset(File,long)}, or
+	 * {@link #listObjectsInPackOrder(File)}. The file format is compatible with Git.
+	 * @return the number of reverse index files written, at least 0
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or a malformed pack file was encountered
+	 */
+	public int writeReverseIndexes() throws IOException {
+		rescan();
+		int result = 0;
+		for (PackfileReader pfr : packSet.get().getAllPackfiles()) {
+			if (pfr.writeReverseIndex())
+				result++;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns a new list of the pack files ("objects/pack/pack-*.pack") currently in this repository, in no particular order.
+	 * @return a new list of the pack files in this repository (not {@code null})
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or a malformed pack file was encountered
+	 */
+	public List<File> getPackFiles() throws IOException {
+		checkNotClosed();
+		rescanIfChanged();
+		List<File> result = new ArrayList<>();
+		for (PackfileReader pfr : packSet.get().getAllPackfiles())
+			result.add(pfr.getPackFile());
+		return result;
+	}
+	
+	
+	/**
+	 * Returns a read-only list of the IDs of all objects in the specified pack file, in the order that their entries appear
+	 * in the file. This is a good order for reading many objects, because deltas come after their bases and reads are sequential.
+	 * @param packFile a pack file of this repository, as returned by {@link #getPackFiles()} (not {@code null})
+	 * @return a read-only list of the object IDs in pack file order (not {@code null})
+	 * @throws NullPointerException if the pack file is {@code null}
+	 * @throws IllegalArgumentException if the file is not a pack file of this repository
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public List<ObjectId> listObjectsInPackOrder(File packFile) throws IOException {
+		PackfileReader pfr = acquirePackfile(packFile);
+		try {
+			return pfr.getObjectIdsInPackOrder();
+		} finally {
+			pfr.release();
+		}
+	}
+	
+	
+	/**
+	 * Returns the ID of the object whose entry starts at the specified byte offset in the specified pack file,
+	 * or {@code null} if no entry starts at that offset.
+	 * @param packFile a pack file of this repository, as returned by {@link #getPackFiles()} (not {@code null})
+	 * @param offset the byte offset in the pack file
+	 * @return the ID of the object at the offset, or {@code null}
+	 * @throws NullPointerException if the pack file is {@code null}
+	 * @throws IllegalArgumentException if the file is not a pack file of this repository
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public ObjectId getObjectIdAtOffset(File packFile, long offset) throws IOException {
+		PackfileReader pfr = acquirePackfile(packFile);
+		try {
+			return pfr.getObjectIdAtOffset(offset);
+		} finally {
+			pfr.release();
+		}
+	}
+	
+	
+	/**
+	 * Returns the number of bytes that the object with the specified hash occupies on disk. For a pack entry, this is the size
+	 * of the entry's header and compressed data, which for a delta covers only the delta and not its base. For a loose object,
+	 * this is the size of the file. This is like the {@code %(objectsize:disk)} format of {@code git cat-file}.
+	 * @param id the hash of the object (not {@code null})
+	 * @return the on-disk size of the object, which is positive
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public long getDiskSize(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
+		checkNotClosed();
+		Object[] location = acquirePackedObject(id);
+		if (location != null) {
+			PackfileReader pfr = (PackfileReader)location[0];
+			try {
+				return pfr.getEntrySize((Long)location[1]);
+			} finally {
+				pfr.release();
+			}
+		}
+		File looseFile = getLooseObjectFile(id);
+		if (!looseFile.isFile())
+			throw new IllegalArgumentException("No object with the ID found");
+		return looseFile.length();
+	}
+	
+	
+	/**
+	 * Returns the reachability bitmap index of this repository, or {@code null} if no pack file has a bitmap
+	 * file ("objects/pack/pack-*.bitmap"). If more than one pack has a bitmap file, the one of the pack with
+	 * the most objects is used. The returned object remains valid until the pack set changes or this repository is closed.
+	 * @return the reachability bitmap index, or {@code null}
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or a malformed bitmap file was encountered
+	 */
+	public BitmapIndex getBitmapIndex() throws IOException {
+		checkNotClosed();
+		rescanIfChanged();
+		BitmapIndex result = null;
+		int resultCount = -1;
+		for (PackfileReader pfr : packSet.get().getAllPackfiles()) {
+			BitmapIndex bitmaps = pfr.getBitmapIndex();
+			if (bitmaps != null && pfr.getObjectCount() > resultCount) {
+				result = bitmaps;
+				resultCount = pfr.getObjectCount();
+			}
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Writes a reachability bitmap file for the specified pack file, replacing any existing one, so that
+	 * {@link #getBitmapIndex()} can answer reachability queries on its history quickly. The file stores the sets of objects
+	 * reachable from the commits that the tips refer to and from a sample of their ancestors. The pack must contain every
+	 * object reachable from the tips, as a pack made from all objects of a repository does. The file format is compatible
+	 * with Git, which uses it to speed up fetches and counting; typically the tips are the targets of all references.
+	 * @param packFile a pack file of this repository, as returned by {@link #getPackFiles()} (not {@code null})
+	 * @param tips the objects whose history to index, such as commits and tags (not {@code null})
+	 * @throws NullPointerException if the pack file, collection, or any element is {@code null}
+	 * @throws IllegalArgumentException if the file is not a pack file of this repository,
+	 * a tip was not found, or the pack lacks an object reachable from the tips
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public void writeBitmapIndex(File packFile, Collection<? extends ObjectId> tips) throws IOException {
+		Objects.requireNonNull(tips);
+		PackfileReader pfr = acquirePackfile(packFile);
+		try {
+			pfr.writeBitmapIndex(tips);
+		} finally {
+			pfr.release();
+		}
+	}
+	
+	
+	/**
+	 * Writes the commits of the specified graph to this repository's commit-graph, so that Git and
+	 * {@link CommitGraph#addHistory(Repository, Collection)} can read their parents without reading the commit objects.
+	 * Every parent of every commit in the graph must be in the graph too, or already be in the commit-graph; a graph
+	 * built by {@code addHistory} satisfies this. The tree ID and commit time of each commit are taken from the
+	 * existing commit-graph if it has the commit, otherwise from the commit object in this repository.
+	 * <p>If not split, this replaces the commit-graph with a single file "objects/info/commit-graph" that has exactly
+	 * the commits of the graph. If split, this appends a layer to the chain in "objects/info/commit-graphs" that has
+	 * the commits not already in the chain, so existing layers are not rewritten; as in Git, the top layers are merged
+	 * into the new layer when they have at most twice as many commits, which keeps the chain short.</p>
+	 * @param graph the commits to write (not {@code null})
+	 * @param split whether to append a layer to a split chain instead of writing a single file
+	 * @throws NullPointerException if the graph is {@code null}
+	 * @throws IllegalArgumentException if a parent of a commit in the graph is unavailable
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public void writeCommitGraph(CommitGraph graph, boolean split) throws IOException {
+		Objects.requireNonNull(graph);
+		checkNotClosed();
+		CommitGraphWriter.write(this, objectsDir, graph, split);
 	}
 	
 	
@@ -134,7 +527,7 @@ public final class FileRepository implements Repository {
 		checkNotClosed();
 		
 		prefix = prefix.toLowerCase();
-		Set<ObjectId> result = new HashSet<>();
+		Set<ObjectId> result = new ObjectIdSet();
 		
 		// Check loose objects
 		if (prefix.length() < 2) {
@@ -162,7 +555,11 @@ public final class FileRepository implements Repository {
 		}
 		
 		// Check pack files
-		for (PackfileReader pfr : listPackfiles())
+		rescanIfChanged();
+		PackSet packs = packSet.get();
+		if (packs.multiPackIndex != null)
+			packs.multiPackIndex.getIdsByPrefix(prefix, result);
+		for (PackfileReader pfr : packs.packfiles)
 			pfr.getIdsByPrefix(prefix, result);
 		return result;
 	}
@@ -177,41 +574,52 @@ public final class FileRepository implements Repository {
 	 * @throws IOException if an I/O exception occurred or malformed data was encountered
 	 */
 	public boolean containsObject(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
 		checkNotClosed();
-		if (getLooseObjectFile(id).isFile())
-			return true;
-		for (PackfileReader pfr : listPackfiles()) {
-			if (pfr.containsObject(id))
-				return true;
-		}
-		return false;
+		return findPackedObject(id) != null || getLooseObjectFile(id).isFile();
 	}
 	
 	
-	// Reads the object in the repository with the given hash, checks the hash, and returns the byte array.
-	// This does not check whether the object has a valid header or data format.
-	private byte[] readRawObject(ObjectId id) throws IOException {
+	// Reads the object in the repository with the given hash, checks it as the verification policy
+	// requires, and returns the byte array, or null if not found. This does not check whether the object
+	// has a valid header or data format. This is also used by PackfileReader for REF_DELTA bases, where the
+	// depth is the number of packs whose delta chains led to the object; other callers pass 0.
+	byte[] readRawObject(ObjectId id, int depth) throws IOException {
 		// Try to read the object data bytes from loose file or pack files
 		byte[] result = null;
 		File looseFile = getLooseObjectFile(id);
 		if (looseFile.isFile()) {  // Read from loose object store
-			ByteArrayOutputStream bout = new ByteArrayOutputStream();
-			try (OutputStream out = new InflaterOutputStream(bout)) {
-				Files.copy(looseFile.toPath(), out);
+			Decompressor dec = Decompressor.acquire();
+			try (FileChannel ch = FileChannel.open(looseFile.toPath())) {
+				dec.open(ch, 0, 8192);
+				result = dec.inflateLooseObject();
+			} finally {
+				dec.release();
 			}
-			result = bout.toByteArray();
 			
-		} else {  // Scan pack files
-			for (PackfileReader pfr : listPackfiles()) {
-				result = pfr.readRawObject(id);
-				if (result != null)
-					break;
+			// Loose files have no other checksum, so the CRC32 policy hashes them too
+			ObjectVerifier.Policy policy = objectVerifier.getPolicy();
+			if (policy == ObjectVerifier.Policy.NONE || (policy == ObjectVerifier.Policy.ONCE && objectVerifier.isLooseVerified(id)))
+				objectVerifier.countSkip();
+			else {
+				if (!Arrays.equals(GitObject.getSha1Hash(result), id.getBytes()))
+					throw new GitFormatException("Hash of data mismatches object ID");
+				objectVerifier.countHash();
+				if (policy == ObjectVerifier.Policy.ONCE)
+					objectVerifier.addLooseVerified(id);
+			}
+			
+		} else {  // Search pack files, which check the data
+			Object[] location = acquirePackedObject(id);
+			if (location != null) {
+				PackfileReader pfr = (PackfileReader)location[0];
+				try {
+					result = pfr.readRawObject(id, (Long)location[1], depth);
+				} finally {
+					pfr.release();
+				}
 			}
 		}
-		
-		// Check the bytes and return result
-		if (result != null && !Arrays.equals(GitObject.getSha1Hash(result), id.getBytes()))
-			throw new GitFormatException("Hash of data mismatches object ID");
 		return result;
 	}
 	
@@ -229,46 +637,173 @@ public final class FileRepository implements Repository {
 		Objects.requireNonNull(id);
 		checkNotClosed();
 		
-		if (getLooseObjectFile(id).isFile()) {
+		Object[] location = acquirePackedObject(id);
+		if (location != null) {
+			PackfileReader pfr = (PackfileReader)location[0];
+			try {
+				return pfr.readObject(id, (Long)location[1]);
+			} finally {
+				pfr.release();
+			}
+		} else if (!getLooseObjectFile(id).isFile())
+			throw new IllegalArgumentException("No object with the ID found");
+		else {
 			// Read object bytes and extract header
-			byte[] bytes = readRawObject(id);
-			int index = 0;
-			while (index < bytes.length && bytes[index] != 0)
-				index++;
-			if (index >= bytes.length)
-				throw new GitFormatException("Invalid object header");
-			String header = new String(bytes, 0, index, StandardCharsets.US_ASCII);
-			bytes = Arrays.copyOfRange(bytes, index + 1, bytes.length);
-			
-			// Parse header
-			String[] parts = header.split(" ", -1);
-			if (parts.length != 2)
-				throw new GitFormatException("Invalid object header");
-			String type = parts[0];
-			int length = Integer.parseInt(parts[1]);
-			if (length < 0)
-				throw new GitFormatException("Negative data length");
-			if (!Integer.toString(length).equals(parts[1]))  // Check for non-canonical number representations like -0, 007, etc.
-				throw new GitFormatException("Invalid data length string");
-			if (length != bytes.length)
-				throw new GitFormatException("Data length mismatch");
+			Object[] pair = GitObject.splitHeader(readRawObject(id, 0));
+			String type = (String)pair[0];
+			byte[] bytes = (byte[])pair[1];
 			
-			// Parse bytes into object
-			return switch (type) {
+			// Parse bytes into object, which remembers its ID
+			GitObject result = switch (type) {
 				case "blob"   -> new BlobObject  (bytes);
 				case "tree"   -> new TreeObject  (bytes);
 				case "commit" -> new CommitObject(bytes);
 				case "tag"    -> new TagObject   (bytes);
 				default -> throw new GitFormatException("Unknown object type: " + type);
 			};
+			result.rememberId(id);
+			return result;
+		}
+	}
+	
+	
+	/**
+	 * Reads the Git objects with the specified hashes from this repository, parses them, and passes
+	 * each object and its ID to the specified action as soon as it has been read. Each distinct ID is read once.
+	 * <p>Every object is located before any is read, so a missing ID is reported before the action is called.
+	 * Then each pack's objects are read in increasing offset order, so the pack file is read sequentially. An object
+	 * that is the delta base of another object in the same call is inflated only once. Loose objects are read last.
+	 * If an exception is thrown, the action might have received some of the objects.</p>
+	 * @param ids the hashes of the objects (collection not {@code null} and no element {@code null})
+	 * @param action the action to receive each ID and its parsed object (not {@code null})
+	 * @throws NullPointerException if the collection, any ID, or the action is {@code null}
+	 * @throws IllegalArgumentException if no object with one of the IDs was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public void readObjects(Collection<? extends ObjectId> ids,
+			BiConsumer<? super ObjectId,? super GitObject> action) throws IOException {
+		Objects.requireNonNull(ids);
+		Objects.requireNonNull(action);
+		checkNotClosed();
+		
+		// Locate every object, grouping the packed ones by pack as lists of (ObjectId id, Long offset).
+		// Each pack is acquired once for the whole call.
+		Map<PackfileReader,List<Object[]>> packed = new LinkedHashMap<>();
+		List<ObjectId> loose = new ArrayList<>();
+		Set<ObjectId> seen = new ObjectIdSet(ids.size());
+		try {
+			for (ObjectId id : ids) {
+				if (!seen.add(id))
+					continue;
+				Object[] location = acquirePackedObject(id);
+				if (location != null) {
+					PackfileReader pfr = (PackfileReader)location[0];
+					if (packed.containsKey(pfr))
+						pfr.release();
+					else
+						packed.put(pfr, new ArrayList<>());
+					packed.get(pfr).add(new Object[]{id, location[1]});
+				} else if (getLooseObjectFile(id).isFile())
+					loose.add(id);
+				else
+					throw new IllegalArgumentException("No object with the ID found");
+			}
 			
-		} else {
-			for (PackfileReader pfr : listPackfiles()) {
-				GitObject result = pfr.readObject(id);
-				if (result != null)
-					return result;
+			for (Map.Entry<PackfileReader,List<Object[]>> entry : packed.entrySet())
+				entry.getKey().readObjects(entry.getValue(), action);
+		} finally {
+			releaseAll(packed.keySet());
+		}
+		for (ObjectId id : loose)
+			action.accept(id, readObject(id));
+	}
+	
+	
+	/**
+	 * Returns the type and size of the Git object with the specified hash in this repository. For a
+	 * pack entry, this reads only the entry header, plus the delta header and the headers of the base
+	 * chain if the entry is a delta. For a loose object, only the start of the file is inflated.
+	 * The object's data is not hashed or otherwise checked.
+	 * @param id the hash of the object (not {@code null})
+	 * @return the type and size of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public ObjectInfo readObjectInfo(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
+		return readObjectInfo(id, 0);
+	}
+	
+	
+	// Returns the type and size of the given object. This is also used by PackfileReader for REF_DELTA bases, where
+	// the depth is the number of packs whose delta chains led to the object; other callers pass 0.
+	ObjectInfo readObjectInfo(ObjectId id, int depth) throws IOException {
+		checkNotClosed();
+		Object[] location = acquirePackedObject(id);
+		if (location != null) {
+			PackfileReader pfr = (PackfileReader)location[0];
+			try {
+				return pfr.readObjectInfo((Long)location[1], depth);
+			} finally {
+				pfr.release();
+			}
+		}
+		File looseFile = getLooseObjectFile(id);
+		if (!looseFile.isFile())
+			throw new IllegalArgumentException("No object with the ID found");
+		Decompressor dec = Decompressor.acquire();
+		try (FileChannel ch = FileChannel.open(looseFile.toPath())) {
+			dec.open(ch, 0, 512);  // The header is short, so read a little more than it compresses to
+			Object[] header = dec.inflateLooseHeader();
+			return new ObjectInfo((String)header[0], (Long)header[1]);
+		} finally {
+			dec.release();
+		}
+	}
+	
+	
+	/**
+	 * Opens a stream of the data of the Git object with the specified hash in this repository.
+	 * Loose objects and undeltified pack entries are inflated as the stream is read. For deltified pack entries,
+	 * only the delta base is held in memory and the delta is applied as the stream is read. The object's
+	 * hash is verified incrementally, and a mismatch is reported when the end of the stream is read.
+	 * @param id the hash of the object (not {@code null})
+	 * @return a new stream of the data of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public ObjectStream openObjectStream(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
+		checkNotClosed();
+		
+		Object[] location = acquirePackedObject(id);
+		if (location != null) {
+			PackfileReader pfr = (PackfileReader)location[0];
+			try {
+				return pfr.openObjectStream(id, (Long)location[1]);  // The stream holds its own reference
+			} finally {
+				pfr.release();
 			}
+		}
+		File looseFile = getLooseObjectFile(id);
+		if (!looseFile.isFile())
 			throw new IllegalArgumentException("No object with the ID found");
+		
+		InputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(looseFile)));
+		boolean success = false;
+		try {
+			Object[] header = GitObject.readHeader(in);
+			ObjectStream result = new ObjectStream((String)header[0], (Long)header[1], in, id);
+			success = true;
+			return result;
+		} finally {
+			if (!success)
+				in.close();
 		}
 	}
 	
@@ -287,6 +822,19 @@ public final class FileRepository implements Repository {
 	}
 	
 	
+	/**
+	 * Returns a new inserter for writing many objects into this repository as a single pack file.
+	 * This is much faster than calling {@link #writeObject(GitObject)} for each object, which writes
+	 * one loose file per object. The inserter must be closed when finished.
+	 * @return a new object inserter for this repository (not {@code null})
+	 * @throws IllegalStateException if this repository is already closed
+	 */
+	public ObjectInserter newInserter() {
+		checkNotClosed();
+		return new ObjectInserter(this);
+	}
+	
+	
 	// Writes the given raw byte array (which should normally include headers)
 	// to this repository's on-disk storage as a loose object file.
 	// This does not check whether the object has a valid header or data format.
@@ -299,31 +847,136 @@ public final class FileRepository implements Repository {
 		if (!dir.exists())
 			dir.mkdirs();
 		
-		// Write the file or delete if unsuccessful
-		boolean success = false;
-		try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(file))) {
-			out.write(b);
-			success = true;
+		// Write a temporary file and move it into place, so that concurrent readers and writers never see a partial file
+		File temp = File.createTempFile("tmp_obj_", "", dir);
+		try {
+			try (OutputStream out = new DeflaterOutputStream(new FileOutputStream(temp))) {
+				out.write(b);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();  // No effect if already moved
 		}
-		if (!success)
-			file.delete();
 	}
 	
 	
-	// Scans the "objects/pack" directory and returns a collection of pack file reader objects.
-	private Collection<PackfileReader> listPackfiles() {
-		Collection<PackfileReader> result = new ArrayList<>();
-		File dir = new File(objectsDir, "pack");
-		final String IDX_EXT = ".idx";
-		for (File item : dir.listFiles()) {  // Look for index files
-			String name = item.getName();
-			if (item.isFile() && name.startsWith("pack-") && name.endsWith(IDX_EXT)) {
-				File packfile = new File(dir, name.substring(0, name.length() - IDX_EXT.length()) + ".pack");
-				if (packfile.isFile())
-					result.add(new PackfileReader(item, packfile));
+	// Returns the pair (PackfileReader pack, Long offset) locating the given object, or null if no pack
+	// contains it. The multi-pack index is searched first, and then each pack not covered by it. If the object
+	// is not found and the pack directory has changed, then this rescans and retries. A pack found by its own
+	// index is moved to the front of the search order. Looking up an ID only reads the pack's mapped index, so
+	// the returned pack may be released concurrently; use acquirePackedObject() to read the pack file.
+	private Object[] findPackedObject(ObjectId id) throws IOException {
+		while (true) {
+			PackSet packs = packSet.get();
+			MultiPackIndex midx = packs.multiPackIndex;
+			if (midx != null) {
+				int pos = midx.findPosition(id);
+				if (pos != -1)
+					return new Object[]{packs.multiPackIndexPacks[midx.getPackNumber(pos)], midx.getOffset(pos)};
 			}
+			List<PackfileReader> packfiles = packs.packfiles;
+			for (int i = 0; i < packfiles.size(); i++) {
+				PackfileReader pfr = packfiles.get(i);
+				long offset = pfr.findOffset(id);
+				if (offset != -1) {
+					if (i > 0) {  // Publish the new order unless the set was replaced meanwhile; losing a race is harmless
+						List<PackfileReader> reordered = new ArrayList<>(packfiles);
+						reordered.remove(i);
+						reordered.add(0, pfr);
+						packSet.compareAndSet(packs, new PackSet(reordered, midx, packs.multiPackIndexPacks, packs.packDirModified));
+					}
+					return new Object[]{pfr, offset};
+				}
+			}
+			if (!rescanIfChanged())
+				return null;
+		}
+	}
+	
+	
+	// Returns the same as findPackedObject(), but with a reference on the pack acquired,
+	// which the caller must release. This keeps the pack file open while it is read.
+	private Object[] acquirePackedObject(ObjectId id) throws IOException {
+		while (true) {
+			Object[] result = findPackedObject(id);
+			if (result == null || ((PackfileReader)result[0]).acquire())
+				return result;
+			checkNotClosed();  // Otherwise the pack was replaced by a concurrent rescan, so look in the new set
+		}
+	}
+	
+	
+	// Tests whether any currently open pack contains the given object, without checking
+	// loose objects or rescanning the pack directory. This is used by ObjectInserter.
+	boolean containsPackedObject(ObjectId id) throws IOException {
+		checkNotClosed();
+		PackSet packs = packSet.get();
+		if (packs.multiPackIndex != null && packs.multiPackIndex.findPosition(id) != -1)
+			return true;
+		for (PackfileReader pfr : packs.packfiles) {
+			if (pfr.containsObject(id))
+				return true;
+		}
+		return false;
+	}
+	
+	
+	// Returns a new reader for this repository's commit-graph files, or null if there are none or they must not be
+	// used because the repository is shallow or has grafts or replacements (which change the parents of commits).
+	CommitGraphFile readCommitGraphFile() throws IOException {
+		checkNotClosed();
+		String[] replacements = new File(new File(directory, "refs"), "replace").list();
+		if (new File(directory, "shallow").exists() || new File(new File(objectsDir, "info"), "grafts").exists()
+				|| (replacements != null && replacements.length > 0))
+			return null;
+		return CommitGraphFile.open(objectsDir);
+	}
+	
+	
+	// Returns the open reader for the given pack file with a reference acquired, which the caller
+	// must release, or throws an exception if it isn't a current pack of this repository.
+	private PackfileReader acquirePackfile(File packFile) throws IOException {
+		Objects.requireNonNull(packFile);
+		checkNotClosed();
+		rescanIfChanged();
+		while (true) {
+			PackfileReader found = null;
+			for (PackfileReader pfr : packSet.get().getAllPackfiles()) {
+				if (pfr.getPackFile().getName().equals(packFile.getName()))
+					found = pfr;
+			}
+			if (found == null)
+				throw new IllegalArgumentException("Not a pack file of this repository");
+			if (found.acquire())
+				return found;
+			checkNotClosed();
+		}
+	}
+	
+	
+	// Rescans the pack directory if its modification time differs from the last scan,
+	// and returns whether a rescan was performed. A thread that waited for another
+	// thread's rescan of the same change doesn't rescan again, but still returns true.
+	private boolean rescanIfChanged() throws IOException {
+		FileTime seen = packSet.get().packDirModified;
+		if (Objects.equals(getPackDirModified(), seen))
+			return false;
+		synchronized (rescanLock) {
+			checkNotClosed();
+			if (packSet.get().packDirModified == seen)
+				rescanLocked();
+		}
+		return true;
+	}
+	
+	
+	// Returns the current modification time of the pack directory, or null if it doesn't exist.
+	private FileTime getPackDirModified() throws IOException {
+		try {
+			return Files.getLastModifiedTime(packDir.toPath());
+		} catch (NoSuchFileException e) {
+			return null;
 		}
-		return result;
 	}
 	
 	
@@ -401,13 +1054,15 @@ public final class FileRepository implements Repository {
 		
 		File looseRefFile = new File(new File(directory, "refs"), ref.name);
 		looseRefFile.getParentFile().mkdirs();
-		boolean success = false;
-		try (Writer out = new OutputStreamWriter(new FileOutputStream(looseRefFile), StandardCharsets.US_ASCII)) {
-			out.write(ref.target.hexString + "\n");
-			success = true;
+		File temp = File.createTempFile("tmp_ref_", ".lock", looseRefFile.getParentFile());  // Skipped by listing, as in Git
+		try {
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.US_ASCII)) {
+				out.write(ref.target.getHexString() + "\n");
+			}
+			Files.move(temp.toPath(), looseRefFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();  // No effect if already moved
 		}
-		if (!success)
-			looseRefFile.delete();
 	}
 	
 	
@@ -432,7 +1087,7 @@ public final class FileRepository implements Repository {
 	// Scans all loose reference files in the given subdirectory name and adds them to the given collection of results.
 	private void listLooseReferences(String subDirName, Collection<Reference> result) throws IOException {
 		for (File item : new File(new File(directory, "refs"), subDirName.replace('/', File.separatorChar)).listFiles()) {
-			if (item.isFile() && !item.getName().equals("HEAD"))
+			if (item.isFile() && !item.getName().equals("HEAD") && !item.getName().endsWith(".lock"))
 				result.add(parseReferenceFile(subDirName, item));
 		}
 	}
@@ -496,15 +1151,65 @@ public final class FileRepository implements Repository {
 	// Returns the expected location of a loose object file with the given hash. This performs no I/O and always succeeds.
 	// For example, a repo at "user/project.git" has a loose object of hash 12345xyz at "user/project.git/objects/12/345xyz".
 	private File getLooseObjectFile(ObjectId id) {
-		File temp = new File(objectsDir, id.hexString.substring(0, 2));
-		return new File(temp, id.hexString.substring(2));
+		File temp = new File(objectsDir, id.getHexString().substring(0, 2));
+		return new File(temp, id.getHexString().substring(2));
 	}
 	
 	
 	// Returns silently if this repo is still valid, otherwise throws an exception.
 	private void checkNotClosed() {
-		if (directory == null)
+		if (closed)
 			throw new IllegalStateException("Repository already closed");
 	}
 	
+	
+	
+	/*---- Helper class ----*/
+	
+	// An immutable snapshot of the open packs, so that a lookup sees a consistent set while a rescan replaces it.
+	private static final class PackSet {
+		
+		// The open pack files that are not covered by the multi-pack index, in most-recently-hit-first order.
+		public final List<PackfileReader> packfiles;
+		
+		// The multi-pack index, or null if there is none or it refers to a pack that is not present.
+		public final MultiPackIndex multiPackIndex;
+		
+		// The open pack files covered by the multi-pack index, indexed by its pack numbers. Null if the index is null.
+		public final PackfileReader[] multiPackIndexPacks;
+		
+		// The modification time of the pack directory as of the scan, or null if it didn't exist.
+		public final FileTime packDirModified;
+		
+		
+		public PackSet(List<PackfileReader> packfiles, MultiPackIndex midx, PackfileReader[] midxPacks, FileTime modified) {
+			this.packfiles = List.copyOf(packfiles);
+			multiPackIndex = midx;
+			multiPackIndexPacks = midxPacks;
+			packDirModified = modified;
+		}
+		
+		
+		// Returns a new list of all the open pack files, whether or not they are covered by the multi-pack index.
+		public List<PackfileReader> getAllPackfiles() {
+			List<PackfileReader> result = new ArrayList<>(packfiles);
+			if (multiPackIndexPacks != null)
+				result.addAll(Arrays.asList(multiPackIndexPacks));
+			return result;
+		}
+		
+		
+		public static final PackSet EMPTY = new PackSet(List.of(), null, null, null);
+		
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	// The same as Git's default for core.deltaBaseCacheLimit.
+	private static final long DEFAULT_DELTA_BASE_CACHE_BYTES = 96L << 20;
+	
+	private static final int DEFAULT_PACK_WINDOW_SIZE = 32 << 20;
+	
 }
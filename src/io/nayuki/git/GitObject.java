@@ -7,10 +7,15 @@
 
 package io.nayuki.git;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.Function;
 
 
 /**
@@ -23,6 +28,15 @@ import java.util.Objects;
  */
 public abstract class GitObject {
 	
+	/*---- Fields ----*/
+	
+	// The pair (ObjectId id, Object[] state) of a known ID of this object and the state from getIdState() that it
+	// belongs to, or null if none. Because subclasses have public mutable fields, the ID is reused only while
+	// getIdState() returns the same elements. Stored as one reference so that the two values are consistent.
+	private Object[] memo;
+	
+	
+	
 	/*---- Constructors ----*/
 	
 	// Only allows subclassing within this package.
@@ -48,6 +62,56 @@ public abstract class GitObject {
 	}
 	
 	
+	// Returns the values that the serialization of this object depends on, each of which is a reference to
+	// an immutable object (compared by identity), a boxed primitive (compared by value), or null. Must not
+	// throw an exception for invalid field values; toBytes() reports those. Returns null if not memoizable.
+	Object[] getIdState() {
+		return null;
+	}
+	
+	
+	// Returns the ID of the current state of this object, reusing the known ID if the state is unchanged, otherwise
+	// hashing the serialization and remembering the result. The given function makes an ID of the given type from bytes.
+	final <T extends ObjectId> T getMemoizedId(Class<T> type, Function<byte[],T> factory) {
+		Object[] state = getIdState();
+		Object[] m = memo;
+		ObjectId id;
+		if (m != null && state != null && isSameState((Object[])m[1], state)) {
+			id = (ObjectId)m[0];
+			if (type.isInstance(id))
+				return type.cast(id);
+			id = factory.apply(id.getBytes());  // Was remembered from a read with a different ID subclass
+		} else
+			id = factory.apply(getSha1Hash(toBytes()));
+		if (state != null)
+			memo = new Object[]{id, state};
+		return type.cast(id);
+	}
+	
+	
+	// Records that the current state of this object has the given ID, because the
+	// object was just parsed from the data that a repository stores under that ID.
+	final void rememberId(ObjectId id) {
+		Objects.requireNonNull(id);
+		Object[] state = getIdState();
+		if (state != null)
+			memo = new Object[]{id, state};
+	}
+	
+	
+	private static boolean isSameState(Object[] x, Object[] y) {
+		if (x.length != y.length)
+			return false;
+		for (int i = 0; i < x.length; i++) {
+			Object a = x[i];
+			Object b = y[i];
+			if (a != b && !(a instanceof Number && a.equals(b)))
+				return false;
+		}
+		return true;
+	}
+	
+	
 	
 	/*---- Static helper functions ----*/
 	
@@ -61,6 +125,70 @@ public abstract class GitObject {
 	}
 	
 	
+	// Parses the header of the given raw object bytes and returns a pair (String typeName, byte[] data),
+	// where the data is a new array. This checks the header's syntax and length but not the type name.
+	static Object[] splitHeader(byte[] bytes) throws GitFormatException {
+		int index = 0;
+		while (index < bytes.length && bytes[index] != 0)
+			index++;
+		if (index >= bytes.length)
+			throw new GitFormatException("Invalid object header");
+		String header = new String(bytes, 0, index, StandardCharsets.US_ASCII);
+		byte[] data = Arrays.copyOfRange(bytes, index + 1, bytes.length);
+		
+		String[] parts = header.split(" ", -1);
+		if (parts.length != 2)
+			throw new GitFormatException("Invalid object header");
+		int length;
+		try {
+			length = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new GitFormatException("Invalid data length string");
+		}
+		if (length < 0)
+			throw new GitFormatException("Negative data length");
+		if (!Integer.toString(length).equals(parts[1]))  // Check for non-canonical number representations like -0, 007, etc.
+			throw new GitFormatException("Invalid data length string");
+		if (length != data.length)
+			throw new GitFormatException("Data length mismatch");
+		return new Object[]{parts[0], data};
+	}
+	
+	
+	// Reads the header of a raw object from the given stream, leaving the stream positioned at the
+	// start of the data, and returns a pair (String typeName, Long dataLength). This checks
+	// the header's syntax but not the type name, and does not read or check the data.
+	static Object[] readHeader(InputStream in) throws IOException {
+		byte[] buf = new byte[32];  // Longer than any valid header
+		int n = 0;
+		while (true) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException("Unexpected end of object header");
+			if (b == 0)
+				break;
+			if (n >= buf.length)
+				throw new GitFormatException("Invalid object header");
+			buf[n] = (byte)b;
+			n++;
+		}
+		String[] parts = new String(buf, 0, n, StandardCharsets.US_ASCII).split(" ", -1);
+		if (parts.length != 2)
+			throw new GitFormatException("Invalid object header");
+		long length;
+		try {
+			length = Long.parseLong(parts[1]);
+		} catch (NumberFormatException e) {
+			throw new GitFormatException("Invalid data length string");
+		}
+		if (length < 0)
+			throw new GitFormatException("Negative data length");
+		if (!Long.toString(length).equals(parts[1]))  // Check for non-canonical number representations like -0, 007, etc.
+			throw new GitFormatException("Invalid data length string");
+		return new Object[]{parts[0], length};
+	}
+	
+	
 	// Returns a new byte array representing the SHA-1 hash of the given array of bytes.
 	static byte[] getSha1Hash(byte[] b) {
 		try {
@@ -71,4 +199,34 @@ public abstract class GitObject {
 		}
 	}
 	
+	
+	// Returns the SHA-1 hash of the object with the given type name and data, which is the hash of
+	// addHeader(type, data), without copying the data or formatting a string for the header.
+	static byte[] getSha1Hash(String type, byte[] data) {
+		byte[] header = new byte[32];  // Longer than any valid header
+		int n = type.length();
+		for (int i = 0; i < n; i++)
+			header[i] = (byte)type.charAt(i);
+		header[n] = ' ';
+		n++;
+		int digits = 1;
+		for (int len = data.length; len >= 10; len /= 10)
+			digits++;
+		for (int i = digits - 1, len = data.length; i >= 0; i--, len /= 10)
+			header[n + i] = (byte)('0' + len % 10);
+		n += digits;
+		header[n] = 0;
+		n++;
+		
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		hasher.update(header, 0, n);
+		hasher.update(data);
+		return hasher.digest();
+	}
+	
 }
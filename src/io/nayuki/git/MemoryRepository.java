@@ -1,5 +1,6 @@
 package io.nayuki.git;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -78,7 +79,7 @@ public class MemoryRepository implements Repository {
 		
 		ObjectId result = null;
 		for (ObjectId id : objects.tailMap(prefixId).keySet()) {
-			if (!id.hexString.startsWith(prefix))
+			if (!id.getHexString().startsWith(prefix))
 				break;
 			else if (result != null)
 				throw new IllegalArgumentException("Multiple object IDs found");
@@ -117,7 +118,7 @@ public class MemoryRepository implements Repository {
 		
 		Set<ObjectId> result = new HashSet<>();
 		for (ObjectId id : objects.tailMap(prefixId).keySet()) {
-			if (id.hexString.startsWith(prefix))
+			if (id.getHexString().startsWith(prefix))
 				result.add(id);
 			else
 				break;
@@ -179,14 +180,71 @@ public class MemoryRepository implements Repository {
 			if (length != bytes.length)
 				throw new GitFormatException("Data length mismatch");
 			
-			// Parse bytes into object
-			return switch (type) {
+			// Parse bytes into object, which remembers its ID
+			GitObject result = switch (type) {
 				case "blob"   -> new BlobObject  (bytes);
 				case "tree"   -> new TreeObject  (bytes);
 				case "commit" -> new CommitObject(bytes);
 				case "tag"    -> new TagObject   (bytes);
 				default -> throw new GitFormatException("Unknown object type: " + type);
 			};
+			result.rememberId(id);
+			return result;
+		} catch (IOException e) {  // Includes GitFormatException and EOFException
+			throw new AssertionError(e);
+		}
+	}
+	
+	
+	/**
+	 * Returns the type and size of the Git object with the specified hash in this repository,
+	 * based on the stored header.
+	 * @param id the hash of the object (not {@code null})
+	 * @return the type and size of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred (not thrown by this class, but subclasses may)
+	 */
+	public ObjectInfo readObjectInfo(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
+		checkNotClosed();
+		try {
+			byte[] bytes = objects.get(id);
+			if (bytes == null)
+				throw new IllegalArgumentException("No object with the ID found");
+			Object[] header = GitObject.readHeader(new ByteArrayInputStream(bytes));
+			return new ObjectInfo((String)header[0], (Long)header[1]);
+		} catch (IOException e) {  // Includes GitFormatException and EOFException
+			throw new AssertionError(e);
+		}
+	}
+	
+	
+	/**
+	 * Opens a stream of the data of the Git object with the specified hash in this repository.
+	 * The stream reads directly from the stored bytes without copying them.
+	 * @param id the hash of the object (not {@code null})
+	 * @return a new stream of the data of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred (not thrown by this class, but subclasses may)
+	 */
+	public ObjectStream openObjectStream(ObjectId id) throws IOException {
+		Objects.requireNonNull(id);
+		checkNotClosed();
+		try {
+			// Get object bytes and parse header
+			byte[] bytes = objects.get(id);
+			if (bytes == null)
+				throw new IllegalArgumentException("No object with the ID found");
+			ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+			Object[] header = GitObject.readHeader(in);
+			long length = (Long)header[1];
+			if (length != in.available())
+				throw new GitFormatException("Data length mismatch");
+			return new ObjectStream((String)header[0], length, in, null);
 		} catch (IOException e) {  // Includes GitFormatException and EOFException
 			throw new AssertionError(e);
 		}
@@ -203,10 +261,12 @@ public class MemoryRepository implements Repository {
 	public void writeObject(GitObject obj) throws IOException {
 		Objects.requireNonNull(obj);
 		checkNotClosed();
-		ObjectId id = obj.getId();
+		// Hash the bytes themselves, because a remembered ID can belong to stored bytes that toBytes() doesn't reproduce
+		byte[] bytes = obj.toBytes();
+		ObjectId id = new RawId(GitObject.getSha1Hash(bytes));
 		if (objects.containsKey(id))
 			return;
-		objects.put(id, obj.toBytes());
+		objects.put(id, bytes);
 	}
 	
 	
@@ -0,0 +1,261 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * Reads a multi-pack index file ("objects/pack/multi-pack-index"), which maps every object in a set
+ * of packs to a (pack, offset) location with a single sorted table. A helper class for {@link FileRepository}.
+ * The file is memory-mapped once when this object is constructed, and lookups are answered by
+ * binary search over the mapped data. Only version 1 files with SHA-1 hashes are supported.
+ */
+final class MultiPackIndex {
+	
+	/*---- Fields ----*/
+	
+	private final File file;
+	
+	// The entire file, mapped read-only. Only absolute get methods are used on it.
+	private final ByteBuffer data;
+	
+	// The index file names of the packs, in pack number order (which is sorted).
+	private final String[] packNames;
+	
+	// fanout[i] is the number of objects whose first hash byte is at most i.
+	private final int[] fanout;
+	
+	private final int totalObjects;
+	
+	// Byte offsets of the chunks within the file.
+	private final int idsStart;
+	private final int offsetsStart;
+	private final int largeOffsetsStart;  // -1 if absent
+	private final int numLargeOffsets;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	public MultiPackIndex(File file) throws IOException {
+		this.file = Objects.requireNonNull(file);
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				throw new GitFormatException("Multi-pack index file too large");
+			data = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		
+		// Check file header
+		if (data.capacity() < HEADER_LEN + CHUNK_ENTRY_LEN + ObjectId.NUM_BYTES)
+			throw new GitFormatException("Multi-pack index file too short");
+		if (data.getInt(0) != MAGIC)
+			throw new GitFormatException("Multi-pack index header expected");
+		if (data.get(4) != 1)
+			throw new GitFormatException("Multi-pack index version 1 expected");
+		if (data.get(5) != 1)
+			throw new GitFormatException("SHA-1 multi-pack index expected");
+		int numChunks = data.get(6) & 0xFF;
+		if (data.get(7) != 0)
+			throw new GitFormatException("Incremental multi-pack index not supported");
+		int numPacks = data.getInt(8);
+		if (numPacks < 0)
+			throw new GitFormatException("Invalid pack count");
+		
+		// Read chunk table
+		long chunksEnd = HEADER_LEN + (numChunks + 1L) * CHUNK_ENTRY_LEN;
+		int dataEnd = data.capacity() - ObjectId.NUM_BYTES;
+		if (chunksEnd > dataEnd)
+			throw new GitFormatException("Multi-pack index file too short");
+		int[] chunkStart = new int[CHUNK_IDS.length];
+		int[] chunkLen = new int[CHUNK_IDS.length];
+		Arrays.fill(chunkStart, -1);
+		for (int i = 0; i < numChunks; i++) {
+			int pos = HEADER_LEN + i * CHUNK_ENTRY_LEN;
+			long start = data.getLong(pos + 4);
+			long end = data.getLong(pos + CHUNK_ENTRY_LEN + 4);
+			if (start < chunksEnd || start > end || end > dataEnd)
+				throw new GitFormatException("Invalid chunk offset");
+			int id = data.getInt(pos);
+			for (int j = 0; j < CHUNK_IDS.length; j++) {
+				if (CHUNK_IDS[j] == id) {
+					chunkStart[j] = (int)start;
+					chunkLen[j] = (int)(end - start);
+				}
+			}
+		}
+		for (int j = 0; j < 4; j++) {  // Required chunks
+			if (chunkStart[j] == -1)
+				throw new GitFormatException("Required chunk missing");
+		}
+		
+		// Read pack names
+		packNames = new String[numPacks];
+		{
+			int pos = chunkStart[PNAM];
+			int end = pos + chunkLen[PNAM];
+			for (int i = 0; i < numPacks; i++) {
+				int start = pos;
+				while (pos < end && data.get(pos) != 0)
+					pos++;
+				if (pos >= end)
+					throw new GitFormatException("Invalid pack names chunk");
+				byte[] b = new byte[pos - start];
+				data.get(start, b);
+				packNames[i] = new String(b, StandardCharsets.UTF_8);
+				if (i > 0 && packNames[i - 1].compareTo(packNames[i]) >= 0)
+					throw new GitFormatException("Pack names not sorted");
+				pos++;
+			}
+		}
+		
+		// Read fanout table
+		if (chunkLen[OIDF] != 256 * 4)
+			throw new GitFormatException("Invalid fanout chunk");
+		fanout = new int[256];
+		for (int i = 0, prev = 0; i < fanout.length; i++) {
+			int n = data.getInt(chunkStart[OIDF] + i * 4);
+			if (n < prev)  // Also catches counts of 2^31 or more
+				throw new GitFormatException("Invalid fanout table");
+			fanout[i] = n;
+			prev = n;
+		}
+		totalObjects = fanout[255];
+		
+		// Check table sizes
+		if (chunkLen[OIDL] != (long)totalObjects * ObjectId.NUM_BYTES || chunkLen[OOFF] != (long)totalObjects * 8)
+			throw new GitFormatException("Invalid chunk size");
+		idsStart = chunkStart[OIDL];
+		offsetsStart = chunkStart[OOFF];
+		largeOffsetsStart = chunkStart[LOFF];
+		if (largeOffsetsStart != -1 && chunkLen[LOFF] % 8 != 0)
+			throw new GitFormatException("Invalid chunk size");
+		numLargeOffsets = largeOffsetsStart != -1 ? chunkLen[LOFF] / 8 : 0;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	public File getFile() {
+		return file;
+	}
+	
+	
+	// Returns the index file names of the covered packs, indexed by pack number.
+	// The caller must not modify the returned array.
+	public String[] getPackNames() {
+		return packNames;
+	}
+	
+	
+	public int getObjectCount() {
+		return totalObjects;
+	}
+	
+	
+	// Returns the position of the given ID in the sorted table of IDs, or -1 if no covered pack contains the object.
+	public int findPosition(ObjectId id) {
+		int headByte = id.getByte(0) & 0xFF;
+		int start = headByte > 0 ? fanout[headByte - 1] : 0;  // Inclusive
+		int end = fanout[headByte];  // Exclusive
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			int cmp = compareIdAt(mid, id);
+			if (cmp == 0)
+				return mid;
+			else if (cmp < 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		return -1;
+	}
+	
+	
+	// Returns the pack number of the object at the given position of the table.
+	public int getPackNumber(int position) throws IOException {
+		int result = data.getInt(offsetsStart + position * 8);
+		if (result < 0 || result >= packNames.length)
+			throw new GitFormatException("Invalid pack number");
+		return result;
+	}
+	
+	
+	// Returns the byte offset within its pack of the object at the given position of the table.
+	public long getOffset(int position) throws IOException {
+		long result = data.getInt(offsetsStart + position * 8 + 4);
+		if (result < 0) {  // Most significant bit is set; look up the 64-bit offset table
+			int i = (int)(result & 0x7FFFFFFF);
+			if (i >= numLargeOffsets)
+				throw new GitFormatException("Invalid large offset index");
+			result = data.getLong(largeOffsetsStart + i * 8);
+			if (result < 0)
+				throw new GitFormatException("Invalid large offset");
+		}
+		return result;
+	}
+	
+	
+	// Searches the table to find all IDs that match the given
+	// hexadecimal prefix, and adds them to the given result set.
+	public void getIdsByPrefix(String prefix, Set<ObjectId> result) {
+		ObjectId lowId  = new RawId(prefix + "0000000000000000000000000000000000000000".substring(prefix.length()));  // Inclusive
+		ObjectId highId = new RawId(prefix + "ffffffffffffffffffffffffffffffffffffffff".substring(prefix.length()));  // Inclusive
+		
+		int headByte = lowId.getByte(0) & 0xFF;
+		int start = headByte > 0 ? fanout[headByte - 1] : 0;
+		int end = fanout[headByte];
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			if (compareIdAt(mid, lowId) < 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		for (int i = start; i < totalObjects && compareIdAt(i, highId) <= 0; i++)
+			result.add(new RawId(data, idsStart + i * ObjectId.NUM_BYTES));
+	}
+	
+	
+	// Compares the ID stored at the given position of the table to the given ID,
+	// in the same unsigned big-endian order as ObjectId.compareTo().
+	private int compareIdAt(int position, ObjectId id) {
+		return -id.compareTo(data, idsStart + position * ObjectId.NUM_BYTES);
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	static final String FILE_NAME = "multi-pack-index";
+	
+	static final int MAGIC = 0x4D494458;  // "MIDX"
+	static final int HEADER_LEN = 12;
+	static final int CHUNK_ENTRY_LEN = 12;
+	
+	// Chunk IDs, where the first four are required.
+	static final int[] CHUNK_IDS = {
+		0x504E414D,  // "PNAM"
+		0x4F494446,  // "OIDF"
+		0x4F49444C,  // "OIDL"
+		0x4F4F4646,  // "OOFF"
+		0x4C4F4646,  // "LOFF"
+	};
+	static final int PNAM = 0, OIDF = 1, OIDL = 2, OOFF = 3, LOFF = 4;
+	
+}
@@ -0,0 +1,198 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+/**
+ * Writes version 1 multi-pack index files. A helper class for
+ * {@link FileRepository}; not instantiable.
+ * @see MultiPackIndex
+ */
+final class MultiPackIndexWriter {
+	
+	// Writes a multi-pack index file covering all objects in the given packs, which can be in any order.
+	// When an object is in more than one pack, the copy in the most recently modified pack file is chosen,
+	// which is the same rule that Git uses.
+	public static void write(File file, List<PackfileReader> packs) throws IOException {
+		// Assign pack numbers in order of name
+		List<PackfileReader> sorted = new ArrayList<>(packs);
+		sorted.sort(Comparator.comparing(pfr -> pfr.getIndexFile().getName()));
+		int numPacks = sorted.size();
+		long[] mtimes = new long[numPacks];
+		long total = 0;
+		for (int i = 0; i < numPacks; i++) {
+			PackfileReader pfr = sorted.get(i);
+			mtimes[i] = pfr.getPackFile().lastModified();
+			total += pfr.getObjectCount();
+		}
+		if (total > Integer.MAX_VALUE / ObjectId.NUM_BYTES)
+			throw new IllegalArgumentException("Too many objects");
+		
+		// Merge the sorted tables of all packs, keeping one entry per ID
+		int[] packNums = new int[(int)total];
+		int[] positions = new int[(int)total];
+		int[] fanout = new int[256];
+		int count = 0;
+		{
+			PriorityQueue<Cursor> queue = new PriorityQueue<>((x, y) -> {
+				int cmp = x.id.compareTo(y.id);
+				if (cmp != 0)
+					return cmp;
+				cmp = Long.compare(mtimes[y.pack], mtimes[x.pack]);  // Newer pack first
+				if (cmp != 0)
+					return cmp;
+				return Integer.compare(x.pack, y.pack);
+			});
+			for (int i = 0; i < numPacks; i++) {
+				Cursor cur = new Cursor(i, sorted.get(i));
+				if (cur.advance())
+					queue.add(cur);
+			}
+			ObjectId prev = null;
+			while (!queue.isEmpty()) {
+				Cursor cur = queue.remove();
+				if (!cur.id.equals(prev)) {
+					packNums[count] = cur.pack;
+					positions[count] = cur.position;
+					fanout[cur.id.getByte(0) & 0xFF]++;
+					count++;
+					prev = cur.id;
+				}
+				if (cur.advance())
+					queue.add(cur);
+			}
+		}
+		
+		// Compute offsets and the chunk layout
+		long[] offsets = new long[count];
+		int numLarge = 0;
+		for (int i = 0; i < count; i++) {
+			offsets[i] = sorted.get(packNums[i]).getDataOffset(positions[i]);
+			if (offsets[i] > 0x7FFFFFFFL)
+				numLarge++;
+		}
+		ByteArrayOutputStream names = new ByteArrayOutputStream();
+		for (PackfileReader pfr : sorted) {
+			names.write(pfr.getIndexFile().getName().getBytes(StandardCharsets.UTF_8));
+			names.write(0);
+		}
+		while (names.size() % 4 != 0)
+			names.write(0);
+		
+		int numChunks = numLarge > 0 ? 5 : 4;
+		long[] chunkLens = {names.size(), 256 * 4, (long)count * ObjectId.NUM_BYTES, (long)count * 8, numLarge * 8L};
+		
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)), hasher))) {
+			// Header
+			out.writeInt(MultiPackIndex.MAGIC);
+			out.writeByte(1);  // Version
+			out.writeByte(1);  // SHA-1
+			out.writeByte(numChunks);
+			out.writeByte(0);  // No base files
+			out.writeInt(numPacks);
+			
+			// Chunk table
+			long pos = MultiPackIndex.HEADER_LEN + (numChunks + 1) * MultiPackIndex.CHUNK_ENTRY_LEN;
+			for (int i = 0; i < numChunks; i++) {
+				out.writeInt(MultiPackIndex.CHUNK_IDS[i]);
+				out.writeLong(pos);
+				pos += chunkLens[i];
+			}
+			out.writeInt(0);
+			out.writeLong(pos);
+			
+			// Pack names
+			names.writeTo(out);
+			
+			// Fanout table
+			for (int i = 0, sum = 0; i < 256; i++) {
+				sum += fanout[i];
+				out.writeInt(sum);
+			}
+			
+			// Object IDs
+			for (int i = 0; i < count; i++)
+				out.write(sorted.get(packNums[i]).getObjectId(positions[i]).getBytes());
+			
+			// Object offsets
+			for (int i = 0, j = 0; i < count; i++) {
+				out.writeInt(packNums[i]);
+				if (offsets[i] > 0x7FFFFFFFL) {
+					out.writeInt(0x80000000 | j);
+					j++;
+				} else
+					out.writeInt((int)offsets[i]);
+			}
+			
+			// Large offsets
+			for (int i = 0; i < count; i++) {
+				if (offsets[i] > 0x7FFFFFFFL)
+					out.writeLong(offsets[i]);
+			}
+			
+			// Trailer
+			out.write(hasher.digest());
+		}
+	}
+	
+	
+	private MultiPackIndexWriter() {}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	// A position in the sorted ID table of one pack index.
+	private static final class Cursor {
+		
+		public final int pack;
+		public final PackfileReader reader;
+		public int position = -1;
+		public ObjectId id;  // At the current position
+		
+		
+		public Cursor(int pack, PackfileReader reader) {
+			this.pack = pack;
+			this.reader = reader;
+		}
+		
+		
+		// Moves to the next entry and returns true, or returns false if there are no more entries.
+		public boolean advance() {
+			position++;
+			if (position >= reader.getObjectCount())
+				return false;
+			id = reader.getObjectId(position);
+			return true;
+		}
+		
+	}
+	
+}
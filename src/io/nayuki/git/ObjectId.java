@@ -8,9 +8,13 @@
 package io.nayuki.git;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.regex.Pattern;
 
 
 /**
@@ -40,14 +44,14 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	
 	/*---- Fields ----*/
 	
-	/**
-	 * The 40-character (NUM_BYTES * 2) hexadecimal representation of the hash, in lowercase.
-	 * For example, "0123456789abcdef0123456789abcdef01234567".
-	 */
-	public final String hexString;
+	// The 20 hash bytes in big-endian order: bytes 0 to 7, bytes 8 to 15, and bytes 16 to 19.
+	private final long word0;
+	private final long word1;
+	private final int word2;
 	
-	// Not null, and always length 20 (NUM_BYTES).
-	private final byte[] bytes;
+	// The hexadecimal string, computed when first requested. The race between threads is
+	// benign because every thread computes an equal string and String is immutable.
+	private String hexString;
 	
 	
 	
@@ -62,7 +66,12 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	 * @throws IllegalArgumentException if the string isn't length 40 or has characters outside {0-9, a-f, A-F}
 	 */
 	ObjectId(String hexStr) {
-		this(hexHashToBytes(hexStr));
+		Objects.requireNonNull(hexStr);
+		if (hexStr.length() != NUM_HEX_DIGITS)
+			throw new IllegalArgumentException("Invalid hexadecimal hash");
+		word0 = parseHex(hexStr,  0, 16);
+		word1 = parseHex(hexStr, 16, 16);
+		word2 = (int)parseHex(hexStr, 32, 8);
 	}
 	
 	
@@ -89,25 +98,33 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 		Objects.requireNonNull(bytes);
 		if (off < 0 || bytes.length - off < NUM_BYTES)
 			throw new IndexOutOfBoundsException();
-		
-		this.bytes = Arrays.copyOfRange(bytes, off, off + NUM_BYTES);
-		StringBuilder sb = new StringBuilder();
-		for (byte b : this.bytes)
-			sb.append(HEX_DIGITS[(b >>> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
-		hexString = sb.toString();
+		word0 = (long)BYTES_AS_LONG.get(bytes, off);
+		word1 = (long)BYTES_AS_LONG.get(bytes, off + 8);
+		word2 = (int)BYTES_AS_INT.get(bytes, off + 16);
+	}
+	
+	
+	// Constructs an object ID from 20 bytes in the given big-endian buffer starting at the given absolute index,
+	// without changing the buffer's position. This avoids copying when reading IDs from mapped index files.
+	ObjectId(ByteBuffer buf, int index) {
+		word0 = buf.getLong(index);
+		word1 = buf.getLong(index + 8);
+		word2 = buf.getInt(index + 16);
 	}
 	
 	
 	/* Private helper methods and constants for constructors */
 	
-	private static byte[] hexHashToBytes(String str) {
-		Objects.requireNonNull(str);
-		if (!HEX_STRING_PATTERN.matcher(str).matches())
-			throw new IllegalArgumentException("Invalid hexadecimal hash");
-		
-		byte[] result = new byte[NUM_BYTES];
-		for (int i = 0; i < result.length; i++)
-			result[i] = (byte)Integer.parseInt(str.substring(i * 2, (i + 1) * 2), 16);
+	// Parses the given number of hexadecimal digits (at most 16) starting at the given index.
+	private static long parseHex(String str, int start, int len) {
+		long result = 0;
+		for (int i = start; i < start + len; i++) {
+			char c = str.charAt(i);
+			int val = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+			if (val == -1)
+				throw new IllegalArgumentException("Invalid hexadecimal hash");
+			result = result << 4 | val;
+		}
 		return result;
 	}
 	
@@ -119,14 +136,49 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	}
 	
 	
-	private static final Pattern HEX_STRING_PATTERN = Pattern.compile("[0-9a-fA-F]{" + NUM_HEX_DIGITS + "}");
+	// Maps each ASCII character to its hexadecimal digit value, or -1 if it isn't a hexadecimal digit.
+	private static final byte[] HEX_VALUES = new byte[128];
+	static {
+		Arrays.fill(HEX_VALUES, (byte)-1);
+		for (int i = 0; i < 10; i++)
+			HEX_VALUES['0' + i] = (byte)i;
+		for (int i = 0; i < 6; i++) {
+			HEX_VALUES['a' + i] = (byte)(10 + i);
+			HEX_VALUES['A' + i] = (byte)(10 + i);
+		}
+	}
+	
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 	
-	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final VarHandle BYTES_AS_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle BYTES_AS_INT  = MethodHandles.byteArrayViewVarHandle(int [].class, ByteOrder.BIG_ENDIAN);
 	
 	
 	
 	/*---- Methods ----*/
 	
+	/**
+	 * Returns the 40-character (NUM_BYTES * 2) hexadecimal representation of the hash, in lowercase.
+	 * For example, "0123456789abcdef0123456789abcdef01234567". The string is computed
+	 * when first requested and then cached, because many IDs are never printed.
+	 * @return the hexadecimal string of the hash (not {@code null})
+	 */
+	public final String getHexString() {
+		String result = hexString;
+		if (result == null) {
+			byte[] b = new byte[NUM_HEX_DIGITS];
+			for (int i = 0; i < NUM_BYTES; i++) {
+				int val = getByte(i);
+				b[i * 2 + 0] = HEX_DIGITS[(val >>> 4) & 0xF];
+				b[i * 2 + 1] = HEX_DIGITS[val & 0xF];
+			}
+			result = new String(b, StandardCharsets.US_ASCII);
+			hexString = result;
+		}
+		return result;
+	}
+	
+	
 	/**
 	 * Returns the hash byte at the specified index, requiring 0 &le; index &lt; 20.
 	 * @param index the byte index to read from
@@ -136,16 +188,41 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	public final byte getByte(int index) {
 		if (index < 0 || index >= NUM_BYTES)
 			throw new IndexOutOfBoundsException();
-		return bytes[index];
+		if (index < 8)
+			return (byte)(word0 >>> ((7 - index) * 8));
+		else if (index < 16)
+			return (byte)(word1 >>> ((15 - index) * 8));
+		else
+			return (byte)(word2 >>> ((19 - index) * 8));
 	}
 	
 	
 	/**
-	 * Returns a new copy of the array of hash bytes.
+	 * Returns a new array of the hash bytes.
 	 * @return an array of hash bytes (not {@code null})
 	 */
 	public final byte[] getBytes() {
-		return bytes.clone();
+		byte[] result = new byte[NUM_BYTES];
+		getBytes(result, 0);
+		return result;
+	}
+	
+	
+	/**
+	 * Writes the 20 hash bytes into the specified array starting at the specified offset, without allocating memory.
+	 * @param dest the byte array to write to (not {@code null})
+	 * @param off the offset to start at
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the offset is negative,
+	 * or there are fewer than 20 bytes remaining starting at that offset
+	 */
+	public final void getBytes(byte[] dest, int off) {
+		Objects.requireNonNull(dest);
+		if (off < 0 || dest.length - off < NUM_BYTES)
+			throw new IndexOutOfBoundsException();
+		BYTES_AS_LONG.set(dest, off, word0);
+		BYTES_AS_LONG.set(dest, off + 8, word1);
+		BYTES_AS_INT.set(dest, off + 16, word2);
 	}
 	
 	
@@ -171,7 +248,7 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	 * an {@code ObjectId} with the same array of hash byte values
 	 */
 	public final boolean equals(Object obj) {
-		return (obj instanceof ObjectId) && Arrays.equals(bytes, ((ObjectId)obj).bytes);
+		return obj instanceof ObjectId other && word0 == other.word0 && word1 == other.word1 && word2 == other.word2;
 	}
 	
 	
@@ -180,7 +257,13 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	 * @code the hash code of this object
 	 */
 	public final int hashCode() {
-		return bytes[0] + (bytes[1] << 8) + (bytes[2] << 16) + (bytes[3] << 24);
+		return getFirstInt();  // The bytes of a SHA-1 hash are already uniformly distributed
+	}
+	
+	
+	// Returns the first 4 hash bytes as a big-endian integer. ObjectIdTable hashes on this.
+	final int getFirstInt() {
+		return (int)(word0 >>> 32);
 	}
 	
 	
@@ -191,7 +274,44 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	 * {@code this == other}, or a positive number if {@code this > other}
 	 */
 	public final int compareTo(ObjectId other) {
-		return hexString.compareTo(other.hexString);
+		return compare(other.word0, other.word1, other.word2);
+	}
+	
+	
+	/**
+	 * Compares this hash to the 20 bytes in the specified array starting at the specified offset, in
+	 * standard big-endian order. This is like {@link #compareTo(ObjectId)} but doesn't need to construct
+	 * an {@code ObjectId} from the bytes, which helps when searching in tables of hashes.
+	 * @param bytes the byte array to compare to (not {@code null})
+	 * @param off the offset to start at
+	 * @return a negative number if {@code this < bytes}, zero if
+	 * {@code this == bytes}, or a positive number if {@code this > bytes}
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the offset is negative,
+	 * or there are fewer than 20 bytes remaining starting at that offset
+	 */
+	public final int compareTo(byte[] bytes, int off) {
+		Objects.requireNonNull(bytes);
+		if (off < 0 || bytes.length - off < NUM_BYTES)
+			throw new IndexOutOfBoundsException();
+		return compare((long)BYTES_AS_LONG.get(bytes, off), (long)BYTES_AS_LONG.get(bytes, off + 8), (int)BYTES_AS_INT.get(bytes, off + 16));
+	}
+	
+	
+	// Compares this hash to the 20 bytes in the given big-endian buffer starting at the given absolute index,
+	// without changing the buffer's position. This is like compareTo(byte[], int) for mapped index files.
+	final int compareTo(ByteBuffer buf, int index) {
+		return compare(buf.getLong(index), buf.getLong(index + 8), buf.getInt(index + 16));
+	}
+	
+	
+	private int compare(long otherWord0, long otherWord1, int otherWord2) {
+		int result = Long.compareUnsigned(word0, otherWord0);
+		if (result == 0)
+			result = Long.compareUnsigned(word1, otherWord1);
+		if (result == 0)
+			result = Integer.compareUnsigned(word2, otherWord2);
+		return result;
 	}
 	
 	
@@ -200,7 +320,7 @@ public abstract class ObjectId implements Comparable<ObjectId> {
 	 * @return a string representation of this object ID
 	 */
 	public String toString() {
-		return String.format(getClass().getSimpleName() + "(%s)", hexString);
+		return String.format(getClass().getSimpleName() + "(%s)", getHexString());
 	}
 	
 }
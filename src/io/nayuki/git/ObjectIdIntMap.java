@@ -0,0 +1,158 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ObjIntConsumer;
+
+
+/**
+ * A map from object IDs to {@code int} values that uses much less memory and time than a
+ * {@code HashMap<ObjectId,Integer>}. The 20-byte keys are stored inline in one flat array and hashed on
+ * their bytes, the values are unboxed, and there is no object per entry. Keys can be looked up when stored
+ * in a byte array without constructing an {@code ObjectId}. Not thread-safe.
+ * @see ObjectIdSet
+ * @see ObjectIdMap
+ */
+public final class ObjectIdIntMap {
+	
+	/*---- Fields ----*/
+	
+	private final ObjectIdTable table;
+	
+	// The value of the key at each index of the table.
+	private int[] values;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an empty map.
+	 */
+	public ObjectIdIntMap() {
+		this(0);
+	}
+	
+	
+	/**
+	 * Constructs an empty map with room for the specified number of entries before it needs to resize.
+	 * @param expectedSize the number of entries expected
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public ObjectIdIntMap(int expectedSize) {
+		table = new ObjectIdTable(expectedSize);
+		values = new int[table.keys.length / ObjectId.NUM_BYTES];
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the number of entries in this map.
+	 * @return the number of entries (at least 0)
+	 */
+	public int size() {
+		return table.size;
+	}
+	
+	
+	/**
+	 * Tests whether this map has an entry for the specified key.
+	 * @param key the key to query (not {@code null})
+	 * @return whether the key is in this map
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public boolean containsKey(ObjectId key) {
+		return table.find(Objects.requireNonNull(key)) != -1;
+	}
+	
+	
+	/**
+	 * Returns the value for the specified key, or the specified default value if the key is absent.
+	 * @param key the key to query (not {@code null})
+	 * @param defaultValue the value to return if the key is absent
+	 * @return the value for the key, or the default value
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public int get(ObjectId key, int defaultValue) {
+		int index = table.find(Objects.requireNonNull(key));
+		return index != -1 ? values[index] : defaultValue;
+	}
+	
+	
+	/**
+	 * Returns the value for the key stored as 20 bytes in the specified array starting at the specified offset,
+	 * or the specified default value if the key is absent. This doesn't construct an {@code ObjectId}.
+	 * @param bytes the byte array to read the key from (not {@code null})
+	 * @param off the offset to start at
+	 * @param defaultValue the value to return if the key is absent
+	 * @return the value for the key, or the default value
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the offset is negative,
+	 * or there are fewer than 20 bytes remaining starting at that offset
+	 */
+	public int get(byte[] bytes, int off, int defaultValue) {
+		int index = table.find(bytes, off);
+		return index != -1 ? values[index] : defaultValue;
+	}
+	
+	
+	/**
+	 * Sets the value for the specified key, adding an entry if the key is absent.
+	 * @param key the key to set (not {@code null})
+	 * @param value the value to set
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public void put(ObjectId key, int value) {
+		int index = table.add(Objects.requireNonNull(key));
+		if (index >= values.length)
+			values = Arrays.copyOf(values, table.keys.length / ObjectId.NUM_BYTES);
+		values[index] = value;
+	}
+	
+	
+	/**
+	 * Removes the entry for the specified key, if present.
+	 * @param key the key to remove (not {@code null})
+	 * @return whether the key was in this map before this call
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public boolean remove(ObjectId key) {
+		int index = table.find(Objects.requireNonNull(key));
+		if (index == -1)
+			return false;
+		table.removeAt(index);
+		values[index] = values[table.size];
+		return true;
+	}
+	
+	
+	/**
+	 * Removes all entries from this map.
+	 */
+	public void clear() {
+		table.clear();
+	}
+	
+	
+	/**
+	 * Calls the specified function on each entry of this map, with a new {@link RawId} for each key.
+	 * The function must not change this map.
+	 * @param action the function to call on each key and value (not {@code null})
+	 * @throws NullPointerException if the function is {@code null}
+	 */
+	public void forEach(ObjIntConsumer<ObjectId> action) {
+		Objects.requireNonNull(action);
+		for (int i = 0; i < table.size; i++)
+			action.accept(table.getKey(i), values[i]);
+	}
+	
+}
@@ -0,0 +1,170 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+
+/**
+ * A map from object IDs to objects that uses much less memory and time than a {@code HashMap<ObjectId,V>}.
+ * The 20-byte keys are stored inline in one flat array and hashed on their bytes, and there is no object
+ * per entry besides the value. Keys can be looked up when stored in a byte array without constructing
+ * an {@code ObjectId}. Values can be {@code null}. Not thread-safe.
+ * @param <V> the type of values
+ * @see ObjectIdSet
+ * @see ObjectIdIntMap
+ */
+public final class ObjectIdMap<V> {
+	
+	/*---- Fields ----*/
+	
+	private final ObjectIdTable table;
+	
+	// The value of the key at each index of the table. Elements at indexes
+	// [table.size, values.length) are null so that they don't retain objects.
+	private Object[] values;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an empty map.
+	 */
+	public ObjectIdMap() {
+		this(0);
+	}
+	
+	
+	/**
+	 * Constructs an empty map with room for the specified number of entries before it needs to resize.
+	 * @param expectedSize the number of entries expected
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public ObjectIdMap(int expectedSize) {
+		table = new ObjectIdTable(expectedSize);
+		values = new Object[table.keys.length / ObjectId.NUM_BYTES];
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the number of entries in this map.
+	 * @return the number of entries (at least 0)
+	 */
+	public int size() {
+		return table.size;
+	}
+	
+	
+	/**
+	 * Tests whether this map has an entry for the specified key.
+	 * @param key the key to query (not {@code null})
+	 * @return whether the key is in this map
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public boolean containsKey(ObjectId key) {
+		return table.find(Objects.requireNonNull(key)) != -1;
+	}
+	
+	
+	/**
+	 * Returns the value for the specified key, or {@code null} if the key is absent.
+	 * @param key the key to query (not {@code null})
+	 * @return the value for the key, or {@code null}
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public V get(ObjectId key) {
+		int index = table.find(Objects.requireNonNull(key));
+		return index != -1 ? getValue(index) : null;
+	}
+	
+	
+	/**
+	 * Returns the value for the key stored as 20 bytes in the specified array starting at the specified
+	 * offset, or {@code null} if the key is absent. This doesn't construct an {@code ObjectId}.
+	 * @param bytes the byte array to read the key from (not {@code null})
+	 * @param off the offset to start at
+	 * @return the value for the key, or {@code null}
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the offset is negative,
+	 * or there are fewer than 20 bytes remaining starting at that offset
+	 */
+	public V get(byte[] bytes, int off) {
+		int index = table.find(bytes, off);
+		return index != -1 ? getValue(index) : null;
+	}
+	
+	
+	/**
+	 * Sets the value for the specified key, adding an entry if the key is absent.
+	 * @param key the key to set (not {@code null})
+	 * @param value the value to set (can be {@code null})
+	 * @return the previous value for the key, or {@code null} if it was absent
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public V put(ObjectId key, V value) {
+		int index = table.add(Objects.requireNonNull(key));
+		if (index >= values.length)
+			values = Arrays.copyOf(values, table.keys.length / ObjectId.NUM_BYTES);
+		V result = getValue(index);
+		values[index] = value;
+		return result;
+	}
+	
+	
+	/**
+	 * Removes the entry for the specified key, if present.
+	 * @param key the key to remove (not {@code null})
+	 * @return the previous value for the key, or {@code null} if it was absent
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public V remove(ObjectId key) {
+		int index = table.find(Objects.requireNonNull(key));
+		if (index == -1)
+			return null;
+		V result = getValue(index);
+		table.removeAt(index);
+		values[index] = values[table.size];
+		values[table.size] = null;
+		return result;
+	}
+	
+	
+	/**
+	 * Removes all entries from this map.
+	 */
+	public void clear() {
+		Arrays.fill(values, 0, table.size, null);
+		table.clear();
+	}
+	
+	
+	/**
+	 * Calls the specified function on each entry of this map, with a new {@link RawId} for each key.
+	 * The function must not change this map.
+	 * @param action the function to call on each key and value (not {@code null})
+	 * @throws NullPointerException if the function is {@code null}
+	 */
+	public void forEach(BiConsumer<ObjectId,? super V> action) {
+		Objects.requireNonNull(action);
+		for (int i = 0; i < table.size; i++)
+			action.accept(table.getKey(i), getValue(i));
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	private V getValue(int index) {
+		return (V)values[index];
+	}
+	
+}
@@ -0,0 +1,160 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * A set of object IDs that uses much less memory and time than a {@code HashSet<ObjectId>}. The 20-byte
+ * IDs are stored inline in one flat array and hashed on their bytes, with no object per element, and
+ * membership can be tested for an ID stored in a byte array without constructing an {@code ObjectId}.
+ * Iteration is in insertion order until an element is removed, and yields new {@link RawId}
+ * objects, which are equal to IDs of other subclasses with the same bytes. Not thread-safe.
+ * @see ObjectIdIntMap
+ * @see ObjectIdMap
+ */
+public final class ObjectIdSet extends AbstractSet<ObjectId> {
+	
+	/*---- Fields ----*/
+	
+	private final ObjectIdTable table;
+	
+	// Incremented by each change, to detect changes during iteration.
+	private int modCount;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an empty set.
+	 */
+	public ObjectIdSet() {
+		this(0);
+	}
+	
+	
+	/**
+	 * Constructs an empty set with room for the specified number of IDs before it needs to resize.
+	 * @param expectedSize the number of IDs expected
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public ObjectIdSet(int expectedSize) {
+		table = new ObjectIdTable(expectedSize);
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns the number of IDs in this set.
+	 * @return the number of IDs (at least 0)
+	 */
+	public int size() {
+		return table.size;
+	}
+	
+	
+	/**
+	 * Tests whether this set contains the specified object, which is an object ID with the same bytes as an element.
+	 * @param obj the object to test (can be {@code null})
+	 * @return whether the object is in this set
+	 */
+	public boolean contains(Object obj) {
+		return obj instanceof ObjectId id && table.find(id) != -1;
+	}
+	
+	
+	/**
+	 * Tests whether this set contains the object ID stored as 20 bytes in the specified array starting at the specified
+	 * offset. This doesn't construct an {@code ObjectId}, which helps when scanning tables of hashes.
+	 * @param bytes the byte array to read from (not {@code null})
+	 * @param off the offset to start at
+	 * @return whether the ID is in this set
+	 * @throws NullPointerException if the array is {@code null}
+	 * @throws IndexOutOfBoundsException if the offset is negative,
+	 * or there are fewer than 20 bytes remaining starting at that offset
+	 */
+	public boolean contains(byte[] bytes, int off) {
+		return table.find(bytes, off) != -1;
+	}
+	
+	
+	/**
+	 * Adds the specified object ID to this set.
+	 * @param id the object ID to add (not {@code null})
+	 * @return whether the ID was absent before this call
+	 * @throws NullPointerException if the ID is {@code null}
+	 */
+	public boolean add(ObjectId id) {
+		int oldSize = table.size;
+		table.add(id);
+		if (table.size == oldSize)
+			return false;
+		modCount++;
+		return true;
+	}
+	
+	
+	/**
+	 * Removes the specified object from this set, if it is an object ID with the same bytes as an element.
+	 * @param obj the object to remove (can be {@code null})
+	 * @return whether the object was in this set before this call
+	 */
+	public boolean remove(Object obj) {
+		if (!(obj instanceof ObjectId id))
+			return false;
+		int index = table.find(id);
+		if (index == -1)
+			return false;
+		table.removeAt(index);
+		modCount++;
+		return true;
+	}
+	
+	
+	/**
+	 * Removes all IDs from this set.
+	 */
+	public void clear() {
+		table.clear();
+		modCount++;
+	}
+	
+	
+	/**
+	 * Returns an iterator over the IDs in this set, which yields a new {@link RawId} for each element.
+	 * The iterator doesn't support removal.
+	 * @return an iterator over the IDs in this set (not {@code null})
+	 */
+	public Iterator<ObjectId> iterator() {
+		return new Iterator<ObjectId>() {
+			private int index = 0;
+			private final int expectedModCount = modCount;
+			
+			public boolean hasNext() {
+				return index < table.size;
+			}
+			
+			public ObjectId next() {
+				if (modCount != expectedModCount)
+					throw new ConcurrentModificationException();
+				if (!hasNext())
+					throw new NoSuchElementException();
+				index++;
+				return table.getKey(index - 1);
+			}
+		};
+	}
+	
+}
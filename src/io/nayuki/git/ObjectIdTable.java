@@ -0,0 +1,176 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * An open addressing hash table that assigns dense indexes to object IDs, storing the IDs inline
+ * in one flat byte array in index order. The shared core of {@link ObjectIdSet}, {@link ObjectIdIntMap},
+ * and {@link ObjectIdMap}, which keep their values in arrays parallel to the indexes. Not thread-safe.
+ */
+final class ObjectIdTable {
+	
+	/*---- Fields ----*/
+	
+	// The ID at index i is at offsets [i * 20, (i + 1) * 20). Length is a multiple of 20, and at least size * 20.
+	byte[] keys;
+	
+	// Linear probing table of indexes plus 1, where 0 means an empty slot. Length is a power of 2, at least 2 * size.
+	private int[] slots;
+	
+	// The number of IDs, which have indexes [0, size).
+	int size;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs an empty table with room for the given number of IDs before resizing.
+	public ObjectIdTable(int expectedSize) {
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("Negative size");
+		int cap = Math.max(Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1, 16);
+		keys = new byte[Math.max(expectedSize, 8) * ObjectId.NUM_BYTES];
+		slots = new int[cap];
+		size = 0;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	// Returns the index of the given ID, or -1 if it is absent.
+	public int find(ObjectId id) {
+		int mask = slots.length - 1;
+		for (int i = id.getFirstInt() & mask; ; i = (i + 1) & mask) {
+			int index = slots[i] - 1;
+			if (index == -1 || id.compareTo(keys, index * ObjectId.NUM_BYTES) == 0)
+				return index;
+		}
+	}
+	
+	
+	// Returns the index of the ID stored as 20 bytes in the given array at the given offset, or -1 if it is absent.
+	public int find(byte[] b, int off) {
+		Objects.requireNonNull(b);
+		Objects.checkFromIndexSize(off, ObjectId.NUM_BYTES, b.length);
+		int mask = slots.length - 1;
+		for (int i = getFirstInt(b, off) & mask; ; i = (i + 1) & mask) {
+			int index = slots[i] - 1;
+			if (index == -1 || Arrays.equals(keys, index * ObjectId.NUM_BYTES, (index + 1) * ObjectId.NUM_BYTES,
+					b, off, off + ObjectId.NUM_BYTES))
+				return index;
+		}
+	}
+	
+	
+	// Returns the index of the given ID, adding it with index size (and incrementing size) if it is absent.
+	public int add(ObjectId id) {
+		int index = find(id);
+		if (index != -1)
+			return index;
+		if ((size + 1) * 2L > slots.length)
+			resize(slots.length * 2);
+		if ((size + 1) * ObjectId.NUM_BYTES > keys.length) {
+			long newLen = Math.min(keys.length * 2L, (long)Integer.MAX_VALUE / ObjectId.NUM_BYTES * ObjectId.NUM_BYTES);
+			if (newLen <= keys.length)
+				throw new IllegalStateException("Maximum size reached");
+			keys = Arrays.copyOf(keys, (int)newLen);
+		}
+		index = size;
+		id.getBytes(keys, index * ObjectId.NUM_BYTES);
+		slots[findEmptySlot(index)] = index + 1;
+		size++;
+		return index;
+	}
+	
+	
+	// Removes the ID at the given index by moving the ID at the last index into its place and decrementing size.
+	// The caller must move its value at index size (after decrementing) to the given index, if they differ.
+	public void removeAt(int index) {
+		int mask = slots.length - 1;
+		int i = findSlotOf(index);
+		
+		// Delete from the probe sequence, shifting back later entries that would become unreachable
+		for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+			int home = getFirstInt(keys, (slots[j] - 1) * ObjectId.NUM_BYTES) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {  // The entry at j may move to i
+				slots[i] = slots[j];
+				i = j;
+			}
+		}
+		slots[i] = 0;
+		
+		// Keep the indexes dense
+		size--;
+		if (index != size) {
+			System.arraycopy(keys, size * ObjectId.NUM_BYTES, keys, index * ObjectId.NUM_BYTES, ObjectId.NUM_BYTES);
+			slots[findSlotOf(size)] = index + 1;
+		}
+	}
+	
+	
+	// Shrinks the key array to the current size, to save memory when no more IDs will be added.
+	public void trimToSize() {
+		keys = Arrays.copyOf(keys, size * ObjectId.NUM_BYTES);
+	}
+	
+	
+	// Removes all IDs, keeping the allocated capacity.
+	public void clear() {
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+	
+	
+	// Returns a new ID object for the ID at the given index.
+	public RawId getKey(int index) {
+		Objects.checkIndex(index, size);
+		return new RawId(keys, index * ObjectId.NUM_BYTES);
+	}
+	
+	
+	// Returns the slot that contains the given index, which must be present.
+	private int findSlotOf(int index) {
+		int mask = slots.length - 1;
+		for (int i = getFirstInt(keys, index * ObjectId.NUM_BYTES) & mask; ; i = (i + 1) & mask) {
+			if (slots[i] == index + 1)
+				return i;
+		}
+	}
+	
+	
+	// Returns the first empty slot in the probe sequence of the ID at the given index.
+	private int findEmptySlot(int index) {
+		int mask = slots.length - 1;
+		int i = getFirstInt(keys, index * ObjectId.NUM_BYTES) & mask;
+		while (slots[i] != 0)
+			i = (i + 1) & mask;
+		return i;
+	}
+	
+	
+	private void resize(int newCapacity) {
+		if (newCapacity <= 0)
+			throw new IllegalStateException("Maximum size reached");
+		slots = new int[newCapacity];
+		for (int i = 0; i < size; i++)
+			slots[findEmptySlot(i)] = i + 1;
+	}
+	
+	
+	// The bytes of a SHA-1 hash are uniformly distributed, so the first 4 bytes
+	// serve as a hash code. This must equal ObjectId.getFirstInt() for the same ID.
+	private static int getFirstInt(byte[] b, int off) {
+		return b[off] << 24 | (b[off + 1] & 0xFF) << 16 | (b[off + 2] & 0xFF) << 8 | (b[off + 3] & 0xFF);
+	}
+	
+}
@@ -0,0 +1,61 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Objects;
+
+
+/**
+ * The type and size of a Git object, as given by its header. Immutable structure.
+ * @see Repository#readObjectInfo(ObjectId)
+ */
+public final class ObjectInfo {
+	
+	/*---- Fields ----*/
+	
+	/**
+	 * The type of the object, such as "blob", "tree", "commit", or "tag" (not {@code null}).
+	 */
+	public final String type;
+	
+	/**
+	 * The number of bytes of data in the object, excluding the header, which is at least 0.
+	 */
+	public final long size;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs an object info structure with the specified type and size.
+	 * @param type the type of the object (not {@code null})
+	 * @param size the size of the object's data, which is at least 0
+	 * @throws NullPointerException if the type is {@code null}
+	 * @throws IllegalArgumentException if the size is negative
+	 */
+	public ObjectInfo(String type, long size) {
+		this.type = Objects.requireNonNull(type);
+		if (size < 0)
+			throw new IllegalArgumentException("Negative size");
+		this.size = size;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Returns a string representation of this object info. The format is subject to change.
+	 * @return a string representation of this object info
+	 */
+	public String toString() {
+		return String.format("ObjectInfo(type=%s, size=%d)", type, size);
+	}
+	
+}
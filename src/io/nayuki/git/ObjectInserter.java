@@ -0,0 +1,168 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+
+/**
+ * A session for writing many objects into a {@link FileRepository} as one pack file. Each inserted
+ * object is hashed first, and is skipped if the repository or this session already has it. New objects
+ * are compressed and appended to a temporary pack, which is installed into the repository with its
+ * index by {@link #flush()} or {@link #close()}. Inserted objects are not visible to the repository
+ * until then. This makes bulk ingestion a sequential write of a single file.
+ * <p>To avoid a file system query per object, the loose objects of the repository are listed once
+ * per subdirectory when first needed; loose objects created afterward by other writers may be
+ * duplicated into the pack, which is harmless. This class is not thread-safe.</p>
+ * @see FileRepository#newInserter()
+ */
+public final class ObjectInserter implements AutoCloseable {
+	
+	/*---- Fields ----*/
+	
+	// Not null until this inserter is closed.
+	private FileRepository repository;
+	
+	// The pack being written, or null if no new object has been inserted since the last flush.
+	private PackfileWriter writer;
+	
+	// Maps each loose object subdirectory name (2 hex digits) to the set of file names in it.
+	private final Map<String,Set<String>> looseNames;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs an inserter for the given repository. Called by FileRepository.newInserter().
+	ObjectInserter(FileRepository repo) {
+		repository = Objects.requireNonNull(repo);
+		looseNames = new HashMap<>();
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Inserts the specified object unless it already exists, and returns its ID.
+	 * @param obj the object to insert (not {@code null})
+	 * @return the ID of the object (not {@code null})
+	 * @throws NullPointerException if the object is {@code null}
+	 * @throws IllegalStateException if this inserter or its repository is already closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public ObjectId insert(GitObject obj) throws IOException {
+		Objects.requireNonNull(obj);
+		checkNotClosed();
+		byte[] bytes = obj.toBytes();
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		Object[] header = GitObject.readHeader(in);
+		return insert(new RawId(GitObject.getSha1Hash(bytes)), (String)header[0], (Long)header[1], in);
+	}
+	
+	
+	/**
+	 * Inserts an object with the specified type and data unless it already exists, and returns its ID.
+	 * @param type the object type, which is "blob", "tree", "commit", or "tag" (not {@code null})
+	 * @param data the object data, excluding the header (not {@code null})
+	 * @return the ID of the object (not {@code null})
+	 * @throws NullPointerException if the type or data is {@code null}
+	 * @throws IllegalArgumentException if the type is invalid
+	 * @throws IllegalStateException if this inserter or its repository is already closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public ObjectId insert(String type, byte[] data) throws IOException {
+		Objects.requireNonNull(data);
+		PackfileWriter.getTypeIndex(type);  // Check before hashing
+		checkNotClosed();
+		return insert(new RawId(GitObject.getSha1Hash(type, data)), type, data.length, new ByteArrayInputStream(data));
+	}
+	
+	
+	/**
+	 * Installs the pack of objects inserted since the last flush into the repository,
+	 * making them visible. This has no effect if no new objects were inserted.
+	 * @throws IllegalStateException if this inserter or its repository is already closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public void flush() throws IOException {
+		checkNotClosed();
+		if (writer != null) {
+			PackfileWriter w = writer;
+			writer = null;
+			w.finish();
+		}
+	}
+	
+	
+	/**
+	 * Flushes any inserted objects into the repository, and releases the resources of this
+	 * inserter. This has no effect if called more than once. If the repository was closed
+	 * first, then the pending objects are discarded.
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public void close() throws IOException {
+		if (repository == null)
+			return;
+		try {
+			if (writer != null && repository.getDirectory() != null)
+				flush();
+		} finally {
+			if (writer != null)
+				writer.close();
+			writer = null;
+			repository = null;
+		}
+	}
+	
+	
+	
+	/*---- Private helper methods ----*/
+	
+	// Writes the given object data to the pending pack unless the object already exists, and returns the ID.
+	// The ID is computed once by the caller, and the writer doesn't hash the data again.
+	private ObjectId insert(ObjectId id, String type, long size, ByteArrayInputStream in) throws IOException {
+		if ((writer != null && writer.containsObject(id)) || repository.containsPackedObject(id) || isLooseObject(id))
+			return id;
+		if (writer == null)
+			writer = new PackfileWriter(repository);
+		writer.writeObject(id, type, size, in);
+		return id;
+	}
+	
+	
+	// Tests whether the repository has a loose file for the given object, based on a cached directory listing.
+	private boolean isLooseObject(ObjectId id) {
+		String dirName = id.getHexString().substring(0, 2);
+		Set<String> names = looseNames.get(dirName);
+		if (names == null) {
+			names = new HashSet<>();
+			String[] items = new File(new File(repository.getDirectory(), "objects"), dirName).list();
+			if (items != null)
+				names.addAll(Arrays.asList(items));
+			looseNames.put(dirName, names);
+		}
+		return names.contains(id.getHexString().substring(2));
+	}
+	
+	
+	// Returns silently if this inserter is still open, otherwise throws an exception.
+	private void checkNotClosed() {
+		if (repository == null)
+			throw new IllegalStateException("Inserter already closed");
+	}
+	
+}
@@ -0,0 +1,180 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * A stream of the data of one Git object, without the header, along with the object's type and size.
+ * This allows objects of any size to be processed without holding the whole object in memory.
+ * <p>If the stream was opened with an object ID to verify, then the data is hashed incrementally as it is read,
+ * and reading the end of the stream throws a {@link GitFormatException} if the size or hash mismatches.
+ * Verification only happens if the stream is read to the end. Closing the stream releases its resources.</p>
+ * @see Repository#openObjectStream(ObjectId)
+ */
+public final class ObjectStream extends FilterInputStream {
+	
+	/*---- Fields ----*/
+	
+	/**
+	 * The type of the object, such as "blob", "tree", "commit", or "tag" (not {@code null}).
+	 */
+	public final String type;
+	
+	/**
+	 * The number of bytes of data in the object, excluding the header, which is at least 0.
+	 */
+	public final long size;
+	
+	private long remaining;  // Never negative
+	
+	// Whether the end of the data has been reached and checked.
+	private boolean finished;
+	
+	// Both null if the data isn't verified.
+	private final MessageDigest hasher;
+	private final ObjectId expectedId;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs a stream that reads the given number of data bytes from the given
+	// stream. If the ID is not null, the data is checked against it upon reaching the end.
+	ObjectStream(String type, long size, InputStream in, ObjectId expectedId) {
+		super(Objects.requireNonNull(in));
+		Objects.requireNonNull(type);
+		if (size < 0)
+			throw new IllegalArgumentException("Negative size");
+		this.type = type;
+		this.size = size;
+		remaining = size;
+		this.expectedId = expectedId;
+		if (expectedId == null)
+			hasher = null;
+		else {
+			try {
+				hasher = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError(e);
+			}
+			hasher.update((type + " " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Reads the next byte of object data, or returns -1 at the end of the data.
+	 * @return the next byte as an unsigned value (0 to 255), or -1 at the end of data
+	 * @throws GitFormatException if the end was reached and the data length or hash mismatches
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xFF);
+	}
+	
+	
+	/**
+	 * Reads up to the specified number of bytes of object data into the specified array.
+	 * @param b the array to store data into (not {@code null})
+	 * @param off the offset in the array to start storing at
+	 * @param len the maximum number of bytes to read
+	 * @return the number of bytes read, or -1 at the end of data
+	 * @throws GitFormatException if the end was reached and the data length or hash mismatches
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		Objects.checkFromIndexSize(off, len, b.length);
+		if (len == 0)
+			return 0;
+		if (remaining == 0) {
+			if (!finished) {
+				finish();
+				finished = true;
+			}
+			return -1;
+		}
+		int n = in.read(b, off, (int)Math.min(len, remaining));
+		if (n == -1)
+			throw new GitFormatException("Data length mismatch");
+		remaining -= n;
+		if (hasher != null)
+			hasher.update(b, off, n);
+		return n;
+	}
+	
+	
+	/**
+	 * Skips over and discards up to the specified number of bytes of object data.
+	 * The skipped data is still hashed if the stream is being verified.
+	 * @param n the maximum number of bytes to skip
+	 * @return the number of bytes skipped
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public long skip(long n) throws IOException {
+		byte[] buf = new byte[(int)Math.max(Math.min(n, 8192), 0)];
+		long result = 0;
+		while (result < n) {
+			int k = read(buf, 0, (int)Math.min(n - result, buf.length));
+			if (k == -1)
+				break;
+			result += k;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns an estimate of the number of data bytes that can be read without blocking.
+	 * @return an estimate of the number of bytes available
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public int available() throws IOException {
+		return (int)Math.min(in.available(), remaining);
+	}
+	
+	
+	/**
+	 * Returns {@code false} because this stream does not support marking.
+	 * @return {@code false}
+	 */
+	public boolean markSupported() {
+		return false;
+	}
+	
+	
+	public void mark(int readlimit) {}
+	
+	
+	public void reset() throws IOException {
+		throw new IOException("Mark not supported");
+	}
+	
+	
+	// Checks that the underlying stream has no more data and that the hash matches.
+	// Must be called at most once after a successful check, because it consumes the hasher.
+	private void finish() throws IOException {
+		if (in.read() != -1)
+			throw new GitFormatException("Data length mismatch");
+		if (hasher != null && !Arrays.equals(hasher.digest(), expectedId.getBytes()))
+			throw new GitFormatException("Hash of data mismatches object ID");
+	}
+	
+}
@@ -0,0 +1,161 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Controls how the data of objects read from a repository is checked against their IDs, and counts the
+ * checks performed. Computing the SHA-1 hash of every object on every read is the safest policy, but it can
+ * dominate the CPU time of reading large blobs or reading the same objects repeatedly; the other policies trade
+ * some protection against corrupted files for speed. Malformed data is still detected by parsing and inflating.
+ * <p>The policy applies to {@link FileRepository#readObject(ObjectId)} and the methods that read whole objects.
+ * Object streams always verify the hash, because it costs little extra when the data is read once.</p>
+ * <p>Each {@link FileRepository} owns one verifier. The counters are provided to show the
+ * effect of the policy. This class is thread-safe.</p>
+ * @see FileRepository#getObjectVerifier()
+ */
+public final class ObjectVerifier {
+	
+	/*---- Fields ----*/
+	
+	private volatile Policy policy = Policy.FULL;
+	
+	// IDs of loose objects whose hashes matched, for Policy.ONCE. Pack files keep their own sets.
+	private final ObjectIdSet verifiedLooseIds = new ObjectIdSet();
+	
+	private final LongAdder hashCount = new LongAdder();
+	private final LongAdder crcCount = new LongAdder();
+	private final LongAdder skipCount = new LongAdder();
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs a verifier with the policy FULL and zero counts.
+	ObjectVerifier() {}
+	
+	
+	
+	/*---- Public methods ----*/
+	
+	/**
+	 * Returns the current verification policy. The default is {@link Policy#FULL}.
+	 * @return the policy (not {@code null})
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+	
+	
+	/**
+	 * Sets the verification policy, which applies to reads that start afterward.
+	 * @param policy the new policy (not {@code null})
+	 * @throws NullPointerException if the policy is {@code null}
+	 */
+	public void setPolicy(Policy policy) {
+		this.policy = Objects.requireNonNull(policy);
+	}
+	
+	
+	/**
+	 * Returns the number of objects whose SHA-1 hash was computed and checked since this verifier was created.
+	 * @return the hash count, at least 0
+	 */
+	public long getHashCount() {
+		return hashCount.sum();
+	}
+	
+	
+	/**
+	 * Returns the number of pack entries whose CRC-32 was computed and checked since this verifier was created.
+	 * Under {@link Policy#CRC32}, reading a deltified object checks each entry of its delta chain that is inflated.
+	 * @return the CRC count, at least 0
+	 */
+	public long getCrcCount() {
+		return crcCount.sum();
+	}
+	
+	
+	/**
+	 * Returns the number of objects read without computing their SHA-1 hash since this verifier was created,
+	 * because the policy is {@link Policy#ONCE} and the object was already verified, or the policy is
+	 * {@link Policy#CRC32} or {@link Policy#NONE}.
+	 * @return the skip count, at least 0
+	 */
+	public long getSkipCount() {
+		return skipCount.sum();
+	}
+	
+	
+	
+	/*---- Package-private methods ----*/
+	
+	void countHash() {
+		hashCount.increment();
+	}
+	
+	
+	void countCrc() {
+		crcCount.increment();
+	}
+	
+	
+	void countSkip() {
+		skipCount.increment();
+	}
+	
+	
+	// Tests whether the given loose object ID has been marked as verified.
+	boolean isLooseVerified(ObjectId id) {
+		synchronized (verifiedLooseIds) {
+			return verifiedLooseIds.contains(id);
+		}
+	}
+	
+	
+	// Marks the given loose object ID as verified.
+	void addLooseVerified(ObjectId id) {
+		synchronized (verifiedLooseIds) {
+			verifiedLooseIds.add(id);
+		}
+	}
+	
+	
+	
+	/*---- Helper enum ----*/
+	
+	/**
+	 * A level of checking the data of objects read from a repository against their IDs.
+	 */
+	public enum Policy {
+		
+		/** Computes the SHA-1 hash of every object on every read, and checks it against the ID. */
+		FULL,
+		
+		/**
+		 * Computes the SHA-1 hash the first time an object is read from a particular pack file
+		 * or loose file, and remembers the ID of each object whose hash matched to skip later checks.
+		 */
+		ONCE,
+		
+		/**
+		 * Checks the CRC-32 of each inflated pack entry against the value recorded in the pack index, which
+		 * detects accidental corruption of the pack file (but not of the index) without hashing the object.
+		 * Loose objects have no stored checksum, so they are hashed as with {@link #FULL}.
+		 */
+		CRC32,
+		
+		/** Trusts the data and performs no checks beyond parsing. */
+		NONE;
+		
+	}
+	
+}
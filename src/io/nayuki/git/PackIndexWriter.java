@@ -0,0 +1,120 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+
+/**
+ * Writes version 2 pack index (.idx) files and version 1 reverse index (.rev) files.
+ * A helper class for {@link PackIndexer} and others; not instantiable.
+ */
+final class PackIndexWriter {
+	
+	// Writes an index file for a pack containing the given objects. The three arrays are parallel
+	// and have the same length, and their elements can be in any order. The IDs must be distinct.
+	// The pack checksum is the 20-byte trailer of the pack file.
+	public static void write(File file, ObjectId[] ids, long[] offsets, int[] crcs, byte[] packChecksum) throws IOException {
+		int n = ids.length;
+		if (offsets.length != n || crcs.length != n || packChecksum.length != ObjectId.NUM_BYTES)
+			throw new IllegalArgumentException();
+		
+		// Sort entries by ID
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparing(i -> ids[i]));
+		for (int i = 1; i < n; i++) {
+			if (ids[order[i - 1]].equals(ids[order[i]]))
+				throw new IllegalArgumentException("Duplicate object ID");
+		}
+		
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)), hasher))) {
+			// Header
+			out.writeInt(0xFF744F63);  // "\377tOc"
+			out.writeInt(2);
+			
+			// Fanout table
+			for (int i = 0, j = 0; i < 256; i++) {
+				while (j < n && (ids[order[j]].getByte(0) & 0xFF) <= i)
+					j++;
+				out.writeInt(j);
+			}
+			
+			// Object IDs, CRC-32s, and offsets
+			for (int i : order)
+				out.write(ids[i].getBytes());
+			for (int i : order)
+				out.writeInt(crcs[i]);
+			int numLarge = 0;
+			for (int i : order) {
+				long off = offsets[i];
+				if (off < 0)
+					throw new IllegalArgumentException("Negative offset");
+				if (off < 0x80000000L)
+					out.writeInt((int)off);
+				else {
+					out.writeInt(0x80000000 | numLarge);
+					numLarge++;
+				}
+			}
+			for (int i : order) {
+				if (offsets[i] >= 0x80000000L)
+					out.writeLong(offsets[i]);
+			}
+			
+			// Trailer
+			out.write(packChecksum);
+			out.write(hasher.digest());
+		}
+	}
+	
+	
+	// Writes a reverse index file, given the index positions of all objects in increasing
+	// order of pack file offset. The pack checksum is the 20-byte trailer of the pack file.
+	public static void writeReverse(File file, int[] positions, byte[] packChecksum) throws IOException {
+		if (packChecksum.length != ObjectId.NUM_BYTES)
+			throw new IllegalArgumentException();
+		MessageDigest hasher;
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)), hasher))) {
+			out.writeInt(0x52494458);  // "RIDX"
+			out.writeInt(1);  // Version
+			out.writeInt(1);  // SHA-1
+			for (int pos : positions)
+				out.writeInt(pos);
+			out.write(packChecksum);
+			out.write(hasher.digest());
+		}
+	}
+	
+	
+	private PackIndexWriter() {}
+	
+}
@@ -0,0 +1,470 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+
+/**
+ * Builds the index file for a pack file, like the {@code git index-pack --fix-thin} command.
+ * A pack received from a transport may be <em>thin</em>, which means that some of its REF_DELTA
+ * entries use base objects that are not in the pack. Such a pack is completed by appending the
+ * missing bases (read from a repository) as whole objects, and then rewriting the pack's object
+ * count and trailer checksum. The completed pack and its new index can be installed
+ * into a repository's "objects/pack" directory without repacking anything.
+ * @see FileRepository
+ */
+public final class PackIndexer {
+	
+	/*---- Public static functions ----*/
+	
+	/**
+	 * Reads the specified pack file, completes it if it is thin, and writes a version 2 index file for it.
+	 * The pack file is modified in place only if it is thin. Every object in the pack is
+	 * inflated and hashed, and the pack's trailer checksum is verified before any change is made.
+	 * @param packFile the pack file to read and possibly complete (not {@code null})
+	 * @param indexFile the index file to write, which is overwritten if it exists (not {@code null})
+	 * @param baseRepo the repository to read missing delta bases from,
+	 * or {@code null} if the pack is expected to be self-contained
+	 * @throws NullPointerException if the pack file or index file is {@code null}
+	 * @throws IOException if an I/O exception occurred, malformed data was encountered,
+	 * or a delta base was found neither in the pack nor in the repository
+	 */
+	public static void indexPack(File packFile, File indexFile, Repository baseRepo) throws IOException {
+		Objects.requireNonNull(packFile);
+		Objects.requireNonNull(indexFile);
+		try (FileChannel ch = FileChannel.open(packFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			PackIndexer indexer = new PackIndexer(ch, baseRepo);
+			indexer.scanEntries();
+			indexer.resolveDeltas();
+			indexer.writeIndex(indexFile);
+		}
+	}
+	
+	
+	
+	/*---- Fields ----*/
+	
+	private final FileChannel channel;
+	private final Repository baseRepo;  // Can be null
+	
+	private List<Entry> entries;
+	private Map<Long,List<Entry>> ofsDeltaChildren;  // Keyed by base offset
+	private Map<ObjectId,List<Entry>> refDeltaChildren;  // Keyed by base ID
+	
+	// The pack's trailer checksum, which changes if the pack is completed.
+	private byte[] packChecksum;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	private PackIndexer(FileChannel ch, Repository repo) {
+		channel = ch;
+		baseRepo = repo;
+		entries = new ArrayList<>();
+		ofsDeltaChildren = new HashMap<>();
+		refDeltaChildren = new HashMap<>();
+	}
+	
+	
+	
+	/*---- Private methods ----*/
+	
+	// Verifies the pack checksum, and reads every entry's location and CRC-32.
+	// Whole objects get their IDs computed now; deltas are only inflated to find where they end.
+	private void scanEntries() throws IOException {
+		long dataEnd = channel.size() - ObjectId.NUM_BYTES;
+		if (dataEnd < HEADER_LEN)
+			throw new GitFormatException("Pack file too short");
+		packChecksum = new byte[ObjectId.NUM_BYTES];
+		readFully(ByteBuffer.wrap(packChecksum), dataEnd);
+		if (!Arrays.equals(hashPackData(dataEnd), packChecksum))
+			throw new GitFormatException("Pack checksum mismatch");
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+		readFully(header, 0);
+		if (header.getInt(0) != 0x5041434B)  // "PACK"
+			throw new GitFormatException("Pack file header expected");
+		int version = header.getInt(4);
+		if (version != 2 && version != 3)
+			throw new GitFormatException("Pack version 2 or 3 expected");
+		long count = header.getInt(8) & 0xFFFFFFFFL;
+		
+		EntryInputStream in = new EntryInputStream(HEADER_LEN);
+		DataInputStream din = new DataInputStream(in);
+		for (long i = 0; i < count; i++) {
+			Entry ent = new Entry();
+			ent.offset = in.position();
+			in.crc.reset();
+			long typeAndSize = PackfileReader.decodeTypeAndSize(din);
+			ent.packType = (int)typeAndSize & 7;
+			long size = typeAndSize >>> 3;
+			
+			OutputStream sink = OutputStream.nullOutputStream();
+			MessageDigest hasher = null;
+			if (ent.packType == PackfileReader.OFS_DELTA) {
+				long delta = PackfileReader.decodeOffsetDelta(din);
+				if (delta <= 0 || delta > ent.offset)
+					throw new GitFormatException("Invalid delta base offset");
+				ent.baseOffset = ent.offset - delta;
+				ofsDeltaChildren.computeIfAbsent(ent.baseOffset, k -> new ArrayList<>()).add(ent);
+			} else if (ent.packType == PackfileReader.REF_DELTA) {
+				byte[] b = new byte[ObjectId.NUM_BYTES];
+				din.readFully(b);
+				ent.baseId = new RawId(b);
+				refDeltaChildren.computeIfAbsent(ent.baseId, k -> new ArrayList<>()).add(ent);
+			} else if (1 <= ent.packType && ent.packType <= 4) {
+				ent.objectType = ent.packType;
+				hasher = newSha1Hasher();
+				hasher.update(makeHeader(ent.objectType, size));
+				sink = new DigestOutputStream(sink, hasher);
+			} else
+				throw new GitFormatException("Unknown object type: " + ent.packType);
+			
+			ent.dataOffset = in.position();
+			if (in.inflate(sink) != size)
+				throw new GitFormatException("Data length mismatch");
+			ent.crc32 = (int)in.crc.getValue();
+			if (hasher != null)
+				ent.id = new RawId(hasher.digest());
+			entries.add(ent);
+		}
+		if (in.position() != dataEnd)
+			throw new GitFormatException("Unexpected data after last pack entry");
+	}
+	
+	
+	// Computes the IDs of all delta entries, appending missing REF_DELTA bases to the pack if needed.
+	private void resolveDeltas() throws IOException {
+		for (Entry ent : new ArrayList<>(entries)) {
+			if (ent.id != null && hasChildren(ent))
+				resolveChildren(ent, inflateEntry(ent));
+		}
+		
+		// Any REF_DELTA entries still unresolved need bases from outside the pack
+		List<ObjectId> missing = new ArrayList<>();
+		for (Map.Entry<ObjectId,List<Entry>> item : refDeltaChildren.entrySet()) {
+			if (item.getValue().get(0).id == null)
+				missing.add(item.getKey());
+		}
+		if (!missing.isEmpty())
+			appendBases(missing);
+		
+		for (Entry ent : entries) {
+			if (ent.id == null)
+				throw new GitFormatException("Unresolvable delta at offset " + ent.offset);
+		}
+	}
+	
+	
+	// Applies the deltas of all entries based on the given entry, recursively.
+	private void resolveChildren(Entry base, byte[] baseData) throws IOException {
+		List<Entry> children = new ArrayList<>();
+		children.addAll(ofsDeltaChildren.getOrDefault(base.offset, List.of()));
+		children.addAll(refDeltaChildren.getOrDefault(base.id, List.of()));
+		for (Entry child : children) {
+			if (child.id != null)
+				continue;  // Already resolved against a duplicate copy of the base
+			byte[] data = PackfileReader.applyDelta(baseData, inflateEntry(child));
+			child.objectType = base.objectType;
+			MessageDigest hasher = newSha1Hasher();
+			hasher.update(makeHeader(child.objectType, data.length));
+			hasher.update(data);
+			child.id = new RawId(hasher.digest());
+			if (hasChildren(child))
+				resolveChildren(child, data);
+		}
+	}
+	
+	
+	// Reads the given objects from the base repository, appends them to the end of the pack as
+	// whole objects, resolves the deltas that depend on them, and rewrites the header and trailer.
+	private void appendBases(List<ObjectId> ids) throws IOException {
+		if (baseRepo == null)
+			throw new GitFormatException("Delta base object not found: " + ids.get(0).getHexString());
+		long position = channel.size() - ObjectId.NUM_BYTES;  // Overwrite the old trailer
+		for (ObjectId id : ids) {
+			if (refDeltaChildren.get(id).get(0).id != null)
+				continue;  // Turned out to be in the pack, based on an earlier appended object
+			if (!baseRepo.containsObject(id))
+				throw new GitFormatException("Delta base object not found: " + id.getHexString());
+			// Copy the stored data rather than reserializing a parsed object, which doesn't always reproduce it
+			String type;
+			byte[] data;
+			try (ObjectStream in = baseRepo.openObjectStream(id)) {
+				type = in.type;
+				data = in.readAllBytes();
+			}
+			if (!Arrays.equals(GitObject.getSha1Hash(type, data), id.getBytes()))
+				throw new GitFormatException("Hash of data mismatches object ID");
+			
+			Entry ent = new Entry();
+			ent.offset = position;
+			ent.id = id;
+			ent.objectType = ent.packType = TYPE_NAMES.indexOf(type);
+			if (ent.packType == -1)
+				throw new GitFormatException("Unknown object type: " + type);
+			ByteArrayOutputStream bout = new ByteArrayOutputStream();
+			bout.write(PackfileReader.encodeTypeAndSize(ent.packType, data.length));
+			ent.dataOffset = position + bout.size();
+			Deflater def = new Deflater();
+			try (DeflaterOutputStream dout = new DeflaterOutputStream(bout, def)) {
+				dout.write(data);
+			} finally {
+				def.end();
+			}
+			byte[] b = bout.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(b);
+			ent.crc32 = (int)crc.getValue();
+			writeFully(ByteBuffer.wrap(b), position);
+			position += b.length;
+			entries.add(ent);
+			resolveChildren(ent, data);
+		}
+		channel.truncate(position);
+		
+		ByteBuffer count = ByteBuffer.allocate(4);
+		count.putInt(0, entries.size());
+		writeFully(count, 8);
+		packChecksum = hashPackData(position);
+		writeFully(ByteBuffer.wrap(packChecksum), position);
+	}
+	
+	
+	private void writeIndex(File file) throws IOException {
+		int n = entries.size();
+		ObjectId[] ids = new ObjectId[n];
+		long[] offsets = new long[n];
+		int[] crcs = new int[n];
+		for (int i = 0; i < n; i++) {
+			Entry ent = entries.get(i);
+			ids[i] = ent.id;
+			offsets[i] = ent.offset;
+			crcs[i] = ent.crc32;
+		}
+		PackIndexWriter.write(file, ids, offsets, crcs, packChecksum);
+	}
+	
+	
+	private boolean hasChildren(Entry ent) {
+		return ofsDeltaChildren.containsKey(ent.offset) || refDeltaChildren.containsKey(ent.id);
+	}
+	
+	
+	// Returns the inflated data of the given entry, which is delta instructions if the entry is a delta.
+	private byte[] inflateEntry(Entry ent) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new EntryInputStream(ent.dataOffset).inflate(out);
+		return out.toByteArray();
+	}
+	
+	
+	// Returns the SHA-1 hash of the pack file's bytes in the range [0, end).
+	private byte[] hashPackData(long end) throws IOException {
+		MessageDigest hasher = newSha1Hasher();
+		ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		for (long pos = 0; pos < end; ) {
+			buf.clear();
+			if (end - pos < buf.capacity())
+				buf.limit((int)(end - pos));
+			readFully(buf, pos);
+			buf.flip();
+			pos += buf.remaining();
+			hasher.update(buf);
+		}
+		return hasher.digest();
+	}
+	
+	
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if (n == -1)
+				throw new EOFException();
+			position += n;
+		}
+	}
+	
+	
+	private void writeFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining())
+			position += channel.write(buf, position);
+	}
+	
+	
+	
+	/*---- Private static helpers ----*/
+	
+	private static byte[] makeHeader(int typeIndex, long size) {
+		return (TYPE_NAMES.get(typeIndex) + " " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	
+	private static MessageDigest newSha1Hasher() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	
+	private static final int HEADER_LEN = 12;
+	
+	private static final List<String> TYPE_NAMES = Arrays.asList(null, "commit", "tree", "blob", "tag");
+	
+	
+	
+	/*---- Helper classes ----*/
+	
+	// The location and resolution state of one pack entry. Mutable structure.
+	private static final class Entry {
+		
+		public long offset;  // Of the entry header
+		public long dataOffset;  // Of the compressed data
+		public int crc32;  // Of the entry header and compressed data
+		public int packType;  // 1 to 4 for whole objects, 6 or 7 for deltas
+		public long baseOffset = -1;  // Only for OFS_DELTA
+		public ObjectId baseId;  // Only for REF_DELTA
+		
+		public ObjectId id;  // Null until resolved
+		public int objectType;  // 1 to 4, or 0 until resolved
+		
+	}
+	
+	
+	
+	// Reads the pack channel sequentially from a given position, maintaining a CRC-32 of the bytes consumed.
+	// DEFLATE streams are inflated directly from the internal buffer, so that the bytes after
+	// the end of a stream are not lost and the position stays exact.
+	private final class EntryInputStream extends InputStream {
+		
+		public final CRC32 crc = new CRC32();
+		
+		private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		private long bufferEnd;  // File position just after the last byte loaded in the buffer
+		
+		
+		public EntryInputStream(long position) {
+			bufferEnd = position;
+			buffer.limit(0);
+		}
+		
+		
+		// Returns the file position of the next byte to be read.
+		public long position() {
+			return bufferEnd - buffer.remaining();
+		}
+		
+		
+		public int read() throws IOException {
+			if (!fillBuffer())
+				return -1;
+			int b = buffer.get() & 0xFF;
+			crc.update(b);
+			return b;
+		}
+		
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			if (len == 0)
+				return 0;
+			if (!fillBuffer())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			crc.update(b, off, n);
+			return n;
+		}
+		
+		
+		// Inflates one DEFLATE stream starting at the current position, writes the
+		// decompressed bytes to the given stream, and returns the number of bytes written.
+		public long inflate(OutputStream out) throws IOException {
+			Decompressor dec = Decompressor.acquire();
+			try {
+				Inflater inf = dec.getInflater();
+				byte[] outBuf = dec.getScratchBuffer();
+				long total = 0;
+				int chunkLen = 0;
+				while (!inf.finished()) {
+					if (inf.needsInput()) {
+						consume(chunkLen);
+						if (!fillBuffer())
+							throw new EOFException();
+						chunkLen = buffer.remaining();
+						inf.setInput(buffer.array(), buffer.position(), chunkLen);
+					}
+					int n = inf.inflate(outBuf);
+					if (n > 0) {
+						out.write(outBuf, 0, n);
+						total += n;
+					} else if (inf.needsDictionary())
+						throw new GitFormatException("Invalid DEFLATE data");
+				}
+				consume(chunkLen - inf.getRemaining());
+				return total;
+			} catch (DataFormatException e) {
+				throw new GitFormatException("Invalid DEFLATE data", e);
+			} finally {
+				dec.release();
+			}
+		}
+		
+		
+		private void consume(int n) {
+			crc.update(buffer.array(), buffer.position(), n);
+			buffer.position(buffer.position() + n);
+		}
+		
+		
+		// Returns false if the buffer is empty and the end of file has been reached.
+		private boolean fillBuffer() throws IOException {
+			if (buffer.hasRemaining())
+				return true;
+			buffer.clear();
+			int n;
+			do n = channel.read(buffer, bufferEnd);
+			while (n == 0);
+			buffer.flip();
+			if (n == -1)
+				return false;
+			bufferEnd += n;
+			return true;
+		}
+		
+	}
+	
+}
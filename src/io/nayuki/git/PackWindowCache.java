@@ -0,0 +1,270 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A cache of memory-mapped windows of pack files, used to inflate pack entries directly from the mapped
+ * data instead of copying the compressed bytes into a heap buffer first. Each pack file is divided into
+ * windows of a fixed size, aligned to multiples of that size, so that pack files larger than 2 GiB can be
+ * mapped; an entry that crosses a window boundary is read from consecutive windows. The cache is bounded
+ * by the total number of mapped bytes, evicting the least recently used windows first.
+ * <p>Mapping is disabled by default (a size limit of zero), in which case pack data is read with
+ * positional reads into pooled heap buffers. A window larger than the size limit is never mapped.
+ * The JDK provides no way to unmap a buffer, so an evicted window stays mapped until it is garbage
+ * collected; the limit bounds the windows that the cache keeps reachable. On some platforms, a pack
+ * file cannot be deleted while it is mapped. Pack files must not be modified while mapped.</p>
+ * <p>Each {@link FileRepository} owns one cache for all of its pack files. The hit, miss, and eviction
+ * counters are provided so that the window size and size limit can be tuned. This class is thread-safe.</p>
+ * @see FileRepository#getPackWindowCache()
+ */
+public final class PackWindowCache {
+	
+	/*---- Fields ----*/
+	
+	// In least-recently-used to most-recently-used order.
+	private final Map<Key,ByteBuffer> windows;
+	
+	private int windowSize;
+	private long maxBytes;
+	private long currentBytes;
+	
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	// Constructs an empty cache with the specified window size, which must be positive,
+	// and size limit, which must be non-negative.
+	PackWindowCache(int windowSize, long maxBytes) {
+		if (windowSize <= 0)
+			throw new IllegalArgumentException("Non-positive window size");
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("Negative size limit");
+		windows = new LinkedHashMap<>(16, 0.75f, true);
+		this.windowSize = windowSize;
+		this.maxBytes = maxBytes;
+	}
+	
+	
+	
+	/*---- Public methods ----*/
+	
+	/**
+	 * Returns the number of bytes in each window, except that the last window of a pack file can be shorter.
+	 * @return the window size, which is positive
+	 */
+	public synchronized int getWindowSize() {
+		return windowSize;
+	}
+	
+	
+	/**
+	 * Sets the number of bytes in each window. If the size changes, all windows are removed from
+	 * this cache; reads already in progress finish with the windows that they hold.
+	 * @param size the new window size, which must be positive
+	 * @throws IllegalArgumentException if the size is zero or negative
+	 */
+	public synchronized void setWindowSize(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Non-positive window size");
+		if (size != windowSize) {
+			windowSize = size;
+			clear();
+		}
+	}
+	
+	
+	/**
+	 * Returns the maximum total number of mapped bytes that this cache holds.
+	 * @return the size limit, which is non-negative
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	
+	/**
+	 * Sets the maximum total number of mapped bytes that this cache holds, evicting windows if needed.
+	 * A limit of zero disables mapping. A limit smaller than the window size maps only short last windows.
+	 * @param limit the new size limit, which must be non-negative
+	 * @throws IllegalArgumentException if the limit is negative
+	 */
+	public synchronized void setMaxBytes(long limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Negative size limit");
+		maxBytes = limit;
+		evict();
+	}
+	
+	
+	/**
+	 * Returns the total number of bytes in the windows currently held by this cache.
+	 * @return the current size, between 0 and {@link #getMaxBytes()}
+	 */
+	public synchronized long getCurrentBytes() {
+		return currentBytes;
+	}
+	
+	
+	/**
+	 * Returns the number of windows currently held by this cache.
+	 * @return the number of windows, at least 0
+	 */
+	public synchronized int getWindowCount() {
+		return windows.size();
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found a mapped window since this cache was created.
+	 * @return the hit count, at least 0
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+	
+	
+	/**
+	 * Returns the number of lookups that found no mapped window since this cache was created,
+	 * each of which mapped a new window. Lookups while mapping is disabled are not counted.
+	 * @return the miss count, at least 0
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+	
+	
+	/**
+	 * Returns the number of windows removed to respect the size limit since this cache was created.
+	 * @return the eviction count, at least 0
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+	
+	
+	/**
+	 * Removes all windows from this cache. The counters are not reset.
+	 */
+	public synchronized void clear() {
+		windows.clear();
+		currentBytes = 0;
+	}
+	
+	
+	
+	/*---- Package-private methods ----*/
+	
+	// Returns a new read-only view of the mapped window of the given pack file that contains the given position,
+	// with the view's position at that file position and its limit at the end of the window. Maps the window if
+	// it is not cached. Returns null if mapping is disabled, if the window is larger than the size limit, or if
+	// the position is at or beyond the end of the file. The caller may change the view's position and limit.
+	ByteBuffer get(PackfileReader pack, FileChannel channel, long position) throws IOException {
+		if (position < 0)
+			throw new IllegalArgumentException();
+		int size;
+		long limit;
+		synchronized (this) {
+			if (maxBytes == 0)
+				return null;
+			size = windowSize;
+			limit = maxBytes;
+			ByteBuffer win = windows.get(new Key(pack, position / size));
+			if (win != null && position % size < win.capacity()) {
+				hitCount++;
+				return win.duplicate().position((int)(position % size));
+			}
+		}
+		
+		// Map outside the lock. If another thread maps the same window concurrently, the first one stored is kept
+		long start = position / size * size;
+		long length = Math.min(channel.size() - start, size);
+		if (position >= start + length || length > limit)
+			return null;
+		ByteBuffer win = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		synchronized (this) {
+			if (size != windowSize || length > maxBytes)
+				return null;
+			Key key = new Key(pack, position / size);
+			ByteBuffer old = windows.get(key);
+			if (old != null)
+				win = old;
+			else {
+				windows.put(key, win);
+				currentBytes += length;
+				missCount++;
+				evict();
+			}
+			return win.duplicate().position((int)(position - start));
+		}
+	}
+	
+	
+	// Removes all windows belonging to the given pack, typically because it is being closed.
+	synchronized void removeAll(PackfileReader pack) {
+		for (Iterator<Map.Entry<Key,ByteBuffer>> it = windows.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Key,ByteBuffer> ent = it.next();
+			if (ent.getKey().pack == pack) {
+				currentBytes -= ent.getValue().capacity();
+				it.remove();
+			}
+		}
+	}
+	
+	
+	// Removes least recently used windows until the size limit is satisfied.
+	private void evict() {
+		for (Iterator<ByteBuffer> it = windows.values().iterator(); currentBytes > maxBytes; ) {
+			currentBytes -= it.next().capacity();
+			it.remove();
+			evictionCount++;
+		}
+	}
+	
+	
+	
+	/*---- Helper class ----*/
+	
+	private static final class Key {
+		
+		public final PackfileReader pack;
+		public final long index;  // Of the window within the pack file
+		
+		
+		public Key(PackfileReader pack, long index) {
+			this.pack = pack;
+			this.index = index;
+		}
+		
+		
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key)obj;
+			return pack == other.pack && index == other.index;
+		}
+		
+		
+		public int hashCode() {
+			return System.identityHashCode(pack) * 31 + Long.hashCode(index);
+		}
+		
+	}
+	
+}
@@ -8,315 +8,945 @@
 package io.nayuki.git;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
-import java.util.zip.DataFormatException;
-import java.util.zip.Inflater;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.zip.InflaterInputStream;
 
 
 /**
  * Manages the state and logic for reading from a Git pack file and index file.
- * A helper class for {@link FileRepository}. Currently, pack file reader objects
- * are immutable and hold no resources or file handles outside of method calls.
+ * A helper class for {@link FileRepository}. The index file is memory-mapped once
+ * when the reader is constructed, and lookups are answered by binary search over
+ * the mapped data. The pack file is held open as a channel and read with positional
+ * reads, so no file position state is shared between calls. A pack file reader
+ * holds resources until {@link #close()} is called.
  */
-final class PackfileReader {
+final class PackfileReader implements Closeable {
 	
 	/*---- Fields ----*/
 	
 	private final File indexFile;
 	private final File packFile;
 	
+	// Open until close() is called.
+	private final FileChannel packChannel;
+	
+	// The repository that this pack belongs to, for resolving REF_DELTA bases outside this pack.
+	private final FileRepository repository;
+	
+	// Shared with other packs of the same repository.
+	private final DeltaBaseCache deltaBaseCache;
+	private final PackWindowCache windowCache;
+	private final ObjectVerifier verifier;
+	
+	// The entire index file, mapped read-only. Only absolute get methods are used on it.
+	private final ByteBuffer index;
+	
+	// fanout[i] is the number of objects whose first hash byte is at most i.
+	private final int[] fanout;
+	
+	private final int totalObjects;
+	
+	// Byte offsets of the tables within the index file.
+	private final int idsStart;
+	private final int crcsStart;
+	private final int offsetsStart;
+	private final int largeOffsetsStart;
+	private final int numLargeOffsets;
+	
+	// The index positions of the objects in increasing order of pack file offset. Either mapped from the
+	// ".rev" file or computed from the index. Null until first needed; see getReverseIndex(). Volatile
+	// so that other threads see the buffer fully constructed, because its position and limit are not final.
+	private volatile IntBuffer reverseIndex;
+	
+	// The reachability bitmap index from the ".bitmap" file, or null if there is none
+	// or it hasn't been loaded yet (as told by bitmapIndexLoaded); see getBitmapIndex().
+	private BitmapIndex bitmapIndex;
+	private boolean bitmapIndexLoaded;
+	
+	// The number of holders that need the pack file open: 1 for the repository's pack set until the pack is
+	// replaced, plus 1 for each read in progress and each open object stream. The file is closed when this reaches 0.
+	private final AtomicInteger references = new AtomicInteger(1);
+	
+	// Bit i is set if the object at index position i has had its hash verified, for ObjectVerifier.Policy.ONCE.
+	// Null until first needed; see getVerifiedPositions().
+	private volatile AtomicLongArray verifiedPositions;
+	
 	
 	
 	/*---- Constructors ----*/
 	
-	public PackfileReader(File index, File pack) {
+	public PackfileReader(File index, File pack, FileRepository repo) throws IOException {
 		Objects.requireNonNull(index);
 		Objects.requireNonNull(pack);
+		Objects.requireNonNull(repo);
 		if (!index.isFile() || !pack.isFile())
 			throw new IllegalArgumentException("File does not exist");
 		indexFile = index;
 		packFile = pack;
+		repository = repo;
+		deltaBaseCache = repo.getDeltaBaseCache();
+		windowCache = repo.getPackWindowCache();
+		verifier = repo.getObjectVerifier();
+		packChannel = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+		boolean success = false;
+		try {
+			this.index = mapIndex(indexFile);
+			
+			// Check file header; this logic only supports version 2 indexes
+			if (this.index.capacity() < HEADER_LEN + FANOUT_LEN)
+				throw new GitFormatException("Pack index file too short");
+			if (this.index.getInt(0) != INDEX_MAGIC)
+				throw new GitFormatException("Pack index header expected");
+			if (this.index.getInt(4) != 2)
+				throw new GitFormatException("Index version 2 expected");
+			
+			// Read fanout table
+			fanout = new int[256];
+			for (int i = 0, prev = 0; i < fanout.length; i++) {
+				int n = this.index.getInt(HEADER_LEN + i * 4);
+				if (n < prev)  // Also catches counts of 2^31 or more
+					throw new GitFormatException("Invalid fanout table");
+				fanout[i] = n;
+				prev = n;
+			}
+			totalObjects = fanout[255];
+			
+			// Compute table locations
+			long minSize = HEADER_LEN + FANOUT_LEN + (long)totalObjects * (ObjectId.NUM_BYTES + 4 + 4) + TRAILER_LEN;
+			long extra = this.index.capacity() - minSize;
+			if (extra < 0 || extra % 8 != 0)
+				throw new GitFormatException("Invalid pack index file size");
+			idsStart = HEADER_LEN + FANOUT_LEN;
+			crcsStart = idsStart + totalObjects * ObjectId.NUM_BYTES;
+			offsetsStart = crcsStart + totalObjects * 4;
+			largeOffsetsStart = offsetsStart + totalObjects * 4;
+			numLargeOffsets = (int)(extra / 8);
+			
+			// Check pack file header against the index
+			ByteBuffer header = ByteBuffer.allocate(12);
+			readFully(header, 0);
+			if (header.getInt(0) != PACK_MAGIC)
+				throw new GitFormatException("Pack file header expected");
+			int version = header.getInt(4);
+			if (version != 2 && version != 3)
+				throw new GitFormatException("Pack version 2 or 3 expected");
+			if (header.getInt(8) != totalObjects)
+				throw new GitFormatException("Pack file and index object counts mismatch");
+			success = true;
+		} finally {
+			if (!success)
+				packChannel.close();
+		}
+	}
+	
+	
+	// Maps the entire given file read-only into memory.
+	private static ByteBuffer mapIndex(File file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				throw new GitFormatException("Index file too large");
+			return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
 	}
 	
 	
 	
 	/*---- Public methods ----*/
 	
+	public File getIndexFile() {
+		return indexFile;
+	}
+	
+	
+	public File getPackFile() {
+		return packFile;
+	}
+	
+	
+	public int getObjectCount() {
+		return totalObjects;
+	}
+	
+	
 	public boolean containsObject(ObjectId id) throws IOException {
-		return readDataOffset(id) != null;
+		return findObjectIndex(id) != -1;
 	}
 	
 	
-	public byte[] readRawObject(ObjectId id) throws IOException {
-		Object[] pair = readObjectHeaderless(id);
+	// Returns the byte offset of the given object's entry in the pack file, or -1 if this pack doesn't contain the object.
+	public long findOffset(ObjectId id) throws IOException {
+		int position = findObjectIndex(id);
+		return position != -1 ? getDataOffset(position) : -1;
+	}
+	
+	
+	// Returns the raw object bytes (including header) of the given object, whose entry is at the given offset.
+	// The depth is the number of other packs whose delta chains led to this read, else 0.
+	public byte[] readRawObject(ObjectId id, long offset, int depth) throws IOException {
+		Object[] pair = readObjectHeaderless(id, offset, depth);
 		return GitObject.addHeader((String)pair[0], (byte[])pair[1]);
 	}
 	
 	
-	public GitObject readObject(ObjectId id) throws IOException {
-		Object[] pair = readObjectHeaderless(id);
-		byte[] bytes = (byte[])pair[1];
-		return switch ((String)pair[0]) {
-			case "blob"   -> new BlobObject  (bytes);
-			case "tree"   -> new TreeObject  (bytes);
-			case "commit" -> new CommitObject(bytes);
-			case "tag"    -> new TagObject   (bytes);
-			default -> throw new AssertionError();
-		};
+	// Returns the parsed form of the given object, whose entry is at the given offset.
+	public GitObject readObject(ObjectId id, long offset) throws IOException {
+		Object[] pair = readObjectHeaderless(id, offset, 0);
+		return parseObject(id, (String)pair[0], (byte[])pair[1]);
 	}
 	
 	
-	// Reads the index file to find all IDs that match the given
-	// hexadecimal prefix, and adds them to the given result set.
-	public void getIdsByPrefix(String prefix, Set<ObjectId> result) throws IOException {
-		ObjectId lowId  = new RawId(prefix + "0000000000000000000000000000000000000000".substring(prefix.length()));  // Inclusive
-		ObjectId highId = new RawId(prefix + "ffffffffffffffffffffffffffffffffffffffff".substring(prefix.length()));  // Inclusive
+	// Reads the given list of pairs (ObjectId id, Long offset), where each offset is that object's entry,
+	// and passes each parsed object to the given action. The entries are read in increasing offset order so
+	// that the pack file is read sequentially. An entry that is the delta base of another entry in the list
+	// is put in the delta base cache, so that it is inflated only once, and an entry found in the cache is
+	// not inflated at all. The list is sorted in place.
+	public void readObjects(List<Object[]> entries, BiConsumer<? super ObjectId,? super GitObject> action) throws IOException {
+		entries.sort(Comparator.comparingLong(entry -> (Long)entry[1]));
 		
-		final int HEADER_LEN = 8;
-		final int FANOUT_LEN = 256 * 4;
+		// Read only the entry headers to find which entries are bases of other entries
+		Set<Long> bases = new HashSet<>();
+		Set<Long> offsets = new HashSet<>();
+		for (Object[] entry : entries)
+			offsets.add((Long)entry[1]);
+		Decompressor dec = Decompressor.acquire();
+		try {
+			for (Object[] entry : entries) {
+				long offset = (Long)entry[1];
+				Object base = openEntry(dec, offset, SMALL_BUFFER_LEN)[2];
+				if (base instanceof ObjectId baseId)
+					base = findOffset(baseId);
+				if (base != null && offsets.contains(base))
+					bases.add((Long)base);
+			}
+		} finally {
+			dec.release();
+		}
 		
-		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
-			// Check file header; this logic only supports version 2 indexes
-			byte[] b = new byte[4];
-			raf.readFully(b);
-			if (b[0] != (byte)0xFF || b[1] != 't' || b[2] != 'O' || b[3] != 'c')
-				throw new GitFormatException("Pack index header expected");
-			if (raf.readInt() != 2)
-				throw new GitFormatException("Index version 2 expected");
-			
-			// Read pack size
-			raf.seek(HEADER_LEN + FANOUT_LEN - 4);
-			long totalObjects = raf.readInt() & 0xFFFFFFFFL;
-			
-			// Skip over some index entries based on head byte
-			int headByte = lowId.getByte(0) & 0xFF;
-			long objectOffset = 0;
-			if (headByte > 0) {
-				raf.seek(HEADER_LEN + (headByte - 1) * 4);
-				objectOffset = raf.readInt() & 0xFFFFFFFFL;
+		for (Object[] entry : entries) {
+			ObjectId id = (ObjectId)entry[0];
+			long offset = (Long)entry[1];
+			Object[] temp = deltaBaseCache.get(this, offset);
+			if (temp == null) {
+				temp = readObjectHeaderless(offset, 0);
+				if (bases.contains(offset))
+					deltaBaseCache.put(this, offset, (Integer)temp[0], (byte[])temp[1]);
 			}
+			byte[] bytes = (byte[])temp[1];
+			action.accept(id, parseObject(id, verify(id, (Integer)temp[0], bytes), bytes));
+		}
+	}
+	
+	
+	// Returns the type and size of the given object, whose entry is at the given offset, by reading only entry headers.
+	// For a delta entry, the size comes from the delta's header, and the type comes from the end of the chain of bases.
+	// The depth is the number of other packs whose delta chains led to this read, else 0.
+	public ObjectInfo readObjectInfo(long byteOffset, int depth) throws IOException {
+		Decompressor dec = Decompressor.acquire();
+		try {
+			Object[] header = openEntry(dec, byteOffset, SMALL_BUFFER_LEN);
+			int type = (Integer)header[0];
+			long size = (Long)header[1];
+			if (type != OFS_DELTA && type != REF_DELTA)
+				return new ObjectInfo(TYPE_NAMES[type], size);
 			
-			// Find object ID in index (which is in ascending order)
-			raf.seek(HEADER_LEN + FANOUT_LEN + objectOffset * ObjectId.NUM_BYTES);
-			b = new byte[ObjectId.NUM_BYTES];
-			for (; objectOffset < totalObjects; objectOffset++) {
-				raf.readFully(b);
-				ObjectId id = new RawId(b);
-				if (id.compareTo(highId) > 0)
-					break;
-				if (id.compareTo(lowId) >= 0)
-					result.add(id);
+			// Inflate only the start of the delta, to read the result size
+			byte[] deltaHeader = new byte[20];  // Two maximum-length integers
+			int n = dec.inflate(deltaHeader, 0, deltaHeader.length);
+			DataInputStream delta = new DataInputStream(new ByteArrayInputStream(deltaHeader, 0, n));
+			decodeDeltaHeaderInt(delta);  // Base size
+			size = decodeDeltaHeaderInt(delta);
+			
+			// Follow the chain of bases to find the type
+			Object base = header[2];
+			for (int i = 0; i < totalObjects; i++) {  // A chain longer than the pack has a cycle
+				long offset;
+				if (base instanceof Long)
+					offset = (Long)base;
+				else {
+					offset = findOffset((ObjectId)base);
+					if (offset == -1) {
+						if (depth >= MAX_PACK_DEPTH)  // A cycle through other packs
+							throw new GitFormatException("Delta chain too deep or cyclic");
+						return new ObjectInfo(repository.readObjectInfo((ObjectId)base, depth + 1).type, size);
+					}
+				}
+				header = openEntry(dec, offset, SMALL_BUFFER_LEN);
+				type = (Integer)header[0];
+				if (type != OFS_DELTA && type != REF_DELTA)
+					return new ObjectInfo(TYPE_NAMES[type], size);
+				base = header[2];
 			}
+			throw new GitFormatException("Delta chain has a cycle");
+		} finally {
+			dec.release();
 		}
 	}
 	
 	
+	// Searches the index to find all IDs that match the given
+	// hexadecimal prefix, and adds them to the given result set.
+	public void getIdsByPrefix(String prefix, Set<ObjectId> result) throws IOException {
+		ObjectId lowId  = new RawId(prefix + "0000000000000000000000000000000000000000".substring(prefix.length()));  // Inclusive
+		ObjectId highId = new RawId(prefix + "ffffffffffffffffffffffffffffffffffffffff".substring(prefix.length()));  // Inclusive
+		
+		// Binary search for the first entry not less than the low ID, then scan forward
+		int headByte = lowId.getByte(0) & 0xFF;
+		int start = headByte > 0 ? fanout[headByte - 1] : 0;
+		int end = fanout[headByte];
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			if (compareIdAt(mid, lowId) < 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		for (int i = start; i < totalObjects && compareIdAt(i, highId) <= 0; i++)
+			result.add(new RawId(index, idsStart + i * ObjectId.NUM_BYTES));
+	}
 	
-	/*---- Private methods for mid-level reading ----*/
 	
-	// Reads the index file to find the pack file byte offset of the given hash,
-	// returning an integer value if found or null if not found.
-	private Long readDataOffset(ObjectId id) throws IOException {
-		final int HEADER_LEN = 8;
-		final int FANOUT_LEN = 256 * 4;
-		
-		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
-			// Check file header; this logic only supports version 2 indexes
-			byte[] b = new byte[4];
-			raf.readFully(b);
-			if (b[0] != (byte)0xFF || b[1] != 't' || b[2] != 'O' || b[3] != 'c')
-				throw new GitFormatException("Pack index header expected");
-			if (raf.readInt() != 2)
-				throw new GitFormatException("Index version 2 expected");
-			
-			// Read pack size
-			raf.seek(HEADER_LEN + FANOUT_LEN - 4);
-			long totalObjects = raf.readInt() & 0xFFFFFFFFL;
-			
-			// Skip over some index entries based on head byte
-			int headByte = id.getByte(0) & 0xFF;
-			long objectOffset = 0;
-			if (headByte > 0) {
-				raf.seek(HEADER_LEN + (headByte - 1) * 4);
-				objectOffset = raf.readInt() & 0xFFFFFFFFL;
+	// Returns the reachability bitmap index of this pack, loading it when first called, or null if this pack has no ".bitmap" file.
+	public synchronized BitmapIndex getBitmapIndex() throws IOException {
+		if (!bitmapIndexLoaded) {
+			File file = getBitmapFile();
+			if (file.isFile())
+				bitmapIndex = new BitmapIndex(file, this, repository);
+			bitmapIndexLoaded = true;
+		}
+		return bitmapIndex;
+	}
+	
+	
+	// Writes a ".bitmap" file for this pack, replacing any existing one. The file stores the reachable sets
+	// of a selection of the commits reachable from the given tips, and this pack must contain all objects
+	// reachable from the tips. See BitmapIndexWriter.write() for details.
+	public void writeBitmapIndex(Collection<? extends ObjectId> tips) throws IOException {
+		File temp = File.createTempFile("tmp_bitmap_", "", packFile.getParentFile());
+		try {
+			BitmapIndexWriter.write(temp, this, repository, tips);
+			temp.setReadOnly();
+			Files.move(temp.toPath(), getBitmapFile().toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();  // No effect if already moved
+		}
+		synchronized (this) {  // Not held while writing, so that concurrent reads can use the old bitmaps
+			bitmapIndex = null;
+			bitmapIndexLoaded = false;
+		}
+	}
+	
+	
+	private File getBitmapFile() {
+		String name = packFile.getName();
+		return new File(packFile.getParentFile(), name.substring(0, name.length() - ".pack".length()) + ".bitmap");
+	}
+	
+	
+	
+	/*---- Methods for index lookup ----*/
+	
+	// Returns the position of the given ID in this index's sorted
+	// table of IDs, or -1 if this pack does not contain the object.
+	int findObjectIndex(ObjectId id) {
+		int headByte = id.getByte(0) & 0xFF;
+		int start = headByte > 0 ? fanout[headByte - 1] : 0;  // Inclusive
+		int end = fanout[headByte];  // Exclusive
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			int cmp = compareIdAt(mid, id);
+			if (cmp == 0)
+				return mid;
+			else if (cmp < 0)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		return -1;
+	}
+	
+	
+	// Compares the ID stored at the given position of the index's ID table to the given ID,
+	// in the same unsigned big-endian order as ObjectId.compareTo().
+	private int compareIdAt(int position, ObjectId id) {
+		return -id.compareTo(index, idsStart + position * ObjectId.NUM_BYTES);
+	}
+	
+	
+	// Returns the ID of the object at the given position of the index.
+	ObjectId getObjectId(int position) {
+		return new RawId(index, idsStart + position * ObjectId.NUM_BYTES);
+	}
+	
+	
+	// Returns the pack file byte offset of the object at the given position of the index.
+	long getDataOffset(int position) throws IOException {
+		long result = index.getInt(offsetsStart + position * 4);
+		if (result < 0) {  // Most significant bit is set; look up the 64-bit offset table
+			int i = (int)(result & 0x7FFFFFFF);
+			if (i >= numLargeOffsets)
+				throw new GitFormatException("Invalid large offset index");
+			result = index.getLong(largeOffsetsStart + i * 8);
+			if (result < 0)
+				throw new GitFormatException("Invalid large offset");
+		}
+		return result;
+	}
+	
+	
+	// Returns the CRC-32 of the compressed pack data of the object at the given position of the index.
+	int getCrc32(int position) {
+		return index.getInt(crcsStart + position * 4);
+	}
+	
+	
+	// Returns the 20-byte checksum of the pack file, as recorded in the index's trailer.
+	byte[] getPackChecksum() {
+		byte[] result = new byte[ObjectId.NUM_BYTES];
+		index.get(index.capacity() - TRAILER_LEN, result);
+		return result;
+	}
+	
+	
+	
+	/*---- Methods for the reverse index ----*/
+	
+	// Returns the ID of the object whose entry starts at the given pack file offset, or null if no entry starts there.
+	public ObjectId getObjectIdAtOffset(long offset) throws IOException {
+		int rank = findRank(offset);
+		return rank != -1 ? getObjectId(getReverseIndex().get(rank)) : null;
+	}
+	
+	
+	// Returns the number of bytes that the entry starting at the given offset occupies in the pack file,
+	// including its header and compressed data, or -1 if no entry starts there.
+	public long getEntrySize(long offset) throws IOException {
+		int rank = findRank(offset);
+		if (rank == -1)
+			return -1;
+		long end;
+		if (rank + 1 < totalObjects)
+			end = getDataOffset(getReverseIndex().get(rank + 1));
+		else
+			end = packChannel.size() - ObjectId.NUM_BYTES;
+		if (end <= offset)
+			throw new GitFormatException("Invalid pack file size");
+		return end - offset;
+	}
+	
+	
+	// Returns a read-only list of the IDs of all objects in this pack, in the order that their entries
+	// appear in the pack file. The list reads IDs from the indexes on demand, so creating it is cheap.
+	public List<ObjectId> getObjectIdsInPackOrder() throws IOException {
+		IntBuffer rev = getReverseIndex();
+		return new AbstractList<ObjectId>() {
+			public ObjectId get(int i) {
+				Objects.checkIndex(i, totalObjects);
+				return getObjectId(rev.get(i));
 			}
 			
-			// Find object ID in index (which is in ascending order)
-			raf.seek(HEADER_LEN + FANOUT_LEN + objectOffset * ObjectId.NUM_BYTES);
-			b = new byte[ObjectId.NUM_BYTES];
-			while (true) {
-				if (objectOffset >= totalObjects)
-					return null;  // Not found
-				raf.readFully(b);
-				int cmp = new RawId(b).compareTo(id);
-				if (cmp == 0)
-					break;
-				else if (cmp > 0)
-					return null;  // Not found
-				// Else cmp < 0
-				objectOffset++;
+			public int size() {
+				return totalObjects;
 			}
-			
-			// Read the data packfile offset of the object
-			long offsetTablesStart = HEADER_LEN + FANOUT_LEN + totalObjects * (ObjectId.NUM_BYTES + 4);
-			raf.seek(offsetTablesStart + objectOffset * 4);
-			long result = raf.readInt();
-			if (result < 0) {  // Most significant bit is set; do more processing
-				raf.seek(offsetTablesStart + totalObjects * 4 + (result & 0x7FFFFFFF) * 8);
-				result = raf.readLong();
+		};
+	}
+	
+	
+	// Returns the rank (in pack file order) of the given object, or -1 if this pack does not contain it.
+	// This is the object's bit position in reachability bitmaps.
+	int findPackPosition(ObjectId id) throws IOException {
+		int position = findObjectIndex(id);
+		return position != -1 ? findRank(getDataOffset(position)) : -1;
+	}
+	
+	
+	// Returns the ID of the object with the given rank in pack file order.
+	ObjectId getObjectIdAtPackPosition(int rank) throws IOException {
+		Objects.checkIndex(rank, totalObjects);
+		return getObjectId(getReverseIndex().get(rank));
+	}
+	
+	
+	// Returns the pack file byte offset of the object with the given rank in pack file order.
+	long getDataOffsetAtPackPosition(int rank) throws IOException {
+		Objects.checkIndex(rank, totalObjects);
+		return getDataOffset(getReverseIndex().get(rank));
+	}
+	
+	
+	// Writes a ".rev" file next to the pack file if it doesn't exist, and returns whether a file was written.
+	public boolean writeReverseIndex() throws IOException {
+		File revFile = getReverseIndexFile();
+		if (revFile.isFile())
+			return false;
+		int[] positions = computeReverseIndex();
+		File temp = File.createTempFile("tmp_rev_", "", packFile.getParentFile());
+		try {
+			PackIndexWriter.writeReverse(temp, positions, getPackChecksum());
+			temp.setReadOnly();
+			Files.move(temp.toPath(), revFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();  // No effect if already moved
+		}
+		return true;
+	}
+	
+	
+	// Returns the index position of the entry starting at the given offset, or -1 if no entry starts there.
+	private int findIndexPosition(long offset) throws IOException {
+		int rank = findRank(offset);
+		return rank != -1 ? getReverseIndex().get(rank) : -1;
+	}
+	
+	
+	// Returns the rank (in offset order) of the entry starting at the given offset, or -1 if no entry starts there.
+	private int findRank(long offset) throws IOException {
+		IntBuffer rev = getReverseIndex();
+		int start = 0;
+		int end = totalObjects;
+		while (start < end) {
+			int mid = (start + end) >>> 1;
+			long off = getDataOffset(rev.get(mid));
+			if (off == offset)
+				return mid;
+			else if (off < offset)
+				start = mid + 1;
+			else
+				end = mid;
+		}
+		return -1;
+	}
+	
+	
+	// Returns the reverse index, loading it from the ".rev" file if one exists for this
+	// pack, otherwise computing it from the index's offset table. Only absolute get methods are used on it.
+	private IntBuffer getReverseIndex() throws IOException {
+		IntBuffer result = reverseIndex;
+		if (result == null) {
+			synchronized (this) {
+				result = reverseIndex;
+				if (result == null) {
+					result = loadReverseIndex();
+					reverseIndex = result;
+				}
 			}
-			return result;
 		}
+		return result;
+	}
+	
+	
+	// Returns a new reverse index mapped from the ".rev" file, or computed if the file doesn't exist.
+	private IntBuffer loadReverseIndex() throws IOException {
+		File revFile = getReverseIndexFile();
+		if (!revFile.isFile())
+			return IntBuffer.wrap(computeReverseIndex());
+		ByteBuffer buf = mapIndex(revFile);
+		if (buf.capacity() != REV_HEADER_LEN + (long)totalObjects * 4 + TRAILER_LEN)
+			throw new GitFormatException("Invalid reverse index file size");
+		if (buf.getInt(0) != REV_MAGIC)
+			throw new GitFormatException("Reverse index header expected");
+		if (buf.getInt(4) != 1)
+			throw new GitFormatException("Reverse index version 1 expected");
+		if (buf.getInt(8) != 1)
+			throw new GitFormatException("SHA-1 reverse index expected");
+		byte[] checksum = new byte[ObjectId.NUM_BYTES];
+		buf.get(REV_HEADER_LEN + totalObjects * 4, checksum);
+		if (!Arrays.equals(checksum, getPackChecksum()))
+			throw new GitFormatException("Reverse index does not match pack");
+		return buf.slice(REV_HEADER_LEN, totalObjects * 4).asIntBuffer();
 	}
 	
 	
-	// Reads the object data, checks the data hash against the argument,
-	// and returns (String typeName, byte[] bytes). The type name is not null.
-	private Object[] readObjectHeaderless(ObjectId id) throws IOException {
-		// Read byte data
-		int typeIndex;
-		byte[] bytes;
-		try (RandomAccessFile raf = new RandomAccessFile(packFile, "r")) {
-			Object[] temp = readObjectHeaderless(raf, readDataOffset(id));
-			typeIndex = (Integer)temp[0];
-			bytes = (byte[])temp[1];
+	// Returns a new array of the index positions of all objects, sorted by pack file offset.
+	private int[] computeReverseIndex() throws IOException {
+		long[] offsets = new long[totalObjects];
+		long maxOffset = 0;
+		for (int i = 0; i < totalObjects; i++) {
+			offsets[i] = getDataOffset(i);
+			maxOffset = Math.max(offsets[i], maxOffset);
+		}
+		int[] result = new int[totalObjects];
+		if (maxOffset >>> 32 == 0) {  // Fast path: pack each (offset, position) into one long and sort primitives
+			long[] keys = new long[totalObjects];
+			for (int i = 0; i < totalObjects; i++)
+				keys[i] = offsets[i] << 31 | i;
+			Arrays.sort(keys);
+			for (int i = 0; i < totalObjects; i++)
+				result[i] = (int)(keys[i] & 0x7FFFFFFF);
+		} else {
+			Integer[] temp = new Integer[totalObjects];
+			for (int i = 0; i < totalObjects; i++)
+				temp[i] = i;
+			Arrays.sort(temp, Comparator.comparingLong(i -> offsets[i]));
+			for (int i = 0; i < totalObjects; i++)
+				result[i] = temp[i];
 		}
+		for (int i = 1; i < totalObjects; i++) {
+			if (offsets[result[i - 1]] == offsets[result[i]])
+				throw new GitFormatException("Duplicate offset in pack index");
+		}
+		return result;
+	}
+	
+	
+	private File getReverseIndexFile() {
+		String name = packFile.getName();
+		return new File(packFile.getParentFile(), name.substring(0, name.length() - ".pack".length()) + ".rev");
+	}
+	
+	
+	
+	/*---- Private methods for mid-level reading ----*/
+	
+	// Reads the object data at the given offset and pack depth, checks the data against the given ID as
+	// the verification policy requires, and returns (String typeName, byte[] bytes). The type name is not null.
+	private Object[] readObjectHeaderless(ObjectId id, long offset, int depth) throws IOException {
+		Object[] temp = readObjectHeaderless(offset, depth);
+		byte[] bytes = (byte[])temp[1];
+		return new Object[]{verify(id, (Integer)temp[0], bytes), bytes};
+	}
+	
+	
+	// Checks the given object data against the given ID as the verification policy requires,
+	// and returns the type name (not null). Under CRC32, the entries were checked when inflated.
+	private String verify(ObjectId id, int typeIndex, byte[] bytes) throws IOException {
 		if (typeIndex >>> 3 != 0)
 			throw new AssertionError();
-		
-		// Check hash
 		String typeName = TYPE_NAMES[typeIndex];
 		if (typeName == null)
 			throw new GitFormatException("Unknown object type: " + typeIndex);
-		MessageDigest hasher;
-		try {
-			hasher = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			throw new AssertionError(e);
+		
+		ObjectVerifier.Policy policy = verifier.getPolicy();
+		int position = -1;
+		if (policy == ObjectVerifier.Policy.ONCE) {
+			position = findObjectIndex(id);
+			if (position != -1 && (getVerifiedPositions().get(position >>> 6) & (1L << position)) != 0)
+				policy = ObjectVerifier.Policy.NONE;
+		}
+		if (policy == ObjectVerifier.Policy.CRC32 || policy == ObjectVerifier.Policy.NONE) {
+			verifier.countSkip();
+			return typeName;
 		}
-		hasher.update((typeName + " " + bytes.length + "\0").getBytes(StandardCharsets.US_ASCII));
-		hasher.update(bytes);
-		if (!Arrays.equals(hasher.digest(), id.getBytes()))
+		
+		if (!Arrays.equals(GitObject.getSha1Hash(typeName, bytes), id.getBytes()))
 			throw new GitFormatException("Hash of data mismatches object ID");
-		return new Object[]{typeName, bytes};
+		verifier.countHash();
+		if (position != -1)
+			getVerifiedPositions().accumulateAndGet(position >>> 6, 1L << position, (x, y) -> x | y);
+		return typeName;
+	}
+	
+	
+	// Returns the set of verified index positions, creating it if needed.
+	private AtomicLongArray getVerifiedPositions() {
+		AtomicLongArray result = verifiedPositions;
+		if (result == null) {
+			synchronized (this) {
+				result = verifiedPositions;
+				if (result == null) {
+					result = new AtomicLongArray((totalObjects + 63) >>> 6);
+					verifiedPositions = result;
+				}
+			}
+		}
+		return result;
+	}
+	
+	
+	// Returns a new object parsed from the given data, which the object doesn't retain.
+	// The object remembers the given ID, which the data was read by.
+	private static GitObject parseObject(ObjectId id, String typeName, byte[] bytes) throws IOException {
+		GitObject result = switch (typeName) {
+			case "blob"   -> new BlobObject  (bytes);
+			case "tree"   -> new TreeObject  (bytes);
+			case "commit" -> new CommitObject(bytes);
+			case "tag"    -> new TagObject   (bytes);
+			default -> throw new AssertionError();
+		};
+		result.rememberId(id);
+		return result;
+	}
+	
+	
+	// Returns the pair (uint3 typeIndex, byte[] bytes) for the delta base at the given offset, using
+	// the delta base cache. The depth is as in readObjectHeaderless(). The caller must not modify the returned array.
+	private Object[] readDeltaBase(long byteOffset, int depth) throws IOException {
+		Object[] result = deltaBaseCache.get(this, byteOffset);
+		if (result == null) {
+			result = readObjectHeaderless(byteOffset, depth);
+			deltaBaseCache.put(this, byteOffset, (Integer)result[0], (byte[])result[1]);
+		}
+		return result;
+	}
+	
+	
+	// Returns the pair (uint3 typeIndex, byte[] bytes) for the REF_DELTA base with the given ID, looking in this pack first
+	// and then the rest of the repository. The depth is as in readObjectHeaderless(). The caller must not modify the returned array.
+	private Object[] readRefDeltaBase(ObjectId id, int depth) throws IOException {
+		int position = findObjectIndex(id);
+		if (position != -1)
+			return readDeltaBase(getDataOffset(position), depth);
+		return readExternalBase(id, depth);
+	}
+	
+	
+	// Returns the pair (uint3 typeIndex, byte[] bytes) for the REF_DELTA base with the given ID, which is not in this pack,
+	// by reading it from the rest of the repository. The depth is as in readObjectHeaderless().
+	private Object[] readExternalBase(ObjectId id, int depth) throws IOException {
+		if (depth >= MAX_PACK_DEPTH)  // Packs whose REF_DELTA entries are based on each other would recurse forever
+			throw new GitFormatException("Delta chain too deep or cyclic");
+		byte[] raw = repository.readRawObject(id, depth + 1);
+		if (raw == null)
+			throw new GitFormatException("Delta base object not found: " + id.getHexString());
+		Object[] pair = GitObject.splitHeader(raw);
+		int typeIndex = Arrays.asList(TYPE_NAMES).indexOf(pair[0]);
+		if (typeIndex == -1)
+			throw new GitFormatException("Unknown object type: " + pair[0]);
+		return new Object[]{typeIndex, pair[1]};
+	}
+	
+	
+	// Reads the raw object data, and returns a pair (uint3 typeIndex, byte[] bytes). The depth is the number
+	// of other packs whose delta chains led to this read, which bounds the recursion through the repository.
+	private Object[] readObjectHeaderless(long byteOffset, int depth) throws IOException {
+		// Follow the chain of bases in this pack iteratively, so that a long chain can't overflow the stack, until reaching
+		// a whole object, a cached base, or a base in another pack. Each delta is held until the chain is resolved.
+		List<Long> offsets = new ArrayList<>();
+		List<byte[]> deltas = new ArrayList<>();
+		Object[] result;
+		long offset = byteOffset;
+		while (true) {
+			Object[] entry = inflateEntry(offset);
+			int type = (Integer)entry[0];
+			if (type != OFS_DELTA && type != REF_DELTA) {
+				result = new Object[]{type, entry[1]};
+				if (!deltas.isEmpty())
+					deltaBaseCache.put(this, offset, type, (byte[])entry[1]);
+				break;
+			}
+			offsets.add(offset);
+			deltas.add((byte[])entry[1]);
+			if (deltas.size() > totalObjects)  // A chain longer than the pack has a cycle
+				throw new GitFormatException("Delta chain too deep or cyclic");
+			
+			Object base = entry[2];
+			if (base instanceof ObjectId id) {
+				int position = findObjectIndex(id);
+				if (position == -1) {
+					result = readExternalBase(id, depth);
+					break;
+				}
+				base = getDataOffset(position);
+			}
+			offset = (Long)base;
+			result = deltaBaseCache.get(this, offset);
+			if (result != null)
+				break;
+		}
+		
+		// Apply the deltas from the base upward, caching each intermediate object as a delta base
+		for (int i = deltas.size() - 1; i >= 0; i--) {
+			result = new Object[]{result[0], applyDelta((byte[])result[1], deltas.get(i))};
+			if (i > 0)
+				deltaBaseCache.put(this, offsets.get(i), (Integer)result[0], (byte[])result[1]);
+		}
+		return result;
+	}
+	
+	
+	// Inflates the entry at the given offset, and returns the triple (uint3 type, byte[] data, Object base),
+	// where the data is the delta for a delta entry, and base is as in readEntryHeader().
+	private Object[] inflateEntry(long byteOffset) throws IOException {
+		// Decompress data into an array of the size in the entry header.
+		// Under the CRC32 verification policy, the entry's raw bytes are checked against the index.
+		boolean checkCrc = verifier.getPolicy() == ObjectVerifier.Policy.CRC32;
+		Decompressor dec = Decompressor.acquire();
+		try {
+			dec.open(packChannel, byteOffset, 8192, this, windowCache);
+			if (checkCrc)
+				dec.startCrc();
+			Object[] header = readEntryHeader(dec.input, byteOffset);
+			byte[] data = dec.inflate((Long)header[1]);
+			if (checkCrc) {
+				int position = findIndexPosition(byteOffset);
+				if (position == -1)
+					throw new GitFormatException("No index entry for pack offset");
+				if (dec.getCrc() != getCrc32(position))
+					throw new GitFormatException("CRC-32 of pack entry mismatches index");
+				verifier.countCrc();
+			}
+			return new Object[]{header[0], data, header[2]};
+		} finally {
+			dec.release();
+		}
 	}
 	
 	
-	// Reads the raw object data, and returns a pair (uint3 typeIndex, byte[] bytes).
-	private Object[] readObjectHeaderless(RandomAccessFile raf, long byteOffset) throws IOException {
+	// Returns a stream of the data of the given object, whose entry is at the given offset. Whole entries are
+	// inflated as the stream is read. For delta entries, only the base is held in memory, and the delta is inflated
+	// and applied as the stream is read. The returned stream verifies the object's hash when it reaches the end.
+	// The stream holds a reference to this reader until it is closed, so the caller must hold one during this call.
+	public ObjectStream openObjectStream(ObjectId id, long byteOffset) throws IOException {
+		if (!acquire())
+			throw new IllegalStateException("Pack file already closed");
+		DataInputStream in = new DataInputStream(new ChannelInputStream(packChannel, byteOffset, 8192, this));
+		InputStream data = in;
+		boolean success = false;
+		try {
+			Object[] header = readEntryHeader(in, byteOffset);
+			int type = (Integer)header[0];
+			long size = (Long)header[1];
+			data = new InflaterInputStream(in);
+			if (type == OFS_DELTA || type == REF_DELTA) {
+				Object[] temp = resolveDeltaBase(header[2], 0);
+				type = (Integer)temp[0];
+				DeltaInputStream delta = new DeltaInputStream((byte[])temp[1], data);
+				size = delta.resultSize;
+				data = delta;
+			}
+			String typeName = TYPE_NAMES[type];
+			if (typeName == null)
+				throw new GitFormatException("Unknown object type: " + type);
+			ObjectStream result = new ObjectStream(typeName, size, data, id);
+			success = true;
+			return result;
+		} finally {
+			if (!success)
+				data.close();
+		}
+	}
+	
+	
+	// Opens the given decompressor at the entry at the given offset, and returns the entry's header from readEntryHeader().
+	// The decompressor is left at the start of the compressed data. The first read from the file requests the given length,
+	// unless the data is taken from mapped windows.
+	private Object[] openEntry(Decompressor dec, long byteOffset, int firstReadLen) throws IOException {
+		dec.open(packChannel, byteOffset, firstReadLen, this, windowCache);
+		return readEntryHeader(dec.input, byteOffset);
+	}
+	
+	
+	// Reads the header of the entry at the given offset from the given stream, leaving the stream at the start
+	// of the compressed data. Returns the triple (uint3 type, Long size, Object base), where base is the Long offset
+	// of an OFS_DELTA base, the ObjectId of a REF_DELTA base, or null for an undeltified object.
+	private static Object[] readEntryHeader(DataInput in, long byteOffset) throws IOException {
 		if (byteOffset < 0)
 			throw new IllegalArgumentException();
-		raf.seek(byteOffset);
 		
 		// Read decompressed size and type
-		long typeAndSize = decodeTypeAndSize(raf);
+		long typeAndSize = decodeTypeAndSize(in);
 		int type = (int)typeAndSize & 7;  // 3-bit unsigned
-		if (type == 0 || type == 5 || type == 7)
+		if (type == 0 || type == 5)
 			throw new GitFormatException("Unknown object type: " + type);
 		long size = typeAndSize >>> 3;
 		
-		// Read delta offset
-		long deltaOffset;
-		if (type == 6)
-			deltaOffset = decodeOffsetDelta(raf);
+		// Read delta base location
+		Object base = null;
+		if (type == OFS_DELTA) {
+			long delta = decodeOffsetDelta(in);
+			if (delta <= 0 || delta > byteOffset)
+				throw new GitFormatException("Invalid delta base offset");
+			base = byteOffset - delta;
+		} else if (type == REF_DELTA) {
+			byte[] b = new byte[ObjectId.NUM_BYTES];
+			in.readFully(b);
+			base = new RawId(b);
+		}
+		return new Object[]{type, size, base};
+	}
+	
+	
+	// Returns the pair (uint3 typeIndex, byte[] bytes) for the given delta base location from readEntryHeader().
+	// The depth is as in readObjectHeaderless(). The caller must not modify the returned array.
+	private Object[] resolveDeltaBase(Object base, int depth) throws IOException {
+		if (base instanceof Long)
+			return readDeltaBase((long)(Long)base, depth);
 		else
-			deltaOffset = -1;
-		
-		// Decompress data
-		byte[] data;
-		{
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			Inflater inf = new Inflater(false);
-			try {
-				byte[] inbuf  = new byte[1024];
-				byte[] outbuf = new byte[1024];
-				while (true) {
-					int outn = inf.inflate(outbuf);
-					if (outn > 0)
-						out.write(outbuf, 0, outn);
-					else if (inf.needsInput()) {
-						int inn = raf.read(inbuf);
-						if (inn == -1)
-							throw new EOFException();
-						inf.setInput(inbuf, 0, inn);
-					} else if (inf.finished())
-						break;
-					else
-						throw new GitFormatException();
-				}
-			} catch (DataFormatException e) {
-				throw new GitFormatException("Invalid DEFLATE data", e);
-			} finally {
-				inf.end();
-			}
-			data = out.toByteArray();
-			if (data.length != size)
-				throw new GitFormatException("Data length mismatch");
+			return readRefDeltaBase((ObjectId)base, depth);
+	}
+	
+	
+	// Returns the result of applying the given delta instructions to the given base data.
+	static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+		DeltaInputStream in = new DeltaInputStream(base, new ByteArrayInputStream(delta));
+		if (in.resultSize > Integer.MAX_VALUE - 8)
+			throw new GitFormatException("Delta result too large");
+		byte[] result = new byte[(int)in.resultSize];
+		new DataInputStream(in).readFully(result);
+		if (in.read() != -1)
+			throw new GitFormatException("Data length mismatch");
+		return result;
+	}
+	
+	
+	// Adds a reference, which keeps the pack file open until a matching call to release(). Returns false without
+	// adding a reference if the file is already closed, in which case the caller must find the object's pack again.
+	public boolean acquire() {
+		while (true) {
+			int n = references.get();
+			if (n == 0)
+				return false;
+			if (references.compareAndSet(n, n + 1))
+				return true;
 		}
-		
-		// Handle delta encoding
-		if (type == 6) {
-			// Recurse on delta base
-			Object[] temp = readObjectHeaderless(raf, byteOffset - deltaOffset);
-			type = (Integer)temp[0];
-			byte[] base = (byte[])temp[1];
-			
-			// Decode delta header
-			DataInputStream deltaIn = new DataInputStream(new ByteArrayInputStream(data));
-			long baseLen = decodeDeltaHeaderInt(deltaIn);
-			if (baseLen != base.length)
-				throw new GitFormatException("Base data length mismatch");
-			long dataLen = decodeDeltaHeaderInt(deltaIn);
-			
-			// Decode the delta format's operations
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			while (true) {
-				int op = deltaIn.read();
-				if (op == -1)
-					break;
-				if ((op & 0x80) == 0) {  // Insert
-					byte[] buf = new byte[op];
-					deltaIn.readFully(buf);
-					out.write(buf);
-				} else {  // Copy
-					int off = 0;
-					for (int i = 0; i < 4; i++) {
-						if (((op >>> i) & 1) != 0)
-							off |= deltaIn.readUnsignedByte() << (i * 8);
-					}
-					int len = 0;
-					for (int i = 0; i < 3; i++) {
-						if (((op >>> (i + 4)) & 1) != 0)
-							len |= deltaIn.readUnsignedByte() << (i * 8);
-					}
-					if (len == 0)
-						len = 0x10000;
-					out.write(base, off, len);
-				}
-			}
-			data = out.toByteArray();
-			if (data.length != dataLen)
-				throw new GitFormatException("Data length mismatch");
+	}
+	
+	
+	// Removes a reference added by acquire() or the initial one of the pack set, closing the file when none remain.
+	public void release() throws IOException {
+		int n = references.decrementAndGet();
+		if (n == 0)
+			close();
+		else if (n < 0)
+			throw new AssertionError();
+	}
+	
+	
+	// Closes the pack file immediately. FileRepository uses release() instead.
+	public void close() throws IOException {
+		deltaBaseCache.removeAll(this);
+		windowCache.removeAll(this);
+		packChannel.close();
+	}
+	
+	
+	// Reads bytes from the pack file at the given position until the buffer is full.
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = packChannel.read(buf, position);
+			if (n == -1)
+				throw new EOFException();
+			position += n;
 		}
-		
-		return new Object[]{type, data};
 	}
 	
 	
 	
-	/*---- Private functions for low-level integer decoding ----*/
+	/*---- Private functions for low-level integer encoding and decoding ----*/
 	
 	// Reads one or more bytes from the input and returns (size << 3) | type, where size is uint61 and type is uint3.
 	static long decodeTypeAndSize(DataInput in) throws IOException {
@@ -333,6 +963,24 @@ final class PackfileReader {
 	}
 	
 	
+	// Returns the bytes that decodeTypeAndSize() would decode into the given type (uint3) and size (uint61).
+	static byte[] encodeTypeAndSize(int type, long size) {
+		if (type >>> 3 != 0 || size >>> 61 != 0)
+			throw new IllegalArgumentException();
+		byte[] buf = new byte[10];
+		int n = 0;
+		int b = type << 4 | (int)(size & 0xF);
+		for (size >>>= 4; size != 0; size >>>= 7) {
+			buf[n] = (byte)(b | 0x80);
+			n++;
+			b = (int)(size & 0x7F);
+		}
+		buf[n] = (byte)b;
+		n++;
+		return Arrays.copyOf(buf, n);
+	}
+	
+	
 	// Returns a uint64 value.
 	static long decodeOffsetDelta(DataInput in) throws IOException {
 		long result = 0;
@@ -368,8 +1016,95 @@ final class PackfileReader {
 	
 	/*---- Static constants ----*/
 	
+	static final int OFS_DELTA = 6;
+	static final int REF_DELTA = 7;
+	
+	private static final int PACK_MAGIC = 0x5041434B;  // "PACK"
+	private static final int INDEX_MAGIC = 0xFF744F63;  // "\377tOc"
+	private static final int HEADER_LEN = 8;
+	private static final int FANOUT_LEN = 256 * 4;
+	private static final int TRAILER_LEN = ObjectId.NUM_BYTES * 2;
+	private static final int REV_MAGIC = 0x52494458;  // "RIDX"
+	private static final int REV_HEADER_LEN = 12;
+	
+	// Enough to read entry headers and delta headers with few reads.
+	private static final int SMALL_BUFFER_LEN = 256;
+	
+	// The most packs that a chain of REF_DELTA bases can pass through, each of which recurses through the repository.
+	// Git completes thin packs, so normally a chain stays in one pack; a longer path through other packs is a cycle.
+	private static final int MAX_PACK_DEPTH = 100;
+	
 	private static final String[] TYPE_NAMES = {
 		// 0,        1,      2,      3,     4,    5,    6,    7:  Type indices
 		null, "commit", "tree", "blob", "tag", null, null, null};
 	
+	
+	
+	/*---- Helper class ----*/
+	
+	// A buffered input stream that reads a file channel starting at a given position. It uses only
+	// positional reads, so any number of these streams can read the same channel independently.
+	private static final class ChannelInputStream extends InputStream {
+		
+		private final FileChannel channel;
+		private long position;  // Of the next byte to be loaded into the buffer
+		private final ByteBuffer buffer;
+		
+		// The reader whose reference this stream releases when closed, or null if none or already released.
+		private PackfileReader owner;
+		
+		
+		public ChannelInputStream(FileChannel ch, long pos, int bufferLen, PackfileReader owner) {
+			channel = ch;
+			position = pos;
+			buffer = ByteBuffer.allocate(bufferLen);
+			buffer.limit(0);
+			this.owner = owner;
+		}
+		
+		
+		public int read() throws IOException {
+			if (!fillBuffer())
+				return -1;
+			return buffer.get() & 0xFF;
+		}
+		
+		
+		public int read(byte[] b, int off, int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			if (len == 0)
+				return 0;
+			if (!fillBuffer())
+				return -1;
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+		
+		
+		// Returns false if the buffer is empty and the end of file has been reached.
+		private boolean fillBuffer() throws IOException {
+			if (buffer.hasRemaining())
+				return true;
+			buffer.clear();
+			int n;
+			do n = channel.read(buffer, position);
+			while (n == 0);
+			buffer.flip();
+			if (n == -1)
+				return false;
+			position += n;
+			return true;
+		}
+		
+		
+		public void close() throws IOException {
+			PackfileReader pfr = owner;
+			owner = null;
+			if (pfr != null)
+				pfr.release();
+		}
+		
+	}
+	
 }
@@ -0,0 +1,422 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes a set of objects into a new pack file and index file in a {@link FileRepository}.
+ * Objects are compressed and streamed into a temporary file as they are written, so memory
+ * usage doesn't grow with the size of the data. Every object is stored whole (not deltified).
+ * <p>Calling {@link #finish()} completes the pack's header and trailer checksum, writes the matching
+ * version 2 index, and installs both files into the repository's "objects/pack" directory, where
+ * the repository sees the pack immediately. The index is installed after the pack, so a concurrent
+ * reader never sees an index without its pack. Closing a writer without finishing it discards
+ * the temporary data. This class is not thread-safe.</p>
+ * @see PackIndexer
+ */
+public final class PackfileWriter implements AutoCloseable {
+	
+	/*---- Fields ----*/
+	
+	// These fields are not null until the writer is finished or closed.
+	private FileRepository repository;
+	private File packDir;
+	private File tempFile;
+	private FileChannel channel;
+	private OutputStream output;
+	private Deflater deflater;
+	
+	private long position;  // Number of bytes written to the pack so far
+	
+	// Parallel lists describing the written entries, in pack order.
+	private List<ObjectId> ids;
+	private List<Long> offsets;
+	private List<Integer> crcs;
+	
+	// The same IDs as the list, for deduplication.
+	private ObjectIdSet idSet;
+	
+	private final MessageDigest hasher;
+	private final CRC32 crc;
+	private final byte[] inBuffer;
+	private final byte[] outBuffer;
+	
+	
+	
+	/*---- Constructors ----*/
+	
+	/**
+	 * Constructs a pack file writer that will install its pack into the specified repository.
+	 * This creates a temporary file in the repository's "objects/pack" directory.
+	 * @param repo the repository to write a pack into (not {@code null})
+	 * @throws NullPointerException if the repository is {@code null}
+	 * @throws IllegalStateException if the repository is already closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public PackfileWriter(FileRepository repo) throws IOException {
+		Objects.requireNonNull(repo);
+		File dir = repo.getDirectory();
+		if (dir == null)
+			throw new IllegalStateException("Repository already closed");
+		repository = repo;
+		packDir = new File(new File(dir, "objects"), "pack");
+		packDir.mkdirs();
+		tempFile = File.createTempFile("tmp_pack_", "", packDir);
+		boolean success = false;
+		try {
+			channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			output = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024);
+			success = true;
+		} finally {
+			if (!success)
+				tempFile.delete();
+		}
+		
+		ids = new ArrayList<>();
+		offsets = new ArrayList<>();
+		crcs = new ArrayList<>();
+		idSet = new ObjectIdSet();
+		deflater = new Deflater();
+		try {
+			hasher = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+		crc = new CRC32();
+		inBuffer = new byte[64 * 1024];
+		outBuffer = new byte[64 * 1024];
+		
+		// Header with a placeholder object count, which is filled in by finish()
+		output.write(new byte[]{'P', 'A', 'C', 'K', 0, 0, 0, 2, 0, 0, 0, 0});
+		position = HEADER_LEN;
+	}
+	
+	
+	
+	/*---- Methods ----*/
+	
+	/**
+	 * Writes the specified object to the pack if the pack doesn't already contain it, and returns its ID.
+	 * @param obj the object to write (not {@code null})
+	 * @return the ID of the object (not {@code null})
+	 * @throws NullPointerException if the object is {@code null}
+	 * @throws IllegalStateException if this writer is already finished or closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public ObjectId writeObject(GitObject obj) throws IOException {
+		Objects.requireNonNull(obj);
+		checkNotClosed();
+		byte[] bytes = obj.toBytes();
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		Object[] header = GitObject.readHeader(in);
+		return writeObject(new RawId(GitObject.getSha1Hash(bytes)), (String)header[0], (Long)header[1], in);
+	}
+	
+	
+	/**
+	 * Writes an object with the specified type and data to the pack if
+	 * the pack doesn't already contain it, and returns its ID.
+	 * @param type the object type, which is "blob", "tree", "commit", or "tag" (not {@code null})
+	 * @param data the object data, excluding the header (not {@code null})
+	 * @return the ID of the object (not {@code null})
+	 * @throws NullPointerException if the type or data is {@code null}
+	 * @throws IllegalArgumentException if the type is invalid
+	 * @throws IllegalStateException if this writer is already finished or closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public ObjectId writeObject(String type, byte[] data) throws IOException {
+		Objects.requireNonNull(data);
+		getTypeIndex(type);  // Check before hashing
+		checkNotClosed();
+		return writeObject(new RawId(GitObject.getSha1Hash(type, data)), type, data.length, new ByteArrayInputStream(data));
+	}
+	
+	
+	/**
+	 * Writes an object with the specified type and size, whose data is read from the specified stream,
+	 * to the pack if the pack doesn't already contain it, and returns its ID. Exactly the specified
+	 * number of bytes is read from the stream, and the stream is not closed. The data is compressed
+	 * and hashed as it is read, so objects of any size can be written.
+	 * @param type the object type, which is "blob", "tree", "commit", or "tag" (not {@code null})
+	 * @param size the number of bytes of object data, excluding the header
+	 * @param in the stream to read the object data from (not {@code null})
+	 * @return the ID of the object (not {@code null})
+	 * @throws NullPointerException if the type or stream is {@code null}
+	 * @throws IllegalArgumentException if the type is invalid or the size is negative
+	 * @throws IllegalStateException if this writer is already finished or closed
+	 * @throws EOFException if the stream ended before the specified size was reached
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public ObjectId writeObject(String type, long size, InputStream in) throws IOException {
+		return writeObject(null, type, size, in);
+	}
+	
+	
+	// Writes the given object like writeObject(type, size, in). If the ID is not null, then it must be the hash of the
+	// object, which isn't recomputed; if the pack already contains the object, then nothing is written or read from the
+	// stream. If the ID is null, then the data is hashed as it is compressed, and a duplicate is discarded afterward.
+	ObjectId writeObject(ObjectId id, String type, long size, InputStream in) throws IOException {
+		Objects.requireNonNull(in);
+		int typeIndex = getTypeIndex(type);
+		if (size < 0)
+			throw new IllegalArgumentException("Negative size");
+		checkNotClosed();
+		if (id != null && idSet.contains(id))
+			return id;  // Already in the pack, so skip the compression and I/O
+		
+		boolean hashing = id == null;
+		long start = position;
+		boolean success = false;
+		try {
+			if (hashing) {
+				hasher.reset();
+				hasher.update((type + " " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+			}
+			crc.reset();
+			write(PackfileReader.encodeTypeAndSize(typeIndex, size));
+			
+			// Compress the data, hashing it if needed
+			deflater.reset();
+			for (long remain = size; remain > 0; ) {
+				int n = in.read(inBuffer, 0, (int)Math.min(remain, inBuffer.length));
+				if (n == -1)
+					throw new EOFException("Stream ended before object size");
+				remain -= n;
+				if (hashing)
+					hasher.update(inBuffer, 0, n);
+				deflater.setInput(inBuffer, 0, n);
+				while (!deflater.needsInput())
+					write(outBuffer, deflater.deflate(outBuffer));
+			}
+			deflater.finish();
+			while (!deflater.finished())
+				write(outBuffer, deflater.deflate(outBuffer));
+			
+			if (hashing)
+				id = new RawId(hasher.digest());
+			if (idSet.add(id)) {
+				ids.add(id);
+				offsets.add(start);
+				crcs.add((int)crc.getValue());
+			} else
+				truncate(start);  // Already in the pack, which is only known after hashing
+			success = true;
+			return id;
+		} finally {
+			if (!success)
+				truncate(start);
+		}
+	}
+	
+	
+	/**
+	 * Tests whether this writer has written an object with the specified ID.
+	 * @param id the object ID to query (not {@code null})
+	 * @return {@code true} if the object has been written, otherwise {@code false}
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalStateException if this writer is already finished or closed
+	 */
+	public boolean containsObject(ObjectId id) {
+		Objects.requireNonNull(id);
+		checkNotClosed();
+		return idSet.contains(id);
+	}
+	
+	
+	/**
+	 * Returns the number of distinct objects written so far.
+	 * @return the number of objects written, at least 0
+	 * @throws IllegalStateException if this writer is already finished or closed
+	 */
+	public int getObjectCount() {
+		checkNotClosed();
+		return ids.size();
+	}
+	
+	
+	/**
+	 * Completes the pack file, writes its index file, and installs both into the repository.
+	 * The files are named after the pack's trailer checksum, like Git does. If no objects were
+	 * written, then nothing is installed. This writer is closed after this method returns or throws.
+	 * @return the installed pack file, or {@code null} if no objects were written
+	 * @throws IllegalStateException if this writer is already finished or closed,
+	 * or if the repository is already closed
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public File finish() throws IOException {
+		checkNotClosed();
+		try {
+			if (ids.isEmpty())
+				return null;
+			
+			// Complete the pack file
+			output.flush();
+			ByteBuffer count = ByteBuffer.allocate(4);
+			count.putInt(0, ids.size());
+			writeFully(count, 8);
+			byte[] checksum = hashPackData();
+			writeFully(ByteBuffer.wrap(checksum), position);
+			channel.force(true);
+			channel.close();
+			
+			// Write the index file
+			File tempIndex = new File(packDir, "tmp_idx_" + tempFile.getName().substring("tmp_pack_".length()));
+			int n = ids.size();
+			long[] offs = new long[n];
+			int[] crcArr = new int[n];
+			for (int i = 0; i < n; i++) {
+				offs[i] = offsets.get(i);
+				crcArr[i] = crcs.get(i);
+			}
+			try {
+				PackIndexWriter.write(tempIndex, ids.toArray(new ObjectId[n]), offs, crcArr, checksum);
+				
+				// Install the pack before the index
+				String name = "pack-" + new RawId(checksum).getHexString();
+				File packFile = new File(packDir, name + ".pack");
+				tempFile.setReadOnly();
+				tempIndex.setReadOnly();
+				Files.move(tempFile.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				Files.move(tempIndex.toPath(), new File(packDir, name + ".idx").toPath(), StandardCopyOption.ATOMIC_MOVE);
+				repository.rescan();
+				return packFile;
+			} finally {
+				tempIndex.delete();  // No effect if already moved
+			}
+		} finally {
+			close();
+		}
+	}
+	
+	
+	/**
+	 * Discards the pack data if the writer isn't finished, and releases the resources of this writer.
+	 * This has no effect if called more than once.
+	 * @throws IOException if an I/O exception occurred
+	 */
+	public void close() throws IOException {
+		if (repository == null)
+			return;
+		repository = null;
+		packDir = null;
+		deflater.end();
+		deflater = null;
+		output = null;
+		ids = null;
+		offsets = null;
+		crcs = null;
+		idSet = null;
+		try {
+			channel.close();
+		} finally {
+			channel = null;
+			tempFile.delete();  // No effect if already moved
+			tempFile = null;
+		}
+	}
+	
+	
+	
+	/*---- Helper methods ----*/
+	
+	// Returns the pack type number of the given object type name, or throws IllegalArgumentException if it is invalid.
+	static int getTypeIndex(String type) {
+		Objects.requireNonNull(type);
+		int result = Arrays.asList(TYPE_NAMES).indexOf(type);
+		if (result == -1)
+			throw new IllegalArgumentException("Invalid object type");
+		return result;
+	}
+	
+	
+	
+	private void write(byte[] b) throws IOException {
+		write(b, b.length);
+	}
+	
+	
+	// Writes the given bytes to the pack, updating the position and CRC-32.
+	private void write(byte[] b, int len) throws IOException {
+		output.write(b, 0, len);
+		crc.update(b, 0, len);
+		position += len;
+	}
+	
+	
+	// Discards all pack data at and after the given position.
+	private void truncate(long pos) throws IOException {
+		output.flush();
+		channel.truncate(pos);
+		channel.position(pos);
+		position = pos;
+	}
+	
+	
+	// Returns the SHA-1 hash of all pack data written so far.
+	private byte[] hashPackData() throws IOException {
+		hasher.reset();
+		ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+		for (long pos = 0; pos < position; ) {
+			buf.clear();
+			if (position - pos < buf.capacity())
+				buf.limit((int)(position - pos));
+			int n = channel.read(buf, pos);
+			if (n == -1)
+				throw new EOFException();
+			buf.flip();
+			pos += n;
+			hasher.update(buf);
+		}
+		return hasher.digest();
+	}
+	
+	
+	private void writeFully(ByteBuffer buf, long pos) throws IOException {
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+	}
+	
+	
+	// Returns silently if this writer is still open, otherwise throws an exception.
+	private void checkNotClosed() {
+		if (repository == null)
+			throw new IllegalStateException("Writer already finished or closed");
+	}
+	
+	
+	
+	/*---- Constants ----*/
+	
+	private static final int HEADER_LEN = 12;
+	
+	private static final String[] TYPE_NAMES = {null, "commit", "tree", "blob", "tag"};
+	
+}
@@ -7,6 +7,8 @@
 
 package io.nayuki.git;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * An immutable 160-bit (20-byte) SHA-1 hash. The object type is unknown,
@@ -50,4 +52,10 @@ public final class RawId extends ObjectId {
 		super(bytes, off);
 	}
 	
+	
+	// Constructs a raw object ID from 20 bytes in the given big-endian buffer starting at the given absolute index.
+	RawId(ByteBuffer buf, int index) {
+		super(buf, index);
+	}
+	
 }
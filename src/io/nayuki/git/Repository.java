@@ -7,9 +7,18 @@
 
 package io.nayuki.git;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -78,6 +87,144 @@ public interface Repository extends AutoCloseable {
 	public GitObject readObject(ObjectId id) throws IOException;
 	
 	
+	/**
+	 * Tests which of the specified object IDs this repository contains objects for.
+	 * <p>The default implementation calls {@link #containsObject(ObjectId)} for each ID.</p>
+	 * @param ids the hashes of the objects (collection not {@code null} and no element {@code null})
+	 * @return a new set of the IDs that this repository contains, of size at least 0 (not {@code null})
+	 * @throws NullPointerException if the collection or any ID is {@code null}
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public default Set<ObjectId> containsObjects(Collection<? extends ObjectId> ids) throws IOException {
+		Objects.requireNonNull(ids);
+		Set<ObjectId> result = new ObjectIdSet();
+		for (ObjectId id : ids) {
+			if (!result.contains(id) && containsObject(id))
+				result.add(id);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Reads the Git objects with the specified hashes from this repository, parses them, and passes
+	 * each object and its ID to the specified action as soon as it has been read. Each distinct ID is read
+	 * once, in an order that the implementation chooses for efficient I/O. Implementations should find every
+	 * object before reading any, so that a missing ID is reported before the action is called.
+	 * If an exception is thrown, the action might have received some of the objects.
+	 * <p>The default implementation calls {@link #readObject(ObjectId)} for each distinct ID in iteration order.</p>
+	 * @param ids the hashes of the objects (collection not {@code null} and no element {@code null})
+	 * @param action the action to receive each ID and its parsed object (not {@code null})
+	 * @throws NullPointerException if the collection, any ID, or the action is {@code null}
+	 * @throws IllegalArgumentException if no object with one of the IDs was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public default void readObjects(Collection<? extends ObjectId> ids,
+			BiConsumer<? super ObjectId,? super GitObject> action) throws IOException {
+		Objects.requireNonNull(ids);
+		Objects.requireNonNull(action);
+		Set<ObjectId> seen = new ObjectIdSet();
+		for (ObjectId id : ids) {
+			if (seen.add(id))
+				action.accept(id, readObject(id));
+		}
+	}
+	
+	
+	/**
+	 * Asynchronously reads the Git object with the specified hash from this repository on the specified executor.
+	 * The returned future completes with the parsed object, or completes exceptionally with the exception that
+	 * {@link #readObject(ObjectId)} would throw. This repository must allow being called from the executor's
+	 * threads concurrently with any other use of it.
+	 * <p>The default implementation runs {@link #readObject(ObjectId)} as a task on the executor.</p>
+	 * @param id the hash of the object (not {@code null})
+	 * @param executor the executor to run the read on (not {@code null})
+	 * @return a new future of the parsed object (not {@code null})
+	 * @throws NullPointerException if the ID or executor is {@code null}
+	 */
+	public default CompletableFuture<GitObject> readObjectAsync(ObjectId id, Executor executor) {
+		Objects.requireNonNull(id);
+		Objects.requireNonNull(executor);
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return readObject(id);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+	
+	
+	/**
+	 * Asynchronously reads the Git objects with the specified hashes from this repository on the specified executor.
+	 * The returned future completes with a new map from each distinct ID to its parsed object, or completes exceptionally
+	 * with the exception that {@link #readObjects(Collection, BiConsumer)} would throw. The IDs are copied before this
+	 * method returns. This repository must allow being called from the executor's threads concurrently with any other use of it.
+	 * <p>The default implementation runs {@link #readObjects(Collection, BiConsumer)} as a task on the executor.</p>
+	 * @param ids the hashes of the objects (collection not {@code null} and no element {@code null})
+	 * @param executor the executor to run the reads on (not {@code null})
+	 * @return a new future of the map of parsed objects (not {@code null})
+	 * @throws NullPointerException if the collection, any ID, or the executor is {@code null}
+	 */
+	public default CompletableFuture<Map<ObjectId,GitObject>> readObjectsAsync(
+			Collection<? extends ObjectId> ids, Executor executor) {
+		List<ObjectId> idList = List.copyOf(ids);
+		Objects.requireNonNull(executor);
+		return CompletableFuture.supplyAsync(() -> {
+			Map<ObjectId,GitObject> result = new HashMap<>();
+			try {
+				readObjects(idList, result::put);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			return result;
+		}, executor);
+	}
+	
+	
+	/**
+	 * Returns the type and size of the Git object with the specified hash in this repository.
+	 * This is intended to be much cheaper than reading the object, because implementations
+	 * can get the information from the object's stored header without decoding its data.
+	 * <p>The default implementation opens a stream with {@link #openObjectStream(ObjectId)}
+	 * and returns the stream's type and size without reading its data.</p>
+	 * @param id the hash of the object (not {@code null})
+	 * @return the type and size of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public default ObjectInfo readObjectInfo(ObjectId id) throws IOException {
+		try (ObjectStream in = openObjectStream(id)) {
+			return new ObjectInfo(in.type, in.size);
+		}
+	}
+	
+	
+	/**
+	 * Opens a stream of the data of the Git object with the specified hash in this repository,
+	 * which allows objects of any size to be read without holding the whole object in memory.
+	 * The returned stream must be closed when finished.
+	 * <p>The default implementation reads the whole object with {@link #readObject(ObjectId)}
+	 * and streams its serialization. Implementations should override this method to
+	 * decode the data incrementally and to verify the hash as the data is read.</p>
+	 * @param id the hash of the object (not {@code null})
+	 * @return a new stream of the data of the object with the specified hash (not {@code null})
+	 * @throws NullPointerException if the ID is {@code null}
+	 * @throws IllegalArgumentException if no object with the ID was found
+	 * @throws IllegalStateException if this repository is already closed
+	 * @throws IOException if an I/O exception occurred or malformed data was encountered
+	 */
+	public default ObjectStream openObjectStream(ObjectId id) throws IOException {
+		Object[] pair = GitObject.splitHeader(readObject(id).toBytes());
+		byte[] data = (byte[])pair[1];
+		return new ObjectStream((String)pair[0], data.length, new ByteArrayInputStream(data), null);
+	}
+	
+	
 	/**
 	 * Writes the specified Git object to this repository if it doesn't already exist.
 	 * @param obj the object to write (not {@code null})
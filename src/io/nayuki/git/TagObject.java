@@ -148,7 +148,7 @@ public final class TagObject extends GitObject {
 	public byte[] toBytes() {
 		checkState();
 		StringBuilder sb = new StringBuilder();
-		sb.append("object ").append(target.hexString).append("\n");
+		sb.append("object ").append(target.getHexString()).append("\n");
 		sb.append("type ").append(targetType).append("\n");
 		sb.append("tag ").append(tagName).append("\n");
 		sb.append(String.format("tagger %s <%s> %d %s\n",
@@ -159,13 +159,21 @@ public final class TagObject extends GitObject {
 	
 	
 	/**
-	 * Returns the hash ID of the current state of this tag object.
+	 * Returns the hash ID of the current state of this tag object. The ID is computed once and reused
+	 * until a field changes. If this object was read from a repository and has not been modified,
+	 * then the ID that it was read by is returned.
 	 * @return the hash ID of this tag object (not {@code null})
 	 * @throws IllegalStateException if this object has invalid field values
 	 * that prevent it from being serialized (see {@link #toBytes()})
 	 */
 	public TagId getId() {
-		return new TagId(getSha1Hash(toBytes()));
+		return getMemoizedId(TagId.class, TagId::new);
+	}
+	
+	
+	Object[] getIdState() {
+		return new Object[]{target, targetType, tagName, message,
+			taggerName, taggerEmail, taggerTime, taggerTimezone};
 	}
 	
 	
@@ -174,7 +182,7 @@ public final class TagObject extends GitObject {
 	 * @return a string representation of this tag object
 	 */
 	public String toString() {
-		return String.format("TagObject(target=%s, type=%s)", target.hexString, targetType);
+		return String.format("TagObject(target=%s, type=%s)", target.getHexString(), targetType);
 	}
 	
 	
@@ -8,6 +8,7 @@
 package io.nayuki.git;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -53,6 +54,12 @@ public class TreeId extends ObjectId {
 	}
 	
 	
+	// Constructs a tree ID from 20 bytes in the given big-endian buffer starting at the given absolute index.
+	TreeId(ByteBuffer buf, int index) {
+		super(buf, index);
+	}
+	
+	
 	
 	/*---- Methods ----*/
 	
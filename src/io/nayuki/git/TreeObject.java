@@ -12,7 +12,6 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -102,9 +101,8 @@ public final class TreeObject extends GitObject {
 			// Grab the hash bytes and create new entry
 			if (data.length - index < ObjectId.NUM_BYTES)
 				throw new EOFException("Unexpected end of tree data");
-			byte[] hash = Arrays.copyOfRange(data, index, index + ObjectId.NUM_BYTES);
+			entries.add(new Entry(mode, name, data, index));
 			index += ObjectId.NUM_BYTES;
-			entries.add(new Entry(mode, name, hash));
 		}
 	}
 	
@@ -164,13 +162,20 @@ public final class TreeObject extends GitObject {
 	
 	
 	/**
-	 * Returns the hash ID of the current state of this tree object.
+	 * Returns the hash ID of the current state of this tree object. The ID is computed once and reused
+	 * until the list of entries changes. If this object was read from a repository and has not
+	 * been modified, then the ID that it was read by is returned.
 	 * @return the hash ID of this tree object (not {@code null})
 	 * @throws IllegalStateException if this object has invalid field values
 	 * that prevent it from being serialized (see {@link #toBytes()})
 	 */
 	public TreeId getId() {
-		return new TreeId(getSha1Hash(toBytes()));
+		return getMemoizedId(TreeId.class, TreeId::new);
+	}
+	
+	
+	Object[] getIdState() {
+		return entries != null ? entries.toArray() : null;
 	}
 	
 	
@@ -238,6 +243,13 @@ public final class TreeObject extends GitObject {
 		 * @throws IllegalArgumentException if the name contains a NUL character
 		 */
 		public Entry(Type type, String name, byte[] hash) {
+			this(type, name, checkHashLength(hash), 0);
+		}
+		
+		
+		// Constructs a tree entry whose hash is the 20 bytes in the given array starting at the given offset,
+		// which lets the tree parser read hashes in place.
+		Entry(Type type, String name, byte[] hash, int off) {
 			Objects.requireNonNull(type);
 			Objects.requireNonNull(name);
 			Objects.requireNonNull(hash);
@@ -247,11 +259,18 @@ public final class TreeObject extends GitObject {
 			this.type = type;
 			this.name = name;
 			if (type == Type.NORMAL_FILE || type == Type.EXECUTABLE_FILE)
-				id = new BlobId(hash);
+				id = new BlobId(hash, off);
 			else if (type == Type.DIRECTORY)
-				id = new TreeId(hash);
+				id = new TreeId(hash, off);
 			else
-				id = new RawId(hash);
+				id = new RawId(hash, off);
+		}
+		
+		
+		private static byte[] checkHashLength(byte[] hash) {
+			if (hash != null && hash.length != ObjectId.NUM_BYTES)
+				throw new IllegalArgumentException("Invalid array length");
+			return hash;
 		}
 		
 		
@@ -272,7 +291,7 @@ public final class TreeObject extends GitObject {
 		 * @return a string representation of this tree entry
 		 */
 		public String toString() {
-			return String.format("TreeEntry(mode=%s, name=\"%s\", id=%s)", Integer.toString(type.mode, 8), name, id.hexString);
+			return String.format("TreeEntry(mode=%s, name=\"%s\", id=%s)", Integer.toString(type.mode, 8), name, id.getHexString());
 		}
 		
 		
@@ -0,0 +1,181 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the batched and asynchronous reads of {@link Repository}: {@link FileRepository}'s own
+ * {@link FileRepository#readObjects(java.util.Collection, java.util.function.BiConsumer) readObjects()},
+ * and the default implementations as used by {@link MemoryRepository}.
+ */
+public final class BatchReadTest {
+	
+	@Test public void testFileRepository() throws IOException {
+		// A pack with a whole blob and two deltas of it, which is written before the repository is opened
+		byte[] base = randomBytes(3000);
+		byte[] ofsTarget = Arrays.copyOf(base, base.length + 50);
+		byte[] refTarget = Arrays.copyOfRange(base, 100, base.length);
+		TestPackBuilder builder = new TestPackBuilder();
+		long baseOffset = builder.addWhole("blob", base);
+		builder.addOffsetDelta(baseOffset, TestPackBuilder.makeDelta(base, ofsTarget));
+		builder.addRefDelta(new BlobObject(base).getId(), TestPackBuilder.makeDelta(base, refTarget));
+		
+		File dir = TestRepositories.newRepositoryDir();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			File packFile = new File(packDir, "pack-test.pack");
+			Files.write(packFile.toPath(), builder.toBytes());
+			PackIndexer.indexPack(packFile, new File(packDir, "pack-test.idx"), null);
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				List<GitObject> objects = new ArrayList<>();
+				for (byte[] b : new byte[][]{base, ofsTarget, refTarget})
+					objects.add(new BlobObject(b));
+				try (ObjectInserter ins = repo.newInserter()) {  // A second pack
+					for (int i = 0; i < 5; i++) {
+						BlobObject obj = new BlobObject(randomBytes(100));
+						ins.insert(obj);
+						objects.add(obj);
+					}
+				}
+				for (int i = 0; i < 5; i++) {  // Loose objects
+					BlobObject obj = new BlobObject(randomBytes(100));
+					repo.writeObject(obj);
+					objects.add(obj);
+				}
+				Assert.assertEquals(2, repo.getPackFiles().size());
+				checkReads(repo, objects, executor);
+				
+				// A corrupt loose object makes the read fail with an I/O exception
+				BlobObject corrupt = new BlobObject(randomBytes(10));
+				TestRepositories.writeLooseObject(dir, corrupt.getId(), GitObject.addHeader("blob", randomBytes(10)));
+				try {
+					repo.readObjectAsync(corrupt.getId(), executor).join();
+					Assert.fail();
+				} catch (CompletionException e) {
+					Assert.assertTrue(e.getCause() instanceof GitFormatException);
+				}
+				try {
+					repo.readObjectsAsync(List.of(objects.get(0).getId(), corrupt.getId()), executor).join();
+					Assert.fail();
+				} catch (CompletionException e) {
+					Assert.assertTrue(e.getCause() instanceof GitFormatException);
+				}
+			}
+		} finally {
+			executor.shutdown();
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testMemoryRepository() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (MemoryRepository repo = new MemoryRepository()) {
+			List<GitObject> objects = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				BlobObject obj = new BlobObject(randomBytes(100));
+				repo.writeObject(obj);
+				objects.add(obj);
+			}
+			checkReads(repo, objects, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	// Checks every batched and asynchronous read of the given objects, which are all in the repository,
+	// with each ID requested twice, and checks that requesting a missing object fails.
+	private static void checkReads(Repository repo, List<GitObject> objects, ExecutorService executor) throws IOException {
+		Map<ObjectId,GitObject> expected = new HashMap<>();
+		for (GitObject obj : objects)
+			expected.put(obj.getId(), obj);
+		List<ObjectId> ids = new ArrayList<>(expected.keySet());
+		ids.addAll(expected.keySet());
+		Collections.shuffle(ids, rand);
+		ObjectId missing = new BlobObject(randomBytes(10)).getId();
+		
+		List<ObjectId> withMissing = new ArrayList<>(ids);
+		withMissing.add(missing);
+		Assert.assertEquals(expected.keySet(), repo.containsObjects(withMissing));
+		Assert.assertEquals(Collections.emptySet(), repo.containsObjects(List.of(missing)));
+		
+		// Each distinct ID is passed on exactly once
+		Map<ObjectId,GitObject> actual = new HashMap<>();
+		repo.readObjects(ids, (id, obj) -> Assert.assertNull(actual.put(id, obj)));
+		checkObjects(expected, actual);
+		checkObjects(expected, repo.readObjectsAsync(ids, executor).join());
+		
+		List<CompletableFuture<GitObject>> futures = new ArrayList<>();
+		for (ObjectId id : ids)
+			futures.add(repo.readObjectAsync(id, executor));
+		for (int i = 0; i < ids.size(); i++)
+			Assert.assertArrayEquals(expected.get(ids.get(i)).toBytes(), futures.get(i).join().toBytes());
+		
+		// The missing ID is last. FileRepository reports it before passing on any object,
+		// but the default implementation passes on the objects before it.
+		actual.clear();
+		try {
+			repo.readObjects(withMissing, actual::put);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {}  // Pass
+		Assert.assertEquals(repo instanceof FileRepository ? 0 : expected.size(), actual.size());
+		try {
+			repo.readObjectsAsync(withMissing, executor).join();
+			Assert.fail();
+		} catch (CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		try {
+			repo.readObjectAsync(missing, executor).join();
+			Assert.fail();
+		} catch (CompletionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+	}
+	
+	
+	private static void checkObjects(Map<ObjectId,GitObject> expected, Map<ObjectId,GitObject> actual) {
+		Assert.assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<ObjectId,GitObject> entry : actual.entrySet()) {
+			Assert.assertEquals(entry.getKey(), entry.getValue().getId());
+			Assert.assertArrayEquals(expected.get(entry.getKey()).toBytes(), entry.getValue().toBytes());
+		}
+	}
+	
+	
+	private static byte[] randomBytes(int len) {
+		byte[] result = new byte[len];
+		rand.nextBytes(result);
+		return result;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
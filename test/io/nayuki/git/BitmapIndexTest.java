@@ -0,0 +1,133 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests writing reachability bitmap files with {@link FileRepository#writeBitmapIndex(File, java.util.Collection)}
+ * and querying them with {@link BitmapIndex}, against walks that read every object.
+ */
+public final class BitmapIndexTest {
+	
+	@Test public void testMatchesWalkRandomly() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<GitObject> objects = TestRepositories.newRandomHistory(80, rand);
+			List<ObjectId> ids = new ArrayList<>();
+			List<CommitId> commits = new ArrayList<>();
+			Set<CommitId> leaves = new HashSet<>();
+			try (ObjectInserter ins = repo.newInserter()) {
+				for (GitObject obj : objects) {
+					ids.add(ins.insert(obj));
+					if (obj instanceof CommitObject commit) {
+						commits.add(commit.getId());
+						leaves.removeAll(commit.parents);
+						leaves.add(commit.getId());
+					}
+				}
+			}
+			TagObject tag = (TagObject)objects.get(objects.size() - 1);
+			
+			// A commit outside the pack, which the bitmaps can't cover
+			CommitObject loose = new CommitObject();
+			CommitObject parent = (CommitObject)objects.get(objects.size() - 2);
+			loose.tree = parent.tree;
+			loose.parents.add(parent.getId());
+			loose.authorName = loose.committerName = "Name";
+			loose.authorEmail = loose.committerEmail = "name@example.com";
+			loose.authorTime = loose.committerTime = parent.committerTime + 1;
+			loose.message = "Loose\n";
+			repo.writeObject(loose);
+			ids.add(loose.getId());
+			
+			Assert.assertNull(repo.getBitmapIndex());
+			File packFile = repo.getPackFiles().get(0);
+			
+			// First index only part of the history, then all of it, replacing the file
+			List<List<ObjectId>> tipsList = new ArrayList<>();
+			tipsList.add(List.of(commits.get(commits.size() / 3)));
+			List<ObjectId> allTips = new ArrayList<>(leaves);
+			allTips.add(tag.getId());
+			tipsList.add(allTips);
+			BitmapIndex previous = null;
+			for (List<ObjectId> tips : tipsList) {
+				repo.writeBitmapIndex(packFile, tips);
+				BitmapIndex bitmaps = repo.getBitmapIndex();
+				Assert.assertNotNull(bitmaps);
+				Assert.assertNotSame(previous, bitmaps);
+				previous = bitmaps;
+				Assert.assertTrue(bitmaps.getBitmapCount() > 0);
+				
+				for (int i = 0; i < 30; i++) {
+					List<ObjectId> queryTips = new ArrayList<>();
+					for (int j = rand.nextInt(4); j >= 0; j--)
+						queryTips.add(ids.get(rand.nextInt(ids.size())));
+					Set<ObjectId> expected = walk(repo, queryTips);
+					Assert.assertEquals(expected, bitmaps.getReachableObjects(queryTips));
+					Assert.assertEquals(countByType(repo, expected), bitmaps.countReachableObjects(queryTips));
+					for (int j = 0; j < 10; j++) {
+						ObjectId target = ids.get(rand.nextInt(ids.size()));
+						Assert.assertEquals(expected.contains(target), bitmaps.isReachable(target, queryTips));
+					}
+				}
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	// Returns the IDs of all objects reachable from the given ones, found by reading every object.
+	private static Set<ObjectId> walk(Repository repo, List<ObjectId> tips) throws IOException {
+		Set<ObjectId> result = new HashSet<>();
+		Queue<ObjectId> queue = new ArrayDeque<>(tips);
+		while (!queue.isEmpty()) {
+			ObjectId id = queue.remove();
+			if (!result.add(id))
+				continue;
+			GitObject obj = repo.readObject(id);
+			if (obj instanceof CommitObject commit) {
+				queue.add(commit.tree);
+				queue.addAll(commit.parents);
+			} else if (obj instanceof TreeObject tree) {
+				for (TreeObject.Entry entry : tree.entries)
+					queue.add(entry.id);
+			} else if (obj instanceof TagObject tag)
+				queue.add(tag.target);
+		}
+		return result;
+	}
+	
+	
+	private static Map<String,Integer> countByType(FileRepository repo, Set<ObjectId> ids) throws IOException {
+		Map<String,Integer> result = new LinkedHashMap<>();
+		for (String type : new String[]{"commit", "tree", "blob", "tag"})
+			result.put(type, 0);
+		for (ObjectId id : ids)
+			result.merge(repo.readObjectInfo(id).type, 1, Integer::sum);
+		return result;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
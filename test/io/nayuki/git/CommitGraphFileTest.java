@@ -0,0 +1,249 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests writing commit-graph files with {@link FileRepository#writeCommitGraph(CommitGraph, boolean)}
+ * and reading them back with {@link CommitGraphFile} and {@link CommitGraph#addHistory(Repository, java.util.Collection)}.
+ */
+public final class CommitGraphFileTest {
+	
+	@Test public void testSingleFile() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<CommitObject> commits = writeLooseHistory(repo, 60);
+			Assert.assertNull(repo.readCommitGraphFile());
+			CommitGraph expected = readGraph(repo, commits);
+			repo.writeCommitGraph(expected, false);
+			
+			CommitGraphFile file = repo.readCommitGraphFile();
+			Assert.assertFalse(file.isChain());
+			Assert.assertEquals(1, file.getLayerCount());
+			checkFile(file, commits, expected);
+			Assert.assertEquals(-1, file.findPosition(commits.get(0).tree));
+			
+			// The parents can only come from the file now
+			deleteLooseObjects(dir, commits);
+			assertSameGraph(expected, readGraph(repo, commits));
+			ExecutorService executor = Executors.newFixedThreadPool(4);
+			try {
+				CommitGraph graph = new CommitGraph();
+				graph.addHistory(repo, getIds(commits), executor);
+				assertSameGraph(expected, graph);
+			} finally {
+				executor.shutdown();
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testSplitChain() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<CommitObject> commits = writeLooseHistory(repo, 60);
+			
+			// Each layer is less than half the size of the one below, so none are merged
+			int[] ends = {30, 40, 43};
+			CommitGraph graph = null;
+			for (int i = 0; i < ends.length; i++) {
+				List<CommitObject> prefix = commits.subList(0, ends[i]);
+				graph = readGraph(repo, prefix);
+				repo.writeCommitGraph(graph, true);
+				CommitGraphFile file = repo.readCommitGraphFile();
+				Assert.assertTrue(file.isChain());
+				Assert.assertEquals(i + 1, file.getLayerCount());
+				for (int j = 0; j <= i; j++)
+					Assert.assertEquals(j > 0 ? ends[j - 1] : 0, file.getLayerStart(j));
+				checkFile(file, prefix, graph);
+			}
+			List<CommitObject> prefix = commits.subList(0, ends[ends.length - 1]);
+			deleteLooseObjects(dir, prefix);
+			assertSameGraph(graph, readGraph(repo, prefix));
+			
+			// A larger layer merges all the layers below it, taking their commits from the old files
+			CommitGraph expected = readGraph(repo, commits);
+			repo.writeCommitGraph(expected, true);
+			CommitGraphFile file = repo.readCommitGraphFile();
+			Assert.assertTrue(file.isChain());
+			Assert.assertEquals(1, file.getLayerCount());
+			checkFile(file, commits, expected);
+			File chainDir = new File(dir, "objects/info/" + CommitGraphFile.CHAIN_DIR_NAME);
+			Assert.assertEquals(2, chainDir.list().length);  // The chain file and one layer
+			
+			// Converting the chain to a single file deletes the chain
+			repo.writeCommitGraph(expected, false);
+			file = repo.readCommitGraphFile();
+			Assert.assertFalse(file.isChain());
+			checkFile(file, commits, expected);
+			Assert.assertEquals(0, chainDir.list().length);
+			deleteLooseObjects(dir, commits.subList(prefix.size(), commits.size()));
+			assertSameGraph(expected, readGraph(repo, commits));
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testMissingParent() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<CommitObject> commits = writeLooseHistory(repo, 10);
+			CommitGraph graph = new CommitGraph();
+			graph.addCommit(commits.get(commits.size() - 1));  // Parents unexplored
+			try {
+				repo.writeCommitGraph(graph, false);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {}  // Pass
+			Assert.assertNull(repo.readCommitGraphFile());
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testCyclicParents() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<CommitObject> commits = writeLooseHistory(repo, 20);
+			repo.writeCommitGraph(readGraph(repo, commits), false);
+			File graphFile = new File(dir, "objects/info/" + CommitGraphFile.FILE_NAME);
+			byte[] original = Files.readAllBytes(graphFile.toPath());
+			CommitGraphFile file = repo.readCommitGraphFile();
+			CommitObject child = commits.get(commits.size() - 1);
+			int childPos = file.findPosition(child.getId());
+			int parentPos = file.findPosition(child.parents.get(0));
+			
+			// A self-parent and a cycle of two, with and without topological levels
+			for (int i = 0; i < 4; i++) {
+				ByteBuffer data = ByteBuffer.wrap(original.clone());
+				int dataStart = findChunk(data, CommitGraphFile.CHUNK_IDS[CommitGraphFile.CDAT]);
+				if (i >= 2) {  // Absent levels, so only the graph computations can find the cycle
+					for (int j = 0; j < commits.size(); j++) {
+						int off = dataStart + j * CommitGraphFile.DATA_ENTRY_LEN + ObjectId.NUM_BYTES + 8;
+						data.putInt(off, data.getInt(off) & 3);
+					}
+				}
+				if (i % 2 == 0)
+					data.putInt(dataStart + childPos * CommitGraphFile.DATA_ENTRY_LEN + ObjectId.NUM_BYTES, childPos);
+				else
+					data.putInt(dataStart + parentPos * CommitGraphFile.DATA_ENTRY_LEN + ObjectId.NUM_BYTES, childPos);
+				Files.write(graphFile.toPath(), data.array());
+				
+				try {
+					readGraph(repo, commits);
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+				try {
+					new CommitGraph().addHistory(repo, getIds(commits), executor);
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+				try {
+					CompactCommitGraph.readHistory(repo, getIds(commits));
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+			}
+		} finally {
+			executor.shutdown();
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	// Writes a random history as loose objects, and returns its commits in order.
+	private static List<CommitObject> writeLooseHistory(FileRepository repo, int numCommits) throws IOException {
+		List<CommitObject> result = new ArrayList<>();
+		for (GitObject obj : TestRepositories.newRandomHistory(numCommits, rand)) {
+			repo.writeObject(obj);
+			if (obj instanceof CommitObject commit)
+				result.add(commit);
+		}
+		return result;
+	}
+	
+	
+	private static CommitGraph readGraph(Repository repo, List<CommitObject> commits) throws IOException {
+		CommitGraph result = new CommitGraph();
+		result.addHistory(repo, getIds(commits));
+		return result;
+	}
+	
+	
+	private static List<CommitId> getIds(List<CommitObject> commits) {
+		List<CommitId> result = new ArrayList<>();
+		for (CommitObject commit : commits)
+			result.add(commit.getId());
+		return result;
+	}
+	
+	
+	// Checks that the file has exactly the given commits, with their data, in the given graph.
+	private static void checkFile(CommitGraphFile file, List<CommitObject> commits, CommitGraph graph) throws IOException {
+		Assert.assertEquals(commits.size(), file.getCommitCount());
+		for (CommitObject commit : commits) {
+			CommitId id = commit.getId();
+			int pos = file.findPosition(id);
+			Assert.assertNotEquals(-1, pos);
+			Assert.assertEquals(id, file.getCommitId(pos));
+			Assert.assertEquals(commit.tree, file.getTreeId(pos));
+			Assert.assertEquals(commit.committerTime, file.getCommitTime(pos));
+			List<CommitId> parents = new ArrayList<>();
+			for (int p : file.getParentPositions(pos))
+				parents.add(file.getCommitId(p));
+			Assert.assertEquals(commit.parents, parents);  // In order, including the extra parents of an octopus merge
+			Assert.assertEquals(graph.getGeneration(id), file.getTopologicalLevel(pos));
+		}
+	}
+	
+	
+	private static void assertSameGraph(CommitGraph expected, CommitGraph actual) {
+		Assert.assertEquals(expected.getParentsKeys(), actual.getParentsKeys());
+		for (CommitId id : expected.getParentsKeys()) {
+			Assert.assertEquals(expected.getParents(id), actual.getParents(id));
+			Assert.assertEquals(expected.getChildren(id), actual.getChildren(id));
+			Assert.assertEquals(expected.getGeneration(id), actual.getGeneration(id));
+			Assert.assertEquals(expected.getCorrectedCommitDate(id), actual.getCorrectedCommitDate(id));
+		}
+	}
+	
+	
+	// Returns the byte offset of the chunk with the given ID in the given commit-graph file.
+	private static int findChunk(ByteBuffer data, int chunkId) {
+		for (int pos = CommitGraphFile.HEADER_LEN; ; pos += CommitGraphFile.CHUNK_ENTRY_LEN) {
+			if (data.getInt(pos) == chunkId)
+				return (int)data.getLong(pos + 4);
+		}
+	}
+	
+	
+	private static void deleteLooseObjects(File repoDir, List<? extends GitObject> objects) {
+		for (GitObject obj : objects) {
+			String hex = obj.getId().getHexString();
+			Assert.assertTrue(new File(repoDir, "objects/" + hex.substring(0, 2) + "/" + hex.substring(2)).delete());
+		}
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
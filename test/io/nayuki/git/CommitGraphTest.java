@@ -0,0 +1,210 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of class {@link CommitGraph}.
+ */
+public final class CommitGraphTest {
+	
+	@Test public void testGenerationsAndDates() {
+		CommitGraph graph = new CommitGraph();
+		CommitObject a = newCommit(100);
+		CommitObject b = newCommit(50, a);  // Clock skew
+		CommitObject c = newCommit(200, a);
+		CommitObject d = newCommit(150, b, c);
+		for (CommitObject obj : List.of(d, c, b, a))  // Children first, like addHistory()
+			graph.addCommit(obj);
+		
+		Assert.assertEquals(1, graph.getGeneration(a.getId()));
+		Assert.assertEquals(2, graph.getGeneration(b.getId()));
+		Assert.assertEquals(3, graph.getGeneration(d.getId()));
+		Assert.assertEquals(100, graph.getCorrectedCommitDate(a.getId()));
+		Assert.assertEquals(101, graph.getCorrectedCommitDate(b.getId()));
+		Assert.assertEquals(200, graph.getCorrectedCommitDate(c.getId()));
+		Assert.assertEquals(201, graph.getCorrectedCommitDate(d.getId()));
+		Assert.assertTrue(graph.isAncestor(a.getId(), d.getId()));
+		Assert.assertTrue(graph.isAncestor(d.getId(), d.getId()));
+		Assert.assertFalse(graph.isAncestor(b.getId(), c.getId()));
+		Assert.assertEquals(Set.of(a.getId()), graph.mergeBases(b.getId(), c.getId()));
+		Assert.assertEquals(Set.of(d.getId()), graph.independent(List.of(a.getId(), c.getId(), d.getId())));
+	}
+	
+	
+	@Test public void testUnexploredInvalidatesCache() {
+		CommitGraph graph = new CommitGraph();
+		CommitObject a = newCommit(100);
+		CommitObject b = newCommit(110, a);
+		CommitObject c = newCommit(120, b);
+		graph.addCommit(c);
+		Assert.assertEquals(2, graph.getGeneration(c.getId()));
+		Assert.assertEquals(CommitGraph.NO_DATE, graph.getCorrectedCommitDate(c.getId()));
+		graph.addCommit(b);
+		graph.addCommit(a);
+		Assert.assertEquals(3, graph.getGeneration(c.getId()));
+		Assert.assertEquals(120, graph.getCorrectedCommitDate(c.getId()));
+	}
+	
+	
+	@Test public void testNotInGraph() {
+		CommitGraph graph = new CommitGraph();
+		graph.addCommit(newCommit(0));
+		try {
+			graph.isAncestor(newCommit(1).getId(), newCommit(2).getId());
+			Assert.fail();
+		} catch (IllegalArgumentException e) {}  // Pass
+	}
+	
+	
+	@Test public void testQueriesRandomly() {
+		for (int i = 0; i < 30; i++) {
+			// Make a random history, where each commit's parents are among the earlier commits
+			List<CommitObject> commits = new ArrayList<>();
+			int n = rand.nextInt(60) + 1;
+			for (int j = 0; j < n; j++) {
+				CommitObject obj = newCommit(rand.nextInt(1000));
+				int numParents = j == 0 ? 0 : Math.min(rand.nextInt(4), j);
+				Set<CommitId> parents = new HashSet<>();
+				for (int k = 0; k < numParents; k++)
+					parents.add(commits.get(j - 1 - rand.nextInt(Math.min(j, 8))).getId());
+				obj.parents.addAll(parents);
+				commits.add(obj);
+			}
+			CommitGraph graph = new CommitGraph();
+			for (CommitObject obj : commits)
+				graph.addCommit(obj);
+			
+			// Compute ancestor sets naively
+			List<Set<CommitId>> ancestors = new ArrayList<>();
+			for (CommitObject obj : commits) {
+				Set<CommitId> set = new HashSet<>();
+				set.add(obj.getId());
+				for (CommitId parent : obj.parents)
+					set.addAll(ancestors.get(indexOf(commits, parent)));
+				ancestors.add(set);
+			}
+			
+			for (int j = 0; j < 30; j++) {
+				int x = rand.nextInt(n);
+				int y = rand.nextInt(n);
+				CommitId xId = commits.get(x).getId();
+				CommitId yId = commits.get(y).getId();
+				Assert.assertEquals(ancestors.get(y).contains(xId), graph.isAncestor(xId, yId));
+				
+				Set<CommitId> common = new HashSet<>(ancestors.get(x));
+				common.retainAll(ancestors.get(y));
+				Set<CommitId> expect = new HashSet<>(common);
+				for (CommitId id : common) {
+					Set<CommitId> proper = new HashSet<>(ancestors.get(indexOf(commits, id)));
+					proper.remove(id);
+					expect.removeAll(proper);
+				}
+				Assert.assertEquals(expect, graph.mergeBases(xId, yId));
+				
+				List<CommitId> ids = new ArrayList<>();
+				for (int k = rand.nextInt(5); k >= 0; k--)
+					ids.add(commits.get(rand.nextInt(n)).getId());
+				expect = new HashSet<>(ids);
+				for (CommitId id : ids) {
+					for (CommitId other : ids) {
+						if (!other.equals(id) && ancestors.get(indexOf(commits, other)).contains(id))
+							expect.remove(id);
+					}
+				}
+				Assert.assertEquals(expect, graph.independent(ids));
+			}
+		}
+	}
+	
+	
+	@Test public void testParallelHistoryRandomly() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int i = 0; i < 30; i++) {
+				MemoryRepository repo = new MemoryRepository();
+				List<CommitId> commits = new ArrayList<>();
+				int n = rand.nextInt(100) + 1;
+				for (int j = 0; j < n; j++) {
+					CommitObject obj = newCommit(rand.nextInt(1000));
+					Set<CommitId> parents = new HashSet<>();
+					for (int k = j == 0 ? 0 : rand.nextInt(4); k > 0; k--)
+						parents.add(commits.get(j - 1 - rand.nextInt(Math.min(j, 8))));
+					obj.parents.addAll(parents);
+					repo.writeObject(obj);
+					commits.add(obj.getId());
+				}
+				List<CommitId> tips = List.of(commits.get(n - 1), commits.get(rand.nextInt(n)));
+				
+				CommitGraph expect = new CommitGraph();
+				expect.addHistory(repo, tips);
+				CommitGraph actual = new CommitGraph();
+				actual.addHistory(repo, tips, executor);
+				Assert.assertEquals(expect.getParentsKeys(), actual.getParentsKeys());
+				for (CommitId id : expect.getParentsKeys()) {
+					Assert.assertEquals(expect.getParents(id), actual.getParents(id));
+					Assert.assertEquals(expect.getChildren(id), actual.getChildren(id));
+					Assert.assertEquals(expect.getCorrectedCommitDate(id), actual.getCorrectedCommitDate(id));
+				}
+			}
+			
+			// A missing parent fails the whole call and leaves the graph unchanged
+			MemoryRepository repo = new MemoryRepository();
+			CommitObject missing = newCommit(0);
+			CommitObject obj = newCommit(1, missing);
+			repo.writeObject(obj);
+			CommitGraph graph = new CommitGraph();
+			try {
+				graph.addHistory(repo, List.of(obj.getId()), executor);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {}  // Pass
+			Assert.assertTrue(graph.getParentsKeys().isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	
+	private static int indexOf(List<CommitObject> commits, CommitId id) {
+		for (int i = 0; i < commits.size(); i++) {
+			if (commits.get(i).getId().equals(id))
+				return i;
+		}
+		throw new AssertionError();
+	}
+	
+	
+	private static CommitObject newCommit(long time, CommitObject... parents) {
+		CommitObject result = new CommitObject();
+		result.tree = new TreeId("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+		for (CommitObject parent : parents)
+			result.parents.add(parent.getId());
+		result.authorName = result.committerName = "A";
+		result.authorEmail = result.committerEmail = "a@b";
+		result.authorTime = result.committerTime = time;
+		result.message = "Commit " + counter++;
+		return result;
+	}
+	
+	
+	private static int counter = 0;
+	
+	private static Random rand = new Random();
+	
+}
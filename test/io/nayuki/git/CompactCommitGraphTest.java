@@ -0,0 +1,78 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of class {@link CompactCommitGraph}.
+ */
+public final class CompactCommitGraphTest {
+	
+	@Test public void testMatchesCommitGraphRandomly() throws IOException {
+		for (int i = 0; i < 30; i++) {
+			// Make a random history, where each commit's parents are among the earlier commits
+			MemoryRepository repo = new MemoryRepository();
+			List<CommitId> commits = new ArrayList<>();
+			int n = rand.nextInt(60) + 1;
+			for (int j = 0; j < n; j++) {
+				CommitObject obj = new CommitObject();
+				obj.tree = new TreeId("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+				obj.authorName = obj.committerName = "A";
+				obj.authorEmail = obj.committerEmail = "a@b";
+				obj.authorTime = obj.committerTime = rand.nextInt(1000);
+				obj.message = "Commit " + j;
+				Set<CommitId> parents = new HashSet<>();
+				for (int k = j == 0 ? 0 : rand.nextInt(4); k > 0; k--)
+					parents.add(commits.get(j - 1 - rand.nextInt(Math.min(j, 8))));
+				obj.parents.addAll(parents);
+				repo.writeObject(obj);
+				commits.add(obj.getId());
+			}
+			List<CommitId> tips = List.of(commits.get(n - 1), commits.get(rand.nextInt(n)));
+			
+			CommitGraph expect = new CommitGraph();
+			expect.addHistory(repo, tips);
+			CompactCommitGraph actual = CompactCommitGraph.readHistory(repo, tips);
+			Assert.assertEquals(expect.getParentsKeys(), actual.getCommitIds());
+			Assert.assertEquals(expect.getRoots(), actual.getRoots());
+			Assert.assertEquals(expect.getLeaves(), actual.getLeaves());
+			List<CommitId> ids = new ArrayList<>(actual.getCommitIds());
+			for (CommitId id : ids) {
+				Assert.assertEquals(id, actual.getCommitId(actual.getIndex(id)));
+				Assert.assertEquals(expect.getParents(id), actual.getParents(id));
+				Assert.assertEquals(expect.getChildren(id), actual.getChildren(id));
+				Assert.assertEquals(expect.getGeneration(id), actual.getGeneration(id));
+				Assert.assertEquals(expect.getCorrectedCommitDate(id), actual.getCorrectedCommitDate(id));
+			}
+			
+			for (int j = 0; j < 30; j++) {
+				CommitId x = ids.get(rand.nextInt(ids.size()));
+				CommitId y = ids.get(rand.nextInt(ids.size()));
+				Assert.assertEquals(expect.isAncestor(x, y), actual.isAncestor(x, y));
+				Assert.assertEquals(expect.mergeBases(x, y), actual.mergeBases(x, y));
+				List<CommitId> some = new ArrayList<>();
+				for (int k = rand.nextInt(5); k >= 0; k--)
+					some.add(ids.get(rand.nextInt(ids.size())));
+				Assert.assertEquals(expect.independent(some), actual.independent(some));
+			}
+		}
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,53 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of class {@link DeltaBaseCache}.
+ */
+public final class DeltaBaseCacheTest {
+	
+	@Test public void testHitsAndMisses() {
+		DeltaBaseCache cache = new DeltaBaseCache(100);
+		Assert.assertNull(cache.get(null, 5));
+		cache.put(null, 5, 3, new byte[10]);
+		Object[] pair = cache.get(null, 5);
+		Assert.assertNotNull(pair);
+		Assert.assertEquals(3, (int)(Integer)pair[0]);
+		Assert.assertEquals(10, ((byte[])pair[1]).length);
+		Assert.assertNull(cache.get(null, 6));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(2, cache.getMissCount());
+		Assert.assertEquals(10, cache.getCurrentBytes());
+	}
+	
+	
+	@Test public void testLeastRecentlyUsedEviction() {
+		DeltaBaseCache cache = new DeltaBaseCache(100);
+		cache.put(null, 0, 1, new byte[40]);
+		cache.put(null, 1, 1, new byte[40]);
+		cache.get(null, 0);  // Now offset 1 is the least recently used
+		cache.put(null, 2, 1, new byte[40]);
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(80, cache.getCurrentBytes());
+		Assert.assertNotNull(cache.get(null, 0));
+		Assert.assertNull(cache.get(null, 1));
+		Assert.assertNotNull(cache.get(null, 2));
+		
+		cache.put(null, 3, 1, new byte[101]);  // Too large to cache
+		Assert.assertNull(cache.get(null, 3));
+		cache.setMaxBytes(40);
+		Assert.assertEquals(1, cache.getEntryCount());
+		Assert.assertEquals(2, cache.getEvictionCount());
+	}
+	
+}
@@ -0,0 +1,102 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of class {@link Ewah}.
+ */
+public final class EwahTest {
+	
+	@Test public void testDecode() throws IOException {
+		// A run of 64 one bits, a literal word, a run of 192 one bits, and a literal word with 7 bits
+		ByteBuffer buf = ByteBuffer.allocate(4 + 4 + 4 * 8 + 4);
+		buf.putInt(327).putInt(4);
+		buf.putLong(0x0000000200000003L).putLong(0xFFFFFFDFFFFFFFFFL);
+		buf.putLong(0x0000000200000007L).putLong(0x000000000000007FL);
+		buf.putInt(2);
+		Object[] result = Ewah.decode(buf, 0);
+		BitSet bits = (BitSet)result[0];
+		Assert.assertEquals(buf.capacity(), (int)(Integer)result[1]);
+		Assert.assertEquals(326, bits.cardinality());
+		Assert.assertEquals(327, bits.length());
+		Assert.assertEquals(64 + 37, bits.nextClearBit(0));
+	}
+	
+	
+	@Test public void testEncodeEmpty() throws IOException {
+		byte[] b = Ewah.encode(new BitSet());
+		Assert.assertArrayEquals(new byte[]{0,0,0,0, 0,0,0,1, 0,0,0,0,0,0,0,0, 0,0,0,0}, b);
+		Assert.assertEquals(new BitSet(), Ewah.decode(ByteBuffer.wrap(b), 0)[0]);
+	}
+	
+	
+	@Test public void testEncodeRuns() throws IOException {
+		BitSet bits = new BitSet();
+		bits.set(0, 640);
+		bits.set(6400);
+		byte[] b = Ewah.encode(bits);
+		// Marker (run of 10 one words), marker (run of 89 zero words, 1 literal), literal
+		Assert.assertEquals(4 + 4 + 3 * 8 + 4, b.length);
+		Assert.assertEquals(bits, Ewah.decode(ByteBuffer.wrap(b), 0)[0]);
+	}
+	
+	
+	@Test public void testRoundTripRandomly() throws IOException {
+		for (int i = 0; i < 1000; i++) {
+			BitSet bits = new BitSet();
+			int len = rand.nextInt(3000);
+			double density = rand.nextDouble();
+			for (int j = 0; j < len; ) {  // Alternate between spans of random bits and runs of equal bits
+				int span = rand.nextInt(300) + 1;
+				boolean run = rand.nextBoolean();
+				boolean value = rand.nextBoolean();
+				for (int k = 0; k < span && j < len; k++, j++)
+					bits.set(j, run ? value : rand.nextDouble() < density);
+			}
+			byte[] b = Ewah.encode(bits);
+			ByteBuffer buf = ByteBuffer.allocate(b.length + 5);
+			buf.position(5);
+			buf.put(b);
+			Object[] result = Ewah.decode(buf, 5);
+			Assert.assertEquals(bits, result[0]);
+			Assert.assertEquals(b.length, (int)(Integer)result[1]);
+		}
+	}
+	
+	
+	@Test public void testDecodeInvalid() {
+		long[][] cases = {
+			{128, 2, 0x0000000200000000L},  // Fewer words than declared
+			{64, 1, 0x0000000000000005L},   // Run of 2 words in a 1-word bitmap
+			{64, 1, 0x0000000400000000L},   // 2 literal words declared but only 1 word
+			{64, 3, 0x0000000400000000L, 1, 1},  // Literal words beyond the bitmap length
+		};
+		for (long[] cs : cases) {
+			ByteBuffer buf = ByteBuffer.allocate(4 + 4 + (cs.length - 2) * 8 + 4);
+			buf.putInt((int)cs[0]).putInt((int)cs[1]);
+			for (int i = 2; i < cs.length; i++)
+				buf.putLong(cs[i]);
+			try {
+				Ewah.decode(buf, 0);
+				Assert.fail();
+			} catch (GitFormatException e) {}  // Pass
+		}
+	}
+		
+		
+		private static Random rand = new Random();
+	
+}
@@ -0,0 +1,234 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Stress tests reading one {@link FileRepository} from many threads, checking every result against the known objects.
+ */
+public final class FileRepositoryConcurrencyTest {
+	
+	@Test public void testConcurrentReads() throws Exception {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			Map<ObjectId,BlobObject> objects = new ConcurrentHashMap<>();
+			for (int i = 0; i < 4; i++)
+				insertPack(repo, objects, 200);
+			for (int i = 0; i < 50; i++)
+				writeLoose(repo, objects);
+			List<ObjectId> ids = new ArrayList<>(objects.keySet());
+			
+			runThreads(NUM_THREADS, () -> {
+				Random rand = new Random();
+				for (int i = 0; i < 2000; i++)
+					checkRandomRead(repo, objects, ids, rand);
+				return null;
+			});
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testReadsDuringWritesAndRescans() throws Exception {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			Map<ObjectId,BlobObject> objects = new ConcurrentHashMap<>();
+			insertPack(repo, objects, 200);
+			AtomicBoolean done = new AtomicBoolean(false);
+			
+			List<Callable<Void>> tasks = new ArrayList<>();
+			tasks.add(() -> {  // Writer, whose new packs make readers rescan
+				try {
+					for (int i = 0; i < 30; i++) {
+						insertPack(repo, objects, 20);
+						writeLoose(repo, objects);
+						if (i % 10 == 9)
+							repo.rescan();
+					}
+				} finally {
+					done.set(true);
+				}
+				return null;
+			});
+			for (int i = 0; i < NUM_THREADS; i++) {
+				tasks.add(() -> {
+					Random rand = new Random();
+					do {
+						List<ObjectId> ids = new ArrayList<>(objects.keySet());  // Only objects whose writes have returned
+						for (int j = 0; j < 100; j++)
+							checkRandomRead(repo, objects, ids, rand);
+					} while (!done.get());
+					return null;
+				});
+			}
+			runThreads(tasks);
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testCloseDuringReads() throws Exception {
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			FileRepository repo = new FileRepository(dir);
+			Map<ObjectId,BlobObject> objects = new ConcurrentHashMap<>();
+			for (int i = 0; i < 2; i++)
+				insertPack(repo, objects, 200);
+			List<ObjectId> ids = new ArrayList<>(objects.keySet());
+			
+			// A stream opened before closing stays readable afterward
+			ObjectId streamId = ids.get(0);
+			ObjectStream stream = repo.openObjectStream(streamId);
+			
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < NUM_THREADS; i++) {
+				tasks.add(() -> {
+					Random rand = new Random();
+					try {
+						while (true)
+							checkRandomRead(repo, objects, ids, rand);
+					} catch (IllegalStateException e) {}  // Pass, because the repository was closed
+					return null;
+				});
+			}
+			tasks.add(() -> {
+				Thread.sleep(200);
+				repo.close();
+				return null;
+			});
+			runThreads(tasks);
+			
+			try (ObjectStream in = stream) {
+				Assert.assertArrayEquals(objects.get(streamId).data, in.readAllBytes());
+			}
+			Assert.assertEquals(null, repo.getDirectory());
+			try {
+				repo.readObject(streamId);
+				Assert.fail();
+			} catch (IllegalStateException e) {}  // Pass
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	// Performs one randomly chosen kind of read, and checks the result.
+	private static void checkRandomRead(FileRepository repo, Map<ObjectId,BlobObject> objects,
+			List<ObjectId> ids, Random rand) throws IOException {
+		ObjectId id = ids.get(rand.nextInt(ids.size()));
+		BlobObject expect = objects.get(id);
+		switch (rand.nextInt(5)) {
+			case 0 -> Assert.assertArrayEquals(expect.data, ((BlobObject)repo.readObject(id)).data);
+			case 1 -> {
+				ObjectInfo info = repo.readObjectInfo(id);
+				Assert.assertEquals("blob", info.type);
+				Assert.assertEquals(expect.data.length, info.size);
+			}
+			case 2 -> {
+				try (ObjectStream in = repo.openObjectStream(id)) {
+					Assert.assertArrayEquals(expect.data, in.readAllBytes());
+				}
+			}
+			case 3 -> {
+				Assert.assertTrue(repo.containsObject(id));
+				byte[] b = new byte[ObjectId.NUM_BYTES];
+				rand.nextBytes(b);
+				Assert.assertFalse(repo.containsObject(new RawId(b)));
+			}
+			case 4 -> {
+				List<ObjectId> batch = new ArrayList<>();
+				for (int i = 0; i < 10; i++)
+					batch.add(ids.get(rand.nextInt(ids.size())));
+				Map<ObjectId,GitObject> actual = new ConcurrentHashMap<>();
+				repo.readObjects(batch, actual::put);
+				Assert.assertEquals(new HashSet<>(batch), actual.keySet());
+				for (Map.Entry<ObjectId,GitObject> entry : actual.entrySet())
+					Assert.assertArrayEquals(objects.get(entry.getKey()).data, ((BlobObject)entry.getValue()).data);
+			}
+			default -> throw new AssertionError();
+		}
+	}
+	
+	
+	// Writes the given number of random blobs as one new pack, and adds them to the map after the pack is installed.
+	private static void insertPack(FileRepository repo, Map<ObjectId,BlobObject> objects, int count) throws IOException {
+		List<BlobObject> blobs = new ArrayList<>();
+		try (ObjectInserter ins = repo.newInserter()) {
+			for (int i = 0; i < count; i++) {
+				BlobObject obj = randomBlob();
+				ins.insert(obj);
+				blobs.add(obj);
+			}
+		}
+		for (BlobObject obj : blobs)
+			objects.put(obj.getId(), obj);
+	}
+	
+	
+	private static void writeLoose(FileRepository repo, Map<ObjectId,BlobObject> objects) throws IOException {
+		BlobObject obj = randomBlob();
+		repo.writeObject(obj);
+		objects.put(obj.getId(), obj);
+	}
+	
+	
+	private static BlobObject randomBlob() {
+		byte[] b = new byte[rand.nextInt(3000)];
+		rand.nextBytes(b);
+		Arrays.fill(b, 0, b.length / 2, (byte)'a');  // Compressible
+		return new BlobObject(b);
+	}
+	
+	
+	// Runs the given task on the given number of threads at once, and rethrows the first failure.
+	private static void runThreads(int numThreads, Callable<Void> task) throws Exception {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int i = 0; i < numThreads; i++)
+			tasks.add(task);
+		runThreads(tasks);
+	}
+	
+	
+	private static void runThreads(List<Callable<Void>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (Callable<Void> task : tasks)
+				futures.add(executor.submit(task));
+			for (Future<Void> f : futures)
+				f.get();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	
+	private static final int NUM_THREADS = 8;
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,145 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the pack file management of {@link FileRepository}.
+ */
+public final class FileRepositoryTest {
+	
+	@Test public void testLooseObjectInfo() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			Random rand = new Random();
+			for (int len : new int[]{0, 1, 30, 100, 5000, 300000}) {
+				byte[] b = new byte[len];
+				rand.nextBytes(b);  // Incompressible, so that the header needs more than the first read
+				BlobObject obj = new BlobObject(b);
+				repo.writeObject(obj);
+				ObjectInfo info = repo.readObjectInfo(obj.getId());
+				Assert.assertEquals("blob", info.type);
+				Assert.assertEquals(len, info.size);
+			}
+			TreeObject tree = new TreeObject();
+			repo.writeObject(tree);
+			ObjectInfo info = repo.readObjectInfo(tree.getId());
+			Assert.assertEquals("tree", info.type);
+			Assert.assertEquals(0, info.size);
+			
+			// A loose file whose data is not a valid object header
+			ObjectId id = new RawId(new byte[ObjectId.NUM_BYTES]);
+			TestRepositories.writeLooseObject(dir, id, new byte[100]);
+			try {
+				repo.readObjectInfo(id);
+				Assert.fail();
+			} catch (GitFormatException e) {}  // Pass
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testInvalidMultiPackIndexIgnored() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		File otherDir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			BlobObject oldBlob = new BlobObject(new byte[]{1, 2, 3});
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(oldBlob);
+			}
+			
+			// Make a pack in another repository, to copy in alongside a corrupt multi-pack index
+			BlobObject newBlob = new BlobObject(new byte[]{4, 5, 6});
+			try (FileRepository other = new FileRepository(otherDir)) {
+				try (ObjectInserter ins = other.newInserter()) {
+					ins.insert(newBlob);
+				}
+			}
+			File packDir = new File(dir, "objects/pack");
+			for (File file : new File(otherDir, "objects/pack").listFiles())
+				Files.copy(file.toPath(), new File(packDir, file.getName()).toPath());
+			Files.write(new File(packDir, MultiPackIndex.FILE_NAME).toPath(), new byte[100]);
+			
+			File fdDir = new File("/proc/self/fd");
+			int fdsBefore = fdDir.isDirectory() ? fdDir.list().length : 0;
+			for (int i = 0; i < 20; i++) {
+				repo.rescan();
+				Assert.assertArrayEquals(oldBlob.data, ((BlobObject)repo.readObject(oldBlob.getId())).data);
+				Assert.assertArrayEquals(newBlob.data, ((BlobObject)repo.readObject(newBlob.getId())).data);
+			}
+			if (fdDir.isDirectory())  // Each leaked pack reader would hold an open file
+				Assert.assertTrue(fdDir.list().length < fdsBefore + 10);
+			Assert.assertEquals(2, repo.getPackFiles().size());
+			Assert.assertFalse(repo.containsObject(new RawId(new byte[ObjectId.NUM_BYTES])));  // A miss doesn't fail either
+			
+			// The repository can also be opened with the corrupt file present
+			try (FileRepository reopened = new FileRepository(dir)) {
+				Assert.assertArrayEquals(newBlob.data, ((BlobObject)reopened.readObject(newBlob.getId())).data);
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+			TestRepositories.deleteRecursively(otherDir);
+		}
+	}
+	
+	
+	@Test public void testFailedRescanReleasesNewPacks() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		File otherDir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			BlobObject oldBlob = new BlobObject(new byte[]{1, 2, 3});
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(oldBlob);
+			}
+			
+			// Copy in a valid pack from another repository, and a pack whose index file is corrupt
+			BlobObject newBlob = new BlobObject(new byte[]{4, 5, 6});
+			try (FileRepository other = new FileRepository(otherDir)) {
+				try (ObjectInserter ins = other.newInserter()) {
+					ins.insert(newBlob);
+				}
+			}
+			File packDir = new File(dir, "objects/pack");
+			for (File file : new File(otherDir, "objects/pack").listFiles())
+				Files.copy(file.toPath(), new File(packDir, file.getName()).toPath());
+			File badIndex = new File(packDir, "pack-bad.idx");
+			Files.write(badIndex.toPath(), new byte[100]);
+			Files.write(new File(packDir, "pack-bad.pack").toPath(), new byte[100]);
+			
+			File fdDir = new File("/proc/self/fd");
+			int fdsBefore = fdDir.isDirectory() ? fdDir.list().length : 0;
+			for (int i = 0; i < 20; i++) {
+				try {
+					repo.rescan();
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+			}
+			if (fdDir.isDirectory())  // Each leaked pack reader would hold an open file
+				Assert.assertTrue(fdDir.list().length < fdsBefore + 10);
+			
+			// The old pack set stays in use until a rescan succeeds
+			Assert.assertArrayEquals(oldBlob.data, ((BlobObject)repo.readObject(oldBlob.getId())).data);
+			Assert.assertTrue(badIndex.delete());
+			repo.rescan();
+			Assert.assertArrayEquals(newBlob.data, ((BlobObject)repo.readObject(newBlob.getId())).data);
+			Assert.assertEquals(2, repo.getPackFiles().size());
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+			TestRepositories.deleteRecursively(otherDir);
+		}
+	}
+	
+}
@@ -0,0 +1,183 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the memoization of the IDs returned by {@link GitObject#getId()} and its overrides.
+ */
+public final class GitObjectIdTest {
+	
+	@Test public void testCommit() {
+		CommitObject obj = newCommit();
+		CommitId id = obj.getId();
+		Assert.assertSame(id, obj.getId());
+		checkId(obj);
+		
+		obj.message = "Other message\n";
+		Assert.assertNotEquals(id, obj.getId());
+		checkId(obj);
+		obj.message = "Message\n";
+		Assert.assertEquals(id, obj.getId());
+		
+		obj.parents.add(randomCommitId());
+		checkId(obj);
+		obj.parents.set(0, randomCommitId());
+		checkId(obj);
+		obj.parents.clear();
+		Assert.assertEquals(id, obj.getId());
+		
+		obj.authorTime = 1500000001L;
+		checkId(obj);
+		obj.authorTime = 1500000000L;  // Equal value in a different box
+		Assert.assertEquals(id, obj.getId());
+		obj.committerTimezone = 60;
+		checkId(obj);
+		
+		obj.parents = null;
+		try {
+			obj.getId();
+			Assert.fail();
+		} catch (IllegalStateException e) {}  // Pass
+	}
+	
+	
+	@Test public void testTree() {
+		TreeObject obj = new TreeObject();
+		obj.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "b", randomHash()));
+		TreeId id = obj.getId();
+		Assert.assertSame(id, obj.getId());
+		checkId(obj);
+		
+		obj.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.DIRECTORY, "a", randomHash()));
+		obj.sortEntries();
+		checkId(obj);
+		obj.entries.set(1, new TreeObject.Entry(TreeObject.Entry.Type.EXECUTABLE_FILE, "b", obj.entries.get(1).id.getBytes()));
+		checkId(obj);
+		obj.entries.remove(0);
+		obj.entries.set(0, new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "b", obj.entries.get(0).id.getBytes()));
+		Assert.assertEquals(id, obj.getId());
+		
+		obj.entries = new ArrayList<>();
+		checkId(obj);
+	}
+	
+	
+	@Test public void testTag() {
+		TagObject obj = new TagObject();
+		obj.target = randomCommitId();
+		obj.targetType = "commit";
+		obj.tagName = "v1.0";
+		obj.message = "Release\n";
+		obj.taggerName = "Tagger";
+		obj.taggerEmail = "tagger@example.com";
+		obj.taggerTime = 1500000000;
+		obj.taggerTimezone = -300;
+		TagId id = obj.getId();
+		Assert.assertSame(id, obj.getId());
+		checkId(obj);
+		
+		obj.tagName = "v1.1";
+		checkId(obj);
+		obj.target = randomCommitId();
+		checkId(obj);
+		obj.taggerTimezone = 0;
+		checkId(obj);
+	}
+	
+	
+	@Test public void testBlobInPlace() {
+		BlobObject obj = new BlobObject(new byte[]{1, 2, 3});
+		BlobId id = obj.getId();
+		checkId(obj);
+		obj.data[0] = 4;
+		Assert.assertNotEquals(id, obj.getId());
+		checkId(obj);
+	}
+	
+	
+	@Test public void testReadCarriesId() throws IOException {
+		// A tree with a zero-padded directory mode, as written by old versions of Git, which toBytes() doesn't reproduce
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		bout.write("040000 dir\0".getBytes(StandardCharsets.US_ASCII));
+		bout.write(randomHash());
+		byte[] raw = GitObject.addHeader("tree", bout.toByteArray());
+		ObjectId id = new RawId(GitObject.getSha1Hash(raw));
+		
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			TestRepositories.writeLooseObject(dir, id, raw);
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				TreeObject obj = (TreeObject)repo.readObject(id);
+				Assert.assertEquals(id, obj.getId());
+				Assert.assertNotEquals(id, new RawId(GitObject.getSha1Hash(obj.toBytes())));
+				obj.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "file", randomHash()));
+				checkId(obj);
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+		
+		try (MemoryRepository repo = new MemoryRepository()) {
+			CommitObject obj = newCommit();
+			repo.writeObject(obj);
+			CommitObject read = (CommitObject)repo.readObject(obj.getId());
+			Assert.assertEquals(obj.getId(), read.getId());
+			read.tree = new TreeId(randomHash());
+			checkId(read);
+		}
+	}
+	
+	
+	// Checks that the object's ID equals the hash of its current serialization.
+	private static void checkId(GitObject obj) {
+		Assert.assertEquals(new RawId(GitObject.getSha1Hash(obj.toBytes())), obj.getId());
+	}
+	
+	
+	private static CommitObject newCommit() {
+		CommitObject result = new CommitObject();
+		result.tree = new TreeId(randomHash());
+		result.message = "Message\n";
+		result.authorName = "Author";
+		result.authorEmail = "author@example.com";
+		result.authorTime = 1500000000L;
+		result.authorTimezone = 120;
+		result.committerName = "Committer";
+		result.committerEmail = "committer@example.com";
+		result.committerTime = 1500000100L;
+		result.committerTimezone = 120;
+		return result;
+	}
+	
+	
+	private static CommitId randomCommitId() {
+		return new CommitId(randomHash());
+	}
+	
+	
+	private static byte[] randomHash() {
+		byte[] result = new byte[ObjectId.NUM_BYTES];
+		rand.nextBytes(result);
+		return result;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
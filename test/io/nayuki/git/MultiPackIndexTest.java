@@ -0,0 +1,108 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests writing multi-pack index files with {@link FileRepository#writeMultiPackIndex()} and reading through them.
+ */
+public final class MultiPackIndexTest {
+	
+	@Test public void testWriteAndRead() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<GitObject> objects = TestRepositories.newRandomHistory(40, rand);
+			Map<ObjectId,GitObject> expected = new HashMap<>();
+			int numPacks = 3;
+			for (int i = 0; i < numPacks; i++) {
+				try (ObjectInserter ins = repo.newInserter()) {
+					for (GitObject obj : objects.subList(objects.size() * i / numPacks, objects.size() * (i + 1) / numPacks))
+						expected.put(ins.insert(obj), obj);  // Objects already in an earlier pack are skipped
+				}
+			}
+			Assert.assertEquals(numPacks, repo.getPackFiles().size());
+			checkObjects(repo, expected);
+			
+			repo.writeMultiPackIndex();
+			MultiPackIndex midx = new MultiPackIndex(new File(dir, "objects/pack/" + MultiPackIndex.FILE_NAME));
+			Assert.assertEquals(numPacks, midx.getPackNames().length);
+			Assert.assertEquals(expected.size(), midx.getObjectCount());
+			for (ObjectId id : expected.keySet())
+				Assert.assertNotEquals(-1, midx.findPosition(id));
+			Assert.assertEquals(-1, midx.findPosition(new RawId(new byte[ObjectId.NUM_BYTES])));
+			checkObjects(repo, expected);
+			
+			// A pack added after the index is searched on its own
+			BlobObject blob = new BlobObject(new byte[]{1, 2, 3});
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(blob);
+			}
+			expected.put(blob.getId(), blob);
+			checkObjects(repo, expected);
+			
+			// Rewriting the index covers the new pack too
+			repo.writeMultiPackIndex();
+			midx = new MultiPackIndex(new File(dir, "objects/pack/" + MultiPackIndex.FILE_NAME));
+			Assert.assertEquals(numPacks + 1, midx.getPackNames().length);
+			Assert.assertEquals(expected.size(), midx.getObjectCount());
+			checkObjects(repo, expected);
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+		
+		// Reopening reads the index file from the start
+		File otherDir = TestRepositories.newRepositoryDir();
+		try {
+			BlobObject blob = new BlobObject(new byte[]{4, 5, 6});
+			try (FileRepository repo = new FileRepository(otherDir)) {
+				try (ObjectInserter ins = repo.newInserter()) {
+					ins.insert(blob);
+				}
+				repo.writeMultiPackIndex();
+			}
+			try (FileRepository repo = new FileRepository(otherDir)) {
+				Assert.assertArrayEquals(blob.data, ((BlobObject)repo.readObject(blob.getId())).data);
+				Assert.assertEquals(Set.of(blob.getId()), repo.getIdsByPrefix(""));
+			}
+		} finally {
+			TestRepositories.deleteRecursively(otherDir);
+		}
+	}
+	
+	
+	// Checks that the repository has exactly the given objects, by reading them and listing IDs by prefix.
+	private static void checkObjects(FileRepository repo, Map<ObjectId,GitObject> expected) throws IOException {
+		for (Map.Entry<ObjectId,GitObject> entry : expected.entrySet())
+			Assert.assertArrayEquals(entry.getValue().toBytes(), repo.readObject(entry.getKey()).toBytes());
+		Assert.assertEquals(expected.keySet(), repo.getIdsByPrefix(""));
+		for (int i = 0; i < 20; i++) {
+			String prefix = Integer.toHexString(rand.nextInt(256) | 256).substring(1, 2 + rand.nextInt(2));
+			Set<ObjectId> matches = new HashSet<>();
+			for (ObjectId id : expected.keySet()) {
+				if (id.getHexString().startsWith(prefix))
+					matches.add(id);
+			}
+			Assert.assertEquals(matches, repo.getIdsByPrefix(prefix));
+		}
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,112 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of classes {@link ObjectIdSet}, {@link ObjectIdIntMap}, and {@link ObjectIdMap}.
+ */
+public final class ObjectIdSetTest {
+	
+	@Test public void testSetBasic() {
+		ObjectIdSet set = new ObjectIdSet();
+		ObjectId id = new RawId("0123456789abcdef0123456789abcdef01234567");
+		Assert.assertTrue(set.add(id));
+		Assert.assertFalse(set.add(new CommitId("0123456789ABCDEF0123456789ABCDEF01234567")));
+		Assert.assertEquals(1, set.size());
+		Assert.assertTrue(set.contains(new TreeId(id.getBytes())));
+		Assert.assertFalse(set.contains("0123456789abcdef0123456789abcdef01234567"));
+		byte[] b = new byte[30];
+		id.getBytes(b, 7);
+		Assert.assertTrue(set.contains(b, 7));
+		Assert.assertFalse(set.contains(b, 6));
+		Assert.assertEquals(Set.of(id), set);
+		Assert.assertTrue(set.remove(id));
+		Assert.assertFalse(set.remove(id));
+		Assert.assertTrue(set.isEmpty());
+	}
+	
+	
+	@Test public void testAgainstJdkRandomly() {
+		// Use few distinct leading bytes so that probe sequences collide and removals shift entries
+		List<ObjectId> pool = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			byte[] b = new byte[ObjectId.NUM_BYTES];
+			rand.nextBytes(b);
+			b[0] = b[1] = b[2] = 0;
+			b[3] = (byte)rand.nextInt(4);
+			pool.add(new RawId(b));
+		}
+		
+		for (int trial = 0; trial < 30; trial++) {
+			ObjectIdSet set = new ObjectIdSet(rand.nextInt(10));
+			ObjectIdIntMap intMap = new ObjectIdIntMap();
+			ObjectIdMap<String> map = new ObjectIdMap<>();
+			Set<ObjectId> expectSet = new HashSet<>();
+			Map<ObjectId,Integer> expectMap = new HashMap<>();
+			for (int i = 0; i < 3000; i++) {
+				ObjectId id = pool.get(rand.nextInt(pool.size()));
+				int op = rand.nextInt(10);
+				if (op < 5) {
+					int val = rand.nextInt();
+					Assert.assertEquals(expectSet.add(id), set.add(id));
+					Integer old = expectMap.put(id, val);
+					intMap.put(id, val);
+					Assert.assertEquals(old != null ? Integer.toString(old) : null, map.put(id, Integer.toString(val)));
+				} else if (op < 8) {
+					Assert.assertEquals(expectSet.remove(id), set.remove(id));
+					Integer old = expectMap.remove(id);
+					Assert.assertEquals(old != null, intMap.remove(id));
+					Assert.assertEquals(old != null ? Integer.toString(old) : null, map.remove(id));
+				} else if (op < 9) {
+					byte[] b = new byte[25];
+					id.getBytes(b, 5);
+					Integer val = expectMap.get(id);
+					Assert.assertEquals(expectSet.contains(id), set.contains(b, 5));
+					Assert.assertEquals(val != null ? val : -1, intMap.get(b, 5, -1));
+					Assert.assertEquals(val != null ? Integer.toString(val) : null, map.get(b, 5));
+				} else if (rand.nextInt(100) == 0) {
+					expectSet.clear();
+					expectMap.clear();
+					set.clear();
+					intMap.clear();
+					map.clear();
+				}
+				Assert.assertEquals(expectSet.size(), set.size());
+				Assert.assertEquals(expectMap.size(), intMap.size());
+				Assert.assertEquals(expectMap.size(), map.size());
+			}
+			
+			Assert.assertEquals(expectSet, set);
+			for (ObjectId id : pool) {
+				Integer val = expectMap.get(id);
+				Assert.assertEquals(expectSet.contains(id), set.contains(id));
+				Assert.assertEquals(val != null, intMap.containsKey(id));
+				Assert.assertEquals(val != null ? val : -1, intMap.get(id, -1));
+				Assert.assertEquals(val != null ? Integer.toString(val) : null, map.get(id));
+			}
+			Map<ObjectId,Integer> actual = new HashMap<>();
+			intMap.forEach((id, val) -> Assert.assertNull(actual.put(id, val)));
+			Assert.assertEquals(expectMap, actual);
+		}
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,140 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests writing objects into packs with {@link ObjectInserter}, including which objects it skips and when they become visible.
+ */
+public final class ObjectInserterTest {
+	
+	@Test public void testSkipsExistingObjects() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			BlobObject loose = randomBlob();
+			repo.writeObject(loose);
+			BlobObject packed = randomBlob();
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(packed);
+			}
+			Assert.assertEquals(1, repo.getPackFiles().size());
+			
+			// Only the new object is written, once
+			BlobObject blob = randomBlob();
+			try (ObjectInserter ins = repo.newInserter()) {
+				Assert.assertEquals(packed.getId(), ins.insert(packed));
+				Assert.assertEquals(loose.getId(), ins.insert(loose));
+				Assert.assertEquals(blob.getId(), ins.insert(blob));
+				Assert.assertEquals(blob.getId(), ins.insert(blob));
+				Assert.assertEquals(blob.getId(), ins.insert("blob", blob.data));
+			}
+			List<File> packFiles = repo.getPackFiles();
+			Assert.assertEquals(2, packFiles.size());
+			List<ObjectId> allPacked = new ArrayList<>();
+			for (File packFile : packFiles)
+				allPacked.addAll(repo.listObjectsInPackOrder(packFile));
+			Assert.assertEquals(2, allPacked.size());
+			Assert.assertTrue(allPacked.contains(packed.getId()));
+			Assert.assertTrue(allPacked.contains(blob.getId()));
+			Assert.assertArrayEquals(blob.data, ((BlobObject)repo.readObject(blob.getId())).data);
+			
+			// An inserter with nothing new writes no pack
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(packed);
+				ins.insert(loose);
+				ins.flush();
+			}
+			Assert.assertEquals(2, repo.getPackFiles().size());
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testFlushAndClose() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			// Closing without flushing installs the pack
+			BlobObject first = randomBlob();
+			ObjectInserter ins = repo.newInserter();
+			ins.insert(first);
+			Assert.assertFalse(repo.containsObject(first.getId()));
+			ins.close();
+			Assert.assertTrue(repo.containsObject(first.getId()));
+			Assert.assertEquals(1, repo.getPackFiles().size());
+			ins.close();  // No effect
+			Assert.assertEquals(1, repo.getPackFiles().size());
+			try {
+				ins.insert(randomBlob());
+				Assert.fail();
+			} catch (IllegalStateException e) {}  // Pass
+			try {
+				ins.flush();
+				Assert.fail();
+			} catch (IllegalStateException e) {}  // Pass
+			
+			// Each flush installs a pack, and closing afterward adds nothing
+			BlobObject second = randomBlob();
+			BlobObject third = randomBlob();
+			ins = repo.newInserter();
+			ins.insert(second);
+			ins.flush();
+			Assert.assertTrue(repo.containsObject(second.getId()));
+			ins.insert(third);
+			Assert.assertFalse(repo.containsObject(third.getId()));
+			ins.flush();
+			Assert.assertTrue(repo.containsObject(third.getId()));
+			Assert.assertEquals(3, repo.getPackFiles().size());
+			ins.close();
+			Assert.assertEquals(3, repo.getPackFiles().size());
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testRepositoryClosedFirst() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			BlobObject blob = randomBlob();
+			FileRepository repo = new FileRepository(dir);
+			ObjectInserter ins = repo.newInserter();
+			ins.insert(blob);
+			repo.close();
+			ins.close();  // Discards the pending pack
+			
+			File packDir = new File(dir, "objects/pack");
+			String[] names = packDir.list();
+			Assert.assertTrue(names == null || names.length == 0);
+			try (FileRepository reopened = new FileRepository(dir)) {
+				Assert.assertFalse(reopened.containsObject(blob.getId()));
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	private static BlobObject randomBlob() {
+		byte[] b = new byte[1 + rand.nextInt(1000)];
+		rand.nextBytes(b);
+		return new BlobObject(b);
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,77 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests reading objects through {@link ObjectStream}.
+ */
+public final class ObjectStreamTest {
+	
+	@Test public void testReadPastEnd() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			BlobObject loose = randomBlob();
+			repo.writeObject(loose);
+			BlobObject packed = randomBlob();
+			try (ObjectInserter ins = repo.newInserter()) {
+				ins.insert(packed);
+			}
+			checkReadPastEnd(repo, loose);
+			checkReadPastEnd(repo, packed);
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+		
+		try (MemoryRepository repo = new MemoryRepository()) {
+			BlobObject obj = randomBlob();
+			repo.writeObject(obj);
+			checkReadPastEnd(repo, obj);
+		}
+	}
+	
+	
+	// Reads the whole object, then checks that every further read reports the end without failing verification.
+	private static void checkReadPastEnd(Repository repo, BlobObject obj) throws IOException {
+		try (ObjectStream in = repo.openObjectStream(obj.getId())) {
+			Assert.assertEquals("blob", in.type);
+			Assert.assertEquals(obj.data.length, in.size);
+			byte[] buf = new byte[obj.data.length + 10];
+			int n = 0;
+			while (true) {
+				int k = in.read(buf, n, buf.length - n);
+				if (k == -1)
+					break;
+				n += k;
+			}
+			Assert.assertArrayEquals(obj.data, Arrays.copyOf(buf, n));
+			Assert.assertEquals(-1, in.read(buf));
+			Assert.assertEquals(-1, in.read(buf, 0, 1));
+			Assert.assertEquals(-1, in.read());
+			Assert.assertEquals(0, in.skip(5));
+		}
+	}
+	
+	
+	private static BlobObject randomBlob() {
+		byte[] b = new byte[rand.nextInt(3000)];
+		rand.nextBytes(b);
+		return new BlobObject(b);
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
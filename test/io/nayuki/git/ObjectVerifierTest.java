@@ -0,0 +1,141 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the verification policies of {@link ObjectVerifier} on a {@link FileRepository}.
+ */
+public final class ObjectVerifierTest {
+	
+	@Test public void testPackedPolicies() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<BlobObject> blobs = new ArrayList<>();
+			try (ObjectInserter ins = repo.newInserter()) {
+				for (int i = 0; i < 20; i++) {
+					byte[] b = new byte[rand.nextInt(1000)];
+					rand.nextBytes(b);
+					BlobObject obj = new BlobObject(b);
+					ins.insert(obj);
+					blobs.add(obj);
+				}
+			}
+			repo.getDeltaBaseCache().setMaxBytes(0);
+			ObjectVerifier ver = repo.getObjectVerifier();
+			Assert.assertEquals(ObjectVerifier.Policy.FULL, ver.getPolicy());
+			
+			for (ObjectVerifier.Policy policy : ObjectVerifier.Policy.values()) {
+				ver.setPolicy(policy);
+				long hashes = ver.getHashCount();
+				long crcs = ver.getCrcCount();
+				long skips = ver.getSkipCount();
+				for (int i = 0; i < 2; i++) {
+					for (BlobObject obj : blobs)
+						Assert.assertArrayEquals(obj.data, ((BlobObject)repo.readObject(obj.getId())).data);
+				}
+				int n = blobs.size();
+				switch (policy) {
+					case FULL  -> checkCounts(ver, hashes + n * 2, crcs        , skips        );
+					case ONCE  -> checkCounts(ver, hashes + n    , crcs        , skips + n    );
+					case CRC32 -> checkCounts(ver, hashes        , crcs + n * 2, skips + n * 2);
+					case NONE  -> checkCounts(ver, hashes        , crcs        , skips + n * 2);
+				}
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testCrcMismatch() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			BlobObject obj = new BlobObject(new byte[]{1, 2, 3});
+			try (FileRepository repo = new FileRepository(dir)) {
+				try (ObjectInserter ins = repo.newInserter()) {
+					ins.insert(obj);
+				}
+			}
+			
+			// Corrupt the only entry of the index's CRC table, which follows the header, fanout, and ID tables
+			File index = new File(dir, "objects/pack").listFiles((d, name) -> name.endsWith(".idx"))[0];
+			index.setWritable(true);
+			byte[] b = Files.readAllBytes(index.toPath());
+			b[8 + 256 * 4 + ObjectId.NUM_BYTES] ^= 1;
+			Files.write(index.toPath(), b);
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				Assert.assertArrayEquals(obj.data, ((BlobObject)repo.readObject(obj.getId())).data);  // FULL ignores the CRC
+				repo.getObjectVerifier().setPolicy(ObjectVerifier.Policy.CRC32);
+				try {
+					repo.readObject(obj.getId());
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testLooseHashMismatch() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			BlobObject obj = new BlobObject(new byte[]{4, 5, 6});
+			repo.writeObject(obj);
+			ObjectVerifier ver = repo.getObjectVerifier();
+			ver.setPolicy(ObjectVerifier.Policy.ONCE);
+			for (int i = 0; i < 3; i++)
+				repo.readObject(obj.getId());
+			checkCounts(ver, 1, 0, 2);
+			
+			// Copy the object's file to the name of a different ID
+			ObjectId wrongId = new BlobObject(new byte[]{7}).getId();
+			String hex = obj.getId().getHexString();
+			String wrongHex = wrongId.getHexString();
+			File wrongDir = new File(dir, "objects/" + wrongHex.substring(0, 2));
+			wrongDir.mkdirs();
+			Files.copy(new File(dir, "objects/" + hex.substring(0, 2) + "/" + hex.substring(2)).toPath(),
+				new File(wrongDir, wrongHex.substring(2)).toPath());
+			
+			for (ObjectVerifier.Policy policy : new ObjectVerifier.Policy[]{
+					ObjectVerifier.Policy.FULL, ObjectVerifier.Policy.ONCE, ObjectVerifier.Policy.CRC32}) {
+				ver.setPolicy(policy);
+				try {
+					repo.readObject(wrongId);
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+			}
+			ver.setPolicy(ObjectVerifier.Policy.NONE);
+			Assert.assertArrayEquals(obj.data, ((BlobObject)repo.readObject(wrongId)).data);
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	private static void checkCounts(ObjectVerifier ver, long hashes, long crcs, long skips) {
+		Assert.assertEquals(hashes, ver.getHashCount());
+		Assert.assertEquals(crcs, ver.getCrcCount());
+		Assert.assertEquals(skips, ver.getSkipCount());
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,163 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests indexing and completing pack files with {@link PackIndexer}.
+ */
+public final class PackIndexerTest {
+	
+	@Test public void testThinPackNonCanonicalBase() throws IOException {
+		// A tree with a zero-padded directory mode, as written by old versions of Git, which toBytes() doesn't reproduce
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		bout.write("040000 dir\0".getBytes(StandardCharsets.US_ASCII));
+		bout.write(randomHash());
+		byte[] baseData = bout.toByteArray();
+		ObjectId baseId = new RawId(GitObject.getSha1Hash(GitObject.addHeader("tree", baseData)));
+		
+		// The same tree with one more entry, as a delta that copies the whole base
+		bout.reset();
+		bout.write("100644 file\0".getBytes(StandardCharsets.US_ASCII));
+		bout.write(randomHash());
+		byte[] suffix = bout.toByteArray();
+		byte[] resultData = new byte[baseData.length + suffix.length];
+		System.arraycopy(baseData, 0, resultData, 0, baseData.length);
+		System.arraycopy(suffix, 0, resultData, baseData.length, suffix.length);
+		byte[] delta = TestPackBuilder.makeDelta(baseData, resultData);
+		ObjectId resultId = new RawId(GitObject.getSha1Hash(GitObject.addHeader("tree", resultData)));
+		
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			File baseFile = TestRepositories.writeLooseObject(dir, baseId, GitObject.addHeader("tree", baseData));
+			
+			// A thin pack whose only entry is a REF_DELTA against the loose tree
+			TestPackBuilder pack = new TestPackBuilder();
+			pack.addRefDelta(baseId, delta);
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			File packFile = new File(packDir, "pack-thin.pack");
+			Files.write(packFile.toPath(), pack.toBytes());
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				PackIndexer.indexPack(packFile, new File(packDir, "pack-thin.idx"), repo);
+			}
+			Assert.assertTrue(baseFile.delete());
+			
+			// Both objects must now be readable from the completed pack alone
+			try (FileRepository repo = new FileRepository(dir)) {
+				Assert.assertEquals(2, repo.getIdsByPrefix("").size());
+				try (ObjectStream in = repo.openObjectStream(baseId)) {
+					Assert.assertArrayEquals(baseData, in.readAllBytes());
+				}
+				try (ObjectStream in = repo.openObjectStream(resultId)) {
+					Assert.assertEquals("tree", in.type);
+					Assert.assertArrayEquals(resultData, in.readAllBytes());
+				}
+				Assert.assertEquals(2, ((TreeObject)repo.readObject(resultId)).entries.size());
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testRefDeltaCycle() throws IOException {
+		// A REF_DELTA entry whose base is itself, and two packs whose entries are each other's bases
+		byte[] delta = TestPackBuilder.makeDelta(new byte[]{1}, new byte[]{2});
+		ObjectId selfId = new RawId(randomHash());
+		ObjectId aId = new RawId(randomHash());
+		ObjectId bId = new RawId(randomHash());
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			Object[][] packs = {{"self", selfId, selfId}, {"a", aId, bId}, {"b", bId, aId}};
+			for (Object[] item : packs) {
+				TestPackBuilder pack = new TestPackBuilder();
+				pack.addRefDelta((ObjectId)item[2], delta);
+				Files.write(new File(packDir, "pack-" + item[0] + ".pack").toPath(), pack.toBytes());
+				Files.write(new File(packDir, "pack-" + item[0] + ".idx").toPath(), pack.toIndexBytes((ObjectId)item[1]));
+			}
+			
+			// Each read must fail cleanly instead of overflowing the stack
+			try (FileRepository repo = new FileRepository(dir)) {
+				for (ObjectId id : new ObjectId[]{selfId, aId, bId}) {
+					try {
+						repo.readObject(id);
+						Assert.fail();
+					} catch (GitFormatException e) {}  // Pass
+					try {
+						repo.openObjectStream(id).close();
+						Assert.fail();
+					} catch (GitFormatException e) {}  // Pass
+					try {
+						repo.readObjectInfo(id);
+						Assert.fail();
+					} catch (GitFormatException e) {}  // Pass
+				}
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testLongDeltaChain() throws IOException {
+		// Longer than the chains that Git writes, which a recursive reader couldn't follow
+		int length = 5000;
+		TestPackBuilder pack = new TestPackBuilder();
+		ObjectId[] ids = new ObjectId[length];
+		byte[] prev = null;
+		long prevOffset = -1;
+		for (int i = 0; i < length; i++) {
+			byte[] data = ("Revision " + i + "\n").repeat(3).getBytes(StandardCharsets.US_ASCII);
+			ids[i] = new RawId(GitObject.getSha1Hash(GitObject.addHeader("blob", data)));
+			prevOffset = i == 0 ? pack.addWhole("blob", data) : pack.addOffsetDelta(prevOffset, TestPackBuilder.makeDelta(prev, data));
+			prev = data;
+		}
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			Files.write(new File(packDir, "pack-long.pack").toPath(), pack.toBytes());
+			Files.write(new File(packDir, "pack-long.idx").toPath(), pack.toIndexBytes(ids));
+			try (FileRepository repo = new FileRepository(dir)) {
+				repo.getDeltaBaseCache().setMaxBytes(0);  // Nothing cached, so every read follows the whole chain
+				ObjectId last = ids[length - 1];
+				Assert.assertArrayEquals(prev, ((BlobObject)repo.readObject(last)).data);
+				try (ObjectStream in = repo.openObjectStream(last)) {
+					Assert.assertArrayEquals(prev, in.readAllBytes());
+				}
+				Assert.assertEquals(prev.length, repo.readObjectInfo(last).size);
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	private static byte[] randomHash() {
+		byte[] result = new byte[ObjectId.NUM_BYTES];
+		rand.nextBytes(result);
+		return result;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
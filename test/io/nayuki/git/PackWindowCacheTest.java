@@ -0,0 +1,138 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the functionality of class {@link PackWindowCache}, and reading pack files through mapped windows.
+ */
+public final class PackWindowCacheTest {
+	
+	@Test public void testWindowsAndEviction() throws IOException {
+		File file = File.createTempFile("git-test-", ".pack");
+		try {
+			byte[] data = new byte[10000];
+			rand.nextBytes(data);
+			Files.write(file.toPath(), data);
+			try (FileChannel ch = FileChannel.open(file.toPath())) {
+				PackWindowCache cache = new PackWindowCache(4096, 0);
+				Assert.assertNull(cache.get(null, ch, 0));  // Disabled
+				cache.setMaxBytes(8192);
+				
+				ByteBuffer win = cache.get(null, ch, 5000);
+				Assert.assertEquals(5000 - 4096, win.position());
+				Assert.assertEquals(4096, win.limit());
+				byte[] b = new byte[win.remaining()];
+				win.get(b);
+				Assert.assertArrayEquals(Arrays.copyOfRange(data, 5000, 8192), b);
+				Assert.assertEquals(1, cache.getMissCount());
+				
+				win = cache.get(null, ch, 9999);  // Short last window
+				Assert.assertEquals(10000 - 8192, win.limit());
+				Assert.assertEquals(data[9999], win.get());
+				Assert.assertNull(cache.get(null, ch, 10000));  // End of file
+				cache.get(null, ch, 4096);
+				Assert.assertEquals(1, cache.getHitCount());
+				Assert.assertEquals(4096 + 1808, cache.getCurrentBytes());
+				
+				cache.get(null, ch, 0);  // Evicts the last window, which is the least recently used
+				Assert.assertEquals(1, cache.getEvictionCount());
+				Assert.assertEquals(2, cache.getWindowCount());
+				cache.get(null, ch, 9000);
+				Assert.assertEquals(2, cache.getEvictionCount());
+				
+				cache.setMaxBytes(1000);  // Smaller than a full window
+				Assert.assertEquals(0, cache.getCurrentBytes());
+				Assert.assertNull(cache.get(null, ch, 100));
+				cache.setWindowSize(512);
+				Assert.assertEquals(512, cache.get(null, ch, 100).limit());
+			}
+		} finally {
+			file.delete();
+		}
+	}
+	
+	
+	@Test public void testReadThroughSmallWindows() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			// Incompressible bases, so that entries span windows, each followed by a chain of deltas that
+			// alternate between OFS_DELTA and REF_DELTA and sometimes insert enough data to span windows too
+			List<BlobObject> blobs = new ArrayList<>();
+			TestPackBuilder pack = new TestPackBuilder();
+			for (int i = 0; i < 10; i++) {
+				byte[] data = new byte[20000];
+				rand.nextBytes(data);
+				BlobObject prev = new BlobObject(data);
+				long prevOffset = pack.addWhole("blob", data);
+				blobs.add(prev);
+				for (int j = 0; j < 8; j++) {
+					byte[] b = prev.data.clone();
+					if (j % 3 == 2) {
+						byte[] insert = new byte[6000];
+						rand.nextBytes(insert);
+						System.arraycopy(insert, 0, b, 7000, insert.length);
+					} else {
+						for (int k = 0; k < 10; k++)
+							b[rand.nextInt(b.length)] = (byte)rand.nextInt();
+					}
+					BlobObject obj = new BlobObject(b);
+					byte[] delta = TestPackBuilder.makeDelta(prev.data, b);
+					if (j % 2 == 0)
+						prevOffset = pack.addOffsetDelta(prevOffset, delta);
+					else
+						prevOffset = pack.addRefDelta(prev.getId(), delta);
+					blobs.add(obj);
+					prev = obj;
+				}
+			}
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			File packFile = new File(packDir, "pack-test.pack");
+			Files.write(packFile.toPath(), pack.toBytes());
+			PackIndexer.indexPack(packFile, new File(packDir, "pack-test.idx"), null);
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				PackWindowCache cache = repo.getPackWindowCache();
+				cache.setWindowSize(4096);
+				cache.setMaxBytes(4096 * 3);
+				repo.getDeltaBaseCache().setMaxBytes(0);  // Inflate every delta chain from the windows
+				for (int i = 0; i < 2; i++) {
+					for (BlobObject obj : blobs) {
+						Assert.assertArrayEquals(obj.data, ((BlobObject)repo.readObject(obj.getId())).data);
+						Assert.assertEquals(obj.data.length, repo.readObjectInfo(obj.getId()).size);
+						try (ObjectStream in = repo.openObjectStream(obj.getId())) {
+							Assert.assertArrayEquals(obj.data, in.readAllBytes());
+						}
+					}
+				}
+				Assert.assertTrue(cache.getHitCount() > 0);
+				Assert.assertTrue(cache.getEvictionCount() > 0);
+				Assert.assertTrue(cache.getCurrentBytes() <= 4096 * 3);
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
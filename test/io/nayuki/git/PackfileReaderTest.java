@@ -78,6 +78,26 @@ public final class PackfileReaderTest {
 	
 	
 	
+	@Test public void testEncodeTypeAndSize() throws IOException {
+		Object[][] cases = {
+			{0, 0x00L, bytes(0x00)},
+			{2, 0x08L, bytes(0x28)},
+			{3, 0x0FL, bytes(0x3F)},
+			{1, 0x10L, bytes(0x90, 0x01)},
+			{7, 0x7FFL, bytes(0xFF, 0x7F)},
+			{5, 0x800L, bytes(0xD0, 0x80, 0x01)},
+			{4, 0x1FFFFFFFFFFFFFFFL, bytes(0xCF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01)},
+		};
+		for (Object[] cs : cases) {
+			byte[] b = PackfileReader.encodeTypeAndSize((int)cs[0], (long)cs[1]);
+			Assert.assertArrayEquals((byte[])cs[2], b);
+			DataInput in = new DataInputStream(new ByteArrayInputStream(b));
+			Assert.assertEquals((long)cs[1] << 3 | (int)cs[0], PackfileReader.decodeTypeAndSize(in));
+		}
+	}
+	
+	
+	
 	@Test public void testDecodeOffsetDelta() throws IOException {
 		Object[][] cases = {
 			{              0x00L, bytes(0x00)},
@@ -185,6 +205,31 @@ public final class PackfileReaderTest {
 	}
 	
 	
+	@Test public void testApplyDelta() throws IOException {
+		byte[] base = "Hello, world".getBytes("US-ASCII");
+		byte[] delta = bytes(
+			12, 11,                     // Base length, result length
+			0x91, 0x07, 0x05,           // Copy offset 7, length 5
+			0x02, ' ', 'i',             // Insert 2 bytes
+			0x90, 0x04);                // Copy offset 0, length 4
+		Assert.assertArrayEquals("world iHell".getBytes("US-ASCII"), PackfileReader.applyDelta(base, delta));
+		
+		byte[][] invalid = {
+			bytes(11, 0),                     // Base length mismatch
+			bytes(12, 3, 0x00),               // Reserved instruction
+			bytes(12, 3, 0x91, 0x0A, 0x03),   // Copy out of bounds
+			bytes(12, 3, 0x02, 'a', 'b'),     // Result too short
+			bytes(12, 1, 0x02, 'a', 'b'),     // Result too long
+		};
+		for (byte[] cs : invalid) {
+			try {
+				PackfileReader.applyDelta(base, cs);
+				Assert.fail();
+			} catch (GitFormatException e) {}  // Pass
+		}
+	}
+	
+	
 	
 	private static byte[] bytes(int... x) {
 		byte[] b = new byte[x.length];
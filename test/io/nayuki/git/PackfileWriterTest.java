@@ -0,0 +1,133 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests writing pack files with {@link PackfileWriter} and reading them back.
+ */
+public final class PackfileWriterTest {
+	
+	@Test public void testWriteAndRead() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			List<GitObject> objects = new ArrayList<>();
+			BlobObject blob = new BlobObject(randomBytes(5000));
+			TreeObject tree = new TreeObject();
+			tree.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "file", blob.getId().getBytes()));
+			CommitObject commit = new CommitObject();
+			commit.tree = tree.getId();
+			commit.message = "Message\n";
+			commit.authorName = commit.committerName = "Name";
+			commit.authorEmail = commit.committerEmail = "name@example.com";
+			commit.authorTime = commit.committerTime = 1500000000L;
+			objects.add(blob);
+			objects.add(tree);
+			objects.add(commit);
+			
+			File packFile;
+			try (PackfileWriter writer = new PackfileWriter(repo)) {
+				Assert.assertEquals(blob.getId(), writer.writeObject(blob));
+				byte[] treeData = (byte[])GitObject.splitHeader(tree.toBytes())[1];
+				Assert.assertEquals(tree.getId(), writer.writeObject("tree", treeData.length, new ByteArrayInputStream(treeData)));
+				Assert.assertEquals(commit.getId(), writer.writeObject("commit", (byte[])GitObject.splitHeader(commit.toBytes())[1]));
+				for (int i = 0; i < 3; i++) {  // Duplicates through each method
+					writer.writeObject(blob);
+					writer.writeObject("blob", blob.data);
+					writer.writeObject("blob", blob.data.length, new ByteArrayInputStream(blob.data));
+				}
+				Assert.assertEquals(3, writer.getObjectCount());
+				Assert.assertTrue(writer.containsObject(commit.getId()));
+				packFile = writer.finish();
+			}
+			Assert.assertTrue(packFile.isFile());
+			Assert.assertEquals(3, repo.getIdsByPrefix("").size());
+			for (GitObject obj : objects)
+				Assert.assertArrayEquals(obj.toBytes(), repo.readObject(obj.getId()).toBytes());
+			
+			// Writing the same objects once each must produce the identical pack, whose name is its checksum
+			File otherDir = TestRepositories.newRepositoryDir();
+			try (FileRepository other = new FileRepository(otherDir)) {
+				try (PackfileWriter writer = new PackfileWriter(other)) {
+					for (GitObject obj : objects)
+						writer.writeObject(obj);
+					Assert.assertEquals(packFile.getName(), writer.finish().getName());
+				}
+			} finally {
+				TestRepositories.deleteRecursively(otherDir);
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testDuplicateWithKnownIdSkipsData() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			try (PackfileWriter writer = new PackfileWriter(repo)) {
+				byte[] data = randomBytes(1000);
+				ObjectId id = writer.writeObject("blob", data);
+				InputStream unreadable = new InputStream() {
+					public int read() throws IOException {
+						throw new AssertionError();
+					}
+				};
+				Assert.assertEquals(id, writer.writeObject(id, "blob", data.length, unreadable));
+				Assert.assertEquals(1, writer.getObjectCount());
+			}
+			Assert.assertEquals(0, repo.getPackFiles().size());  // Closed without finishing
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	@Test public void testInvalid() throws IOException {
+		File dir = TestRepositories.newRepositoryDir();
+		try (FileRepository repo = new FileRepository(dir)) {
+			try (PackfileWriter writer = new PackfileWriter(repo)) {
+				for (String type : new String[]{"", "blob ", "Blob", "x".repeat(100)}) {
+					try {
+						writer.writeObject(type, new byte[1]);
+						Assert.fail();
+					} catch (IllegalArgumentException e) {}  // Pass
+				}
+				try {
+					writer.writeObject("blob", 10, new ByteArrayInputStream(new byte[5]));
+					Assert.fail();
+				} catch (IOException e) {}  // Pass
+				Assert.assertEquals(0, writer.getObjectCount());
+				Assert.assertNull(writer.finish());
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	private static byte[] randomBytes(int len) {
+		byte[] result = new byte[len];
+		rand.nextBytes(result);
+		return result;
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
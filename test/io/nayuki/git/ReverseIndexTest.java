@@ -0,0 +1,133 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Tests the reverse index of pack files: writing ".rev" files with {@link FileRepository#writeReverseIndexes()},
+ * and the offset lookups that use either the mapped file or a reverse index computed from the pack's index.
+ */
+public final class ReverseIndexTest {
+	
+	@Test public void testWriteAndLookUp() throws IOException {
+		// A pack of whole objects and deltas of varying sizes, whose entry offsets and IDs are known
+		TestPackBuilder builder = new TestPackBuilder();
+		List<ObjectId> ids = new ArrayList<>();
+		List<Long> offsets = new ArrayList<>();
+		byte[] prev = null;
+		long prevOffset = -1;
+		for (int i = 0; i < 60; i++) {
+			byte[] data;
+			long offset;
+			if (prev == null || rand.nextInt(3) == 0) {
+				data = new byte[1 + rand.nextInt(3000)];
+				rand.nextBytes(data);
+				offset = builder.addWhole("blob", data);
+			} else {
+				data = Arrays.copyOf(prev, prev.length + 1 + rand.nextInt(100));  // Distinct from every earlier object
+				byte[] delta = TestPackBuilder.makeDelta(prev, data);
+				offset = rand.nextBoolean() ? builder.addOffsetDelta(prevOffset, delta) : builder.addRefDelta(ids.get(ids.size() - 1), delta);
+			}
+			ids.add(new RawId(GitObject.getSha1Hash(GitObject.addHeader("blob", data))));
+			offsets.add(offset);
+			prev = data;
+			prevOffset = offset;
+		}
+		byte[] packData = builder.toBytes();
+		
+		File dir = TestRepositories.newRepositoryDir();
+		try {
+			File packDir = new File(dir, "objects/pack");
+			packDir.mkdir();
+			File packFile = new File(packDir, "pack-test.pack");
+			Files.write(packFile.toPath(), packData);
+			PackIndexer.indexPack(packFile, new File(packDir, "pack-test.idx"), null);
+			File revFile = new File(packDir, "pack-test.rev");
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				checkLookups(repo, packFile, ids, offsets, packData.length);  // Computed from the index
+				Assert.assertEquals(1, repo.writeReverseIndexes());
+				Assert.assertEquals(0, repo.writeReverseIndexes());
+				checkLookups(repo, packFile, ids, offsets, packData.length);
+			}
+			Assert.assertArrayEquals(expectedReverseIndex(ids, packData), Files.readAllBytes(revFile.toPath()));
+			
+			try (FileRepository repo = new FileRepository(dir)) {
+				checkLookups(repo, packFile, ids, offsets, packData.length);  // Mapped from the file
+				Assert.assertEquals(0, repo.writeReverseIndexes());
+			}
+			
+			// A file for a different pack is rejected, which shows that the file is used
+			byte[] rev = Files.readAllBytes(revFile.toPath());
+			rev[rev.length - ObjectId.NUM_BYTES * 2] ^= 1;
+			Assert.assertTrue(revFile.delete());
+			Files.write(revFile.toPath(), rev);
+			try (FileRepository repo = new FileRepository(dir)) {
+				try {
+					repo.getObjectIdAtOffset(packFile, offsets.get(0));
+					Assert.fail();
+				} catch (GitFormatException e) {}  // Pass
+			}
+		} finally {
+			TestRepositories.deleteRecursively(dir);
+		}
+	}
+	
+	
+	// Checks the offset lookups of the pack against the given IDs and offsets of its entries, in pack order.
+	private static void checkLookups(FileRepository repo, File packFile, List<ObjectId> ids, List<Long> offsets, long packLength) throws IOException {
+		Assert.assertEquals(ids, repo.listObjectsInPackOrder(packFile));
+		long total = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			long offset = offsets.get(i);
+			Assert.assertEquals(ids.get(i), repo.getObjectIdAtOffset(packFile, offset));
+			Assert.assertNull(repo.getObjectIdAtOffset(packFile, offset + 1));  // In the middle of the entry
+			long end = i + 1 < ids.size() ? offsets.get(i + 1) : packLength - ObjectId.NUM_BYTES;  // The last entry stops at the trailer
+			long size = repo.getDiskSize(ids.get(i));
+			Assert.assertEquals(end - offset, size);
+			total += size;
+		}
+		Assert.assertEquals(packLength - 12 - ObjectId.NUM_BYTES, total);
+		Assert.assertNull(repo.getObjectIdAtOffset(packFile, 0));
+		Assert.assertNull(repo.getObjectIdAtOffset(packFile, packLength));
+	}
+	
+	
+	// Returns the bytes of the ".rev" file in Git's format for a pack with the given entry IDs in pack order.
+	private static byte[] expectedReverseIndex(List<ObjectId> ids, byte[] packData) throws IOException {
+		List<ObjectId> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted);  // The order of the index file
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bout);
+		out.writeBytes("RIDX");
+		out.writeInt(1);  // Version
+		out.writeInt(1);  // SHA-1
+		for (ObjectId id : ids)
+			out.writeInt(sorted.indexOf(id));
+		out.write(packData, packData.length - ObjectId.NUM_BYTES, ObjectId.NUM_BYTES);
+		out.write(GitObject.getSha1Hash(bout.toByteArray()));
+		return bout.toByteArray();
+	}
+	
+	
+	private static Random rand = new Random();
+	
+}
@@ -0,0 +1,196 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * Builds pack file data entry by entry, including deltified entries, which PackfileWriter never writes.
+ * Use PackIndexer to make the index, or {@link #toIndexBytes(ObjectId...)} for packs that it can't index.
+ */
+final class TestPackBuilder {
+	
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	private int count = 0;
+	private final List<Long> entryOffsets = new ArrayList<>();
+	
+	
+	public TestPackBuilder() {
+		out.writeBytes(new byte[]{'P', 'A', 'C', 'K', 0, 0, 0, 2, 0, 0, 0, 0});
+	}
+	
+	
+	// Appends a whole object, and returns the entry's offset.
+	public long addWhole(String type, byte[] data) throws IOException {
+		int typeIndex = Arrays.asList("commit", "tree", "blob", "tag").indexOf(type) + 1;
+		long result = out.size();
+		entryOffsets.add(result);
+		out.write(PackfileReader.encodeTypeAndSize(typeIndex, data.length));
+		addCompressed(data);
+		return result;
+	}
+	
+	
+	// Appends an OFS_DELTA entry whose base is the entry at the given offset, and returns the entry's offset.
+	public long addOffsetDelta(long baseOffset, byte[] delta) throws IOException {
+		long result = out.size();
+		entryOffsets.add(result);
+		out.write(PackfileReader.encodeTypeAndSize(6, delta.length));
+		long n = result - baseOffset;
+		byte[] buf = new byte[10];
+		int i = buf.length - 1;
+		buf[i] = (byte)(n & 0x7F);
+		while ((n >>>= 7) != 0) {
+			n--;
+			i--;
+			buf[i] = (byte)(0x80 | (n & 0x7F));
+		}
+		out.write(buf, i, buf.length - i);
+		addCompressed(delta);
+		return result;
+	}
+	
+	
+	// Appends a REF_DELTA entry whose base is the object with the given ID, and returns the entry's offset.
+	public long addRefDelta(ObjectId baseId, byte[] delta) throws IOException {
+		long result = out.size();
+		entryOffsets.add(result);
+		out.write(PackfileReader.encodeTypeAndSize(7, delta.length));
+		out.write(baseId.getBytes());
+		addCompressed(delta);
+		return result;
+	}
+	
+	
+	// Returns a version 2 index file for the pack data from toBytes(), where the given IDs are those of the entries in
+	// order. The IDs are not checked, so that tests can make packs that this library would never write, such as cycles.
+	public byte[] toIndexBytes(ObjectId... ids) {
+		if (ids.length != count)
+			throw new IllegalArgumentException();
+		byte[] pack = toBytes();
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparing(i -> ids[i]));
+		
+		ByteBuffer buf = ByteBuffer.allocate(8 + 256 * 4 + count * (ObjectId.NUM_BYTES + 8) + ObjectId.NUM_BYTES * 2);
+		buf.putInt(0xFF744F63).putInt(2);
+		for (int b = 0, j = 0; b < 256; b++) {
+			while (j < count && (ids[order[j]].getByte(0) & 0xFF) <= b)
+				j++;
+			buf.putInt(j);
+		}
+		for (int i : order)
+			buf.put(ids[i].getBytes());
+		for (int i : order) {
+			long start = entryOffsets.get(i);
+			long end = i + 1 < count ? entryOffsets.get(i + 1) : pack.length - ObjectId.NUM_BYTES;
+			CRC32 crc = new CRC32();
+			crc.update(pack, (int)start, (int)(end - start));
+			buf.putInt((int)crc.getValue());
+		}
+		for (int i : order)
+			buf.putInt((int)(long)entryOffsets.get(i));
+		buf.put(pack, pack.length - ObjectId.NUM_BYTES, ObjectId.NUM_BYTES);
+		buf.put(GitObject.getSha1Hash(Arrays.copyOf(buf.array(), buf.position())));
+		return buf.array();
+	}
+	
+	
+	// Returns the complete pack file data, with the object count and trailer checksum.
+	public byte[] toBytes() {
+		byte[] b = out.toByteArray();
+		b[8] = (byte)(count >>> 24);
+		b[9] = (byte)(count >>> 16);
+		b[10] = (byte)(count >>> 8);
+		b[11] = (byte)count;
+		byte[] result = Arrays.copyOf(b, b.length + ObjectId.NUM_BYTES);
+		System.arraycopy(GitObject.getSha1Hash(b), 0, result, b.length, ObjectId.NUM_BYTES);
+		return result;
+	}
+	
+	
+	private void addCompressed(byte[] data) throws IOException {
+		try (OutputStream dout = new DeflaterOutputStream(out)) {  // Closing a byte array stream has no effect
+			dout.write(data);
+		}
+		count++;
+	}
+	
+	
+	// Returns a delta that turns the given base into the given target, which copies their
+	// common prefix and suffix from the base and inserts the bytes in between.
+	public static byte[] makeDelta(byte[] base, byte[] target) {
+		int prefix = 0;
+		while (prefix < base.length && prefix < target.length && base[prefix] == target[prefix])
+			prefix++;
+		int suffix = 0;
+		while (suffix < base.length - prefix && suffix < target.length - prefix
+				&& base[base.length - 1 - suffix] == target[target.length - 1 - suffix])
+			suffix++;
+		
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		writeVarint(result, base.length);
+		writeVarint(result, target.length);
+		writeCopy(result, 0, prefix);
+		for (int i = prefix; i < target.length - suffix; ) {
+			int n = Math.min(target.length - suffix - i, 0x7F);
+			result.write(n);
+			result.write(target, i, n);
+			i += n;
+		}
+		writeCopy(result, base.length - suffix, suffix);
+		return result.toByteArray();
+	}
+	
+	
+	private static void writeVarint(ByteArrayOutputStream out, long x) {
+		for (; x >= 0x80; x >>>= 7)
+			out.write((int)(x & 0x7F) | 0x80);
+		out.write((int)x);
+	}
+	
+	
+	// Writes copy instructions of at most 0xFFFF bytes each, which avoids the special case of a zero size.
+	private static void writeCopy(ByteArrayOutputStream out, int off, int len) {
+		while (len > 0) {
+			int n = Math.min(len, 0xFFFF);
+			int op = 0x80;
+			ByteArrayOutputStream args = new ByteArrayOutputStream();
+			for (int i = 0; i < 4; i++) {
+				int b = (off >>> (i * 8)) & 0xFF;
+				if (b != 0) {
+					op |= 1 << i;
+					args.write(b);
+				}
+			}
+			for (int i = 0; i < 2; i++) {
+				int b = (n >>> (i * 8)) & 0xFF;
+				if (b != 0) {
+					op |= 0x10 << i;
+					args.write(b);
+				}
+			}
+			out.write(op);
+			out.writeBytes(args.toByteArray());
+			off += n;
+			len -= n;
+		}
+	}
+	
+}
@@ -0,0 +1,118 @@
+/* 
+ * Git library
+ * Copyright (c) Project Nayuki
+ * 
+ * https://www.nayuki.io/page/git-library-java
+ */
+
+package io.nayuki.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+
+/**
+ * Helper functions for tests that create temporary on-disk repositories.
+ */
+final class TestRepositories {
+	
+	// Returns a new temporary directory containing an empty bare repository, which the caller must delete.
+	public static File newRepositoryDir() throws IOException {
+		File dir = Files.createTempDirectory("git-test-").toFile();
+		new File(dir, "objects").mkdir();
+		Files.writeString(new File(dir, "config").toPath(), "[core]\n\trepositoryformatversion = 0\n\tbare = true\n");
+		return dir;
+	}
+	
+	
+	// Writes the given raw object bytes (including header) as a loose object file, and returns the file. The ID is
+	// not checked, so that tests can store data that this library would never write, such as non-canonical trees.
+	public static File writeLooseObject(File repoDir, ObjectId id, byte[] raw) throws IOException {
+		String hex = id.getHexString();
+		File file = new File(repoDir, "objects/" + hex.substring(0, 2) + "/" + hex.substring(2));
+		file.getParentFile().mkdirs();
+		try (OutputStream out = new DeflaterOutputStream(Files.newOutputStream(file.toPath()))) {
+			out.write(raw);
+		}
+		return file;
+	}
+	
+	
+	// Returns new random objects forming a history of the given number of commits, each object after the objects it
+	// refers to. Each commit has 1 to 2 earlier commits as parents, except the first and a second root, and the commit
+	// in the middle is an octopus merge of 4 parents. Commit times mostly increase but are sometimes skewed backward.
+	// The trees have a subdirectory, and blobs are often shared between commits. The last object is an annotated tag.
+	public static List<GitObject> newRandomHistory(int numCommits, Random rand) {
+		List<GitObject> result = new ArrayList<>();
+		List<CommitObject> commits = new ArrayList<>();
+		List<BlobObject> blobs = new ArrayList<>();
+		for (int i = 0; i < numCommits; i++) {
+			BlobObject blob = new BlobObject(("Revision " + i + " " + rand.nextLong() + "\n").getBytes(StandardCharsets.UTF_8));
+			result.add(blob);
+			blobs.add(blob);
+			BlobObject shared = blobs.get(rand.nextInt(blobs.size()));
+			TreeObject dir = new TreeObject();
+			dir.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "shared", shared.getId().getBytes()));
+			result.add(dir);
+			TreeObject tree = new TreeObject();
+			tree.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.DIRECTORY, "dir", dir.getId().getBytes()));
+			tree.entries.add(new TreeObject.Entry(TreeObject.Entry.Type.NORMAL_FILE, "file", blob.getId().getBytes()));
+			result.add(tree);
+			
+			CommitObject commit = new CommitObject();
+			commit.tree = tree.getId();
+			int numParents;
+			if (i == 0 || i == 1)
+				numParents = 0;
+			else if (i == numCommits / 2)
+				numParents = Math.min(4, i);
+			else
+				numParents = rand.nextInt(4) == 0 ? 2 : 1;
+			while (commit.parents.size() < numParents) {
+				CommitId parent = commits.get(i - 1 - rand.nextInt(Math.min(i, 6))).getId();
+				if (!commit.parents.contains(parent))
+					commit.parents.add(parent);
+			}
+			commit.authorName = commit.committerName = "Name";
+			commit.authorEmail = commit.committerEmail = "name@example.com";
+			commit.authorTime = commit.committerTime = 1500000000L + i * 1000L - (rand.nextInt(8) == 0 ? 5000 : 0);
+			commit.message = "Commit " + i + "\n";
+			result.add(commit);
+			commits.add(commit);
+		}
+		
+		TagObject tag = new TagObject();
+		CommitObject target = commits.get(numCommits * 3 / 4);
+		tag.target = target.getId();
+		tag.targetType = "commit";
+		tag.tagName = "v1";
+		tag.message = "Tag\n";
+		tag.taggerName = "Name";
+		tag.taggerEmail = "name@example.com";
+		tag.taggerTime = (int)target.committerTime;
+		result.add(tag);
+		return result;
+	}
+	
+	
+	// Deletes the given file, or the given directory and everything in it.
+	public static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children)
+				deleteRecursively(child);
+		}
+		file.delete();
+	}
+	
+	
+	private TestRepositories() {}
+	
+}